@@ -0,0 +1,303 @@
+/*******************************************************************************
+ * Copyright (c) 2017-2018 Julian Rozentur
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+package testablejava.benchgen;
+
+import org.objectweb.asm.*;
+import testablejava.CallContext;
+import testablejava.RecordedStubs;
+
+import java.io.*;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.stream.IntStream;
+
+import static java.util.stream.Collectors.joining;
+import static java.util.stream.Collectors.toList;
+
+/**
+ * generates the source of a JMH benchmark measuring a method of a class compiled with Testable Java, without
+ * the cost of what it calls. The redirector fields the method reads (its outgoing calls - database, clock, I/O)
+ * are found in its bytecode, including lambdas it defines; the benchmark calls the method once at setup
+ * to record their results with RecordedStubs, then measures it with the recorded results replayed:
+ *
+ *   java -cp testablejava-benchgen.jar:testablejava-helpers.jar:byte-buddy.jar:classes \
+ *        testablejava.benchgen.BenchmarkGenerator com.acme.Pricing quote CYCLE src/jmh/java
+ *
+ * writes src/jmh/java/com/acme/Pricing_quoteBenchmark.java, in the package of the class, so package-private
+ * methods can be called. Arguments of the method, and the instance for an instance method without a no-arg
+ * constructor, are left for the developer to set in setUp. Calls made by anonymous and local classes
+ * of the method are not stubbed
+ */
+public final class BenchmarkGenerator {
+
+    static final String BENCHMARK_SUFFIX = "Benchmark";
+
+    final Class<?> type;
+    final Method method;
+    final RecordedStubs.Replay replay;
+
+    /**
+     * @param type class declaring the method, compiled with Testable Java
+     * @param methodName not private, not overloaded
+     * @param replay how recorded results are answered during measurement
+     */
+    public BenchmarkGenerator(Class<?> type, String methodName, RecordedStubs.Replay replay) {
+        this.type = type;
+        this.method = method(type, methodName);
+        this.replay = replay;
+        if (type.getCanonicalName() == null)
+            throw new IllegalArgumentException(type.getName() + " cannot be named in source");
+    }
+
+    static Method method(Class<?> type, String methodName) {
+        List<Method> methods = Arrays.stream(type.getDeclaredMethods()).
+                filter(method -> method.getName().equals(methodName) && !method.isSynthetic()).
+                collect(toList());
+        if (methods.isEmpty())
+            throw new IllegalArgumentException(type.getName() + " has no method " + methodName);
+        if (methods.size() > 1)
+            throw new IllegalArgumentException(type.getName() + "." + methodName + " is overloaded");
+        Method ret = methods.get(0);
+        if (Modifier.isPrivate(ret.getModifiers()))
+            throw new IllegalArgumentException(type.getName() + "." + methodName + " is private");
+        return ret;
+    }
+
+    /**
+     * @return redirector fields read by the method and lambdas it defines, by declaring class (the top-level class),
+     * in order of first use
+     */
+    public Map<Class<?>, List<String>> redirectorFields() throws IOException {
+        Map<String, Set<String>> fieldsByOwner = new LinkedHashMap<>(); //internal name -> field names
+        Set<String> scanned = new HashSet<>();
+        Deque<String> toScan = new ArrayDeque<>(); //name + descriptor of methods of the declaring class
+        String owner = Type.getInternalName(type);
+        toScan.add(method.getName() + Type.getMethodDescriptor(method));
+
+        ClassReader classReader;
+        try (InputStream in = type.getResourceAsStream("/" + owner + ".class")) {
+            if (in == null)
+                throw new FileNotFoundException("class file of " + type.getName());
+            classReader = new ClassReader(in);
+        }
+
+        while (!toScan.isEmpty()) {
+            String nameAndDescriptor = toScan.removeFirst();
+            if (!scanned.add(nameAndDescriptor))
+                continue;
+            classReader.accept(new ClassVisitor(Opcodes.ASM5) {
+                @Override
+                public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+                    if (!nameAndDescriptor.equals(name + descriptor))
+                        return null;
+                    return new MethodVisitor(Opcodes.ASM5) {
+                        @Override
+                        public void visitFieldInsn(int opcode, String fieldOwner, String fieldName, String fieldDescriptor) {
+                            if (opcode == Opcodes.GETSTATIC && fieldName.startsWith("$$"))
+                                fieldsByOwner.computeIfAbsent(fieldOwner, k -> new LinkedHashSet<>()).add(fieldName);
+                        }
+
+                        @Override
+                        public void visitInvokeDynamicInsn(String name, String descriptor, Handle bootstrap, Object... bootstrapArguments) {
+                            for (Object argument : bootstrapArguments) { //lambda body, a synthetic method of the class
+                                if (argument instanceof Handle && ((Handle) argument).getOwner().equals(owner))
+                                    toScan.add(((Handle) argument).getName() + ((Handle) argument).getDesc());
+                            }
+                        }
+                    };
+                }
+            }, ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+        }
+
+        Map<Class<?>, List<String>> ret = new LinkedHashMap<>();
+        for (Map.Entry<String, Set<String>> entry : fieldsByOwner.entrySet()) {
+            Class<?> fieldOwner;
+            try {
+                fieldOwner = Class.forName(entry.getKey().replace('/', '.'), false, type.getClassLoader());
+            } catch (ClassNotFoundException ex) {
+                throw new IllegalStateException("cannot load " + entry.getKey(), ex);
+            }
+            List<String> redirectors = entry.getValue().stream().
+                    filter(fieldName -> isRedirector(fieldOwner, fieldName)).
+                    collect(toList());
+            if (!redirectors.isEmpty())
+                ret.put(fieldOwner, redirectors);
+        }
+        return ret;
+    }
+
+    /**
+     * @return the field is static and takes a CallContext first, i.e. not a listener, call site or registry
+     */
+    static boolean isRedirector(Class<?> owner, String fieldName) {
+        Field field;
+        try {
+            field = owner.getDeclaredField(fieldName);
+        } catch (NoSuchFieldException ex) {
+            return false;
+        }
+        if (!Modifier.isStatic(field.getModifiers()) || !(field.getGenericType() instanceof ParameterizedType))
+            return false;
+        java.lang.reflect.Type[] typeArguments = ((ParameterizedType) field.getGenericType()).getActualTypeArguments();
+        if (typeArguments.length == 0)
+            return false;
+        java.lang.reflect.Type first = typeArguments[0];
+        return (first instanceof ParameterizedType ? ((ParameterizedType) first).getRawType() : first) == CallContext.class;
+    }
+
+    public String className() {
+        return type.getSimpleName() + "_" + method.getName() + BENCHMARK_SUFFIX;
+    }
+
+    /**
+     * @return source of the benchmark class
+     */
+    public String generate() throws IOException {
+        Map<Class<?>, List<String>> redirectorFields = redirectorFields();
+        boolean isStatic = Modifier.isStatic(method.getModifiers());
+        boolean hasNoArgConstructor = Arrays.stream(type.getDeclaredConstructors()).
+                anyMatch(constructor -> constructor.getParameterCount() == 0 && !Modifier.isPrivate(constructor.getModifiers()));
+        String typeName = type.getCanonicalName();
+        String returnType = sourceName(method.getReturnType());
+        String throwsClause = Arrays.stream(method.getExceptionTypes()).allMatch(Exception.class::isAssignableFrom) ?
+                "Exception" : "Throwable";
+        Class<?>[] parameterTypes = method.getParameterTypes();
+        String arguments = IntStream.range(0, parameterTypes.length).
+                mapToObj(i -> "arg" + i).
+                collect(joining(", "));
+
+        StringBuilder b = new StringBuilder();
+        if (type.getPackage() != null && !type.getPackage().getName().isEmpty())
+            b.append("package ").append(type.getPackage().getName()).append(";\n\n");
+        b.append("import org.openjdk.jmh.annotations.*;\n");
+        b.append("import testablejava.RecordedStubs;\n\n");
+        b.append("import java.util.ArrayList;\n");
+        b.append("import java.util.List;\n");
+        b.append("import java.util.concurrent.TimeUnit;\n\n");
+        b.append("/**\n");
+        b.append(" * own cost of ").append(typeName).append('.').append(method.getName()).
+                append(", generated by testablejava.benchgen.BenchmarkGenerator.\n");
+        b.append(" * Its outgoing calls are answered by results recorded from one real call at setup (").append(replay).append("):\n");
+        redirectorFields.forEach((owner, fields) ->
+                fields.forEach(field -> b.append(" *   ").append(owner.getSimpleName()).append('.').append(field).append('\n')));
+        b.append(" */\n");
+        b.append("@State(Scope.Benchmark)\n");
+        b.append("@BenchmarkMode(Mode.AverageTime)\n");
+        b.append("@OutputTimeUnit(TimeUnit.NANOSECONDS)\n");
+        b.append("@Warmup(iterations = 5, time = 1)\n");
+        b.append("@Measurement(iterations = 5, time = 1)\n");
+        b.append("@Fork(1)\n");
+        b.append("public class ").append(className()).append(" {\n\n");
+
+        if (!isStatic)
+            b.append("    ").append(typeName).append(" target;\n");
+        for (int i = 0; i < parameterTypes.length; i++)
+            b.append("    ").append(sourceName(parameterTypes[i])).append(" arg").append(i).append(";\n");
+        b.append("    final List<RecordedStubs> stubs = new ArrayList<>();\n\n");
+
+        b.append("    @Setup(Level.Trial)\n");
+        b.append("    public void setUp() throws ").append(throwsClause).append(" {\n");
+        if (!isStatic)
+            b.append(hasNoArgConstructor ?
+                    "        target = new " + typeName + "();\n" :
+                    "        target = null; //TODO: construct\n");
+        for (int i = 0; i < parameterTypes.length; i++)
+            b.append("        arg").append(i).append(" = ").append(defaultValue(parameterTypes[i])).append("; //TODO: set\n");
+        redirectorFields.forEach((owner, fields) ->
+                b.append("        stubs.add(RecordedStubs.record(").append(owner.getCanonicalName()).append(".class").
+                        append(fields.stream().map(field -> ",\n                \"" + field + "\"").collect(joining())).
+                        append("));\n"));
+        b.append("        call(); //real calls, results recorded\n");
+        b.append("        stubs.forEach(recorded -> recorded.replay(RecordedStubs.Replay.").append(replay).append("));\n");
+        b.append("    }\n\n");
+
+        b.append("    @TearDown(Level.Trial)\n");
+        b.append("    public void tearDown() {\n");
+        b.append("        stubs.forEach(RecordedStubs::restore);\n");
+        b.append("    }\n\n");
+
+        b.append("    @Benchmark\n");
+        b.append("    public ").append(returnType).append(' ').append(method.getName()).
+                append("() throws ").append(throwsClause).append(" {\n");
+        b.append("        ").append(method.getReturnType() == void.class ? "" : "return ").append("call();\n");
+        b.append("    }\n\n");
+
+        b.append("    ").append(returnType).append(" call() throws ").append(throwsClause).append(" {\n");
+        b.append("        ").append(method.getReturnType() == void.class ? "" : "return ").
+                append(isStatic ? typeName : "target").append('.').append(method.getName()).
+                append('(').append(arguments).append(");\n");
+        b.append("    }\n");
+        b.append("}\n");
+        return b.toString();
+    }
+
+    /**
+     * writes the benchmark source under the directory, in the directory of its package
+     * @return the file written
+     */
+    public File write(File sourceDirectory) throws IOException {
+        String packageName = type.getPackage() == null ? "" : type.getPackage().getName();
+        File directory = packageName.isEmpty() ? sourceDirectory : new File(sourceDirectory, packageName.replace('.', File.separatorChar));
+        if (!directory.isDirectory() && !directory.mkdirs())
+            throw new IOException("cannot create " + directory);
+        File file = new File(directory, className() + ".java");
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)) {
+            writer.write(generate());
+        }
+        return file;
+    }
+
+    static String sourceName(Class<?> type) {
+        String ret = type.getCanonicalName();
+        if (ret == null)
+            throw new IllegalArgumentException(type.getName() + " cannot be named in source");
+        return ret;
+    }
+
+    static String defaultValue(Class<?> type) {
+        if (type == boolean.class)
+            return "false";
+        if (type == char.class)
+            return "'\\0'";
+        if (type == long.class)
+            return "0L";
+        if (type == float.class)
+            return "0f";
+        if (type == double.class)
+            return "0.0";
+        if (type == byte.class || type == short.class)
+            return "(" + type.getName() + ") 0";
+        if (type.isPrimitive())
+            return "0";
+        return "null";
+    }
+
+    /**
+     * usage: BenchmarkGenerator class method [CONSTANT|CYCLE [source directory]]; without a directory,
+     * the source is printed. The class and what it refers to must be on the classpath
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("usage: BenchmarkGenerator class method [CONSTANT|CYCLE [source directory]]");
+            System.exit(1);
+        }
+        BenchmarkGenerator generator = new BenchmarkGenerator(
+                Class.forName(args[0], false, BenchmarkGenerator.class.getClassLoader()),
+                args[1],
+                args.length > 2 ? RecordedStubs.Replay.valueOf(args[2]) : RecordedStubs.Replay.CYCLE);
+        if (args.length > 3)
+            System.out.println("wrote " + generator.write(new File(args[3])));
+        else
+            System.out.print(generator.generate());
+    }
+}
@@ -0,0 +1,78 @@
+package testablejava.benchgen;
+
+import org.junit.Test;
+import org.openjdk.jmh.annotations.Benchmark;
+import testablejava.RecordedStubs;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+import java.io.File;
+import java.lang.reflect.Field;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class BenchmarkGeneratorTest {
+
+    @Test
+    public void findsOutgoingRedirectors() throws Exception {
+        BenchmarkGenerator generator = new BenchmarkGenerator(PricingFixture.class, "quote", RecordedStubs.Replay.CYCLE);
+
+        Map<Class<?>, List<String>> fields = generator.redirectorFields();
+
+        assertEquals(Collections.singletonMap(PricingFixture.class, Arrays.asList("$$Db$price$$String", "$$System$nanoTime")), fields);
+        assertEquals("PricingFixture_quoteBenchmark", generator.className());
+    }
+
+    @Test
+    public void generatedBenchmarkRunsWithoutDependencies() throws Exception {
+        BenchmarkGenerator generator = new BenchmarkGenerator(PricingFixture.class, "quote", RecordedStubs.Replay.CONSTANT);
+        File dir = Files.createTempDirectory("benchgen").toFile();
+
+        File source = generator.write(dir);
+        String text = new String(Files.readAllBytes(source.toPath()), "UTF-8");
+        assertTrue(text, text.contains("        stubs.add(RecordedStubs.record(testablejava.benchgen.PricingFixture.class,\n" +
+                "                \"$$Db$price$$String\",\n" +
+                "                \"$$System$nanoTime\"));\n"));
+        assertTrue(text, text.contains("    public int quote() throws Exception {\n        return call();\n    }\n"));
+
+        JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
+        assertEquals(0, javac.run(null, null, null,
+                "-proc:none", "-cp", classPath(PricingFixture.class, RecordedStubs.class, Benchmark.class), "-d", dir.getPath(), source.getPath()));
+
+        try (URLClassLoader loader = new URLClassLoader(new URL[]{dir.toURI().toURL()}, getClass().getClassLoader())) {
+            Class<?> benchmarkType = loader.loadClass("testablejava.benchgen.PricingFixture_quoteBenchmark");
+            Object benchmark = benchmarkType.newInstance();
+            int dbCalls = PricingFixture.dbCalls.get();
+
+            benchmarkType.getMethod("setUp").invoke(benchmark);
+            Field quantity = benchmarkType.getDeclaredField("arg1"); //package-private, another class loader
+            quantity.setAccessible(true);
+            quantity.set(benchmark, 2);
+            Object price = benchmarkType.getMethod("quote").invoke(benchmark);
+            benchmarkType.getMethod("quote").invoke(benchmark);
+            benchmarkType.getMethod("tearDown").invoke(benchmark);
+
+            assertEquals(dbCalls + 1, PricingFixture.dbCalls.get()); //only while recording
+            assertEquals((dbCalls + 1) * 100 * 2, price);
+        }
+    }
+
+    static String classPath(Class<?>... types) throws Exception {
+        StringBuilder ret = new StringBuilder();
+        for (Class<?> type : types)
+            ret.append(new File(type.getProtectionDomain().getCodeSource().getLocation().toURI())).append(File.pathSeparator);
+        return ret.toString();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsMissingMethod() throws Exception {
+        new BenchmarkGenerator(PricingFixture.class, "missing", RecordedStubs.Replay.CYCLE);
+    }
+}
@@ -0,0 +1,33 @@
+package testablejava.benchgen;
+
+import testablejava.CallContext;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * as compiled with Testable Java: calls go through redirector fields
+ */
+public class PricingFixture {
+
+    static final AtomicInteger dbCalls = new AtomicInteger();
+
+    public static Function<CallContext<Object>, Integer> $$Db$price$$String = ctx -> dbCalls.incrementAndGet() * 100;
+    public static Function<CallContext<System>, Long> $$System$nanoTime = ctx -> System.nanoTime();
+    public static Function<CallContext<Object>, String> $$Db$unused = ctx -> "unused";
+    public static Consumer<PricingFixture> $$preCreate = instance -> {};
+
+    public int quote(String item, int quantity) {
+        $$preCreate.accept(this);
+        int price = $$Db$price$$String.apply(new CallContext<>("PricingFixture", "Db", this, null));
+        Supplier<Long> clock = () -> $$System$nanoTime.apply(new CallContext<>("PricingFixture", "java.lang.System", this, null));
+        clock.get();
+        return price * quantity;
+    }
+
+    static String other() {
+        return $$Db$unused.apply(new CallContext<>("PricingFixture", "Db", null, null));
+    }
+}
@@ -0,0 +1,112 @@
+/*******************************************************************************
+ * Copyright (c) 2017-2018 Julian Rozentur
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+package testablejava.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * cost of a call made by code compiled with javac vs. the same code compiled with Testable Java,
+ * where the call goes through a redirector field - either untouched (calling the original method) or replaced.
+ *
+ * Allocation rate is reported with the gc profiler: java -jar target/benchmarks.jar CallOverhead -prof gc
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class CallOverheadBenchmark {
+
+    static final String FIXTURE_DIR = "fixtures/callshapes";
+    static final String[] FIXTURE_SOURCES = {"Target.java", "CallShapesFixture.java"};
+    static final String[] REPLACEMENT_SOURCES = {"Replacements.java"}; //accesses redirector fields, Testable Java only
+
+    public enum Variant {
+        JAVAC,              //plain javac output, baseline
+        TESTABLE,           //instrumented, redirectors untouched
+        TESTABLE_REPLACED   //instrumented, redirectors replaced with equivalent lambdas
+    }
+
+    @Param
+    public Variant variant;
+
+    CallShapes shapes;
+    int x = 42; //not a constant, to prevent folding
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        shapes = newCallShapes(variant);
+    }
+
+    static CallShapes newCallShapes(Variant variant) throws Exception {
+        ClassLoader classLoader;
+        switch (variant) {
+            case JAVAC:
+                classLoader = FixtureCompiler.compile(FixtureCompiler.Kind.JAVAC, FIXTURE_DIR, FIXTURE_SOURCES);
+                break;
+            case TESTABLE:
+            case TESTABLE_REPLACED:
+                classLoader = FixtureCompiler.compile(FixtureCompiler.Kind.TESTABLEJAVA, FIXTURE_DIR,
+                        concat(FIXTURE_SOURCES, REPLACEMENT_SOURCES));
+                break;
+            default:
+                throw new IllegalArgumentException(variant.name());
+        }
+
+        if (variant == Variant.TESTABLE_REPLACED)
+            classLoader.loadClass("fixtures.callshapes.Replacements").getMethod("install").invoke(null);
+
+        return (CallShapes) classLoader.loadClass("fixtures.callshapes.CallShapesFixture").newInstance();
+    }
+
+    static String[] concat(String[] a, String[] b) {
+        String[] ret = new String[a.length + b.length];
+        System.arraycopy(a, 0, ret, 0, a.length);
+        System.arraycopy(b, 0, ret, a.length, b.length);
+        return ret;
+    }
+
+    @Benchmark
+    public int staticCall() {
+        return shapes.staticCall(x);
+    }
+
+    @Benchmark
+    public int virtualCall() {
+        return shapes.virtualCall(x);
+    }
+
+    @Benchmark
+    public Object constructor() {
+        return shapes.constructor(x);
+    }
+
+    @Benchmark
+    public int varargs() {
+        return shapes.varargs(x);
+    }
+
+    @Benchmark
+    public long primitives() {
+        return shapes.primitives(x);
+    }
+
+    @Benchmark
+    public Object genericReceiver() {
+        return shapes.genericReceiver(x);
+    }
+
+    @Benchmark
+    public int innerClassCall() {
+        return shapes.innerClassCall(x);
+    }
+}
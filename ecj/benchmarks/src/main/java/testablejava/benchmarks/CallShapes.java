@@ -0,0 +1,29 @@
+/*******************************************************************************
+ * Copyright (c) 2017-2018 Julian Rozentur
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+package testablejava.benchmarks;
+
+/**
+ * implemented by the fixture compiled at benchmark setup, one method per call shape.
+ * Benchmarks call through it, since the fixture class is only known at runtime
+ */
+public interface CallShapes {
+    int staticCall(int x);
+
+    int virtualCall(int x);
+
+    Object constructor(int x);
+
+    int varargs(int x);
+
+    long primitives(int x);
+
+    Object genericReceiver(int x);
+
+    int innerClassCall(int x);
+}
@@ -0,0 +1,88 @@
+/*******************************************************************************
+ * Copyright (c) 2017-2018 Julian Rozentur
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+package testablejava.benchmarks;
+
+import org.eclipse.jdt.internal.compiler.*;
+import org.eclipse.jdt.internal.compiler.Compiler;
+import org.eclipse.jdt.internal.compiler.batch.CompilationUnit;
+import org.eclipse.jdt.internal.compiler.batch.FileSystem;
+import org.eclipse.jdt.internal.compiler.classfmt.ClassFileConstants;
+import org.eclipse.jdt.internal.compiler.env.ICompilationUnit;
+import org.eclipse.jdt.internal.compiler.env.INameEnvironment;
+import org.eclipse.jdt.internal.compiler.impl.CompilerOptions;
+import org.eclipse.jdt.internal.compiler.problem.DefaultProblemFactory;
+import org.eclipse.jdt.internal.compiler.util.Util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+
+/**
+ * in-memory compilation of a set of sources with whichever ECJ is visible to the class loader of this class.
+ *
+ * note: only API common to stock ECJ 4.6.1 and Testable Java is used here, so that StockEcjClassLoader can define
+ * this very class against the stock compiler. Testable Java specifics go into subclasses
+ */
+public class CompileDriver {
+
+    boolean useSingleThread = true; //false lets the compiler read and process units on worker threads
+
+    /**
+     * @param fileNames       unit file names, parallel to sources
+     * @param sources         unit sources
+     * @param classpath       entries in addition to the running VM boot classpath
+     * @param useSingleThread see Compiler.useSingleThread
+     * @return {class files produced, units with errors}
+     */
+    public static long[] compile(String[] fileNames, char[][] sources, String[] classpath, boolean useSingleThread) {
+        CompileDriver driver = new CompileDriver();
+        driver.useSingleThread = useSingleThread;
+        return driver.run(fileNames, sources, classpath);
+    }
+
+    public long[] run(String[] fileNames, char[][] sources, String[] classpath) {
+
+        ArrayList<FileSystem.Classpath> cp = new ArrayList<>();
+        Util.collectRunningVMBootclasspath(cp);
+        for (String entry : classpath)
+            cp.add(FileSystem.getClasspath(entry, null, false, null, null, Collections.emptyMap()));
+
+        INameEnvironment env = new FileSystem(cp.toArray(new FileSystem.Classpath[cp.size()]), null, false) {};
+
+        long[] ret = new long[2];
+        ICompilerRequestor requestor = result -> {
+            ret[0] += result.getClassFiles().length;
+            if (result.hasErrors())
+                ret[1]++;
+        };
+
+        ICompilationUnit[] units = new ICompilationUnit[fileNames.length];
+        for (int i = 0; i < units.length; i++)
+            units[i] = new CompilationUnit(sources[i], fileNames[i], null);
+
+        CompilerOptions options = new CompilerOptions();
+        options.complianceLevel = ClassFileConstants.JDK1_8;
+        options.originalSourceLevel = ClassFileConstants.JDK1_8;
+        options.sourceLevel = ClassFileConstants.JDK1_8;
+        options.targetJDK = ClassFileConstants.JDK1_8;
+
+        try {
+            Compiler compiler = newCompiler(env, options, requestor);
+            compiler.useSingleThread = useSingleThread;
+            compiler.compile(units);
+        } finally {
+            env.cleanup();
+        }
+        return ret;
+    }
+
+    protected Compiler newCompiler(INameEnvironment env, CompilerOptions options, ICompilerRequestor requestor) {
+        return new Compiler(env, DefaultErrorHandlingPolicies.proceedWithAllProblems(),
+                options, requestor, new DefaultProblemFactory());
+    }
+}
@@ -0,0 +1,163 @@
+/*******************************************************************************
+ * Copyright (c) 2017-2018 Julian Rozentur
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+package testablejava.benchmarks;
+
+import org.eclipse.jdt.internal.compiler.Compiler;
+import org.eclipse.jdt.internal.compiler.DefaultErrorHandlingPolicies;
+import org.eclipse.jdt.internal.compiler.ICompilerRequestor;
+import org.eclipse.jdt.internal.compiler.InstrumentationOptions;
+import org.eclipse.jdt.internal.compiler.env.INameEnvironment;
+import org.eclipse.jdt.internal.compiler.impl.CompilerOptions;
+import org.eclipse.jdt.internal.compiler.problem.DefaultProblemFactory;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.reflect.Method;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * compile time of a synthetic codebase (see SyntheticCodebase) with stock ECJ 4.6.1 vs. Testable Java with
+ * instrumentation off, redirectors only, listeners only and both - to track how the testability changes scale.
+ * Each runs on one thread and with the compiler's worker threads (Compiler.useSingleThread=false), for the speedup
+ * of the threaded pipeline.
+ *
+ * Reports compiles/s, and lines/s as a secondary result. Peak heap and allocation are reported by profilers:
+ * java -jar target/benchmarks.jar CompilerThroughput -prof testablejava.benchmarks.PeakHeapProfiler -prof gc
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput) //AuxCounters are reported as a rate in this mode, and not at all in SingleShotTime
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 10)
+@Measurement(iterations = 5, time = 10)
+@Fork(value = 1, jvmArgs = {"-Xms3g", "-Xmx3g"}) //3000 classes (~470k lines) need about 3g
+public class CompilerThroughputBenchmark {
+
+    public enum Variant {
+        STOCK_ECJ,      //ecj 4.6.1 as released, baseline
+        NONE,           //Testable Java, instrumentation off
+        REDIRECTORS,    //Testable Java, INSERT_REDIRECTORS
+        LISTENERS,      //Testable Java, INSERT_LISTENERS
+        ALL             //Testable Java, both (the default)
+    }
+
+    @Param({"1000", "3000"})
+    public int classes;
+
+    @Param
+    public Variant variant;
+
+    @Param({"true", "false"})
+    public boolean useSingleThread;
+
+    String[] fileNames;
+    char[][] sources;
+    long lines;
+    String[] classpath;
+    Method stockCompile; //STOCK_ECJ only
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        Map<String, String> generated = newCodebase(classes).generate();
+        fileNames = generated.keySet().toArray(new String[0]);
+        sources = generated.values().stream().map(String::toCharArray).toArray(char[][]::new);
+        lines = generated.values().stream().mapToLong(SyntheticCodebase::lineCount).sum();
+        classpath = new String[]{FixtureCompiler.classpathOf(testablejava.CallContext.class)}; //helpers, for injected fields
+        if (variant == Variant.STOCK_ECJ)
+            stockCompile = new StockEcjClassLoader().compileMethod();
+    }
+
+    static SyntheticCodebase newCodebase(int classes) {
+        return new SyntheticCodebase(classes, 20, 6, 3, 6);
+    }
+
+    /**
+     * secondary result: compiled source lines, reported as a rate (lines/s)
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Lines {
+        public long lines;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            lines = 0;
+        }
+    }
+
+    @Benchmark
+    public long compile(Lines compiledLines) {
+        long[] result = compile(variant, useSingleThread, fileNames, sources, classpath, stockCompile);
+
+        if (result[1] != 0)
+            throw new IllegalStateException(result[1] + " units failed to compile with " + variant);
+
+        compiledLines.lines += lines;
+        return result[0];
+    }
+
+    /**
+     * @return see CompileDriver.compile
+     */
+    static long[] compile(Variant variant, boolean useSingleThread, String[] fileNames, char[][] sources, String[] classpath, Method stockCompile) {
+        PrintStream originalOut = System.out; //Testable Java reports instrumentation on System.out
+        System.setOut(new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+            }
+        }));
+        try {
+            if (variant == Variant.STOCK_ECJ)
+                return StockEcjClassLoader.invoke(stockCompile, fileNames, sources, classpath, useSingleThread);
+            return new TestableCompileDriver(instrumentationOptions(variant), useSingleThread).run(fileNames, sources, classpath);
+        } finally {
+            System.setOut(originalOut);
+        }
+    }
+
+    static Set<InstrumentationOptions> instrumentationOptions(Variant variant) {
+        switch (variant) {
+            case NONE:
+                return Collections.emptySet();
+            case REDIRECTORS:
+                return EnumSet.of(InstrumentationOptions.INSERT_REDIRECTORS);
+            case LISTENERS:
+                return EnumSet.of(InstrumentationOptions.INSERT_LISTENERS);
+            case ALL:
+                return EnumSet.copyOf(Arrays.asList(InstrumentationOptions.ALL));
+            default:
+                throw new IllegalArgumentException(variant.name());
+        }
+    }
+
+    static class TestableCompileDriver extends CompileDriver {
+        final Set<InstrumentationOptions> instrumentationOptions;
+
+        TestableCompileDriver(Set<InstrumentationOptions> instrumentationOptions, boolean useSingleThread) {
+            this.instrumentationOptions = instrumentationOptions;
+            this.useSingleThread = useSingleThread;
+        }
+
+        @Override
+        protected Compiler newCompiler(INameEnvironment env, CompilerOptions options, ICompilerRequestor requestor) {
+            return new Compiler(env, DefaultErrorHandlingPolicies.proceedWithAllProblems(),
+                    options, requestor, new DefaultProblemFactory()) {
+                @Override
+                protected Set<InstrumentationOptions> getInstrumentationOptions() {
+                    return instrumentationOptions;
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,125 @@
+/*******************************************************************************
+ * Copyright (c) 2017-2018 Julian Rozentur
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+package testablejava.benchmarks;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+import java.io.*;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static java.util.stream.Collectors.joining;
+
+/**
+ * compiles fixture sources, shipped as resources, at benchmark setup - with plain javac or with Testable Java,
+ * so that both variants of the same code can be measured in one benchmark run
+ */
+public class FixtureCompiler {
+
+    public enum Kind {JAVAC, TESTABLEJAVA}
+
+    /**
+     * @param compiler javac or Testable Java
+     * @param resourceDir resource directory containing the fixture sources, e.g. "fixtures/callshapes"
+     * @param fileNames source file names in resourceDir
+     * @return class loader for the compiled classes, child of the loader of this class
+     * @throws IOException
+     */
+    public static ClassLoader compile(Kind compiler, String resourceDir, String... fileNames) throws IOException {
+
+        Path workDir = Files.createTempDirectory("testablejava-fixture-" + compiler.name().toLowerCase());
+        Path sourceDir = Files.createDirectories(workDir.resolve("src"));
+        Path classDir = Files.createDirectories(workDir.resolve("classes"));
+        File log = workDir.resolve("compile.log").toFile();
+
+        List<String> sourceFiles = new ArrayList<>();
+        for (String fileName : fileNames) {
+            Path sourceFile = sourceDir.resolve(fileName);
+            try (InputStream in = FixtureCompiler.class.getClassLoader().getResourceAsStream(resourceDir + "/" + fileName)) {
+                if (in == null)
+                    throw new FileNotFoundException("fixture resource not found: " + resourceDir + "/" + fileName);
+                Files.copy(in, sourceFile, StandardCopyOption.REPLACE_EXISTING);
+            }
+            sourceFiles.add(sourceFile.toString());
+        }
+
+        List<String> args = new ArrayList<>(Arrays.asList(
+                "-proc:none", //benchmark classpath carries the JMH annotation processor
+                "-nowarn",
+                "-cp", classpathOf(CallShapes.class, testablejava.CallContext.class), //fixture API and helpers
+                "-d", classDir.toString()));
+        args.addAll(sourceFiles);
+
+        boolean success;
+        PrintStream originalOut = System.out; //Testable Java reports instrumentation on System.out
+        try (PrintStream logStream = new PrintStream(new FileOutputStream(log), true)) {
+            System.setOut(logStream);
+            switch (compiler) {
+                case JAVAC:
+                    success = compileWithJavac(args, logStream);
+                    break;
+                case TESTABLEJAVA:
+                    success = compileWithTestableJava(args, logStream);
+                    break;
+                default:
+                    throw new IllegalArgumentException(compiler.name());
+            }
+        } finally {
+            System.setOut(originalOut);
+        }
+
+        if (!success)
+            throw new IllegalStateException("fixture compilation with " + compiler + " failed, see " + log);
+
+        return new URLClassLoader(new URL[]{classDir.toUri().toURL()}, FixtureCompiler.class.getClassLoader());
+    }
+
+    /**
+     * note: java.class.path is not usable, it can be a launcher jar (e.g. surefire)
+     */
+    static String classpathOf(Class<?>... classes) {
+        return Arrays.stream(classes).
+                map(clazz -> {
+                    try {
+                        return new File(clazz.getProtectionDomain().getCodeSource().getLocation().toURI()).getPath();
+                    } catch (URISyntaxException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }).
+                distinct().
+                collect(joining(File.pathSeparator));
+    }
+
+    static boolean compileWithJavac(List<String> args, PrintStream log) {
+        JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
+        if (javac == null)
+            throw new IllegalStateException("javac is not available, run benchmarks on a JDK");
+
+        List<String> javacArgs = new ArrayList<>(Arrays.asList("-source", "1.8", "-target", "1.8"));
+        javacArgs.addAll(args);
+
+        return javac.run(null, log, log, javacArgs.toArray(new String[0])) == 0;
+    }
+
+    static boolean compileWithTestableJava(List<String> args, PrintStream log) {
+        List<String> ecjArgs = new ArrayList<>(Arrays.asList("-1.8"));
+        ecjArgs.addAll(args);
+
+        return new org.eclipse.jdt.internal.compiler.batch.Main(
+                new PrintWriter(log), new PrintWriter(log), false, null, null).
+                compile(ecjArgs.toArray(new String[0]));
+    }
+}
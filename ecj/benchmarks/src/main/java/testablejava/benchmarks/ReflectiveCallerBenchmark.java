@@ -0,0 +1,72 @@
+/*******************************************************************************
+ * Copyright (c) 2017-2018 Julian Rozentur
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+package testablejava.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import testablejava.ReflectiveCaller;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * cost of calling a private method through testablejava.ReflectiveCaller, which redirectors use for methods not
+ * visible from the redirector field, vs. a direct call and plain Method.invoke.
+ *
+ * invokeExact is what instrumented code does: a redirector keeps one caller and invokes its method handle exactly
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReflectiveCallerBenchmark {
+
+    public static class Target {
+        private int twice(int x) {
+            return 2 * x;
+        }
+
+        int callTwice(int x) {
+            return twice(x);
+        }
+    }
+
+    Target target = new Target();
+    int x = 42; //not a constant, to prevent folding
+    Method method;
+    ReflectiveCaller caller;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        method = Target.class.getDeclaredMethod("twice", int.class);
+        method.setAccessible(true);
+        caller = new ReflectiveCaller(Target.class, "twice", int.class);
+    }
+
+    @Benchmark
+    public int direct() {
+        return target.callTwice(x);
+    }
+
+    @Benchmark
+    public Object methodInvoke() throws Exception {
+        return method.invoke(target, x);
+    }
+
+    @Benchmark
+    public Object invokeExact() throws Throwable {
+        return (Object) caller.methodHandle().invokeExact((Object) target, (Object) x);
+    }
+
+    @Benchmark
+    public Object apply() {
+        return caller.apply(target, x);
+    }
+}
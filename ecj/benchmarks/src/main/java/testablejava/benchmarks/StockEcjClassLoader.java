@@ -0,0 +1,87 @@
+/*******************************************************************************
+ * Copyright (c) 2017-2018 Julian Rozentur
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+package testablejava.benchmarks;
+
+import java.io.*;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * isolated class loader over the stock ECJ 4.6.1 jar, which the build copies into the benchmark resources
+ * (see maven-dependency-plugin in pom.xml). Testable Java and stock ECJ share class names, so the stock one
+ * can only be loaded apart from the classpath. CompileDriver (and its nested classes) is defined here again,
+ * from its own class file, so it links against the stock compiler
+ */
+public class StockEcjClassLoader extends URLClassLoader {
+
+    static final String STOCK_ECJ_RESOURCE = "stock/ecj.jar";
+
+    public StockEcjClassLoader() throws IOException {
+        super(new URL[]{extractStockEcj().toUri().toURL()}, null); //null parent: only bootstrap classes are shared
+    }
+
+    static Path extractStockEcj() throws IOException {
+        Path jar = Files.createTempFile("stock-ecj", ".jar");
+        jar.toFile().deleteOnExit();
+        try (InputStream in = StockEcjClassLoader.class.getClassLoader().getResourceAsStream(STOCK_ECJ_RESOURCE)) {
+            if (in == null)
+                throw new FileNotFoundException("stock ECJ resource not found: " + STOCK_ECJ_RESOURCE);
+            Files.copy(in, jar, StandardCopyOption.REPLACE_EXISTING);
+        }
+        return jar;
+    }
+
+    @Override
+    protected Class<?> findClass(String name) throws ClassNotFoundException {
+        if (!name.startsWith(CompileDriver.class.getName()))
+            return super.findClass(name);
+
+        String resource = name.replace('.', '/') + ".class";
+        try (InputStream in = CompileDriver.class.getClassLoader().getResourceAsStream(resource)) {
+            if (in == null)
+                throw new ClassNotFoundException(name);
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int n;
+            while ((n = in.read(buffer)) > 0)
+                bytes.write(buffer, 0, n);
+            return defineClass(name, bytes.toByteArray(), 0, bytes.size());
+        } catch (IOException e) {
+            throw new ClassNotFoundException(name, e);
+        }
+    }
+
+    /**
+     * CompileDriver.compile(...) entry point, linked against stock ECJ
+     */
+    public Method compileMethod() throws ClassNotFoundException, NoSuchMethodException {
+        return loadClass(CompileDriver.class.getName()).
+                getMethod("compile", String[].class, char[][].class, String[].class, boolean.class);
+    }
+
+    static long[] invoke(Method compile, String[] fileNames, char[][] sources, String[] classpath, boolean useSingleThread) {
+        try {
+            return (long[]) compile.invoke(null, fileNames, sources, classpath, useSingleThread);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        } catch (InvocationTargetException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            if (cause instanceof Error)
+                throw (Error) cause;
+            throw new IllegalStateException(cause);
+        }
+    }
+}
@@ -0,0 +1,234 @@
+/*******************************************************************************
+ * Copyright (c) 2017-2018 Julian Rozentur
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+package testablejava.benchmarks;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * generates a compilable source tree of configurable size, shaped to stress the instrumentation:
+ * calls across classes and packages, heavy overloading, generics, nested/inner, anonymous and local classes,
+ * lambdas and enums with constant bodies. Output is deterministic for the same parameters
+ *
+ * note: generic types are static nested only, and inner classes only call methods of the immediately enclosing
+ * class - instrumentation does not support allocating an inner class of a generic type, or calling a method of
+ * an enclosing instance further out, yet
+ */
+public class SyntheticCodebase {
+
+    static final String[] OVERLOAD_TYPES = {
+            "int", "long", "String", "double", "char", "boolean", "Object", "int[]", "List<String>", "Map<String, Integer>"
+    };
+
+    public final int classes;
+    public final int packages;
+    public final int overloads;    //per overloaded method name, up to OVERLOAD_TYPES.length
+    public final int nestingDepth; //of inner and of static nested classes
+    public final int enumConstants;
+
+    public SyntheticCodebase(int classes, int packages, int overloads, int nestingDepth, int enumConstants) {
+        if (classes < 1 || packages < 1 || nestingDepth < 0 || enumConstants < 1)
+            throw new IllegalArgumentException("classes, packages, enumConstants must be positive, nestingDepth non-negative");
+        if (overloads < 3 || overloads > OVERLOAD_TYPES.length)
+            throw new IllegalArgumentException("overloads must be 3.." + OVERLOAD_TYPES.length);
+        this.classes = classes;
+        this.packages = packages;
+        this.overloads = overloads;
+        this.nestingDepth = nestingDepth;
+        this.enumConstants = enumConstants;
+    }
+
+    /**
+     * @return relative file path to source, in generation order
+     */
+    public Map<String, String> generate() {
+        Map<String, String> ret = new LinkedHashMap<>();
+        for (int i = 0; i < classes; i++)
+            ret.put(packageName(i).replace('.', '/') + "/" + className(i) + ".java", generateClass(i));
+        return ret;
+    }
+
+    /**
+     * @return total number of lines written
+     */
+    public long writeTo(Path dir) throws IOException {
+        long lines = 0;
+        for (Map.Entry<String, String> entry : generate().entrySet()) {
+            Path file = dir.resolve(entry.getKey());
+            Files.createDirectories(file.getParent());
+            Files.write(file, entry.getValue().getBytes(StandardCharsets.UTF_8));
+            lines += lineCount(entry.getValue());
+        }
+        return lines;
+    }
+
+    static long lineCount(String source) {
+        return source.chars().filter(c -> c == '\n').count();
+    }
+
+    String packageName(int i) {
+        return "gen.p" + (i % packages);
+    }
+
+    String className(int i) {
+        return "C" + i;
+    }
+
+    String qualifiedName(int i) {
+        return packageName(i) + "." + className(i);
+    }
+
+    String generateClass(int i) {
+        String name = className(i);
+        String next = qualifiedName((i + 1) % classes);
+        String kind = "Kind" + i;
+
+        StringBuilder b = new StringBuilder();
+        b.append("package ").append(packageName(i)).append(";\n\n");
+        b.append("import java.util.*;\n\n");
+        b.append("public class ").append(name).append(" {\n");
+        b.append("    String label;\n");
+        b.append("    int counter;\n\n");
+        b.append("    public ").append(name).append("(String label) {\n");
+        b.append("        this.label = label;\n");
+        b.append("    }\n\n");
+
+        for (int iOverload = 0; iOverload < overloads; iOverload++)
+            appendOverload(b, OVERLOAD_TYPES[iOverload], iOverload);
+
+        b.append("    public static <U> U id(U u) {\n");
+        b.append("        return u;\n");
+        b.append("    }\n\n");
+
+        b.append("    public static class Box<T extends Comparable<T>> {\n");
+        b.append("        T value;\n\n");
+        b.append("        public Box(T value) {\n");
+        b.append("            this.value = value;\n");
+        b.append("        }\n\n");
+        b.append("        public T get() {\n");
+        b.append("            return value;\n");
+        b.append("        }\n\n");
+        b.append("        public int compareValue(T other) {\n");
+        b.append("            return value.compareTo(other);\n");
+        b.append("        }\n");
+        b.append("    }\n\n");
+
+        b.append("    public int work(int n) {\n");
+        b.append("        ").append(next).append(" next = new ").append(next).append("(\"v\" + n);\n");
+        b.append("        int acc = next.f(n) + (int) next.f((long) n);\n");
+        b.append("        acc += ").append(next).append(".id(acc);\n");
+        b.append("        ").append(next).append(".Box<String> box = new ").append(next).append(".Box<>(label);\n");
+        b.append("        acc += box.compareValue(box.get() + acc);\n");
+        b.append("        List<String> list = new ArrayList<>();\n");
+        b.append("        list.add(next.f(\"x\"));\n");
+        b.append("        list.add(String.valueOf(n));\n");
+        b.append("        Collections.sort(list, new Comparator<String>() {\n");
+        b.append("            @Override\n");
+        b.append("            public int compare(String a, String b) {\n");
+        b.append("                return a.compareTo(b);\n");
+        b.append("            }\n");
+        b.append("        });\n");
+        b.append("        class Local {\n");
+        b.append("            int twice(int v) {\n");
+        b.append("                return v * 2;\n");
+        b.append("            }\n");
+        b.append("        }\n");
+        b.append("        acc += new Local().twice(acc);\n");
+        b.append("        Runnable increment = () -> counter++;\n");
+        b.append("        increment.run();\n");
+        if (nestingDepth > 0) {
+            b.append("        acc += new Inner0().g0(acc);\n");
+            b.append("        acc += Nested0.h(acc);\n");
+        }
+        b.append("        ").append(kind).append(" k = ").append(kind).append(".values()[Math.abs(acc) % ").append(enumConstants).append("];\n");
+        b.append("        switch (k) {\n");
+        b.append("            case K0:\n");
+        b.append("                acc++;\n");
+        b.append("                break;\n");
+        b.append("            default:\n");
+        b.append("                acc += k.weight();\n");
+        b.append("        }\n");
+        b.append("        return acc + list.size();\n");
+        b.append("    }\n");
+
+        appendInner(b, 0, "    ");
+        appendNested(b, 0, "    ");
+
+        b.append("\n    enum ").append(kind).append(" {\n");
+        for (int iConstant = 0; iConstant < enumConstants; iConstant++) {
+            b.append("        K").append(iConstant);
+            if (iConstant % 2 == 1) {
+                b.append(" {\n");
+                b.append("            @Override\n");
+                b.append("            int weight() {\n");
+                b.append("                return ").append(iConstant).append(" + super.weight();\n");
+                b.append("            }\n");
+                b.append("        }");
+            }
+            b.append(iConstant == enumConstants - 1 ? ";\n\n" : ",\n");
+        }
+        b.append("        int weight() {\n");
+        b.append("            return ordinal();\n");
+        b.append("        }\n");
+        b.append("    }\n");
+
+        b.append("}\n");
+        return b.toString();
+    }
+
+    void appendOverload(StringBuilder b, String type, int iOverload) {
+        String returnType = type.equals("int") || type.equals("long") || type.equals("String") ? type : "int";
+        b.append("    public ").append(returnType).append(" f(").append(type).append(" x) {\n");
+        switch (type) {
+            case "int":
+                b.append("        return x + 1;\n");
+                break;
+            case "long":
+                b.append("        return x + 2L;\n");
+                break;
+            case "String":
+                b.append("        return x + \"s\";\n");
+                break;
+            default:
+                b.append("        return String.valueOf(x).length() + ").append(iOverload).append(";\n");
+        }
+        b.append("    }\n\n");
+    }
+
+    void appendInner(StringBuilder b, int depth, String indent) {
+        if (depth >= nestingDepth)
+            return;
+        b.append("\n").append(indent).append("class Inner").append(depth).append(" {\n");
+        b.append(indent).append("    int g").append(depth).append("(int v) {\n");
+        if (depth == 0)
+            b.append(indent).append("        return counter + f(v);\n");
+        else
+            b.append(indent).append("        return counter + g").append(depth - 1).append("(v + 1);\n");
+        b.append(indent).append("    }\n");
+        appendInner(b, depth + 1, indent + "    ");
+        b.append(indent).append("}\n");
+    }
+
+    void appendNested(StringBuilder b, int depth, String indent) {
+        if (depth >= nestingDepth)
+            return;
+        b.append("\n").append(indent).append("static class Nested").append(depth).append(" {\n");
+        b.append(indent).append("    static int h(int v) {\n");
+        if (depth + 1 < nestingDepth)
+            b.append(indent).append("        return Math.abs(Nested").append(depth + 1).append(".h(v - 1));\n");
+        else
+            b.append(indent).append("        return Math.abs(v);\n");
+        b.append(indent).append("    }\n");
+        appendNested(b, depth + 1, indent + "    ");
+        b.append(indent).append("}\n");
+    }
+}
@@ -0,0 +1,46 @@
+package fixtures.callshapes;
+
+import testablejava.benchmarks.CallShapes;
+
+/**
+ * one method per call shape, each making a single call to Target
+ */
+public class CallShapesFixture implements CallShapes {
+    final Target target;
+    final Target.Inner inner;
+    final Target.Box<Integer> box;
+
+    public CallShapesFixture() {
+        dontredirect: target = new Target(1);
+        dontredirect: inner = target.new Inner();
+        dontredirect: box = new Target.Box<>(1);
+    }
+
+    public int staticCall(int x) {
+        return Target.add(x, 1);
+    }
+
+    public int virtualCall(int x) {
+        return target.inc(x);
+    }
+
+    public Object constructor(int x) {
+        return new Target(x);
+    }
+
+    public int varargs(int x) {
+        return Target.sum(x, 1, 2, 3);
+    }
+
+    public long primitives(int x) {
+        return Target.mix(x, 2L, 3.0, 4.0f, (short) 5, (byte) 6, 'c', true);
+    }
+
+    public Object genericReceiver(int x) {
+        return box.get();
+    }
+
+    public int innerClassCall(int x) {
+        return inner.inc(x);
+    }
+}
@@ -0,0 +1,23 @@
+package fixtures.callshapes;
+
+/**
+ * replaces every redirector of CallShapesFixture with a lambda that does the same work and returns the same result.
+ * Accesses testability fields, so is compiled after, and without, instrumentation
+ */
+public class Replacements {
+    public static void install() {
+        CallShapesFixture.$$Target$add$$I$I = (ctx, a, b) -> a + b;
+        CallShapesFixture.$$Target$inc$$I = (ctx, x) -> x + ctx.calledClassInstance.value;
+        CallShapesFixture.$$Target$new$$I = (ctx, x) -> new Target(x);
+        CallShapesFixture.$$Target$sum$$I$I$I$I = (ctx, a, b, more) -> {
+            int sum = a + b;
+            for (Integer v : more)
+                sum += v;
+            return sum;
+        };
+        CallShapesFixture.$$Target$mix$$I$J$D$F$S$B$C$Z = (ctx, i, l, d, f, s, b, c, z) ->
+                z ? i + l + (long) (double) d + (long) (float) f + s + b + c : 0L;
+        CallShapesFixture.$$Box$get = ctx -> ctx.calledClassInstance.value;
+        CallShapesFixture.$$Inner$inc$$I = (ctx, x) -> x + 1; //the enclosing Target, and its value, are not reachable from outside Inner
+    }
+}
@@ -0,0 +1,49 @@
+package fixtures.callshapes;
+
+/**
+ * callee of all call shapes exercised by CallShapesFixture
+ */
+public class Target {
+    final int value;
+
+    public Target(int value) {
+        this.value = value;
+    }
+
+    public static int add(int a, int b) {
+        return a + b;
+    }
+
+    public int inc(int x) {
+        return x + value;
+    }
+
+    public static int sum(int a, int b, Integer... more) { //note: redirected primitive varargs do not verify yet
+        int sum = a + b;
+        for (Integer v : more)
+            sum += v;
+        return sum;
+    }
+
+    public static long mix(int i, long l, double d, float f, short s, byte b, char c, boolean z) {
+        return z ? i + l + (long) d + (long) f + s + b + c : 0;
+    }
+
+    public static class Box<T> {
+        final T value;
+
+        public Box(T value) {
+            this.value = value;
+        }
+
+        public T get() {
+            return value;
+        }
+    }
+
+    public class Inner {
+        public int inc(int x) {
+            return x + value;
+        }
+    }
+}
@@ -0,0 +1,43 @@
+/*******************************************************************************
+ * Copyright (c) 2017-2018 Julian Rozentur
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+package testablejava.benchmarks;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class CallOverheadBenchmarkTest {
+
+    @Test
+    public void testAllVariantsCompileAndComputeTheSame() throws Exception {
+
+        CallShapes javac = CallOverheadBenchmark.newCallShapes(CallOverheadBenchmark.Variant.JAVAC);
+        CallShapes testable = CallOverheadBenchmark.newCallShapes(CallOverheadBenchmark.Variant.TESTABLE);
+        CallShapes replaced = CallOverheadBenchmark.newCallShapes(CallOverheadBenchmark.Variant.TESTABLE_REPLACED);
+
+        for (CallShapes shapes : new CallShapes[]{javac, testable, replaced}) {
+            assertEquals(43, shapes.staticCall(42));
+            assertEquals(43, shapes.virtualCall(42));
+            assertEquals(1, shapes.genericReceiver(42));
+            assertEquals(43, shapes.innerClassCall(42));
+            assertNotNull(shapes.constructor(42));
+            assertEquals(48, shapes.varargs(42));
+            assertEquals(161, shapes.primitives(42));
+        }
+    }
+
+    @Test
+    public void testTestableVariantIsInstrumented() throws Exception {
+
+        CallShapes testable = CallOverheadBenchmark.newCallShapes(CallOverheadBenchmark.Variant.TESTABLE);
+
+        assertNotNull(testable.getClass().getField("$$Target$add$$I$I").get(null));
+        assertEquals(0, CallOverheadBenchmark.newCallShapes(CallOverheadBenchmark.Variant.JAVAC).getClass().getFields().length);
+    }
+}
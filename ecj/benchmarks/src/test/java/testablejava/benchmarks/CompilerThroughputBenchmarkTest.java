@@ -0,0 +1,78 @@
+/*******************************************************************************
+ * Copyright (c) 2017-2018 Julian Rozentur
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+package testablejava.benchmarks;
+
+import org.junit.Test;
+
+import java.lang.reflect.Method;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class CompilerThroughputBenchmarkTest {
+
+    @Test
+    public void testSyntheticCodebaseIsDeterministic() throws Exception {
+
+        SyntheticCodebase codebase = CompilerThroughputBenchmark.newCodebase(7);
+
+        Map<String, String> generated = codebase.generate();
+
+        assertEquals(7, generated.size());
+        assertTrue(generated.containsKey("gen/p3/C3.java"));
+        assertEquals(generated, CompilerThroughputBenchmark.newCodebase(7).generate());
+    }
+
+    @Test
+    public void testSyntheticCodebaseCompilesCleanlyWithAllVariants() throws Exception {
+
+        Map<String, String> generated = CompilerThroughputBenchmark.newCodebase(5).generate();
+        String[] fileNames = generated.keySet().toArray(new String[0]);
+        char[][] sources = generated.values().stream().map(String::toCharArray).toArray(char[][]::new);
+        String[] classpath = {FixtureCompiler.classpathOf(testablejava.CallContext.class)};
+        Method stockCompile = new StockEcjClassLoader().compileMethod();
+
+        long[] stock = CompilerThroughputBenchmark.compile(
+                CompilerThroughputBenchmark.Variant.STOCK_ECJ, true, fileNames, sources, classpath, stockCompile);
+        assertEquals(0, stock[1]);
+
+        for (CompilerThroughputBenchmark.Variant variant : CompilerThroughputBenchmark.Variant.values()) {
+            long[] result = CompilerThroughputBenchmark.compile(variant, true, fileNames, sources, classpath, stockCompile);
+            assertEquals(variant + " errors", 0, result[1]);
+            assertEquals(variant + " class files", stock[0], result[0]); //fields are injected, not classes
+        }
+    }
+
+    @Test
+    public void testSyntheticCodebaseCompilesTheSameWithWorkerThreads() throws Exception {
+
+        Map<String, String> generated = CompilerThroughputBenchmark.newCodebase(12).generate(); //enough units for ECJ's ReadManager
+        String[] fileNames = generated.keySet().toArray(new String[0]);
+        char[][] sources = generated.values().stream().map(String::toCharArray).toArray(char[][]::new);
+        String[] classpath = {FixtureCompiler.classpathOf(testablejava.CallContext.class)};
+        Method stockCompile = new StockEcjClassLoader().compileMethod();
+
+        for (CompilerThroughputBenchmark.Variant variant : CompilerThroughputBenchmark.Variant.values()) {
+            long[] singleThread = CompilerThroughputBenchmark.compile(variant, true, fileNames, sources, classpath, stockCompile);
+            long[] workerThreads = CompilerThroughputBenchmark.compile(variant, false, fileNames, sources, classpath, stockCompile);
+            assertEquals(variant + " errors", 0, workerThreads[1]);
+            assertEquals(variant + " class files", singleThread[0], workerThreads[0]);
+        }
+    }
+
+    @Test
+    public void testStockCompilerIsIsolated() throws Exception {
+
+        Method stockCompile = new StockEcjClassLoader().compileMethod();
+
+        assertNotSame(CompileDriver.class, stockCompile.getDeclaringClass());
+        assertNotSame(org.eclipse.jdt.internal.compiler.Compiler.class,
+                stockCompile.getDeclaringClass().getClassLoader().loadClass("org.eclipse.jdt.internal.compiler.Compiler"));
+    }
+}
@@ -1,4 +1,6 @@
 (cd helpers; mvn clean install)
+(cd benchgen; mvn clean install)
 mvn clean install
 (cd plexus; mvn clean install)
 (cd samples; mvn -P testable clean install)
+(cd benchmarks; mvn clean package)
@@ -39,10 +39,8 @@ import org.eclipse.jdt.internal.compiler.codegen.*;
 import org.eclipse.jdt.internal.compiler.codegen.StackMapFrameCodeStream.ExceptionMarker;
 import org.eclipse.jdt.internal.compiler.codegen.StackMapFrameCodeStream.StackDepthMarker;
 import org.eclipse.jdt.internal.compiler.codegen.StackMapFrameCodeStream.StackMarker;
-import org.eclipse.jdt.internal.compiler.flow.FlowContext;
 import org.eclipse.jdt.internal.compiler.flow.FlowInfo;
 import org.eclipse.jdt.internal.compiler.flow.InitializationFlowContext;
-import org.eclipse.jdt.internal.compiler.flow.UnconditionalFlowInfo;
 import org.eclipse.jdt.internal.compiler.impl.CompilerOptions;
 import org.eclipse.jdt.internal.compiler.impl.Constant;
 import org.eclipse.jdt.internal.compiler.impl.StringConstant;
@@ -53,6 +51,8 @@ import org.eclipse.jdt.internal.compiler.problem.ProblemSeverities;
 import org.eclipse.jdt.internal.compiler.problem.ShouldNotImplement;
 import org.eclipse.jdt.internal.compiler.util.Messages;
 import org.eclipse.jdt.internal.compiler.util.Util;
+import org.testability.AccessorClass;
+import org.testability.InstrumentationStats;
 import org.testability.Testability;
 
 import java.util.*;
@@ -550,8 +550,8 @@ public class ClassFile implements TypeConstants, TypeIds {
 
         List<FieldDeclaration> testabilityFieldDeclarations;
 
-        IdentityHashMap<Expression, FieldDeclaration> callExpressionToRedirectorField = new IdentityHashMap<>();
         LookupEnvironment environment = typeDeclaration.scope.compilationUnitScope().environment;
+        InstrumentationStats instrumentationStats = environment.instrumentationStats;
         if (forProblemType
                 ||
                 !typeDeclaration.compilationResult.instrumentForTestability ||
@@ -565,13 +565,15 @@ public class ClassFile implements TypeConstants, TypeIds {
                 );
             typeDeclaration.compilationResult.instrumentForTestability = false;
         }
-        else
+        else {
+            long makeFieldsStart = instrumentationStats.start();
             testabilityFieldDeclarations =
                 Testability.makeFields(
                     typeDeclaration,
                     currentBinding,
-                        environment,
-                    expressionToRedirectorField -> callExpressionToRedirectorField.putAll(expressionToRedirectorField));
+                        environment);
+            instrumentationStats.stop(InstrumentationStats.Phase.MAKE_FIELDS, typeDeclaration, makeFieldsStart);
+        }
 
 
         int contentsOffsetFieldCount = this.contentsOffset;
@@ -582,90 +584,54 @@ public class ClassFile implements TypeConstants, TypeIds {
 
         if (!testabilityFieldDeclarations.isEmpty()) {
 
-            testabilityFieldDeclarationsActuallyUsed = testabilityFieldDeclarations.stream().
-                    map(fieldDecl -> {
-
-                        MethodScope initializationScope = typeDeclaration.staticInitializerScope;
-
-                        //taken from resolveTypeFor()
-
-                        TypeBinding fieldType =
-                                fieldDecl.getKind() == AbstractVariableDeclaration.ENUM_CONSTANT
-                                        ? initializationScope.environment().convertToRawType(currentBinding, false /*do not force conversion of enclosing types*/) // enum constant is implicitly of declaring enum type
-                                        : fieldDecl.type.resolveType(initializationScope, true /* check bounds*/);
-
-                        fieldDecl.binding.modifiers &= ~ExtraCompilerModifiers.AccUnresolved;
-                        fieldDecl.binding.type = fieldType;
-
-                        {
-                            IErrorHandlingPolicy oldPolicy = initializationScope.problemReporter().policy;
-                            initializationScope.problemReporter().policy = DefaultErrorHandlingPolicies.ignoreAllProblems();
-
-                            fieldDecl.resolve(typeDeclaration.staticInitializerScope);
-
-                            initializationScope.problemReporter().policy = oldPolicy;
-                        }
-
-                        if (!Testability.validateField(fieldDecl, typeDeclaration.initializerScope)) {
-                            List<String> fieldMandatoryErrorStrings = Testability.getFieldMandatoryErrorStrings(
-                                    fieldDecl,
-                                    initializationScope.problemReporter().problemFactory
-                            );
-                            Testability.testabilityInstrumentationWarning(
-                                typeDeclaration.initializerScope,
-                                "The field cannot be validated, and will not be injected: " + fieldDecl +
-                                        "\n\terrors: " +
-                                        fieldMandatoryErrorStrings.stream().
-                                        collect(joining(","))
-                            );
-                            return null;
-                        }
-
-                        this.addFieldInfo(fieldDecl.binding);
-
-                        System.out.println("injected field: " + fieldDecl);
-
-                        return fieldDecl;
-                    }).
-                    filter(Objects::nonNull).
-                    collect(toList());
+            MethodScope initializationScope = typeDeclaration.staticInitializerScope;
+            testabilityFieldDeclarationsActuallyUsed = new ArrayList<>(testabilityFieldDeclarations.size());
+
+            //field declarations are made with their bindings, only types and initializers remain to be resolved.
+            //Problems in initializers are ignored, a field with problems is rejected by validation
+            IErrorHandlingPolicy oldPolicy = initializationScope.problemReporter().policy;
+            try {
+                for (FieldDeclaration fieldDecl : testabilityFieldDeclarations) {
+                    if (typeDeclaration.callSites != null && typeDeclaration.callSites.isRejected(fieldDecl))
+                        continue; //call site of a rejected redirector field, made before its redirector was validated
+                    if (addTestabilityFieldInfo(fieldDecl, typeDeclaration, initializationScope, oldPolicy))
+                        testabilityFieldDeclarationsActuallyUsed.add(fieldDecl);
+                }
 
-            List<FieldDeclaration> finalTestabilityFieldDeclarationsActuallyUsed = testabilityFieldDeclarationsActuallyUsed;
+                //made last, from the fields that passed validation, so that it is initialized after them
+                FieldDeclaration registryField = Testability.makeRegistryField(
+                        typeDeclaration,
+                        currentBinding,
+                        testabilityFieldDeclarationsActuallyUsed);
+                if (registryField != null && addTestabilityFieldInfo(registryField, typeDeclaration, initializationScope, oldPolicy))
+                    testabilityFieldDeclarationsActuallyUsed.add(registryField);
+            } finally {
+                initializationScope.problemReporter().policy = oldPolicy;
+            }
 
-            Map<Expression, FieldDeclaration> callExpressionToRedirectorFieldActuallyUsed =
-                    callExpressionToRedirectorField.entrySet().stream().
-                            filter(entry -> {
-                                FieldDeclaration f = entry.getValue();
-                                return finalTestabilityFieldDeclarationsActuallyUsed.contains(f);
-                            }).
-                            collect(toMap(
-                                    e -> e.getKey(),
-                                    e -> e.getValue(),
-                                    (a, b) -> a
-                            ));
+            if (typeDeclaration.callSites != null)
+                typeDeclaration.callSites.publishRedirectorFields(); //calls to validated fields only, from now on redirected
 
-            typeDeclaration.callExpressionToRedirectorField.putAll(callExpressionToRedirectorFieldActuallyUsed);
+            AccessorClass.make(typeDeclaration, currentBinding, testabilityFieldDeclarationsActuallyUsed);
 
             ReferenceBinding parameterizedType = currentBinding.scope.environment().convertToParameterizedType(currentBinding);
             if (parameterizedType != null)
                 parameterizedType.tagBits &= ~TagBits.AreFieldsComplete; //get the parameterized type upfront and unset flag to cause it to re-resolve fields
 
-            testabilityFieldDeclarationsActuallyUsed.stream().forEach(fieldDeclaration -> {
-
-                UnconditionalFlowInfo flowInfo = FlowInfo.initial(0);
-                FlowContext flowContext = null;
+            //one context for all fields, as TypeDeclaration.internalAnalyseCode does for static initializers
+            long analyseStart = instrumentationStats.start();
+            InitializationFlowContext staticInitializerContext =
+                    new InitializationFlowContext(
+                            null,
+                            typeDeclaration,
+                            FlowInfo.initial(0),
+                            null,
+                            initializationScope);
 
-                InitializationFlowContext staticInitializerContext =
-                        new InitializationFlowContext(
-                                null,
-                                typeDeclaration,
-                                flowInfo,
-                                flowContext,
-                                typeDeclaration.staticInitializerScope);
+            for (FieldDeclaration fieldDeclaration : testabilityFieldDeclarationsActuallyUsed)
+                fieldDeclaration.analyseCode(initializationScope, staticInitializerContext, FlowInfo.initial(0));
 
-                fieldDeclaration.analyseCode(typeDeclaration.staticInitializerScope, staticInitializerContext, flowInfo);
-
-            });
+            instrumentationStats.stop(InstrumentationStats.Phase.ANALYSE_FIELDS, typeDeclaration, analyseStart);
 
         }
 
@@ -694,57 +660,47 @@ public class ClassFile implements TypeConstants, TypeIds {
             }
         }
 
-        if (!testabilityFieldDeclarationsActuallyUsed.isEmpty()){
-            //make new fields discoverable, put into original fields array
-            if (null == currentBinding.scope.referenceContext.fields)
-                currentBinding.scope.referenceContext.fields = new FieldDeclaration[0];
-
-            currentBinding.scope.referenceContext.fields = Arrays.copyOf(
-                    currentBinding.scope.referenceContext.fields,
-                    currentBinding.scope.referenceContext.fields.length + testabilityFieldDeclarationsActuallyUsed.size());
-
-            for (int iField = 0; iField < testabilityFieldDeclarationsActuallyUsed.size(); iField++)
-                currentBinding.scope.referenceContext.fields[
-                        currentBinding.scope.referenceContext.fields.length -
-                                testabilityFieldDeclarationsActuallyUsed.size() +
-                                iField] = testabilityFieldDeclarationsActuallyUsed.get(iField);
-
-            FieldBinding[] fields =
-                    Arrays.stream(currentBinding.scope.referenceContext.fields).
-                            map(decl -> decl.binding).
-                            filter(Objects::nonNull).//note: instanceof Initializer has binding=null, e.g. in class org.eclipse.jdt.internal.compiler.batch.ClasspathJsr199
-                            collect(toList()).
-                            toArray(new FieldBinding[0]);
-
-            testabilityFieldDeclarationsActuallyUsed.stream().forEach(field -> field.binding.modifiers |= ExtraCompilerModifiers.AccUnresolved);
+        if (!testabilityFieldDeclarationsActuallyUsed.isEmpty() || syntheticFields != null) {
+            //make new fields discoverable: put them into original fields array, and update the binding's fields once,
+            //together with synthetic fields
+            FieldBinding[] fields;
+            int fieldsLength = 0;
+            if (!testabilityFieldDeclarationsActuallyUsed.isEmpty()) {
+                FieldDeclaration[] declarations = currentBinding.scope.referenceContext.fields;
+                int declarationsLength = declarations == null ? 0 : declarations.length;
+                declarations = declarations == null ?
+                        new FieldDeclaration[testabilityFieldDeclarationsActuallyUsed.size()] :
+                        Arrays.copyOf(declarations, declarationsLength + testabilityFieldDeclarationsActuallyUsed.size());
+                for (int iField = 0; iField < testabilityFieldDeclarationsActuallyUsed.size(); iField++)
+                    declarations[declarationsLength + iField] = testabilityFieldDeclarationsActuallyUsed.get(iField);
+                currentBinding.scope.referenceContext.fields = declarations;
+
+                fields = new FieldBinding[declarations.length + (syntheticFields == null ? 0 : syntheticFields.length)];
+                for (FieldDeclaration declaration : declarations) {
+                    if (declaration.binding != null) //note: instanceof Initializer has binding=null, e.g. in class org.eclipse.jdt.internal.compiler.batch.ClasspathJsr199
+                        fields[fieldsLength++] = declaration.binding;
+                }
+            } else {
+                FieldBinding[] oldFields = currentBinding.fields();
+                if (oldFields == null)
+                    oldFields = new FieldBinding[0];
+                fields = Arrays.copyOf(oldFields, oldFields.length + syntheticFields.length);
+                fieldsLength = oldFields.length;
+            }
+            if (syntheticFields != null) {
+                System.arraycopy(syntheticFields, 0, fields, fieldsLength, syntheticFields.length);
+                fieldsLength += syntheticFields.length;
+            }
+            if (fieldsLength < fields.length)
+                fields = Arrays.copyOf(fields, fieldsLength);
 
             currentBinding.tagBits &= ~TagBits.AreFieldsComplete; //unset
             currentBinding.tagBits &= ~TagBits.AreFieldsSorted;
 
             currentBinding.setFields(fields);
-            currentBinding.fields();
-
-        }
-
-        //TODO experiment, remove
-        if (syntheticFields != null){
-            FieldBinding[] oldFields = currentBinding.fields();
-            if (oldFields == null)
-                oldFields = new FieldBinding[0];
-            FieldBinding[] newFieldsWithSynthetics = new FieldBinding[oldFields.length + syntheticFields.length];
-            int off=0;
-            for (;off<oldFields.length;off++)
-                newFieldsWithSynthetics[off] = oldFields[off];
-            for (;off<newFieldsWithSynthetics.length;off++)
-                newFieldsWithSynthetics[off] = syntheticFields[off-oldFields.length];
-
-            currentBinding.tagBits &= ~TagBits.AreFieldsComplete; //unset
-            currentBinding.tagBits &= ~TagBits.AreFieldsSorted;
+            currentBinding.fields(); //sort, testability fields are already resolved
 
-            currentBinding.setFields(newFieldsWithSynthetics);
-            currentBinding.fields();
-
-            if (currentBinding.isLocalType()) {
+            if (syntheticFields != null && currentBinding.isLocalType()) {
                 //propagate to derived types
 
                 Testability.getDerivedTypes(currentBinding, environment).
@@ -761,6 +717,68 @@ public class ClassFile implements TypeConstants, TypeIds {
     }
 
 
+    /**
+     * resolve an injected field, validate it and, if valid, write its field info
+     * @return false if the field is rejected
+     */
+    private boolean addTestabilityFieldInfo(
+            FieldDeclaration fieldDecl,
+            TypeDeclaration typeDeclaration,
+            MethodScope initializationScope,
+            IErrorHandlingPolicy oldPolicy) {
+
+        SourceTypeBinding currentBinding = this.referenceBinding;
+        InstrumentationStats instrumentationStats = typeDeclaration.scope.compilationUnitScope().environment.instrumentationStats;
+
+        long resolveStart = instrumentationStats.start();
+
+        //taken from resolveTypeFor()
+
+        TypeBinding fieldType =
+                fieldDecl.getKind() == AbstractVariableDeclaration.ENUM_CONSTANT
+                        ? initializationScope.environment().convertToRawType(currentBinding, false /*do not force conversion of enclosing types*/) // enum constant is implicitly of declaring enum type
+                        : fieldDecl.type.resolveType(initializationScope, true /* check bounds*/);
+
+        fieldDecl.binding.modifiers &= ~ExtraCompilerModifiers.AccUnresolved;
+        fieldDecl.binding.type = fieldType;
+
+        initializationScope.problemReporter().policy = DefaultErrorHandlingPolicies.ignoreAllProblems();
+        fieldDecl.resolve(initializationScope);
+        initializationScope.problemReporter().policy = oldPolicy;
+
+        instrumentationStats.stop(InstrumentationStats.Phase.RESOLVE_FIELDS, typeDeclaration, resolveStart);
+
+        long validateStart = instrumentationStats.start();
+        boolean valid = Testability.validateField(fieldDecl, typeDeclaration.initializerScope);
+        instrumentationStats.stop(InstrumentationStats.Phase.VALIDATE_FIELDS, typeDeclaration, validateStart);
+        instrumentationStats.count(
+                valid ? InstrumentationStats.Counter.FIELDS_VALIDATED : InstrumentationStats.Counter.FIELDS_REJECTED,
+                typeDeclaration, 1);
+
+        if (!valid) {
+            List<String> fieldMandatoryErrorStrings = Testability.getFieldMandatoryErrorStrings(
+                    fieldDecl,
+                    initializationScope.problemReporter().problemFactory
+            );
+            Testability.testabilityInstrumentationWarning(
+                typeDeclaration.initializerScope,
+                "The field cannot be validated, and will not be injected: " + fieldDecl +
+                        "\n\terrors: " +
+                        fieldMandatoryErrorStrings.stream().
+                        collect(joining(","))
+            );
+            if (typeDeclaration.callSites != null)
+                typeDeclaration.callSites.rejectRedirectorField(fieldDecl);
+            return false;
+        }
+
+        this.addFieldInfo(fieldDecl.binding);
+
+        System.out.println("injected field: " + fieldDecl);
+
+        return true;
+    }
+
     private void addMissingAbstractProblemMethod(MethodDeclaration methodDeclaration, MethodBinding methodBinding, CategorizedProblem problem, CompilationResult compilationResult) {
         // always clear the strictfp/native/abstract bit for a problem method
         generateMethodInfoHeader(methodBinding, methodBinding.modifiers & ~(ClassFileConstants.AccStrictfp | ClassFileConstants.AccNative | ClassFileConstants.AccAbstract));
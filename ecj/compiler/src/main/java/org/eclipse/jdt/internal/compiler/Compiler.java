@@ -32,8 +32,12 @@ import org.eclipse.jdt.internal.compiler.parser.Parser;
 import org.eclipse.jdt.internal.compiler.problem.*;
 import org.eclipse.jdt.internal.compiler.util.Messages;
 import org.eclipse.jdt.internal.compiler.util.Util;
+import org.testability.InstrumentationScope;
+import org.testability.InstrumentationStats;
 import org.testability.Testability;
 
+import java.io.File;
+import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.*;
 import java.util.stream.Collectors;
@@ -67,6 +71,7 @@ public class Compiler implements ITypeRequestor, ProblemSeverities {
     public int annotationProcessorStartIndex = 0;
     public ReferenceBinding[] referenceBindings;
     public boolean useSingleThread = true; // by default the compiler will not use worker threads to read/process/write
+    public File instrumentationStatsReport; // if set, instrumentation timers/counters are written there as JSON after compile
 
     // number of initial units parsed at once (-1: none)
 
@@ -278,8 +283,11 @@ public class Compiler implements ITypeRequestor, ProblemSeverities {
         this.problemReporter = new ProblemReporter(policy, this.options, problemFactory);
         this.lookupEnvironment = new LookupEnvironment(this, this.options, this.problemReporter, environment);
         this.lookupEnvironment.instrumentationOptions = getInstrumentationOptions();
+        this.lookupEnvironment.instrumentationScope = getInstrumentationScope();
 
         System.out.println("testablejava instrumentation options: " + this.lookupEnvironment.instrumentationOptions);
+        if (!this.lookupEnvironment.instrumentationScope.isAll())
+            System.out.println("testablejava instrumentation scope: " + this.lookupEnvironment.instrumentationScope);
         this.out = out == null ? new PrintWriter(System.out, true) : out;
         this.stats = new CompilerStats();
         initializeParser();
@@ -290,6 +298,14 @@ public class Compiler implements ITypeRequestor, ProblemSeverities {
         return Compiler.getDefaultInstrumentationOptions();
     }
 
+    /**
+     * @return calls to redirect, all by default
+     */
+    protected InstrumentationScope getInstrumentationScope() {
+
+        return InstrumentationScope.ALL;
+    }
+
     static public Set<InstrumentationOptions> getDefaultInstrumentationOptions() {
         return Arrays.
                 stream(InstrumentationOptions.ALL).
@@ -422,7 +438,32 @@ public class Compiler implements ITypeRequestor, ProblemSeverities {
     }
 
     public void compile(ICompilationUnit[] sourceUnits) {
-        compile(sourceUnits, false);
+        this.lookupEnvironment.instrumentationStats = collectsInstrumentationStats() ?
+                this.stats.instrumentation :
+                InstrumentationStats.NONE;
+        try {
+            compile(sourceUnits, false);
+        } finally {
+            reportInstrumentationStats();
+        }
+    }
+
+    /**
+     * @return instrumentation timers/counters are needed, false unless a report was requested: they would slow down
+     * every call site
+     */
+    protected boolean collectsInstrumentationStats() {
+        return this.instrumentationStatsReport != null;
+    }
+
+    protected void reportInstrumentationStats() {
+        if (this.instrumentationStatsReport == null)
+            return;
+        try {
+            this.stats.instrumentation.writeJson(this.instrumentationStatsReport);
+        } catch (IOException ex) {
+            this.out.println("testablejava: cannot write instrumentation stats to " + this.instrumentationStatsReport + ": " + ex);
+        }
     }
 
     /**
@@ -802,21 +843,28 @@ public class Compiler implements ITypeRequestor, ProblemSeverities {
      * ->  build compilation unit declarations, their bindings and record their results.
      */
     protected void internalBeginToCompile(ICompilationUnit[] sourceUnits, int maxUnits) {
-        if (!this.useSingleThread && maxUnits >= ReadManager.THRESHOLD)
-            this.parser.readManager = new ReadManager(sourceUnits, maxUnits);
-
         IdentityHashMap<ICompilationUnit, Boolean> toBeInstrumented = new IdentityHashMap<>();
         {
             Parser previewParser = new Parser(this.problemReporter, this.options.parseLiteralExpressionsAsConstants);
             //sort sourceUnits so that tests appear last. This way they can reference testability fields that will exist by the time test code is evaluated
+            InstrumentationStats instrumentationStats = this.lookupEnvironment.instrumentationStats;
             Map<Boolean, List<ICompilationUnit>> partitions = Arrays.stream(sourceUnits).
                     collect(Collectors.partitioningBy(sourceUnit -> {
+                        long previewStart = instrumentationStats.start();
                         CompilationResult fullParseUnitResult =
                                 new CompilationResult(sourceUnit, 0, maxUnits, this.options.maxProblemsPerUnit);
 
                         CompilationUnitDeclaration fullParsedUnit = previewParser.parse(sourceUnit, fullParseUnitResult);
-                        return Testability.codeContainsSyntaxErrors(fullParseUnitResult) || //note: cannot detect if this is test code: empty methods. Want to prevent field creation
+                        boolean notToInstrument = Testability.codeContainsSyntaxErrors(fullParseUnitResult) || //note: cannot detect if this is test code: empty methods. Want to prevent field creation
                                 Testability.codeContainsTestabilityFieldAccessExpression(fullParsedUnit);
+
+                        instrumentationStats.stop(InstrumentationStats.Phase.PREVIEW_CLASSIFICATION, sourceUnit, previewStart);
+                        instrumentationStats.count(
+                                notToInstrument ?
+                                        InstrumentationStats.Counter.UNITS_NOT_INSTRUMENTED :
+                                        InstrumentationStats.Counter.UNITS_INSTRUMENTED,
+                                sourceUnit, 1);
+                        return notToInstrument;
                     }));
             ArrayList<ICompilationUnit> sortedTestLast = new ArrayList<>();
 
@@ -830,6 +878,9 @@ public class Compiler implements ITypeRequestor, ProblemSeverities {
 
             unitsToInstrument.forEach(u -> toBeInstrumented.put(u, true));
         }
+        //read-ahead must follow the order established above, otherwise its cache misses on every unit
+        if (!this.useSingleThread && maxUnits >= ReadManager.THRESHOLD)
+            this.parser.readManager = new ReadManager(sourceUnits, maxUnits);
 
         // Switch the current policy and compilation result for this unit to the requested one.
         for (int i = 0; i < maxUnits; i++) {
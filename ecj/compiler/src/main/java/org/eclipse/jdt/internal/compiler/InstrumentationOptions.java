@@ -8,6 +8,11 @@
 
 package org.eclipse.jdt.internal.compiler;
 
-public enum InstrumentationOptions {INSERT_REDIRECTORS, INSERT_LISTENERS;
+public enum InstrumentationOptions {INSERT_REDIRECTORS, INSERT_LISTENERS, INSERT_CALL_SITES, INSERT_KILL_SWITCH, INSERT_REGISTRY, INSERT_ACCESSORS;
+    /**
+     * defaults; INSERT_KILL_SWITCH is left out, it doubles the code of each redirected call, and so are
+     * INSERT_CALL_SITES, which adds a field per redirected call, INSERT_REGISTRY, which adds a field and
+     * its initialization to each top-level class, and INSERT_ACCESSORS, which adds a class file for each
+     */
     public static final InstrumentationOptions[] ALL = {INSERT_REDIRECTORS, INSERT_LISTENERS};
 }
@@ -64,6 +64,7 @@ import org.eclipse.jdt.internal.compiler.impl.Constant;
 import org.eclipse.jdt.internal.compiler.lookup.*;
 import org.eclipse.jdt.internal.compiler.problem.ProblemSeverities;
 import org.eclipse.jdt.internal.compiler.util.SimpleLookupTable;
+import org.testability.InstrumentationStats;
 import org.testability.Testability;
 
 import java.util.HashMap;
@@ -94,6 +95,8 @@ public class AllocationExpression extends Expression implements IPolyExpression,
     public TypeBinding[] argumentTypes = Binding.NO_PARAMETERS;
     public boolean argumentsHaveErrors = false;
 
+    public int testabilityCallSiteOrdinal = -1; // index in CallSiteTable of the top-level type, if registered to redirect
+
     public FlowInfo analyseCode(BlockScope currentScope, FlowContext flowContext, FlowInfo flowInfo) {
         // check captured variables are initialized in current context (26134)
         checkCapturedLocalInitializationIfNecessary((ReferenceBinding)this.binding.declaringClass.erasure(), currentScope, flowInfo);
@@ -259,15 +262,17 @@ public class AllocationExpression extends Expression implements IPolyExpression,
      */
     boolean replaceCallWithFieldRefirectorIfNeeded(BlockScope currentScope, CodeStream codeStream, boolean valueRequired) {
         //check if this needs to be replaced with special redirector message send, which will be used in generation instead
+        long rewriteStart = Testability.startCallSiteRewrite(currentScope);
         MessageSend messageGetField = Testability.replaceCallWithFieldRedirectorIfNeeded(
                 this, currentScope, valueRequired);
+        Testability.recordCallSiteRewrite(currentScope, messageGetField != null, rewriteStart);
 
         if (messageGetField != null) {
             String methodDescriptor = getMethodDescriptor(currentScope, "<unknown>");
             System.out.println(
                     "instrumenting call in " + methodDescriptor +": " + this + " ... ");
 
-            messageGetField.generateCode(currentScope, codeStream, valueRequired);
+            Testability.generateRedirectedCall(this, messageGetField, currentScope, codeStream, valueRequired);
             System.out.println("instrumented call in " + methodDescriptor + ": " + this + " ==> " + messageGetField);
             return true;
         }
@@ -76,6 +76,7 @@ import org.eclipse.jdt.internal.compiler.impl.ReferenceContext;
 import org.eclipse.jdt.internal.compiler.lookup.*;
 import org.eclipse.jdt.internal.compiler.problem.ProblemSeverities;
 import org.eclipse.jdt.internal.compiler.util.SimpleLookupTable;
+import org.testability.InstrumentationStats;
 import org.testability.Testability;
 
 import java.util.Arrays;
@@ -111,6 +112,10 @@ public class MessageSend extends Expression implements IPolyExpression, Invocati
     public TypeBinding[] argumentTypes = Binding.NO_PARAMETERS;
     public boolean argumentsHaveErrors = false;
 
+    public int testabilityCallSiteOrdinal = -1; // index in CallSiteTable of the top-level type, if registered to redirect
+
+    public int[] testabilityOriginalArgumentConversions; // on a call to a redirector: implicit conversions of the original call's arguments, see Testability.generateRedirectedCall
+
 
     public FlowInfo analyseCode(BlockScope currentScope, FlowContext flowContext, FlowInfo flowInfo) {
         boolean nonStatic = !this.binding.isStatic();
@@ -413,14 +418,16 @@ public class MessageSend extends Expression implements IPolyExpression, Invocati
     public void generateCode(BlockScope currentScope, CodeStream codeStream, boolean valueRequired) {
 
         { //check if this needs to be replaced with special redirector message send, which will be used in generation instead
+            long rewriteStart = Testability.startCallSiteRewrite(currentScope);
             MessageSend messageGetField = Testability.replaceCallWithFieldRedirectorIfNeeded(
                     this, currentScope, valueRequired);
+            Testability.recordCallSiteRewrite(currentScope, messageGetField != null, rewriteStart);
 
             if (messageGetField != null) {
                 String methodDescriptor = getMethodDescriptor(currentScope, "<unknown>");
                 System.out.println("instrumenting call in " + methodDescriptor + ": " + this + " ... ");
 
-                messageGetField.generateCode(currentScope, codeStream, valueRequired);
+                Testability.generateRedirectedCall(this, messageGetField, currentScope, codeStream, valueRequired);
 
                 System.out.println("instrumenting call in " + methodDescriptor +": " + this + " ==> " + messageGetField);
                 return;
@@ -37,6 +37,8 @@ import org.eclipse.jdt.internal.compiler.lookup.*;
 import org.eclipse.jdt.internal.compiler.parser.Parser;
 import org.eclipse.jdt.internal.compiler.problem.*;
 import org.eclipse.jdt.internal.compiler.util.Util;
+import org.testability.CallSiteTable;
+import org.testability.InstrumentationStats;
 import org.testability.Testability;
 
 import java.util.*;
@@ -79,10 +81,10 @@ public class TypeDeclaration extends Statement implements ProblemSeverities, Ref
     public int enumConstantsCounter;
 
     // testability
-    public List<Map.Entry<Expression, TypeDeclaration>> allCallsToRedirect = new ArrayList<>(); //expression to type containing expression (e.g. inner)
-    public Map<Expression, FieldDeclaration> callExpressionToRedirectorField = new IdentityHashMap<>();
-    public List<Map.Entry<TypeDeclaration, TypeDeclaration>> anonymousTypes = new ArrayList<>(); //AnonymousType to type containing expression (e.g. inner)
-    public boolean methodsResolved = false; //flag indicating method resolution phase is over
+    // note: thread-safe, since with Compiler.useSingleThread=false resolve and codegen run on a worker thread
+    // while the compiler thread accepts results
+    public volatile CallSiteTable callSites; // calls to redirect, in the top-level type only; created on first call, released after code generation
+    public volatile boolean methodsResolved = false; //flag indicating method resolution phase is over
 
     // 1.5 support
     public TypeParameter[] typeParameters;
@@ -535,6 +537,14 @@ public class TypeDeclaration extends Statement implements ProblemSeverities, Ref
      * Generic bytecode generation for type
      */
     public void generateCode(ClassFile enclosingClassFile) {
+        try {
+            internalGenerateCode(enclosingClassFile);
+        } finally {
+            Testability.releaseCallSites(this); //only the top-level type has call sites, nested types are generated by now
+        }
+    }
+
+    private void internalGenerateCode(ClassFile enclosingClassFile) {
         if ((this.bits & ASTNode.HasBeenGenerated) != 0)
             return;
         this.bits |= ASTNode.HasBeenGenerated;
@@ -596,6 +606,7 @@ public class TypeDeclaration extends Statement implements ProblemSeverities, Ref
                             compilationResult.instrumentForTestability &&
                             !thisTypeIsTestabilityFieldInitializer
                             ) {
+                        long listenerCallsStart = this.scope.environment().instrumentationStats.start();
                         try {
                             Testability.addListenerCallsToConstructor((ConstructorDeclaration) this.methods[i], this.binding);
                         } catch(Exception ex) {
@@ -604,6 +615,9 @@ public class TypeDeclaration extends Statement implements ProblemSeverities, Ref
                                     this.scope,
                                     "could not add listener calls to constructor",
                                     ex);
+                        } finally {
+                            this.scope.environment().instrumentationStats.stop(
+                                    InstrumentationStats.Phase.LISTENER_CALLS, this, listenerCallsStart);
                         }
 
                     }
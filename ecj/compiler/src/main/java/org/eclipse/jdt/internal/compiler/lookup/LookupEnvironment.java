@@ -51,6 +51,9 @@ import org.eclipse.jdt.internal.compiler.problem.AbortCompilation;
 import org.eclipse.jdt.internal.compiler.problem.ProblemReporter;
 import org.eclipse.jdt.internal.compiler.util.HashtableOfPackage;
 import org.eclipse.jdt.internal.compiler.util.SimpleLookupTable;
+import org.testability.InstrumentationScope;
+import org.testability.InstrumentationStats;
+import org.testability.TestabilityBindings;
 
 import java.util.*;
 import java.util.stream.Collectors;
@@ -75,6 +78,9 @@ public class LookupEnvironment implements ProblemReasons, TypeConstants {
     public INameEnvironment nameEnvironment;
     public CompilerOptions globalOptions;
     public Set<InstrumentationOptions> instrumentationOptions = Collections.emptySet();
+    public InstrumentationScope instrumentationScope = InstrumentationScope.ALL;
+    public InstrumentationStats instrumentationStats = InstrumentationStats.NONE; //see Compiler.collectsInstrumentationStats
+    public TestabilityBindings testabilityBindings = new TestabilityBindings(this); //testability: replaced on reset
 
     public ProblemReporter problemReporter;
     public ClassFilePool classFilePool;
@@ -83,7 +89,7 @@ public class LookupEnvironment implements ProblemReasons, TypeConstants {
     // step 2 : conect the hierarchy (connect bindings)
     // step 3 : build fields and method bindings.
     // step 4 : resolve testability fields
-    private int stepCompleted;
+    private volatile int stepCompleted; // volatile: read by the processing thread when Compiler.useSingleThread=false
 
     public void setStepResolveTestabilityFields() {
         stepCompleted = RESOLVE_TESTABILITY_FIELDS;
@@ -734,6 +740,25 @@ public class LookupEnvironment implements ProblemReasons, TypeConstants {
         return binaryBinding;
     }
 
+    /**
+     * testability: bind a type synthesized by the compiler (see org.testability.HelperTypes), replacing the
+     * not-found entry a failed lookup has cached
+     * @return null if the name is taken by a type other than a missing one
+     */
+    public BinaryTypeBinding createSynthesizedBinaryType(char[][] compoundName, IBinaryType binaryType) {
+        PackageBinding packageBinding = createPackage(CharOperation.subarray(compoundName, 0, compoundName.length - 1));
+        if (packageBinding == null)
+            return null;
+        ReferenceBinding cachedType = packageBinding.getType0(compoundName[compoundName.length - 1]);
+        if (cachedType != null && cachedType != TheNotFoundType && !cachedType.isUnresolvedType())
+            return null;
+
+        BinaryTypeBinding binaryBinding = new BinaryTypeBinding(packageBinding, binaryType, this);
+        packageBinding.addType(binaryBinding);
+        binaryBinding.cachePartsFrom(binaryType, true);
+        return binaryBinding;
+    }
+
     /*
      * Used to create types denoting missing types.
      * If package is given, then reuse the package; if not then infer a package from compound name.
@@ -1710,6 +1735,7 @@ public class LookupEnvironment implements ProblemReasons, TypeConstants {
 
         this.classFilePool.reset();
         this.typeSystem.reset();
+        this.testabilityBindings = new TestabilityBindings(this);
         // name environment has a longer life cycle, and must be reset in
         // the code which created it.
     }
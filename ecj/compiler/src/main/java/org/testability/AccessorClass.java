@@ -0,0 +1,383 @@
+/*******************************************************************************
+ * Copyright (c) 2017-2018 Julian Rozentur
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+package org.testability;
+
+import org.eclipse.jdt.core.compiler.CharOperation;
+import org.eclipse.jdt.internal.compiler.InstrumentationOptions;
+import org.eclipse.jdt.internal.compiler.ast.FieldDeclaration;
+import org.eclipse.jdt.internal.compiler.ast.TypeDeclaration;
+import org.eclipse.jdt.internal.compiler.classfmt.ClassFileConstants;
+import org.eclipse.jdt.internal.compiler.classfmt.ClassFileReader;
+import org.eclipse.jdt.internal.compiler.classfmt.ClassFormatException;
+import org.eclipse.jdt.internal.compiler.lookup.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * companion class X$$Redirectors of an instrumented top-level class X, written with it in the same pass, with typed
+ * static methods for tests to set, read and reset its redirector and listener fields without naming them:
+ *
+ *   X$$Redirectors.set$java$lang$Integer$parseInt$$java$lang$String((ctx, s) -> 42);
+ *   X$$Redirectors.return$java$lang$Integer$parseInt$$java$lang$String(42); //int, for a redirector returning Integer
+ *   X$$Redirectors.reset$java$lang$Integer$parseInt$$java$lang$String();    //original value, with INSERT_REGISTRY
+ *   X$$Redirectors.get$preCreate();
+ *
+ * Redirector accessors are named after the long name of the call (RedirectorDescriptor.uniqueInOverload), which
+ * does not depend on other calls of the class, unlike the field name Util.uniqueMatrix may lengthen to tell calls apart;
+ * listener accessors after the field. set/get are a putstatic/getstatic of the field and reset calls
+ * RedirectorRegistry.reset with the index of the field, so nothing is looked up by name at runtime.
+ * return sets the field to an instance of X$$Redirectors itself, which implements the helpers.FunctionN[_M]
+ * interfaces of those fields, each apply returning the value it was made with, so no reflection is needed either.
+ * Two fields with the same accessor name are reported as an error, and no class is written.
+ *
+ * Like HelperTypes, the class file is made directly rather than from a TypeDeclaration, so it is not visible to
+ * sources compiled in the same pass, only to those compiled against the output
+ */
+public class AccessorClass {
+
+    static final String NAME_SUFFIX = "$$Redirectors";
+    static final String VALUE_FIELD_NAME = "value"; //returned by instances made by return methods
+
+    /**
+     * write X$$Redirectors for the fields injected into X, if there are any to access
+     * @param injectedFields validated fields injected into the type, the registry last if made
+     */
+    public static void make(
+            TypeDeclaration typeDeclaration,
+            SourceTypeBinding referenceBinding,
+            List<FieldDeclaration> injectedFields) {
+
+        LookupEnvironment lookupEnvironment = referenceBinding.scope.environment();
+
+        if (!Testability.getInstrumentationOptions(lookupEnvironment).contains(InstrumentationOptions.INSERT_ACCESSORS))
+            return;
+
+        FieldDeclaration registryField = injectedFields.stream().
+                filter(f -> CharOperation.equals(f.name, Testability.REGISTRY_FIELD_NAME.toCharArray())).
+                findFirst().
+                orElse(null);
+
+        String owner = new String(referenceBinding.constantPoolName());
+        String name = owner + NAME_SUFFIX;
+
+        HelperTypes.ConstantPool pool = new HelperTypes.ConstantPool();
+        int thisClass = pool.classRef(name);
+        int superClass = pool.classRef("java/lang/Object");
+
+        List<byte[]> methods = new ArrayList<>();
+        Map<String, String> fieldNameByAccessorName = new HashMap<>();
+        Set<String> returningInterfaces = new LinkedHashSet<>(); //implemented by instances made by return methods
+        Set<Integer> returningArgCounts = new TreeSet<>();       //of their apply methods
+        int registryIndex = 0; //index of the field in the registry, which lists the non-final fields in this order
+        for (FieldDeclaration field : injectedFields) {
+            if ((field.modifiers & ClassFileConstants.AccFinal) != 0)
+                continue; //call sites, registry
+
+            String accessorName = accessorName(typeDeclaration.callSites, field);
+            int index = registryIndex++;
+            String fieldName = new String(field.name);
+            String otherFieldName = fieldNameByAccessorName.put(accessorName, fieldName);
+            if (otherFieldName != null) {
+                Testability.testabilityInstrumentationError(
+                        typeDeclaration.scope,
+                        "accessor class " + name + " not written, fields " + otherFieldName + " and " + fieldName +
+                                " would both have accessors named *" + accessorName);
+                return;
+            }
+
+            TypeBinding type = field.binding.type;
+            String descriptor = new String(type.erasure().signature());
+            String signature = genericSignature(type);
+            int fieldRef = pool.fieldRef(owner, fieldName, descriptor);
+
+            Code set = new Code(1, 1);
+            set.op(0x2a); //aload_0
+            set.op(0xb3, fieldRef); //putstatic
+            set.op(0xb1); //return
+            methods.add(method(pool, "set" + accessorName, "(" + descriptor + ")V",
+                    signature == null ? null : "(" + signature + ")V", set));
+
+            Code get = new Code(1, 0);
+            get.op(0xb2, fieldRef); //getstatic
+            get.op(0xb0); //areturn
+            methods.add(method(pool, "get" + accessorName, "()" + descriptor,
+                    signature == null ? null : "()" + signature, get));
+
+            if (registryField != null) {
+                Code reset = new Code(2, 0);
+                reset.op(0xb2, pool.fieldRef(owner, Testability.REGISTRY_FIELD_NAME, new String(registryField.binding.type.signature())));
+                reset.pushInt(pool, index);
+                reset.op(0xb6, pool.methodRef(new String(registryField.binding.type.constantPoolName()), "reset", "(I)V")); //invokevirtual
+                reset.op(0xb1);
+                methods.add(method(pool, "reset" + accessorName, "()V", null, reset));
+            }
+
+            TypeBinding returnType = returnType(type);
+            if (returnType != null) {
+                TypeBinding primitive = lookupEnvironment.computeBoxingType(returnType);
+                boolean unboxed = primitive.isBaseType();
+                TypeBinding parameterType = unboxed ? primitive : returnType;
+                String parameterDescriptor = new String(parameterType.erasure().signature());
+                String parameterSignature = unboxed ? null : genericSignature(parameterType);
+
+                int parameterSlots = parameterType.id == TypeIds.T_long || parameterType.id == TypeIds.T_double ? 2 : 1;
+
+                Code returning = new Code(2 + parameterSlots, parameterSlots);
+                returning.op(0xbb, thisClass); //new
+                returning.op(0x59); //dup
+                returning.op(loadOpcode(parameterType));
+                if (unboxed) {
+                    String box = new String(returnType.constantPoolName());
+                    returning.op(0xb8, pool.methodRef(box, "valueOf", "(" + parameterDescriptor + ")L" + box + ";")); //invokestatic
+                }
+                returning.op(0xb7, pool.methodRef(name, "<init>", "(Ljava/lang/Object;)V")); //invokespecial
+                returning.op(0xb3, fieldRef);
+                returning.op(0xb1);
+                methods.add(method(pool, "return" + accessorName, "(" + parameterDescriptor + ")V",
+                        parameterSignature == null ? null : "(" + parameterSignature + ")V", returning));
+
+                returningInterfaces.add(new String(type.erasure().constantPoolName()));
+                returningArgCounts.add(((ParameterizedTypeBinding) type).arguments.length - 1); //T1..TN, R
+            }
+        }
+
+        if (methods.isEmpty())
+            return;
+        int accessorCount = methods.size();
+
+        List<Integer> interfaces = new ArrayList<>();
+        List<byte[]> fields = new ArrayList<>();
+        if (!returningInterfaces.isEmpty()) {
+            for (String functionalInterface : returningInterfaces)
+                interfaces.add(pool.classRef(functionalInterface));
+            fields.add(field(pool, 0x0012, VALUE_FIELD_NAME, "Ljava/lang/Object;")); //ACC_PRIVATE | ACC_FINAL
+            int valueRef = pool.fieldRef(name, VALUE_FIELD_NAME, "Ljava/lang/Object;");
+
+            Code constructor = new Code(2, 2);
+            constructor.op(0x2a); //aload_0
+            constructor.op(0xb7, pool.methodRef("java/lang/Object", "<init>", "()V")); //invokespecial
+            constructor.op(0x2a);
+            constructor.op(0x2b); //aload_1
+            constructor.op(0xb5, valueRef); //putfield
+            constructor.op(0xb1);
+            methods.add(method(pool, 0x0002, "<init>", "(Ljava/lang/Object;)V", null, constructor)); //ACC_PRIVATE
+
+            for (int argCount : returningArgCounts) {
+                Code apply = new Code(1, 1 + argCount);
+                apply.op(0x2a);
+                apply.op(0xb4, valueRef); //getfield
+                apply.op(0xb0); //areturn
+                StringBuilder descriptor = new StringBuilder("(");
+                for (int i = 0; i < argCount; i++)
+                    descriptor.append("Ljava/lang/Object;");
+                methods.add(method(pool, 0x0001, Testability.TARGET_REDIRECTED_METHOD_NAME_FOR_FUNCTION,
+                        descriptor.append(")Ljava/lang/Object;").toString(), null, apply)); //ACC_PUBLIC
+            }
+        }
+
+        byte[] bytes = classFileBytes(pool, referenceBinding.isPublic(), thisClass, superClass, interfaces, fields, methods);
+        try {
+            new ClassFileReader(bytes, (name + ".class").toCharArray());
+        } catch (ClassFormatException e) {
+            throw new RuntimeException("accessor class is not a valid class file: " + name, e);
+        }
+        HelperTypes.addCompiledType(typeDeclaration.compilationResult, name, bytes);
+
+        lookupEnvironment.instrumentationStats.count(InstrumentationStats.Counter.ACCESSORS_CREATED, typeDeclaration, accessorCount);
+    }
+
+    /**
+     * @return e.g. $java$lang$Integer$parseInt$$java$lang$String for a redirector, $preCreate for a listener
+     */
+    static String accessorName(CallSiteTable callSites, FieldDeclaration field) {
+        String stableName = callSites == null ? null : callSites.stableName(field);
+        if (stableName != null)
+            return "$" + stableName;
+        return "$" + new String(field.name).substring(Testability.TESTABILITY_FIELD_NAME_PREFIX.length());
+    }
+
+    /**
+     * @return R of a helpers.FunctionN[_M]&lt;..., R&gt; field type, null if void or not known
+     */
+    static TypeBinding returnType(TypeBinding fieldType) {
+        if (!(fieldType instanceof ParameterizedTypeBinding))
+            return null;
+        ReferenceBinding erasure = (ReferenceBinding) fieldType.erasure();
+        if (erasure.compoundName.length != 2 ||
+                !CharOperation.equals(erasure.compoundName[0], HelperTypes.PACKAGE.toCharArray()) ||
+                !CharOperation.prefixEquals("Function".toCharArray(), erasure.compoundName[1]))
+            return null;
+        TypeBinding[] arguments = ((ParameterizedTypeBinding) fieldType).arguments;
+        if (arguments == null || arguments.length == 0)
+            return null;
+        TypeBinding ret = arguments[arguments.length - 1];
+        return ret.isWildcard() || ret.isCapture() || ret.isTypeVariable() ? null : ret;
+    }
+
+    /**
+     * @return generic signature, null if the same as the erasure (no Signature attribute needed)
+     */
+    static String genericSignature(TypeBinding type) {
+        String ret = new String(type.genericTypeSignature());
+        return ret.equals(new String(type.erasure().signature())) ? null : ret;
+    }
+
+    static int loadOpcode(TypeBinding parameterType) {
+        switch (parameterType.id) {
+            case TypeIds.T_long:
+                return 0x1e; //lload_0
+            case TypeIds.T_float:
+                return 0x22; //fload_0
+            case TypeIds.T_double:
+                return 0x26; //dload_0
+            case TypeIds.T_int:
+            case TypeIds.T_short:
+            case TypeIds.T_byte:
+            case TypeIds.T_char:
+            case TypeIds.T_boolean:
+                return 0x1a; //iload_0
+            default:
+                return 0x2a; //aload_0
+        }
+    }
+
+    /**
+     * public static method with a Code attribute, and Signature if generic
+     */
+    static byte[] method(HelperTypes.ConstantPool pool, String name, String descriptor, String signature, Code code) {
+        return method(pool, 0x0009, name, descriptor, signature, code); //ACC_PUBLIC | ACC_STATIC
+    }
+
+    static byte[] method(HelperTypes.ConstantPool pool, int accessFlags, String name, String descriptor, String signature, Code code) {
+        int nameIndex = pool.utf8(name);
+        int descriptorIndex = pool.utf8(descriptor);
+        int codeAttribute = pool.utf8("Code");
+        int signatureAttribute = signature == null ? 0 : pool.utf8("Signature");
+        int signatureIndex = signature == null ? 0 : pool.utf8(signature);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeShort(accessFlags);
+            out.writeShort(nameIndex);
+            out.writeShort(descriptorIndex);
+            out.writeShort(signature == null ? 1 : 2);
+
+            byte[] instructions = code.bytes.toByteArray();
+            out.writeShort(codeAttribute);
+            out.writeInt(12 + instructions.length);
+            out.writeShort(code.maxStack);
+            out.writeShort(code.maxLocals);
+            out.writeInt(instructions.length);
+            out.write(instructions);
+            out.writeShort(0); //exception table
+            out.writeShort(0); //attributes, straight-line code needs no StackMapTable
+
+            if (signature != null)
+                HelperTypes.writeSignature(out, signatureAttribute, signatureIndex);
+        } catch (IOException e) {
+            throw new RuntimeException(e); //in-memory
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * field without attributes
+     */
+    static byte[] field(HelperTypes.ConstantPool pool, int accessFlags, String name, String descriptor) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(8);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeShort(accessFlags);
+            out.writeShort(pool.utf8(name));
+            out.writeShort(pool.utf8(descriptor));
+            out.writeShort(0); //attributes
+        } catch (IOException e) {
+            throw new RuntimeException(e); //in-memory
+        }
+        return bytes.toByteArray();
+    }
+
+    static byte[] classFileBytes(
+            HelperTypes.ConstantPool pool,
+            boolean isPublic,
+            int thisClass,
+            int superClass,
+            List<Integer> interfaces,
+            List<byte[]> fields,
+            List<byte[]> methods) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(1024);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);  //minor
+            out.writeShort(52); //major, Java 8
+            pool.writeTo(out);
+            out.writeShort((isPublic ? 0x0001 : 0) | 0x0030); //ACC_FINAL | ACC_SUPER, public if the class is
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(interfaces.size());
+            for (int anInterface : interfaces)
+                out.writeShort(anInterface);
+            out.writeShort(fields.size());
+            for (byte[] field : fields)
+                out.write(field);
+            out.writeShort(methods.size());
+            for (byte[] method : methods)
+                out.write(method);
+            out.writeShort(0); //class attributes
+        } catch (IOException e) {
+            throw new RuntimeException(e); //in-memory
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * instructions of a method without branches
+     */
+    static class Code {
+        final int maxStack;
+        final int maxLocals;
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(16);
+
+        Code(int maxStack, int maxLocals) {
+            this.maxStack = maxStack;
+            this.maxLocals = maxLocals;
+        }
+
+        void op(int opcode) {
+            bytes.write(opcode);
+        }
+
+        void op(int opcode, int constantPoolIndex) {
+            bytes.write(opcode);
+            bytes.write(constantPoolIndex >> 8);
+            bytes.write(constantPoolIndex);
+        }
+
+        void pushInt(HelperTypes.ConstantPool pool, int value) {
+            if (value <= 5) {
+                op(0x03 + value); //iconst_<n>
+            } else if (value <= Byte.MAX_VALUE) {
+                op(0x10); //bipush
+                op(value);
+            } else if (value <= Short.MAX_VALUE) {
+                op(0x11, value); //sipush
+            } else {
+                op(0x13, pool.integer(value)); //ldc_w
+            }
+        }
+    }
+}
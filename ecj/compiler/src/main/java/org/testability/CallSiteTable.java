@@ -0,0 +1,266 @@
+/*******************************************************************************
+ * Copyright (c) 2017-2018 Julian Rozentur
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+package org.testability;
+
+import org.eclipse.jdt.internal.compiler.ast.AllocationExpression;
+import org.eclipse.jdt.internal.compiler.ast.Expression;
+import org.eclipse.jdt.internal.compiler.ast.FieldDeclaration;
+import org.eclipse.jdt.internal.compiler.ast.MessageSend;
+import org.eclipse.jdt.internal.compiler.ast.TypeDeclaration;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import static java.util.stream.Collectors.toList;
+
+/**
+ * calls to redirect registered in a top-level type, indexed by call-site ordinal kept on the call expression
+ * (MessageSend/AllocationExpression.testabilityCallSiteOrdinal).
+ *
+ * Lifecycle, to keep as little as possible reachable from the AST:
+ * 1. calls are added during resolve
+ * 2. once redirector fields are made, calls are dropped and each ordinal maps to a field index
+ *    (and, with InstrumentationOptions.INSERT_CALL_SITES, to its own call site field)
+ * 3. fields rejected by validation are removed, then the assignment is published for code generation
+ * 4. everything is released after code generation of the top-level type
+ */
+public class CallSiteTable {
+
+    static final int NO_FIELD = -1;
+    static final int NO_ORDINAL = -1;
+
+    static final int NOT_IN_KILL_SWITCH_BRANCH = 0;
+    static final int IN_REDIRECTED_BRANCH = 1;
+    static final int IN_ORIGINAL_BRANCH = 2;
+
+    Expression[] calls = new Expression[16];
+    TypeDeclaration[] typesContainingCalls = new TypeDeclaration[16]; //e.g. inner type
+    char[][] callingMethods = new char[16][]; //see Testability.callingMethodName
+    int size;
+
+    FieldDeclaration[] fields;  //distinct redirector fields, null where a field could not be made or was rejected
+    String[] stableNames;       //by field, RedirectorDescriptor.uniqueInOverload of its calls, see stableName
+    int[] fieldIndexByOrdinal;  //NO_FIELD if not assigned
+    FieldDeclaration[] callSiteFields; //by ordinal, null if not made; null if call sites are not inserted
+    Map<FieldDeclaration, Integer> fieldIndexByField;       //inverse of fields
+    Map<FieldDeclaration, Integer> ordinalByCallSiteField;  //inverse of callSiteFields
+    int[] firstOrdinalByField;      //ordinals assigned to a field, linked through nextOrdinalOfSameField; null if
+    int[] nextOrdinalOfSameField;   //call sites are not inserted. NO_ORDINAL ends the list
+    boolean published;
+
+    //while generating code of a call guarded by InstrumentationSwitch: calls nested in its arguments are generated
+    //as in that branch, so there is one guard for the outermost call rather than one per nesting level
+    int killSwitchBranch = NOT_IN_KILL_SWITCH_BRANCH;
+
+    /**
+     * @return ordinal of the call, -1 if fields were already assigned (too late to redirect)
+     */
+    public synchronized int add(Expression call, TypeDeclaration typeContainingCall, char[] callingMethod) {
+        if (calls == null)
+            return -1;
+        if (size == calls.length) {
+            calls = Arrays.copyOf(calls, size * 2);
+            typesContainingCalls = Arrays.copyOf(typesContainingCalls, size * 2);
+            callingMethods = Arrays.copyOf(callingMethods, size * 2);
+        }
+        calls[size] = call;
+        typesContainingCalls[size] = typeContainingCall;
+        callingMethods[size] = callingMethod;
+        return size++;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public synchronized Expression call(int ordinal) {
+        return calls[ordinal];
+    }
+
+    public synchronized TypeDeclaration typeContainingCall(int ordinal) {
+        return typesContainingCalls[ordinal];
+    }
+
+    public synchronized char[] callingMethod(int ordinal) {
+        return callingMethods[ordinal];
+    }
+
+    /**
+     * assign redirector fields to call sites and drop the calls, which are no longer needed.
+     * The assignment is not visible to code generation until published
+     * @param fields distinct fields, may contain nulls
+     * @param stableNames name of the call for each field, the same whatever other calls the type makes
+     * @param fieldIndexByOrdinal index in fields for each ordinal, NO_FIELD if none
+     * @param callSiteFields call site field for each ordinal, may contain nulls; null if call sites are not inserted
+     */
+    public synchronized void assignRedirectorFields(FieldDeclaration[] fields, String[] stableNames, int[] fieldIndexByOrdinal, FieldDeclaration[] callSiteFields) {
+        this.fields = fields;
+        this.stableNames = stableNames;
+        this.fieldIndexByOrdinal = fieldIndexByOrdinal;
+        this.callSiteFields = callSiteFields;
+        this.fieldIndexByField = inverse(fields);
+        this.ordinalByCallSiteField = callSiteFields == null ? null : inverse(callSiteFields);
+        if (callSiteFields != null) {
+            firstOrdinalByField = new int[fields.length];
+            Arrays.fill(firstOrdinalByField, NO_ORDINAL);
+            nextOrdinalOfSameField = new int[fieldIndexByOrdinal.length];
+            for (int ordinal = fieldIndexByOrdinal.length - 1; ordinal >= 0; ordinal--) {
+                int fieldIndex = fieldIndexByOrdinal[ordinal];
+                if (fieldIndex == NO_FIELD)
+                    continue;
+                nextOrdinalOfSameField[ordinal] = firstOrdinalByField[fieldIndex];
+                firstOrdinalByField[fieldIndex] = ordinal;
+            }
+        }
+        this.calls = null;
+        this.typesContainingCalls = null;
+        this.callingMethods = null;
+    }
+
+    /**
+     * @return call site fields made, to be injected together with the redirector fields
+     */
+    public synchronized List<FieldDeclaration> callSiteFields() {
+        if (callSiteFields == null)
+            return Collections.emptyList();
+        return Arrays.stream(callSiteFields).
+                filter(Objects::nonNull).
+                collect(toList());
+    }
+
+    /**
+     * calls assigned to the field will not be redirected, and their call site fields are dropped with it;
+     * a rejected call site field is just not referred to
+     */
+    public synchronized void rejectRedirectorField(FieldDeclaration field) {
+        if (fields == null)
+            return;
+        Integer fieldIndex = fieldIndexByField.get(field);
+        if (fieldIndex != null) {
+            fields[fieldIndex] = null;
+            if (callSiteFields != null)
+                for (int ordinal = firstOrdinalByField[fieldIndex]; ordinal != NO_ORDINAL; ordinal = nextOrdinalOfSameField[ordinal])
+                    callSiteFields[ordinal] = null;
+            return;
+        }
+        if (callSiteFields == null)
+            return;
+        Integer ordinal = ordinalByCallSiteField.get(field);
+        if (ordinal != null)
+            callSiteFields[ordinal] = null;
+    }
+
+    /**
+     * @return true if the field was made for this table and rejected since, itself or with its redirector field;
+     * such a field is not injected
+     */
+    public synchronized boolean isRejected(FieldDeclaration field) {
+        if (fields == null)
+            return false;
+        Integer fieldIndex = fieldIndexByField.get(field);
+        if (fieldIndex != null)
+            return fields[fieldIndex] == null;
+        if (callSiteFields == null)
+            return false;
+        Integer ordinal = ordinalByCallSiteField.get(field);
+        return ordinal != null && callSiteFields[ordinal] == null;
+    }
+
+    /**
+     * @return name of the calls redirected through the field that, unlike the field name, does not change when other
+     * calls are added to the type (e.g. java$lang$Integer$parseInt$$java$lang$String); null if not a redirector field,
+     * or rejected
+     */
+    public synchronized String stableName(FieldDeclaration field) {
+        if (fields == null)
+            return null;
+        Integer fieldIndex = fieldIndexByField.get(field);
+        return fieldIndex == null || fields[fieldIndex] == null ? null : stableNames[fieldIndex];
+    }
+
+    public synchronized void publishRedirectorFields() {
+        published = fields != null;
+    }
+
+    /**
+     * @return published redirector field for the call, null if the call is not redirected
+     */
+    public synchronized FieldDeclaration redirectorField(Expression call) {
+        if (!published)
+            return null;
+        int ordinal = ordinal(call);
+        if (ordinal < 0 || ordinal >= fieldIndexByOrdinal.length)
+            return null;
+        int fieldIndex = fieldIndexByOrdinal[ordinal];
+        return fieldIndex == NO_FIELD ? null : fields[fieldIndex];
+    }
+
+    /**
+     * @return published call site field for the call, null if there is none (e.g. not enabled)
+     */
+    public synchronized FieldDeclaration callSiteField(Expression call) {
+        if (!published || callSiteFields == null)
+            return null;
+        int ordinal = ordinal(call);
+        if (ordinal < 0 || ordinal >= callSiteFields.length)
+            return null;
+        return callSiteFields[ordinal];
+    }
+
+    /**
+     * @return previous branch, to restore when done
+     */
+    public synchronized int enterKillSwitchBranch(int branch) {
+        int previous = killSwitchBranch;
+        killSwitchBranch = branch;
+        return previous;
+    }
+
+    public synchronized int killSwitchBranch() {
+        return killSwitchBranch;
+    }
+
+    public synchronized void release() {
+        calls = null;
+        typesContainingCalls = null;
+        callingMethods = null;
+        fields = null;
+        stableNames = null;
+        fieldIndexByOrdinal = null;
+        callSiteFields = null;
+        fieldIndexByField = null;
+        ordinalByCallSiteField = null;
+        firstOrdinalByField = null;
+        nextOrdinalOfSameField = null;
+        published = false;
+    }
+
+    /**
+     * @return index of each non-null element, by identity
+     */
+    static Map<FieldDeclaration, Integer> inverse(FieldDeclaration[] fields) {
+        Map<FieldDeclaration, Integer> ret = new IdentityHashMap<>(fields.length * 2);
+        for (int i = 0; i < fields.length; i++)
+            if (fields[i] != null)
+                ret.put(fields[i], i);
+        return ret;
+    }
+
+    static int ordinal(Expression call) {
+        if (call instanceof MessageSend)
+            return ((MessageSend) call).testabilityCallSiteOrdinal;
+        if (call instanceof AllocationExpression)
+            return ((AllocationExpression) call).testabilityCallSiteOrdinal;
+        return -1;
+    }
+}
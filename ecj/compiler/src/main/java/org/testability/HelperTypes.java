@@ -0,0 +1,277 @@
+/*******************************************************************************
+ * Copyright (c) 2017-2018 Julian Rozentur
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+package org.testability;
+
+import org.eclipse.jdt.internal.compiler.ClassFile;
+import org.eclipse.jdt.internal.compiler.CompilationResult;
+import org.eclipse.jdt.internal.compiler.classfmt.ClassFileReader;
+import org.eclipse.jdt.internal.compiler.classfmt.ClassFormatException;
+import org.eclipse.jdt.internal.compiler.lookup.LookupEnvironment;
+import org.eclipse.jdt.internal.compiler.lookup.ReferenceBinding;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+import static java.util.stream.Collectors.joining;
+
+/**
+ * synthesizes helpers.FunctionN[_M]/ConsumerN[_M] interfaces on demand, for the shapes the compilation actually uses,
+ * when they are not on the classpath (e.g. helpers jar built with -Dtestablejava.helpers.maxArgs=0).
+ *
+ * The class files are the same, byte for byte, as those HelpersInstrumenter emits, and are written to the output
+ * with the compilation unit that first needed them. classFileBytes mirrors testablejava.HelperClassFiles, which the
+ * compiler cannot depend on at runtime; TestabilityTest checks the two stay identical
+ */
+public class HelperTypes {
+
+    static final String PACKAGE = "helpers";
+    static final int MAX_ARGS_AND_EXTRA_TYPE_VARS = 255; //testablejava.HelperClassFiles.MAX_ARGS_AND_EXTRA_TYPE_VARS
+
+    /**
+     * @return binding of the helper interface, synthesized if not on the classpath, or null if it cannot be made
+     */
+    public static ReferenceBinding helperType(
+            LookupEnvironment lookupEnvironment,
+            CompilationResult compilationResult,
+            boolean returnsVoid,
+            int functionArgCount,
+            int additionalTypeVarCountForMethod) {
+
+        String name = Testability.functionNameForArgs(returnsVoid, functionArgCount, additionalTypeVarCountForMethod);
+        char[][] path = {PACKAGE.toCharArray(), name.toCharArray()};
+
+        ReferenceBinding type = lookupEnvironment.getType(path);
+        if (type != null || !exists(functionArgCount, additionalTypeVarCountForMethod))
+            return type;
+
+        byte[] bytes = classFileBytes(returnsVoid, functionArgCount, additionalTypeVarCountForMethod);
+        String fileName = PACKAGE + "/" + name;
+        try {
+            type = lookupEnvironment.createSynthesizedBinaryType(
+                    path,
+                    new ClassFileReader(bytes, (fileName + ".class").toCharArray()));
+        } catch (ClassFormatException e) {
+            throw new RuntimeException("synthesized helper type is not a valid class file: " + name, e);
+        }
+        if (type != null) {
+            addCompiledType(compilationResult, fileName, bytes);
+            lookupEnvironment.instrumentationStats.count(
+                    InstrumentationStats.Counter.HELPERS_SYNTHESIZED,
+                    compilationResult,
+                    fileName.replace('/', '.'),
+                    1);
+        }
+        return type;
+    }
+
+    /**
+     * shapes of helper interfaces that can be made, the same check as testablejava.HelperClassFiles.exists;
+     * TestabilityTest checks the two agree at the limit
+     */
+    static boolean exists(int functionArgCount, int additionalTypeVarCountForMethod) {
+        return additionalTypeVarCountForMethod <= functionArgCount &&
+                functionArgCount + additionalTypeVarCountForMethod <= MAX_ARGS_AND_EXTRA_TYPE_VARS;
+    }
+
+    /**
+     * output the class file together with the types of the compilation unit
+     */
+    @SuppressWarnings("unchecked") //compiledTypes is a raw Map of char[] file name to ClassFile
+    static void addCompiledType(CompilationResult compilationResult, String fileName, byte[] bytes) {
+        compilationResult.compiledTypes.put(fileName.toCharArray(), new SynthesizedClassFile(fileName, bytes));
+    }
+
+    /**
+     * public abstract interface with type variables T1..TN (and R for Function), single abstract method
+     * apply/accept(T1..TN) with method type variables E1..EM, annotated with @FunctionalInterface
+     */
+    static byte[] classFileBytes(boolean returnsVoid, int functionArgCount, int additionalTypeVarCountForMethod) {
+        String name = PACKAGE + "/" + Testability.functionNameForArgs(returnsVoid, functionArgCount, additionalTypeVarCountForMethod);
+
+        String classTypeVariables =
+                IntStream.rangeClosed(1, functionArgCount).
+                        mapToObj(i -> "T" + i + ":Ljava/lang/Object;").
+                        collect(joining()) +
+                (returnsVoid ? "" : "R:Ljava/lang/Object;");
+        String classSignature = classTypeVariables.isEmpty() ? null : "<" + classTypeVariables + ">Ljava/lang/Object;";
+
+        String methodTypeVariables =
+                IntStream.rangeClosed(1, additionalTypeVarCountForMethod).
+                        mapToObj(i -> "E" + i + ":Ljava/lang/Object;").
+                        collect(joining());
+        String methodParameters =
+                IntStream.rangeClosed(1, functionArgCount).
+                        mapToObj(i -> "TT" + i + ";").
+                        collect(joining());
+        String methodSignature = classSignature == null ?
+                null :
+                (methodTypeVariables.isEmpty() ? "" : "<" + methodTypeVariables + ">") +
+                        "(" + methodParameters + ")" + (returnsVoid ? "V" : "TR;");
+        String methodDescriptor =
+                "(" +
+                        IntStream.range(0, functionArgCount).mapToObj(i -> "Ljava/lang/Object;").collect(joining()) +
+                        ")" +
+                        (returnsVoid ? "V" : "Ljava/lang/Object;");
+
+        //constant pool entries are added in the order they are first referenced, as ASM does
+        ConstantPool pool = new ConstantPool();
+        int thisClass = pool.classRef(name);
+        int classSignatureIndex = classSignature == null ? 0 : pool.utf8(classSignature);
+        int superClass = pool.classRef("java/lang/Object");
+        int annotationType = pool.utf8("Ljava/lang/FunctionalInterface;");
+        int methodName = pool.utf8(returnsVoid ? Testability.TARGET_REDIRECTED_METHOD_NAME_FOR_CONSUMER : Testability.TARGET_REDIRECTED_METHOD_NAME_FOR_FUNCTION);
+        int methodDescriptorIndex = pool.utf8(methodDescriptor);
+        int signatureAttribute = classSignature == null ? 0 : pool.utf8("Signature"); //method signature is null with the class one
+        int methodSignatureIndex = methodSignature == null ? 0 : pool.utf8(methodSignature);
+        int annotationsAttribute = pool.utf8("RuntimeVisibleAnnotations");
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);  //minor
+            out.writeShort(52); //major, Java 8
+            pool.writeTo(out);
+            out.writeShort(0x0601); //ACC_PUBLIC | ACC_INTERFACE | ACC_ABSTRACT
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(0); //interfaces
+            out.writeShort(0); //fields
+
+            out.writeShort(1); //methods
+            out.writeShort(0x0401); //ACC_PUBLIC | ACC_ABSTRACT
+            out.writeShort(methodName);
+            out.writeShort(methodDescriptorIndex);
+            if (methodSignature == null) {
+                out.writeShort(0);
+            } else {
+                out.writeShort(1);
+                writeSignature(out, signatureAttribute, methodSignatureIndex);
+            }
+
+            out.writeShort(classSignature == null ? 1 : 2); //class attributes
+            if (classSignature != null)
+                writeSignature(out, signatureAttribute, classSignatureIndex);
+            out.writeShort(annotationsAttribute);
+            out.writeInt(6);
+            out.writeShort(1); //annotations
+            out.writeShort(annotationType);
+            out.writeShort(0); //element-value pairs
+        } catch (IOException e) {
+            throw new RuntimeException(e); //in-memory
+        }
+        return bytes.toByteArray();
+    }
+
+    static void writeSignature(DataOutputStream out, int signatureAttribute, int signatureIndex) throws IOException {
+        out.writeShort(signatureAttribute);
+        out.writeInt(2);
+        out.writeShort(signatureIndex);
+    }
+
+    /**
+     * just the entries a helper interface (UTF8, Class) and an accessor class (see AccessorClass) need
+     */
+    static class ConstantPool {
+        final Map<String, Integer> utf8 = new LinkedHashMap<>();
+        final Map<String, Integer> classes = new LinkedHashMap<>();
+        final Map<Integer, Integer> integers = new LinkedHashMap<>();
+        final Map<String, Integer> namesAndTypes = new LinkedHashMap<>();
+        final Map<String, Integer> fieldRefs = new LinkedHashMap<>();
+        final Map<String, Integer> methodRefs = new LinkedHashMap<>();
+        final ByteArrayOutputStream entries = new ByteArrayOutputStream(256);
+        final DataOutputStream out = new DataOutputStream(entries);
+        int count = 1;
+
+        int utf8(String value) {
+            return utf8.computeIfAbsent(value, v -> add(1, () -> out.writeUTF(v)));
+        }
+
+        int classRef(String internalName) {
+            return classes.computeIfAbsent(internalName, n -> {
+                int nameIndex = utf8(n);
+                return add(7, () -> out.writeShort(nameIndex));
+            });
+        }
+
+        int integer(int value) {
+            return integers.computeIfAbsent(value, v -> add(3, () -> out.writeInt(v)));
+        }
+
+        int nameAndType(String name, String descriptor) {
+            return namesAndTypes.computeIfAbsent(name + ' ' + descriptor, key -> {
+                int nameIndex = utf8(name);
+                int descriptorIndex = utf8(descriptor);
+                return add(12, () -> {
+                    out.writeShort(nameIndex);
+                    out.writeShort(descriptorIndex);
+                });
+            });
+        }
+
+        int fieldRef(String owner, String name, String descriptor) {
+            return fieldRefs.computeIfAbsent(owner + '.' + name + ' ' + descriptor, key -> memberRef(9, owner, name, descriptor));
+        }
+
+        int methodRef(String owner, String name, String descriptor) {
+            return methodRefs.computeIfAbsent(owner + '.' + name + descriptor, key -> memberRef(10, owner, name, descriptor));
+        }
+
+        int memberRef(int tag, String owner, String name, String descriptor) {
+            int classIndex = classRef(owner);
+            int nameAndTypeIndex = nameAndType(name, descriptor);
+            return add(tag, () -> {
+                out.writeShort(classIndex);
+                out.writeShort(nameAndTypeIndex);
+            });
+        }
+
+        int add(int tag, IOAction body) {
+            try {
+                out.writeByte(tag);
+                body.run();
+            } catch (IOException e) {
+                throw new RuntimeException(e); //in-memory
+            }
+            return count++;
+        }
+
+        void writeTo(DataOutputStream target) throws IOException {
+            target.writeShort(count);
+            entries.writeTo(target);
+        }
+    }
+
+    interface IOAction {
+        void run() throws IOException;
+    }
+
+    /**
+     * class file with precomputed bytes, enough for writing the output (header/contents, fileName, getBytes)
+     */
+    static class SynthesizedClassFile extends ClassFile {
+        final char[] fileName;
+
+        SynthesizedClassFile(String fileName, byte[] bytes) {
+            this.fileName = fileName.toCharArray();
+            this.header = bytes;
+            this.headerOffset = bytes.length;
+            this.contents = new byte[0];
+            this.contentsOffset = 0;
+        }
+
+        @Override
+        public char[] fileName() {
+            return fileName;
+        }
+    }
+}
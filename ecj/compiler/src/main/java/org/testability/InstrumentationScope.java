@@ -0,0 +1,176 @@
+/*******************************************************************************
+ * Copyright (c) 2017-2018 Julian Rozentur
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+package org.testability;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+import static java.util.stream.Collectors.joining;
+import static java.util.stream.Collectors.toList;
+
+/**
+ * which calls get redirected, by the calling class/method and the called class/method.
+ *
+ * A call is redirected when its caller matches caller.include (everything if empty) and not caller.exclude, and
+ * the called method matches called.include (everything if empty) and not called.exclude.
+ * Each is a comma-separated list of patterns on class#method, where the class is the binary name
+ * (e.g. com.foo.Outer$Inner), constructors are &lt;init&gt; and static initializers &lt;clinit&gt;:
+ *
+ *   com.foo.**              any class in com.foo and its subpackages, any method
+ *   com.foo.*               classes in com.foo only
+ *   *#toString              toString of any class in the default package
+ *   **#log*                 methods starting with log, of any class
+ *   java.util.List#get      get of java.util.List (where declared, not the receiver type)
+ *
+ * '*' and '?' do not cross '.' (or '#'), '**' does not cross '#'. A pattern without '#' matches any method.
+ *
+ * Loaded from a properties file with those 4 keys, see load(File); calls out of scope are left as they are,
+ * as if labelled dontredirect
+ */
+public class InstrumentationScope {
+
+    public static final String CALLER_INCLUDE = "caller.include";
+    public static final String CALLER_EXCLUDE = "caller.exclude";
+    public static final String CALLED_INCLUDE = "called.include";
+    public static final String CALLED_EXCLUDE = "called.exclude";
+
+    public static final String CONSTRUCTOR = "<init>";
+    public static final String STATIC_INITIALIZER = "<clinit>";
+
+    /**
+     * redirect every call
+     */
+    public static final InstrumentationScope ALL = new InstrumentationScope(
+            Collections.emptyList(), Collections.emptyList(), Collections.emptyList(), Collections.emptyList());
+
+    final Pattern callerInclude; //null to include everything
+    final Pattern callerExclude; //null to exclude nothing
+    final Pattern calledInclude;
+    final Pattern calledExclude;
+
+    //decisions by class#method, the same callers and called methods come up at many call sites
+    final Map<String, Boolean> callerDecisions = new ConcurrentHashMap<>();
+    final Map<String, Boolean> calledDecisions = new ConcurrentHashMap<>();
+
+    public InstrumentationScope(
+            List<String> callerInclude,
+            List<String> callerExclude,
+            List<String> calledInclude,
+            List<String> calledExclude) {
+
+        this.callerInclude = compile(callerInclude);
+        this.callerExclude = compile(callerExclude);
+        this.calledInclude = compile(calledInclude);
+        this.calledExclude = compile(calledExclude);
+    }
+
+    public static InstrumentationScope fromProperties(Properties properties) {
+        return new InstrumentationScope(
+                patterns(properties.getProperty(CALLER_INCLUDE)),
+                patterns(properties.getProperty(CALLER_EXCLUDE)),
+                patterns(properties.getProperty(CALLED_INCLUDE)),
+                patterns(properties.getProperty(CALLED_EXCLUDE)));
+    }
+
+    public static InstrumentationScope load(File file) throws IOException {
+        return load(file, new Properties());
+    }
+
+    /**
+     * @param file properties file, read as UTF-8
+     * @param overrides keys that replace those of the file, e.g. given on the command line
+     */
+    public static InstrumentationScope load(File file, Properties overrides) throws IOException {
+        Properties properties = new Properties();
+        try (Reader reader = new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8)) {
+            properties.load(reader);
+        }
+        properties.putAll(overrides);
+        return fromProperties(properties);
+    }
+
+    /**
+     * @return true if everything is redirected, so callers need not build names to match
+     */
+    public boolean isAll() {
+        return callerInclude == null && callerExclude == null && calledInclude == null && calledExclude == null;
+    }
+
+    /**
+     * @param caller class#method making the call
+     * @param called class#method called
+     */
+    public boolean redirects(String caller, String called) {
+        return callerDecisions.computeIfAbsent(caller, k -> matches(callerInclude, callerExclude, k)) &&
+                calledDecisions.computeIfAbsent(called, k -> matches(calledInclude, calledExclude, k));
+    }
+
+    static boolean matches(Pattern include, Pattern exclude, String classAndMethod) {
+        return (include == null || include.matcher(classAndMethod).matches()) &&
+                (exclude == null || !exclude.matcher(classAndMethod).matches());
+    }
+
+    static List<String> patterns(String commaSeparated) {
+        if (commaSeparated == null)
+            return Collections.emptyList();
+        return Arrays.stream(commaSeparated.split(",")).
+                map(String::trim).
+                filter(pattern -> !pattern.isEmpty()).
+                collect(toList());
+    }
+
+    /**
+     * @return one regular expression matching any of the patterns, null if there are none
+     */
+    static Pattern compile(List<String> patterns) {
+        if (patterns.isEmpty())
+            return null;
+        return Pattern.compile(patterns.stream().
+                map(InstrumentationScope::toRegex).
+                collect(joining("|")));
+    }
+
+    static String toRegex(String pattern) {
+        StringBuilder regex = new StringBuilder("(?:");
+        boolean hasMethod = false;
+        for (int i = 0; i < pattern.length(); i++) {
+            char c = pattern.charAt(i);
+            if (c == '*') {
+                if (i + 1 < pattern.length() && pattern.charAt(i + 1) == '*') {
+                    regex.append("[^#]*");
+                    i++;
+                } else {
+                    regex.append("[^.#]*");
+                }
+            } else if (c == '?') {
+                regex.append("[^.#]");
+            } else {
+                if (c == '#')
+                    hasMethod = true;
+                if ("\\.[]{}()+-^$|".indexOf(c) >= 0)
+                    regex.append('\\');
+                regex.append(c);
+            }
+        }
+        if (!hasMethod)
+            regex.append("(?:#.*)?");
+        return regex.append(")").toString();
+    }
+
+    @Override
+    public String toString() {
+        return isAll() ?
+                "all" :
+                CALLER_INCLUDE + "=" + callerInclude + ", " + CALLER_EXCLUDE + "=" + callerExclude + ", " +
+                        CALLED_INCLUDE + "=" + calledInclude + ", " + CALLED_EXCLUDE + "=" + calledExclude;
+    }
+}
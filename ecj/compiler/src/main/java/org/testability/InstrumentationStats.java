@@ -0,0 +1,256 @@
+/*******************************************************************************
+ * Copyright (c) 2017-2018 Julian Rozentur
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+package org.testability;
+
+import org.eclipse.jdt.internal.compiler.CompilationResult;
+import org.eclipse.jdt.internal.compiler.ast.TypeDeclaration;
+import org.eclipse.jdt.internal.compiler.env.ICompilationUnit;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static java.util.stream.Collectors.joining;
+
+/**
+ * timers and counters of instrumentation work, in total and broken down per compilation unit and per type.
+ * Safe to update from compiler worker threads. Compiles without a report use NONE, which collects nothing
+ *
+ * note: phases can nest, e.g. DONT_REDIRECT_CHECK is also part of CALL_SITE_REWRITE
+ */
+public class InstrumentationStats {
+
+    public enum Phase {
+        PREVIEW_CLASSIFICATION, //preview parse deciding which units get instrumented
+        MAKE_FIELDS,            //Testability.makeFields
+        RESOLVE_FIELDS,         //field type and initializer resolution in ClassFile.addFieldInfos
+        VALIDATE_FIELDS,        //Testability.validateField
+        ANALYSE_FIELDS,         //flow analysis of injected fields
+        DONT_REDIRECT_CHECK,    //Testability.isLabelledAsDontRedirect
+        CALL_SITE_REWRITE,      //Testability.replaceCallWithFieldRedirectorIfNeeded
+        LISTENER_CALLS          //Testability.addListenerCallsToConstructor
+    }
+
+    public enum Counter {
+        UNITS_INSTRUMENTED,
+        UNITS_NOT_INSTRUMENTED,
+        REDIRECTORS_CREATED,
+        LISTENERS_CREATED,
+        FIELDS_VALIDATED,
+        FIELDS_REJECTED,
+        CALL_SITES_REWRITTEN,
+        HELPERS_SYNTHESIZED,    //helper interfaces missing from the classpath, see HelperTypes
+        REDIRECTOR_NAMES_MADE,  //distinct calls named, the rest reuse names, see TestabilityBindings.redirectorDescriptor
+        CALLS_OUT_OF_SCOPE,     //calls left as they are by InstrumentationScope
+        CALL_SITES_CREATED,     //CallSite fields, one per redirected call, see InstrumentationOptions.INSERT_CALL_SITES
+        REGISTRIES_CREATED,     //RedirectorRegistry fields, one per top-level type with redirector or listener fields
+        ACCESSORS_CREATED       //static accessor methods of X$$Redirectors classes, see AccessorClass
+    }
+
+    static class Breakdown {
+        final long[] nanos = new long[Phase.values().length];
+        final long[] counts = new long[Counter.values().length];
+
+        synchronized void addTime(Phase phase, long elapsedNanos) {
+            nanos[phase.ordinal()] += elapsedNanos;
+        }
+
+        synchronized void addCount(Counter counter, long n) {
+            counts[counter.ordinal()] += n;
+        }
+
+        synchronized long time(Phase phase) {
+            return nanos[phase.ordinal()];
+        }
+
+        synchronized long count(Counter counter) {
+            return counts[counter.ordinal()];
+        }
+
+        synchronized String toJson() {
+            return "{\"timesMs\": {" +
+                    Arrays.stream(Phase.values()).
+                            map(phase -> quote(phase.name()) + ": " + nanos[phase.ordinal()] / 1_000_000.0).
+                            collect(joining(", ")) +
+                    "}, \"counts\": {" +
+                    Arrays.stream(Counter.values()).
+                            map(counter -> quote(counter.name()) + ": " + counts[counter.ordinal()]).
+                            collect(joining(", ")) +
+                    "}}";
+        }
+    }
+
+    /**
+     * collects nothing, for compiles without a report (see Compiler.instrumentationStatsReport): start() does not
+     * read the clock and stop/count return at once
+     */
+    public static final InstrumentationStats NONE = new InstrumentationStats(false);
+
+    static final long NOT_TIMED = Long.MIN_VALUE; //from start() when not collecting
+
+    final boolean collecting;
+    final Breakdown total = new Breakdown();
+    //by name: units by file name, types by binary name
+    final Map<String, Breakdown> byUnit = new ConcurrentHashMap<>();
+    final Map<String, Breakdown> byType = new ConcurrentHashMap<>();
+    //names of ICompilationUnit, CompilationResult and TypeDeclaration objects, made once when first seen. Weak keys,
+    //so that stats do not keep ASTs, scopes and sources alive after they are released (see CallSiteTable.release)
+    final Map<Object, String> names = Collections.synchronizedMap(new WeakHashMap<>());
+
+    public InstrumentationStats() {
+        this(true);
+    }
+
+    InstrumentationStats(boolean collecting) {
+        this.collecting = collecting;
+    }
+
+    public boolean isCollecting() {
+        return collecting;
+    }
+
+    /**
+     * @return start time for stop(), NOT_TIMED if not collecting
+     */
+    public long start() {
+        return collecting ? System.nanoTime() : NOT_TIMED;
+    }
+
+    /**
+     * record time elapsed since startNanos (see start()) for a phase
+     * @param unit null if not attributable to a unit
+     */
+    public void stop(Phase phase, ICompilationUnit unit, long startNanos) {
+        if (startNanos == NOT_TIMED)
+            return;
+        long elapsed = System.nanoTime() - startNanos;
+        total.addTime(phase, elapsed);
+        if (unit != null)
+            unitBreakdown(unit).addTime(phase, elapsed);
+    }
+
+    public void stop(Phase phase, TypeDeclaration typeDeclaration, long startNanos) {
+        if (startNanos == NOT_TIMED)
+            return;
+        long elapsed = System.nanoTime() - startNanos;
+        total.addTime(phase, elapsed);
+        Breakdown unit = unitBreakdown(typeDeclaration.compilationResult);
+        if (unit != null)
+            unit.addTime(phase, elapsed);
+        typeBreakdown(typeDeclaration).addTime(phase, elapsed);
+    }
+
+    public void count(Counter counter, ICompilationUnit unit, long n) {
+        if (!collecting)
+            return;
+        total.addCount(counter, n);
+        if (unit != null)
+            unitBreakdown(unit).addCount(counter, n);
+    }
+
+    public void count(Counter counter, TypeDeclaration typeDeclaration, long n) {
+        if (!collecting)
+            return;
+        total.addCount(counter, n);
+        Breakdown unit = unitBreakdown(typeDeclaration.compilationResult);
+        if (unit != null)
+            unit.addCount(counter, n);
+        typeBreakdown(typeDeclaration).addCount(counter, n);
+    }
+
+    /**
+     * @param typeName type made without a TypeDeclaration
+     */
+    public void count(Counter counter, CompilationResult compilationResult, String typeName, long n) {
+        if (!collecting)
+            return;
+        total.addCount(counter, n);
+        Breakdown unit = unitBreakdown(compilationResult);
+        if (unit != null)
+            unit.addCount(counter, n);
+        byType.computeIfAbsent(typeName, k -> new Breakdown()).addCount(counter, n);
+    }
+
+    public long time(Phase phase) {
+        return total.time(phase);
+    }
+
+    public long count(Counter counter) {
+        return total.count(counter);
+    }
+
+    Breakdown unitBreakdown(ICompilationUnit unit) {
+        return byUnit.computeIfAbsent(names.computeIfAbsent(unit, k -> new String(unit.getFileName())), k -> new Breakdown());
+    }
+
+    /**
+     * @return null if there is no unit
+     */
+    Breakdown unitBreakdown(CompilationResult compilationResult) {
+        if (compilationResult == null)
+            return null;
+        if (compilationResult.compilationUnit != null)
+            return unitBreakdown(compilationResult.compilationUnit);
+        if (compilationResult.getFileName() == null)
+            return null;
+        return byUnit.computeIfAbsent(
+                names.computeIfAbsent(compilationResult, k -> new String(compilationResult.getFileName())),
+                k -> new Breakdown());
+    }
+
+    Breakdown typeBreakdown(TypeDeclaration typeDeclaration) {
+        return byType.computeIfAbsent(names.computeIfAbsent(typeDeclaration, k -> typeName(typeDeclaration)), k -> new Breakdown());
+    }
+
+    /**
+     * @return binary name, e.g. a.b.C$D, or the simple name if not bound
+     */
+    static String typeName(TypeDeclaration typeDeclaration) {
+        return typeDeclaration.binding == null ?
+                new String(typeDeclaration.name) :
+                new String(typeDeclaration.binding.constantPoolName()).replace('/', '.');
+    }
+
+    public String toJson() {
+        return "{\n" +
+                "\"total\": " + total.toJson() + ",\n" +
+                "\"units\": " + toJson(byUnit) + ",\n" +
+                "\"types\": " + toJson(byType) + "\n" +
+                "}\n";
+    }
+
+    /**
+     * @return breakdowns sorted by name
+     */
+    static String toJson(Map<String, Breakdown> breakdowns) {
+        return new TreeMap<>(breakdowns).entrySet().stream().
+                map(entry -> "  " + quote(entry.getKey()) + ": " + entry.getValue().toJson()).
+                collect(joining(",\n", "{\n", "\n}"));
+    }
+
+    static String quote(String s) {
+        StringBuilder b = new StringBuilder("\"");
+        for (char c : s.toCharArray()) {
+            if (c == '"' || c == '\\')
+                b.append('\\').append(c);
+            else if (c < ' ')
+                b.append(String.format("\\u%04x", (int) c));
+            else
+                b.append(c);
+        }
+        return b.append('"').toString();
+    }
+
+    public void writeJson(File file) throws IOException {
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)) {
+            writer.write(toJson());
+        }
+    }
+}
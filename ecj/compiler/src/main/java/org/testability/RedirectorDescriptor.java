@@ -0,0 +1,90 @@
+/*******************************************************************************
+ * Copyright (c) 2017-2018 Julian Rozentur
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+package org.testability;
+
+import org.eclipse.jdt.core.compiler.CharOperation;
+import org.eclipse.jdt.internal.compiler.lookup.ReferenceBinding;
+import org.eclipse.jdt.internal.compiler.lookup.TypeBinding;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * redirector field name parts for a called method/constructor, as seen from the call site:
+ * receiver type, selector and argument types (not the parameter types of the binding, the field is named after the
+ * arguments). Bindings are compared by identity, so equal descriptors are only found within one LookupEnvironment
+ * (see TestabilityBindings.redirectorDescriptor)
+ */
+public class RedirectorDescriptor {
+
+    final boolean newOperator;
+    final ReferenceBinding receiverType;
+    final char[] selector;
+    final TypeBinding[] argumentTypes;
+
+    List<String> shortName; //set when canonical, see TestabilityBindings
+    List<String> longName;
+    String uniqueInOverload;
+
+    RedirectorDescriptor(boolean newOperator, ReferenceBinding receiverType, char[] selector, TypeBinding[] argumentTypes) {
+        this.newOperator = newOperator;
+        this.receiverType = receiverType;
+        this.selector = selector;
+        this.argumentTypes = argumentTypes;
+    }
+
+    /**
+     * compute the names, to be called once on the instance that is cached
+     */
+    RedirectorDescriptor canonical() {
+        shortName = Collections.unmodifiableList(Testability.testabilityFieldName(newOperator, receiverType, selector, argumentTypes, true));
+        longName = Collections.unmodifiableList(Testability.testabilityFieldName(newOperator, receiverType, selector, argumentTypes, false));
+        uniqueInOverload = String.join("", longName);
+        return this;
+    }
+
+    public List<String> shortName() {
+        return shortName;
+    }
+
+    public List<String> longName() {
+        return longName;
+    }
+
+    public String uniqueInOverload() {
+        return uniqueInOverload;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        if (!(o instanceof RedirectorDescriptor))
+            return false;
+        RedirectorDescriptor that = (RedirectorDescriptor) o;
+        if (newOperator != that.newOperator ||
+                receiverType != that.receiverType ||
+                !CharOperation.equals(selector, that.selector) ||
+                argumentTypes.length != that.argumentTypes.length)
+            return false;
+        for (int i = 0; i < argumentTypes.length; i++) {
+            if (argumentTypes[i] != that.argumentTypes[i])
+                return false;
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = (newOperator ? 1 : 0) + 31 * System.identityHashCode(receiverType) + 31 * 31 * CharOperation.hashCode(selector);
+        for (TypeBinding argumentType : argumentTypes)
+            hash = 31 * hash + System.identityHashCode(argumentType);
+        return hash;
+    }
+}
@@ -15,6 +15,7 @@ import org.eclipse.jdt.internal.compiler.InstrumentationOptions;
 import org.eclipse.jdt.internal.compiler.ast.*;
 import org.eclipse.jdt.internal.compiler.classfmt.ClassFileConstants;
 import org.eclipse.jdt.internal.compiler.codegen.BranchLabel;
+import org.eclipse.jdt.internal.compiler.codegen.CodeStream;
 import org.eclipse.jdt.internal.compiler.impl.ReferenceContext;
 import org.eclipse.jdt.internal.compiler.lookup.*;
 import org.eclipse.jdt.internal.compiler.problem.AbortType;
@@ -36,6 +37,8 @@ import static org.testability.Testability.typeReferenceFromTypeBinding;
 public class Testability {
     public static final String TESTABILITY_FIELD_NAME_PREFIX = "$$";
     public static final String TESTABILITY_ARG_LIST_SEPARATOR = "$$";
+    public static final String REGISTRY_FIELD_NAME = TESTABILITY_FIELD_NAME_PREFIX + "registry";
+    public static final String REFLECTIVE_CALLER_FIELD_NAME = "caller"; //of the anonymous type of a reflective redirector
     public static final String TARGET_REDIRECTED_METHOD_NAME_FOR_FUNCTION = "apply";
     public static final String TARGET_REDIRECTED_METHOD_NAME_FOR_CONSUMER = "accept";
     public static final String TESTABILITYLABEL = "testabilitylabel"; //TODO can we use dontredirect: instead?
@@ -64,7 +67,112 @@ public class Testability {
         if (fromTestabilityFieldInitializerUsingSpecialLabel(currentScope))
             return false;
 
-        return classDeclaration.callExpressionToRedirectorField.containsKey(expressionToBeReplaced);
+        CallSiteTable callSites = classDeclaration.callSites;
+        return callSites != null &&
+                callSites.killSwitchBranch() != CallSiteTable.IN_ORIGINAL_BRANCH &&
+                callSites.redirectorField(expressionToBeReplaced) != null;
+    }
+
+    /**
+     * generate the redirected call in place of the original one. With InstrumentationOptions.INSERT_KILL_SWITCH it is
+     *   InstrumentationSwitch.isOn() ? redirectedCall : originalCall
+     * and calls nested in the arguments are generated as in the branch they are in (not guarded again)
+     * @param originalCall generated again, for the original branch
+     */
+    public static void generateRedirectedCall(
+            Expression originalCall,
+            MessageSend redirectedCall,
+            BlockScope currentScope,
+            CodeStream codeStream,
+            boolean valueRequired) {
+
+        CallSiteTable callSites = currentScope.outerMostClassScope().referenceContext.callSites;
+
+        MessageSend killSwitchCondition = callSites.killSwitchBranch() == CallSiteTable.NOT_IN_KILL_SWITCH_BRANCH ?
+                makeKillSwitchCondition(currentScope) :
+                null;
+
+        if (killSwitchCondition != null && killSwitchCondition.resolveType(currentScope) == null)
+            killSwitchCondition = null; //problem reported
+
+        if (killSwitchCondition == null) {
+            generateUnguardedRedirectedCall(originalCall, redirectedCall, currentScope, codeStream, valueRequired);
+            return;
+        }
+
+        BranchLabel originalCallLabel = new BranchLabel(codeStream);
+        BranchLabel endLabel = new BranchLabel(codeStream);
+
+        killSwitchCondition.generateOptimizedBoolean(currentScope, codeStream, null, originalCallLabel, true);
+
+        int stackDepth = codeStream.stackDepth;
+        int previousBranch = callSites.enterKillSwitchBranch(CallSiteTable.IN_REDIRECTED_BRANCH);
+        try {
+            generateUnguardedRedirectedCall(originalCall, redirectedCall, currentScope, codeStream, valueRequired);
+            codeStream.goto_(endLabel);
+            if (codeStream.stackDepth > stackDepth)
+                codeStream.decrStackSize(codeStream.stackDepth - stackDepth); //the original call leaves the same value
+
+            originalCallLabel.place();
+            callSites.enterKillSwitchBranch(CallSiteTable.IN_ORIGINAL_BRANCH);
+            originalCall.generateCode(currentScope, codeStream, valueRequired);
+            if (valueRequired)
+                codeStream.recordExpressionType(originalCall.postConversionType(currentScope));
+        } finally {
+            callSites.enterKillSwitchBranch(previousBranch);
+        }
+        endLabel.place();
+    }
+
+    /**
+     * arguments are shared by the original and the redirected call, which boxes them: generate it, then restore them
+     */
+    static void generateUnguardedRedirectedCall(Expression originalCall, MessageSend redirectedCall, BlockScope currentScope, CodeStream codeStream, boolean valueRequired) {
+        redirectedCall.generateCode(currentScope, codeStream, valueRequired);
+        setImplicitConversions(
+                originalCall instanceof MessageSend ?
+                        ((MessageSend) originalCall).arguments :
+                        ((AllocationExpression) originalCall).arguments,
+                redirectedCall.testabilityOriginalArgumentConversions);
+    }
+
+    static int[] implicitConversions(Expression[] arguments) {
+        if (arguments == null)
+            return null;
+        int[] conversions = new int[arguments.length];
+        for (int i = 0; i < arguments.length; i++)
+            conversions[i] = arguments[i].implicitConversion;
+        return conversions;
+    }
+
+    static void setImplicitConversions(Expression[] arguments, int[] conversions) {
+        if (arguments == null || conversions == null)
+            return;
+        for (int i = 0; i < arguments.length; i++)
+            arguments[i].implicitConversion = conversions[i];
+    }
+
+    /**
+     * @return unresolved testablejava.InstrumentationSwitch.isOn(), null if the kill switch is not to be inserted
+     */
+    static MessageSend makeKillSwitchCondition(BlockScope currentScope) {
+        LookupEnvironment lookupEnvironment = currentScope.environment();
+
+        if (!getInstrumentationOptions(lookupEnvironment).contains(InstrumentationOptions.INSERT_KILL_SWITCH))
+            return null;
+
+        char[][] path = TestabilityBindings.WellKnownType.INSTRUMENTATION_SWITCH.compoundName();
+
+        if (lookupEnvironment.testabilityBindings.wellKnownType(TestabilityBindings.WellKnownType.INSTRUMENTATION_SWITCH) == null) {
+            testabilityInstrumentationWarning(currentScope, "kill switch not inserted, " + CharOperation.toString(path) + " not found");
+            return null;
+        }
+
+        MessageSend isOn = new MessageSend();
+        isOn.selector = "isOn".toCharArray();
+        isOn.receiver = new QualifiedNameReference(path, new long[path.length], 0, 0);
+        isOn.arguments = null;
+        return isOn;
     }
 
     /**
@@ -74,6 +182,18 @@ public class Testability {
      * @return true if the given expression or any of its parents marked with dontredirect: label
      */
     static boolean isLabelledAsDontRedirect(MethodScope methodScope, Expression expressionToBeReplaced) {
+        long start = instrumentationStats(methodScope).start();
+        try {
+            return isUnderDontRedirectLabel(methodScope, expressionToBeReplaced);
+        } finally {
+            instrumentationStats(methodScope).stop(
+                    InstrumentationStats.Phase.DONT_REDIRECT_CHECK,
+                    methodScope.outerMostClassScope().referenceContext,
+                    start);
+        }
+    }
+
+    static boolean isUnderDontRedirectLabel(MethodScope methodScope, Expression expressionToBeReplaced) {
         //get to list of statements for method, find current expression, see if it is under a labelled statement
         List<LabeledStatement> labelledStatementsDontRedirect = new ArrayList<>();
 
@@ -149,6 +269,35 @@ public class Testability {
         return found.get();
     }
 
+    static InstrumentationStats instrumentationStats(Scope scope) {
+        return scope.environment().instrumentationStats;
+    }
+
+    /**
+     * @return start time for recordCallSiteRewrite, not timed unless collecting stats for an instrumented unit
+     */
+    public static long startCallSiteRewrite(BlockScope currentScope) {
+        InstrumentationStats instrumentationStats = instrumentationStats(currentScope);
+        if (!instrumentationStats.isCollecting() || !currentScope.referenceCompilationUnit().compilationResult.instrumentForTestability)
+            return InstrumentationStats.NOT_TIMED;
+        return instrumentationStats.start();
+    }
+
+    /**
+     * record time spent in replaceCallWithFieldRedirectorIfNeeded, and whether the call site was rewritten
+     * @param startNanos see startCallSiteRewrite
+     */
+    public static void recordCallSiteRewrite(BlockScope currentScope, boolean rewritten, long startNanos) {
+        if (startNanos == InstrumentationStats.NOT_TIMED)
+            return;
+        InstrumentationStats instrumentationStats = instrumentationStats(currentScope);
+        TypeDeclaration typeDeclaration = currentScope.outerMostClassScope().referenceContext;
+
+        instrumentationStats.stop(InstrumentationStats.Phase.CALL_SITE_REWRITE, typeDeclaration, startNanos);
+        if (rewritten)
+            instrumentationStats.count(InstrumentationStats.Counter.CALL_SITES_REWRITTEN, typeDeclaration, 1);
+    }
+
     /**
      * add a redirection via field to call - change the call so that it uses field and its 'apply' method
      * which, in turn makes the original call
@@ -164,7 +313,7 @@ public class Testability {
         //retarget the current message to generated local field'a apply() method. Arguments s/be the same, except boxing?
 
         TypeDeclaration typeDeclaration = currentScope.outerMostClassScope().referenceContext;
-        FieldDeclaration redirectorFieldDeclaration = typeDeclaration.callExpressionToRedirectorField.get(messageSend);
+        FieldDeclaration redirectorFieldDeclaration = typeDeclaration.callSites.redirectorField(messageSend);
 
         MessageSend messageToFieldApply = new MessageSend();
 
@@ -220,6 +369,8 @@ public class Testability {
 
         argsWithReceiver[iArg++] = callSiteExpression;
 
+        messageToFieldApply.testabilityOriginalArgumentConversions = implicitConversions(messageSend.arguments);
+
         for (int iArgOriginal = 0; iArgOriginal< originalArgCount; iArgOriginal++) {
 
             Expression arg = messageSend.arguments[iArgOriginal];
@@ -280,10 +431,6 @@ public class Testability {
 
         allocationExpression.type = callSiteType;
 
-        Expression exprGetCallingClass = new StringLiteral(removeLocalPrefix(callingTypeBindingForDescription.readableName()), 0,0,0);
-
-        Expression exprGetCalledClass = new StringLiteral(removeLocalPrefix(calledTypeBindingForDescription.readableName()), 0,0,0);
-
         TypeReference calledTypeReference = typeReferenceFromTypeBinding(calledTypeBindingRaw);
 
         Expression exprGetCallingClassInstance = (currentScope.methodScope().isStatic || currentScope.methodScope().isConstructorCall) ?
@@ -298,15 +445,11 @@ public class Testability {
         //(forcing Qualified, e.g. X.this.fn() for inner types since simple fn() call will result in ThisReference pointing to inner class and MessageSend magically fixes this
         //in its actualReceiverType)
 
-        List<Expression> argvList = Arrays.asList(
-                exprGetCallingClass,
-                exprGetCalledClass,
-                exprGetCallingClassInstance,
-                exprGetCalledClassInstance);
-
         List<Expression> combinedList = new ArrayList<>();
 
-        combinedList.addAll(argvList);
+        combinedList.addAll(callSiteArguments(messageSend, currentScope, callingTypeBindingForDescription, calledTypeBindingForDescription));
+        combinedList.add(exprGetCallingClassInstance);
+        combinedList.add(exprGetCalledClassInstance);
 
         allocationExpression.arguments = combinedList.toArray(new Expression[combinedList.size()]);
 
@@ -389,10 +532,6 @@ public class Testability {
 
         allocationExpression.type = callSiteType;
 
-        Expression exprGetCallingClass = new StringLiteral(removeLocalPrefix(callingTypeBindingForDescription.readableName()), 0,0,0);
-
-        Expression exprGetCalledClass = new StringLiteral(removeLocalPrefix(calledTypeBindingForDescription.readableName()), 0,0,0);
-
         Expression exprGetCallingClassInstance = (currentScope.methodScope().isStatic || currentScope.methodScope().isConstructorCall)?
                 new NullLiteral(0,0) :
                 new ThisReference(0,0);//new QualifiedThisReference(callingTypeReference,0,0);
@@ -400,15 +539,11 @@ public class Testability {
         Expression exprGetCalledClassInstance = //no instance yet
                 new CastExpression(new NullLiteral(0,0), calledTypeReference);
 
-        List<Expression> argvList = Arrays.asList(
-                exprGetCallingClass,
-                exprGetCalledClass,
-                exprGetCallingClassInstance,
-                exprGetCalledClassInstance);
-
         List<Expression> combinedList = new ArrayList<>();
 
-        combinedList.addAll(argvList);
+        combinedList.addAll(callSiteArguments(messageSend, currentScope, callingTypeBindingForDescription, calledTypeBindingForDescription));
+        combinedList.add(exprGetCallingClassInstance);
+        combinedList.add(exprGetCalledClassInstance);
 
         if (messageSend.resolvedType instanceof NestedTypeBinding && !messageSend.resolvedType.isStatic()) {
             //for enclosing instances, add expressions A.this, B.this etc
@@ -428,6 +563,24 @@ public class Testability {
         return allocationExpression;
     }
 
+    /**
+     * @return leading CallContext arguments: the call site field if there is one, otherwise calling and called class names
+     */
+    static List<Expression> callSiteArguments(
+            Expression call,
+            BlockScope currentScope,
+            TypeBinding callingTypeBindingForDescription,
+            TypeBinding calledTypeBindingForDescription) {
+
+        FieldDeclaration callSiteField = currentScope.outerMostClassScope().referenceContext.callSites.callSiteField(call);
+        if (callSiteField != null)
+            return Collections.singletonList(makeQualifiedNameReference(new String(callSiteField.name)));
+
+        return Arrays.asList(
+                new StringLiteral(removeLocalPrefix(callingTypeBindingForDescription.readableName()), 0,0,0),
+                new StringLiteral(removeLocalPrefix(calledTypeBindingForDescription.readableName()), 0,0,0));
+    }
+
     static void ensureImplicitConversion(Expression arg, TypeBinding targetParamType) {
         removeCharToIntImplicitConversionIfNeeded(arg);
 
@@ -469,7 +622,7 @@ public class Testability {
         //retarget the current message to generated local field'a apply() method. Arguments s/be the same, except boxing
 
         TypeDeclaration typeDeclaration = currentScope.outerMostClassScope().referenceContext;
-        FieldDeclaration redirectorFieldDeclaration = typeDeclaration.callExpressionToRedirectorField.get(allocationExpression);
+        FieldDeclaration redirectorFieldDeclaration = typeDeclaration.callSites.redirectorField(allocationExpression);
 
         MessageSend messageToFieldApply = new MessageSend();
 
@@ -529,6 +682,8 @@ public class Testability {
         }
         messageToFieldApply.arguments[0] = callSiteExpression;
 
+        messageToFieldApply.testabilityOriginalArgumentConversions = implicitConversions(allocationExpression.arguments);
+
         for (int iArg=1; iArg<messageToFieldApply.arguments.length; iArg++){
             Expression arg = messageToFieldApply.arguments[iArg];
             TypeBinding targetParamType = allocationExpression.argumentTypes[iArg - 1];
@@ -641,6 +796,12 @@ public class Testability {
         return new SingleNameReference(targetFieldNameInThis, 0);
     }
 
+    static QualifiedTypeReference objectTypeReference() {
+        return new QualifiedTypeReference(
+                new char[][]{"java".toCharArray(), "lang".toCharArray(), "Object".toCharArray()},
+                new long[3]);
+    }
+
     public static void registerCallToRedirectIfNeeded(MessageSend messageSend, BlockScope scope) {
         TypeDeclaration classReferenceContext = scope.outerMostClassScope().referenceContext;
 
@@ -657,8 +818,19 @@ public class Testability {
         {
             MethodScope methodScope = scope.methodScope();
             TypeDeclaration typeContainingExpression = methodScope.classScope().referenceContext;
-            classReferenceContext.allCallsToRedirect.add(
-                    new AbstractMap.SimpleEntry<>(messageSend, typeContainingExpression));
+            char[] callingMethod = callingMethodName(scope);
+            if (!inInstrumentationScope(
+                    scope,
+                    typeContainingExpression,
+                    callingMethod,
+                    messageSend.binding == null ? null : messageSend.binding.declaringClass,
+                    new String(messageSend.selector)))
+                return;
+            messageSend.testabilityCallSiteOrdinal = callSites(classReferenceContext).add(messageSend, typeContainingExpression, callingMethod);
+            //a reflective redirector keeps its ReflectiveCaller in a field of its anonymous type, which is resolved after
+            //the flow analysis of the unit; reserve that field slot now so that all types of the unit agree on maxFieldCount
+            if (classReferenceContext.maxFieldCount < 1)
+                classReferenceContext.maxFieldCount = 1;
         }
     }
     public static void registerCallToRedirectIfNeeded(AllocationExpression allocationExpression, BlockScope scope) {
@@ -672,7 +844,81 @@ public class Testability {
             MethodScope methodScope = scope.methodScope();
 
             TypeDeclaration typeContainingExpression = methodScope.classScope().referenceContext;
-            classReferenceContext.allCallsToRedirect.add(new AbstractMap.SimpleEntry<>(allocationExpression, typeContainingExpression));
+            char[] callingMethod = callingMethodName(scope);
+            if (!inInstrumentationScope(
+                    scope,
+                    typeContainingExpression,
+                    callingMethod,
+                    allocationExpression.resolvedType,
+                    InstrumentationScope.CONSTRUCTOR))
+                return;
+            allocationExpression.testabilityCallSiteOrdinal = callSites(classReferenceContext).add(allocationExpression, typeContainingExpression, callingMethod);
+        }
+    }
+
+    /**
+     * @return name of the method containing the call (the named one, if in a lambda), &lt;init&gt; for constructors,
+     * instance and field initializers, &lt;clinit&gt; for static ones
+     */
+    static char[] callingMethodName(BlockScope scope) {
+        MethodScope namedMethodScope = scope.namedMethodScope(); //method containing a lambda
+        AbstractMethodDeclaration callingMethod = namedMethodScope == null ? null : namedMethodScope.referenceMethod();
+        return callingMethod == null ?
+                        (namedMethodScope != null && namedMethodScope.isStatic ? TypeConstants.CLINIT : TypeConstants.INIT) : //field initializer or initializer block
+                callingMethod.isConstructor() ?
+                        TypeConstants.INIT :
+                        callingMethod.selector;
+    }
+
+    /**
+     * @param callingMethod see callingMethodName
+     * @param calledType declaring class of the called method, null if unknown (then the call is in scope)
+     * @return false if the call is excluded by LookupEnvironment.instrumentationScope
+     */
+    static boolean inInstrumentationScope(
+            BlockScope scope,
+            TypeDeclaration typeContainingExpression,
+            char[] callingMethod,
+            TypeBinding calledType,
+            String calledMethod) {
+
+        LookupEnvironment lookupEnvironment = scope.environment();
+        InstrumentationScope instrumentationScope = lookupEnvironment.instrumentationScope;
+        if (instrumentationScope.isAll() || calledType == null || typeContainingExpression.binding == null)
+            return true;
+
+        boolean redirects = instrumentationScope.redirects(
+                binaryName(typeContainingExpression.binding) + "#" + new String(callingMethod),
+                binaryName(calledType.erasure()) + "#" + calledMethod);
+
+        if (!redirects)
+            lookupEnvironment.instrumentationStats.count(
+                    InstrumentationStats.Counter.CALLS_OUT_OF_SCOPE, typeContainingExpression, 1);
+
+        return redirects;
+    }
+
+    /**
+     * @return e.g. com.foo.Outer$Inner
+     */
+    static String binaryName(TypeBinding typeBinding) {
+        return new String(CharOperation.replaceOnCopy(typeBinding.constantPoolName(), '/', '.'));
+    }
+
+    static CallSiteTable callSites(TypeDeclaration topLevelType) {
+        if (topLevelType.callSites == null)
+            topLevelType.callSites = new CallSiteTable(); //resolve of a unit is single-threaded
+        return topLevelType.callSites;
+    }
+
+    /**
+     * to be called once code generation of the top-level type is over, nothing refers to call sites after that
+     */
+    public static void releaseCallSites(TypeDeclaration topLevelType) {
+        CallSiteTable callSites = topLevelType.callSites;
+        if (callSites != null) {
+            callSites.release();
+            topLevelType.callSites = null;
         }
     }
 
@@ -702,21 +948,11 @@ public class Testability {
         return false;
     }
 
-    public static void registerAnonymousType(TypeDeclaration anonymousType, BlockScope scope) {
-        TypeDeclaration classReferenceContext = scope.outerMostClassScope().referenceContext;
-
-        MethodScope methodScope = scope.methodScope();
-
-        TypeDeclaration typeContainingExpression = methodScope.classScope().referenceContext;
-        classReferenceContext.anonymousTypes.add(new AbstractMap.SimpleEntry<>(anonymousType, typeContainingExpression));
-    }
-
 
     public static List<FieldDeclaration> makeFields(
             TypeDeclaration typeDeclaration,
             SourceTypeBinding referenceBinding,
-            LookupEnvironment lookupEnvironment,
-            Consumer<Map<Expression, FieldDeclaration>> expressionToRedirectorField) {
+            LookupEnvironment lookupEnvironment) {
 
         ArrayList<FieldDeclaration> ret = new ArrayList<>();
 
@@ -751,6 +987,8 @@ public class Testability {
                                 ret.addAll(makeListenerFields(typeDeclaration.compilationResult, typeBinding, referenceBinding, lookupEnvironment));
                             });
 
+                    lookupEnvironment.instrumentationStats.count(
+                            InstrumentationStats.Counter.LISTENERS_CREATED, typeDeclaration, ret.stream().filter(Objects::nonNull).count());
                 }
 
             }
@@ -760,9 +998,12 @@ public class Testability {
                 try {
                     List<FieldDeclaration> redirectorFields = makeRedirectorFields(
                             typeDeclaration,
-                            referenceBinding,
-                            expressionToRedirectorField);
+                            referenceBinding);
                     ret.addAll(redirectorFields);
+                    lookupEnvironment.instrumentationStats.count(
+                            InstrumentationStats.Counter.REDIRECTORS_CREATED, typeDeclaration, redirectorFields.stream().filter(Objects::nonNull).count());
+                    if (typeDeclaration.callSites != null)
+                        ret.addAll(typeDeclaration.callSites.callSiteFields());
                 } catch (Exception ex) {
                     testabilityInstrumentationError(typeDeclaration.scope,"a field cannot be created", ex);
                 }
@@ -863,39 +1104,41 @@ public class Testability {
         if (!getFieldMandatoryErrors(fieldDeclaration).isEmpty())
             return false;
 
+        if (fieldDeclaration.initialization == null || fieldDeclaration.initialization instanceof Literal)
+            return true; //e.g. sample field, nothing in the initializer can fail to resolve
+
+        boolean[] valid = {true};
         try {
             fieldDeclaration.traverse(new ASTVisitor() {
                 @Override
                 public boolean visit(MessageSend m, BlockScope scope) {
                     if (m.binding() instanceof ProblemMethodBinding)
-                        throw exceptionVisitorInterrupted;
-                    return true;
+                        valid[0] = false;
+                    return valid[0];
                 }
                 @Override
                 public boolean visit(SingleTypeReference t, BlockScope scope) {
                     if (t.resolvedType instanceof ProblemReferenceBinding)
-                        throw exceptionVisitorInterrupted;
-                    return true;
+                        valid[0] = false;
+                    return valid[0];
                 }
                 @Override
                 public boolean visit(ParameterizedSingleTypeReference t, BlockScope scope) {
                     if (t.resolvedType instanceof ProblemReferenceBinding)
-                        throw exceptionVisitorInterrupted;
-                    return true;
+                        valid[0] = false;
+                    return valid[0];
                 }
                 //TODO re-enable
 //                @Override
 //                public boolean visit(QualifiedTypeReference r, BlockScope scope) {
 //                    if (r.resolvedType == null || r.resolvedType instanceof ProblemReferenceBinding)
-//                        throw exceptionVisitorInterrupted;
-//                    return true;
+//                        valid[0] = false;
+//                    return valid[0];
 //                }
             }, scope);
         } catch(Exception e){
-            if (e == exceptionVisitorInterrupted)
-                return false;
         }
-        return true;
+        return valid[0];
     }
 
     public static List<Integer> getFieldMandatoryErrors(FieldDeclaration fieldDeclaration) {
@@ -913,7 +1156,15 @@ public class Testability {
                         collect(toList());
     }
 
-    static RuntimeException exceptionVisitorInterrupted = new RuntimeException();
+    /**
+     * early exit from an AST traversal. A new instance is thrown each time (without a stack trace),
+     * so concurrent traversals on compiler worker threads do not share any state
+     */
+    static class VisitorInterrupted extends RuntimeException {
+        VisitorInterrupted() {
+            super(null, null, false, false);
+        }
+    }
 
     public static boolean codeContainsTestabilityFieldAccessExpression(CompilationUnitDeclaration unitDeclaration){
 
@@ -923,7 +1174,7 @@ public class Testability {
 
             if (calls.isEmpty() && Testability.isTestabilityFieldAccess(ex)) {
                 calls.add(ex);
-                throw exceptionVisitorInterrupted;
+                throw new VisitorInterrupted();
             }
         };
 
@@ -946,8 +1197,7 @@ public class Testability {
                     return super.visit(fr, scope);
                 }
             }, (CompilationUnitScope) null);
-        } catch (RuntimeException ex) {
-          if (ex!=exceptionVisitorInterrupted) throw ex;
+        } catch (VisitorInterrupted ex) {
         }
 
         return !calls.isEmpty();
@@ -1003,25 +1253,35 @@ public class Testability {
      */
     public static List<FieldDeclaration> makeRedirectorFields(
             TypeDeclaration typeDeclaration,
-            SourceTypeBinding referenceBinding,
-            Consumer<Map<Expression, FieldDeclaration>> originalCallToFieldProducer) throws Exception {
+            SourceTypeBinding referenceBinding) throws Exception {
+
+        CallSiteTable callSites = typeDeclaration.callSites;
+        if (callSites == null)
+            return Collections.emptyList(); //no calls to redirect
+
+        LookupEnvironment lookupEnvironment = referenceBinding.scope.environment();
+
+        int namedBefore = lookupEnvironment.testabilityBindings.redirectorDescriptorCount();
+        RedirectorDescriptor[] descriptors = IntStream.range(0, callSites.size()).
+                mapToObj(ordinal -> redirectorDescriptor(lookupEnvironment, callSites.call(ordinal))).
+                toArray(RedirectorDescriptor[]::new);
+        lookupEnvironment.instrumentationStats.count(
+                InstrumentationStats.Counter.REDIRECTOR_NAMES_MADE,
+                typeDeclaration,
+                lookupEnvironment.testabilityBindings.redirectorDescriptorCount() - namedBefore);
 
         //eliminate duplicates, since multiple call of the same method possible
-        Map<String, List<Map.Entry<Expression, TypeDeclaration>>> uniqueFieldToExpression = typeDeclaration.allCallsToRedirect.stream().
+        Map<String, List<Integer>> uniqueFieldToOrdinals = IntStream.range(0, callSites.size()).boxed().
                 collect(
-                        Collectors.groupingBy(entry -> {
-                            Expression expr = entry.getKey();
-                            return testabilityFieldDescriptorUniqueInOverload(expr);
-                        })
+                        Collectors.groupingBy(ordinal -> descriptors[ordinal].uniqueInOverload())
                 );
 
-        List<Map.Entry<Expression, TypeDeclaration>> distinctCalls = uniqueFieldToExpression.values().stream().
-                map(expressionList -> expressionList.get(0)).
+        List<Integer> distinctCalls = uniqueFieldToOrdinals.values().stream().
+                map(ordinals -> ordinals.get(0)).
                 collect(toList()); //take 1st value of each list (where items have same toUniqueMethodDescriptor()
 
         List<List<String>> shortNames = distinctCalls.stream().
-                map(Map.Entry::getKey).
-                map(originalExpression -> testabilityFieldName(originalExpression, true)).
+                map(ordinal -> descriptors[ordinal].shortName()).
                 collect(toList());
 
         int maxRowSize = shortNames.stream().
@@ -1034,8 +1294,7 @@ public class Testability {
 
         List<List<String>> longNames = Util.cloneAndEqualizeMatrix(
                 distinctCalls.stream().
-                map(Map.Entry::getKey).
-                map(originalExpression -> testabilityFieldName(originalExpression, false)).
+                map(ordinal -> descriptors[ordinal].longName()).
                 collect(toList()), maxRowSize, "");
 
         if (!Util.uniqueMatrix(
@@ -1053,11 +1312,11 @@ public class Testability {
         List<FieldDeclaration> ret = //contains nulls
                 IntStream.range(0, uniqueFieldNames.size()).
                 mapToObj(pos -> {
-                    Map.Entry<Expression, TypeDeclaration> entry = distinctCalls.get(pos);
+                    int ordinal = distinctCalls.get(pos);
 
-                    Expression originalCall = entry.getKey();
+                    Expression originalCall = callSites.call(ordinal);
 
-                    TypeDeclaration typeDeclarationContainingCall = entry.getValue();
+                    TypeDeclaration typeDeclarationContainingCall = callSites.typeContainingCall(ordinal);
 
                     List<String> fieldNameParts = uniqueFieldNames.get(pos);
 
@@ -1103,40 +1362,229 @@ public class Testability {
                 }).
                 collect(toList());
 
-        //ret is in the order of longFieldNameToExpression.values: 1st element of each list was used to make a field
-        List<List<Expression>> longFieldNameToExpressionValues = new ArrayList<>(
-            uniqueFieldToExpression.values().stream().
-                    map(lst -> lst.stream().map(Map.Entry::getKey).collect(toList())).
-                    collect(toList())
-        );
+        //ret is in the order of uniqueFieldToOrdinals.values: 1st element of each list was used to make a field
+        List<List<Integer>> ordinalsByField = new ArrayList<>(uniqueFieldToOrdinals.values());
 
-        IdentityHashMap<Expression, FieldDeclaration> originalCallToField =
-                IntStream.range(0, uniqueFieldToExpression.size()).
-                        mapToObj(i -> {
+        int[] fieldIndexByOrdinal = new int[callSites.size()];
+        Arrays.fill(fieldIndexByOrdinal, CallSiteTable.NO_FIELD);
+        IntStream.range(0, ordinalsByField.size()).forEach(fieldIndex ->
+                ordinalsByField.get(fieldIndex).forEach(ordinal -> fieldIndexByOrdinal[ordinal] = fieldIndex));
 
-                            List<Expression> list = longFieldNameToExpressionValues.get(i);
-                            FieldDeclaration field = ret.get(i);
-                            if (field == null) {
-                                return null;
-                            }
-                            return new AbstractMap.SimpleEntry<>(field, list);
-                        }).
-                        filter(Objects::nonNull).
-                        flatMap(e -> { //form stream by individual expression
-                            return e.getValue().stream().
-                                    map(ex -> new AbstractMap.SimpleEntry<>(e.getKey(), ex));
-                        }).
-                        collect(toMap(
-                                e -> e.getValue(),
-                                e -> e.getKey(),
-                                (k,v) -> k, //not null
-                                () -> new IdentityHashMap<>()
-                        ));
-
-        originalCallToFieldProducer.accept(originalCallToField);
+        FieldDeclaration[] callSiteFields =
+                getInstrumentationOptions(lookupEnvironment).contains(InstrumentationOptions.INSERT_CALL_SITES) ?
+                        makeCallSiteFields(typeDeclaration, referenceBinding, callSites, ret, fieldIndexByOrdinal) :
+                        null;
+
+        String[] stableNames = distinctCalls.stream().
+                map(ordinal -> descriptors[ordinal].uniqueInOverload()).
+                toArray(String[]::new);
+
+        callSites.assignRedirectorFields(ret.toArray(new FieldDeclaration[ret.size()]), stableNames, fieldIndexByOrdinal, callSiteFields);
+        return ret;
+    }
+
+    /**
+     * one static final testablejava.CallSite field per redirected call, passed to its CallContext
+     * @param redirectorFields contains nulls
+     * @return call site field by ordinal, null where the call has no redirector field;
+     * null if testablejava.CallSite is not on the classpath
+     */
+    static FieldDeclaration[] makeCallSiteFields(
+            TypeDeclaration typeDeclaration,
+            SourceTypeBinding referenceBinding,
+            CallSiteTable callSites,
+            List<FieldDeclaration> redirectorFields,
+            int[] fieldIndexByOrdinal) {
+
+        LookupEnvironment lookupEnvironment = referenceBinding.scope.environment();
+
+        ReferenceBinding callSiteType = lookupEnvironment.testabilityBindings.wellKnownType(TestabilityBindings.WellKnownType.CALL_SITE);
+        if (callSiteType == null) {
+            testabilityInstrumentationWarning(typeDeclaration.scope,
+                    "call sites not inserted, " + CharOperation.toString(TestabilityBindings.WellKnownType.CALL_SITE.compoundName()) + " not found");
+            return null;
+        }
+
+        char[] sourceFile = sourceFileName(typeDeclaration.compilationResult);
+        int[] lineEnds = typeDeclaration.compilationResult.getLineSeparatorPositions();
+
+        FieldDeclaration[] ret = new FieldDeclaration[callSites.size()];
+
+        for (int ordinal = 0; ordinal < ret.length; ordinal++) {
+            int fieldIndex = fieldIndexByOrdinal[ordinal];
+            if (fieldIndex == CallSiteTable.NO_FIELD || redirectorFields.get(fieldIndex) == null)
+                continue;
+
+            Expression call = callSites.call(ordinal);
+            String fieldName = TESTABILITY_FIELD_NAME_PREFIX + "callSite$" + ordinal;
+            try {
+                ret[ordinal] = makeCallSiteFieldDeclaration(
+                        call,
+                        callSites.typeContainingCall(ordinal),
+                        callSites.callingMethod(ordinal),
+                        sourceFile,
+                        org.eclipse.jdt.internal.compiler.util.Util.getLineNumber(call.sourceStart, lineEnds, 0, lineEnds.length - 1),
+                        callSiteType,
+                        referenceBinding,
+                        fieldName);
+            } catch (Exception ex) {
+                testabilityInstrumentationError(
+                        typeDeclaration.scope,
+                        "field " + fieldName + " cannot be created for expression " + call,
+                        ex);
+            }
+        }
+        lookupEnvironment.instrumentationStats.count(
+                InstrumentationStats.Counter.CALL_SITES_CREATED,
+                typeDeclaration,
+                Arrays.stream(ret).filter(Objects::nonNull).count());
+        return ret;
+    }
+
+    /**
+     * public static final CallSite $$callSite$N = new CallSite(callingClass, callingMethod, sourceFile, line, calledClass, calledMethod, calledDescriptor);
+     */
+    static FieldDeclaration makeCallSiteFieldDeclaration(
+            Expression call,
+            TypeDeclaration typeDeclarationContainingCall,
+            char[] callingMethod,
+            char[] sourceFile,
+            int line,
+            ReferenceBinding callSiteType,
+            SourceTypeBinding referenceBinding,
+            String fieldName) {
+
+        MethodBinding calledMethod;
+        TypeBinding calledTypeBindingForDescription;
+        if (call instanceof MessageSend) {
+            calledMethod = ((MessageSend) call).binding;
+            calledTypeBindingForDescription = ((MessageSend) call).actualReceiverType;
+        } else {
+            calledMethod = ((AllocationExpression) call).binding;
+            calledTypeBindingForDescription = call.resolvedType;
+        }
+
+        FieldDeclaration fieldDeclaration = new FieldDeclaration(fieldName.toCharArray(), 0, 0);
+
+        fieldDeclaration.type = typeReferenceFromTypeBinding(callSiteType);
+
+        fieldDeclaration.modifiers = ClassFileConstants.AccPublic | ClassFileConstants.AccStatic | ClassFileConstants.AccFinal;
+
+        fieldDeclaration.binding = new FieldBinding(
+                fieldDeclaration,
+                callSiteType,
+                fieldDeclaration.modifiers,
+                referenceBinding);
+
+        AllocationExpression allocationExpression = new AllocationExpression();
+
+        allocationExpression.type = typeReferenceFromTypeBinding(callSiteType);
+
+        allocationExpression.arguments = new Expression[]{
+                new StringLiteral(removeLocalPrefix(convertIfAnonymous(typeDeclarationContainingCall.binding).readableName()), 0, 0, 0),
+                new StringLiteral(callingMethod, 0, 0, 0),
+                new StringLiteral(sourceFile, 0, 0, 0),
+                IntLiteral.buildIntLiteral(String.valueOf(line).toCharArray(), 0, 0),
+                new StringLiteral(removeLocalPrefix(calledTypeBindingForDescription.readableName()), 0, 0, 0),
+                new StringLiteral(calledMethod.selector, 0, 0, 0),
+                new StringLiteral(methodDescriptor(calledMethod), 0, 0, 0)
+        };
+
+        fieldDeclaration.initialization = allocationExpression;
+
+        return fieldDeclaration;
+    }
+
+    /**
+     * public static final RedirectorRegistry $$registry = new RedirectorRegistry(X.class, new String[]{"$$preCreate", ...});
+     * @param injectedFields validated fields injected into the type, the registry lists its redirectors and listeners
+     * @return null if not needed or testablejava.RedirectorRegistry is not on the classpath
+     */
+    public static FieldDeclaration makeRegistryField(
+            TypeDeclaration typeDeclaration,
+            SourceTypeBinding referenceBinding,
+            List<FieldDeclaration> injectedFields) {
+
+        LookupEnvironment lookupEnvironment = referenceBinding.scope.environment();
+
+        if (!getInstrumentationOptions(lookupEnvironment).contains(InstrumentationOptions.INSERT_REGISTRY))
+            return null;
+
+        List<FieldDeclaration> registeredFields = injectedFields.stream().
+                filter(f -> (f.modifiers & ClassFileConstants.AccFinal) == 0). //CallSite fields are final
+                collect(toList());
+
+        if (registeredFields.isEmpty())
+            return null;
+
+        ReferenceBinding registryType = lookupEnvironment.testabilityBindings.wellKnownType(TestabilityBindings.WellKnownType.REDIRECTOR_REGISTRY);
+        if (registryType == null) {
+            testabilityInstrumentationWarning(typeDeclaration.scope,
+                    "registry not inserted, " + CharOperation.toString(TestabilityBindings.WellKnownType.REDIRECTOR_REGISTRY.compoundName()) + " not found");
+            return null;
+        }
+
+        FieldDeclaration fieldDeclaration = new FieldDeclaration(REGISTRY_FIELD_NAME.toCharArray(), 0, 0);
+
+        fieldDeclaration.type = typeReferenceFromTypeBinding(registryType);
+
+        fieldDeclaration.modifiers = ClassFileConstants.AccPublic | ClassFileConstants.AccStatic | ClassFileConstants.AccFinal;
+
+        fieldDeclaration.binding = new FieldBinding(
+                fieldDeclaration,
+                registryType,
+                fieldDeclaration.modifiers,
+                referenceBinding);
+
+        ArrayInitializer fieldNames = new ArrayInitializer();
+        fieldNames.expressions = registeredFields.stream().
+                map(f -> new StringLiteral(f.name, 0, 0, 0)).
+                toArray(Expression[]::new);
+
+        ArrayAllocationExpression fieldNamesArray = new ArrayAllocationExpression();
+        fieldNamesArray.type = typeReferenceFromTypeBinding(
+                lookupEnvironment.testabilityBindings.wellKnownType(TestabilityBindings.WellKnownType.JAVA_LANG_STRING));
+        fieldNamesArray.dimensions = new Expression[1];
+        fieldNamesArray.initializer = fieldNames;
+
+        AllocationExpression allocationExpression = new AllocationExpression();
+
+        allocationExpression.type = typeReferenceFromTypeBinding(registryType);
+
+        allocationExpression.arguments = new Expression[]{
+                new ClassLiteralAccess(0, typeReferenceFromTypeBinding(referenceBinding.erasure())),
+                fieldNamesArray
+        };
+
+        fieldDeclaration.initialization = allocationExpression;
+
+        lookupEnvironment.instrumentationStats.count(InstrumentationStats.Counter.REGISTRIES_CREATED, typeDeclaration, 1);
+
+        return fieldDeclaration;
+    }
+
+    /**
+     * @return descriptor of the method as declared (erased, no synthetic arguments), e.g. (Ljava/lang/String;)I
+     */
+    static char[] methodDescriptor(MethodBinding binding) {
+        MethodBinding original = binding.original();
+        StringBuilder descriptor = new StringBuilder().append('(');
+        for (TypeBinding parameter : original.parameters)
+            descriptor.append(parameter.erasure().signature());
+        descriptor.append(')').append(original.returnType.erasure().signature());
+        char[] ret = new char[descriptor.length()];
+        descriptor.getChars(0, ret.length, ret, 0);
         return ret;
     }
 
+    /**
+     * @return file name without directories, as in the SourceFile attribute
+     */
+    static char[] sourceFileName(CompilationResult compilationResult) {
+        char[] fileName = CharOperation.replaceOnCopy(compilationResult.getFileName(), '\\', '/');
+        return CharOperation.lastSegment(fileName, '/');
+    }
+
     static String printExpr(Expression expression, CompilationResult unitResult) {
         int[] lineEnds = unitResult.getLineSeparatorPositions();
         int lineNumber = org.eclipse.jdt.internal.compiler.util.Util.getLineNumber(expression.sourceStart, lineEnds , 0, lineEnds.length-1);
@@ -1174,24 +1622,13 @@ public class Testability {
             TypeBinding calledType,
             LookupEnvironment lookupEnvironment){
 
-        char[][] path = {
-                "testablejava".toCharArray(),
-                "CallContext".toCharArray()
-        };
-
-        ReferenceBinding genericType = lookupEnvironment.getType(path);
+        ReferenceBinding binding = lookupEnvironment.testabilityBindings.callContextType(calledType);
 
-        if (genericType == null) {
-            throw internalError(Arrays.stream(path).map(String::new).collect(joining(".")) + " not found");
+        if (binding == null) {
+            throw internalError(Arrays.stream(TestabilityBindings.WellKnownType.CALL_CONTEXT.compoundName()).map(String::new).collect(joining(".")) + " not found");
         }
 
-        ReferenceBinding enclosingType = null;
-
-        return lookupEnvironment.createParameterizedType(
-                genericType,
-                new TypeBinding[]{calledType},
-                enclosingType);
-
+        return binding;
     }
 
     static FieldDeclaration makeRedirectorFieldDeclaration(
@@ -1303,7 +1740,7 @@ public class Testability {
         int additionalTypeVarCountForMethod = (int) argCastTypeReferences.stream().filter(Objects::nonNull).count();
 
         char[][] path = {
-                "helpers".toCharArray(),
+                HelperTypes.PACKAGE.toCharArray(),
                 functionNameForArgs(
                         returnsVoid,
                         functionArgCount,
@@ -1311,7 +1748,11 @@ public class Testability {
 
         };
 
-        ReferenceBinding genericType = lookupEnvironment.getType(path);
+        ReferenceBinding genericType = lookupEnvironment.testabilityBindings.helperType(
+                typeDeclaration.compilationResult,
+                returnsVoid,
+                functionArgCount,
+                additionalTypeVarCountForMethod);
 
         if (genericType == null) {
             Testability.testabilityInstrumentationError(
@@ -1407,18 +1848,18 @@ public class Testability {
                 !isVisibleFromField || isDefinedOnAnonymousType;
 
         Expression reflectiveInstanceCallInLambdaBody = null;
+        FieldDeclaration reflectiveCallerField = null; //of the anonymous type, one caller per redirector
 
         if (needsReflectiveCall) {
-            //e.g:
-            // new testability.ReflectiveCaller(String.class, "split", String.class, int.class).
-            //  apply("a,b,c", ",", 2);
-
-            Expression calledClassExpression = isStaticCall?
-                    new ClassLiteralAccess(0, typeReferenceFromTypeBinding(originalMessageSend.actualReceiverType)) :
-                    new MessageSendBuilder("getClass").
-                            receiver(" arg0", "calledClassInstance").
-                            build().
-                            orElseThrow(()->new RuntimeException("internal error"));
+            //e.g. for an instance call, in the anonymous type:
+            // private testablejava.ReflectiveCaller caller = new testablejava.ReflectiveCaller("split", String.class, int.class);
+            // ...
+            //  (String[]) (Object) caller.methodHandle(arg0.calledClassInstance.getClass()).
+            //   invokeExact((Object) arg0.calledClassInstance, (Object) arg1, (Object) arg2);
+            //or for a static one:
+            // private testablejava.ReflectiveCaller caller = new testablejava.ReflectiveCaller(String.class, "valueOf", int.class);
+            // ...
+            //  (String) (Object) caller.methodHandle().invokeExact((Object) null, (Object) arg1);
 
             Expression calledMethodNameExpression = new StringLiteral(originalMessageSend.selector, 0, 0, 0);
 
@@ -1427,38 +1868,62 @@ public class Testability {
                     collect(toList()).
                     toArray(new Expression[originalBindingParameters.length]);
 
-            AllocationExpression newReflectiveCallerExpression = new AllocationExpressionBuilder().
-                    type("testablejava", "ReflectiveCaller").
-                    arg(calledClassExpression).
+            AllocationExpressionBuilder newReflectiveCallerBuilder = new AllocationExpressionBuilder().
+                    type("testablejava", "ReflectiveCaller");
+            if (isStaticCall) //otherwise resolved in the class of the receiver, which may be anonymous
+                newReflectiveCallerBuilder = newReflectiveCallerBuilder.
+                        arg(new ClassLiteralAccess(0, typeReferenceFromTypeBinding(originalMessageSend.actualReceiverType)));
+
+            AllocationExpression newReflectiveCallerExpression = newReflectiveCallerBuilder.
                     arg(calledMethodNameExpression).
                     args(calledMethodArgTypesExpressions).
                     build(lookupEnvironment).
                     orElseThrow(()->new RuntimeException("internal error"));
 
-            String[] argStrings = IntStream.range(1, originalArguments.length + 1).
-                    mapToObj(iArgN -> " arg" + iArgN).
-                    collect(toList()).
-                    toArray(new String[]{});
+            reflectiveCallerField = new FieldDeclaration(REFLECTIVE_CALLER_FIELD_NAME.toCharArray(), 0, 0);
+            reflectiveCallerField.type = new QualifiedTypeReference(
+                    new char[][]{"testablejava".toCharArray(), "ReflectiveCaller".toCharArray()},
+                    new long[2]);
+            reflectiveCallerField.modifiers = ClassFileConstants.AccPrivate;
+            reflectiveCallerField.initialization = newReflectiveCallerExpression;
+
+            MessageSendBuilder methodHandleBuilder = new MessageSendBuilder("methodHandle").
+                    receiver(makeSingleNameReference(REFLECTIVE_CALLER_FIELD_NAME));
+            if (!isStaticCall)
+                methodHandleBuilder = methodHandleBuilder.argSingleNameReference(
+                        new MessageSendBuilder("getClass").
+                                receiver(" arg0", "calledClassInstance").
+                                build().
+                                orElseThrow(()->new RuntimeException("internal error")));
 
             MessageSendBuilder reflectiveMessageSendInLambdaBodyBuilder =
-                new MessageSendBuilder("apply").
-                        receiver(newReflectiveCallerExpression);
+                new MessageSendBuilder("invokeExact").
+                        receiver(methodHandleBuilder.build().orElseThrow(()->new RuntimeException("internal error")));
 
-            if (isStaticCall)
-                reflectiveMessageSendInLambdaBodyBuilder = reflectiveMessageSendInLambdaBodyBuilder.argNullLiteral();
-            else
-                reflectiveMessageSendInLambdaBodyBuilder = reflectiveMessageSendInLambdaBodyBuilder.argQualifiedNameReference(" arg0", "calledClassInstance");
+            //every argument typed Object, to match the method handle exactly
+            reflectiveMessageSendInLambdaBodyBuilder = reflectiveMessageSendInLambdaBodyBuilder.argSingleNameReference(
+                    new CastExpression(
+                            isStaticCall ?
+                                    new NullLiteral(0, 0) :
+                                    makeQualifiedNameReference(new String[]{" arg0", "calledClassInstance"}),
+                            objectTypeReference()));
+
+            for (int iArgN = 1; iArgN <= originalArguments.length; iArgN++)
+                reflectiveMessageSendInLambdaBodyBuilder = reflectiveMessageSendInLambdaBodyBuilder.argSingleNameReference(
+                        new CastExpression(makeSingleNameReference(" arg" + iArgN), objectTypeReference()));
 
             MessageSend reflectiveMessageSendInLambdaBody =
                     reflectiveMessageSendInLambdaBodyBuilder.
-                        argSingleNameReferences(argStrings).
                         build().
                         orElseThrow(()->new RuntimeException("internal error"));
 
+            if (returnsVoid)
+                reflectiveMessageSendInLambdaBody.bits |= ASTNode.InsideExpressionStatement; //invoked as ()void
+
             reflectiveInstanceCallInLambdaBody = returnsVoid?
                     reflectiveMessageSendInLambdaBody :
                     new CastExpression(
-                            reflectiveMessageSendInLambdaBody,
+                            new CastExpression(reflectiveMessageSendInLambdaBody, objectTypeReference()), //invoked as ()Object
                             typeReferenceFromTypeBinding(boxIfApplicable(fieldTypeBinding, lookupEnvironment))
                     );
         }
@@ -1498,7 +1963,8 @@ public class Testability {
         if (originalMessageSend.resolvedType instanceof BaseTypeBinding) //primitive type needs to be boxed when returned from lambda
             addImplicitBoxing(messageSendInLambdaBody, originalMessageSend.resolvedType);
 
-        boolean methodCanThrow = methodCanThrow(originalMessageSend);
+        boolean methodCanThrow = methodCanThrow(originalMessageSend) ||
+                needsReflectiveCall; //invokeExact throws Throwable
 
         Block block = makeStatementBlockForCallingOriginalMethod(
                 returnsVoid,
@@ -1537,6 +2003,9 @@ public class Testability {
 
             methodDeclaration.arguments = anonInitializerArguments;
 
+            if (reflectiveCallerField != null)
+                anonymousType.fields = new FieldDeclaration[]{reflectiveCallerField};
+
             if (!argCastTypeReferences.isEmpty()) {
                 //detect all type variables
                 List<TypeParameter> typeArgs = argCastTypeReferences.stream().
@@ -1766,7 +2235,7 @@ public class Testability {
 
     static TypeBinding[] convertToObjectIfTypeVariables(LookupEnvironment lookupEnvironment, TypeBinding[] typeArgumentsForFunction) {
         //replace references to type arguments with Object type
-        ReferenceBinding objectTypeBinding = lookupEnvironment.askForType(new char[][]{"java".toCharArray(), "lang".toCharArray(), "Object".toCharArray()});
+        ReferenceBinding objectTypeBinding = lookupEnvironment.testabilityBindings.wellKnownType(TestabilityBindings.WellKnownType.JAVA_LANG_OBJECT);
         return Arrays.stream(typeArgumentsForFunction).
                 map(typeBinding -> typeBinding instanceof TypeVariableBinding ? objectTypeBinding : typeBinding).
                 collect(toList()).
@@ -1944,14 +2413,18 @@ public class Testability {
                         count();
 
         char[][] path = {
-                "helpers".toCharArray(),
+                HelperTypes.PACKAGE.toCharArray(),
                 functionNameForArgs(
                         false,
                         functionArgCount,
                         additionalTypeVarCountForMethod).toCharArray()
         };
 
-        ReferenceBinding genericType = lookupEnvironment.getType(path);
+        ReferenceBinding genericType = lookupEnvironment.testabilityBindings.helperType(
+                typeDeclaration.compilationResult,
+                false,
+                functionArgCount,
+                additionalTypeVarCountForMethod);
 
         if (genericType == null) {
             if (genericType == null) {
@@ -2167,14 +2640,9 @@ public class Testability {
 
         LookupEnvironment lookupEnvironment = referenceBinding.scope.environment();
 
-        char[][] path = {
-                "java".toCharArray(),
-                "util".toCharArray(),
-                "function".toCharArray(),
-                "Consumer".toCharArray()
-        };
+        char[][] path = TestabilityBindings.WellKnownType.JAVA_UTIL_FUNCTION_CONSUMER.compoundName();
 
-        ReferenceBinding genericType = lookupEnvironment.getType(path);
+        ReferenceBinding genericType = lookupEnvironment.testabilityBindings.wellKnownType(TestabilityBindings.WellKnownType.JAVA_UTIL_FUNCTION_CONSUMER);
 
         if (genericType == null) {
             throw internalError(new String(path[0]) + " not found");
@@ -2250,13 +2718,9 @@ public class Testability {
 
         LookupEnvironment lookupEnvironment = referenceBinding.scope.environment();
 
-        char[][] path = {
-                "java".toCharArray(),
-                "lang".toCharArray(),
-                "String".toCharArray()
-        };
+        char[][] path = TestabilityBindings.WellKnownType.JAVA_LANG_STRING.compoundName();
 
-        ReferenceBinding genericType = lookupEnvironment.getType(path);
+        ReferenceBinding genericType = lookupEnvironment.testabilityBindings.wellKnownType(TestabilityBindings.WellKnownType.JAVA_LANG_STRING);
 
         if (genericType == null) {
             throw internalError(new String(path[0]) + " not found");
@@ -2276,8 +2740,7 @@ public class Testability {
 
         fieldDeclaration.type = fieldTypeReference; //parameterizedQualifiedTypeReference;
 
-        TypeBinding typeBinding =
-                lookupEnvironment.askForType(path);
+        TypeBinding typeBinding = genericType;
 
         FieldBinding fieldBinding = new FieldBinding(
                 fieldDeclaration,
@@ -2558,20 +3021,40 @@ public class Testability {
     }
 
     static public List<String> testabilityFieldName(Expression originalCall, boolean shortClassName) {
+        RedirectorDescriptor descriptor = redirectorDescriptorKey(originalCall);
+        return testabilityFieldName(
+                descriptor.newOperator,
+                descriptor.receiverType,
+                descriptor.selector,
+                descriptor.argumentTypes,
+                shortClassName);
+    }
+
+    /**
+     * @return field name parts for the call, cached in the LookupEnvironment of the called type
+     */
+    static RedirectorDescriptor redirectorDescriptor(LookupEnvironment lookupEnvironment, Expression originalCall) {
+        RedirectorDescriptor key = redirectorDescriptorKey(originalCall);
+        return lookupEnvironment.testabilityBindings.redirectorDescriptor(
+                key.newOperator,
+                key.receiverType,
+                key.selector,
+                key.argumentTypes);
+    }
+
+    /**
+     * @return descriptor of the call, names not computed
+     */
+    static RedirectorDescriptor redirectorDescriptorKey(Expression originalCall) {
         if (!(originalCall instanceof Invocation))
             throw new RuntimeException("domain error on argument, must be instance of Invocation");
 
         MethodBinding binding = ((Invocation) originalCall).binding();
 
-        List<String> ret = new ArrayList<>();
-
-
         if (originalCall instanceof MessageSend) {
             MessageSend originalMessageSend = (MessageSend) originalCall;
             TypeBinding receiverBinding = originalMessageSend.receiver.resolvedType;
 
-            String invokedClassName;
-
             //note: ThisReference in case of statically imported class (and static call) is a confusing case,
             // for which we will use actualReceiverType
             ReferenceBinding receiverReferenceBinding = null;
@@ -2601,21 +3084,11 @@ public class Testability {
                 receiverReferenceBinding = ((LocalTypeBinding) receiverReferenceBinding).superclass;
             }
 
-            invokedClassName = new String(readableName(receiverReferenceBinding, shortClassName));
-
-            String invokedMethodName = new String(originalMessageSend.selector);
-
-            ret.addAll(testabilityFieldNameForExternalAccess(invokedClassName, invokedMethodName));
-
-            List<String> argTypes = Arrays.stream(originalMessageSend.argumentTypes).
-                    map(argType -> escapeArgType(argType, shortClassName)).
-                    collect(toList());
-
-            if (!argTypes.isEmpty()) ret.add(TESTABILITY_ARG_LIST_SEPARATOR);
-
-            ret.add(argTypes.stream().collect(joining("$")));
-
-            return ret;
+            return new RedirectorDescriptor(
+                    false,
+                    receiverReferenceBinding,
+                    originalMessageSend.selector,
+                    originalMessageSend.argumentTypes);
         }
         else if (originalCall instanceof AllocationExpression) {
             ReferenceBinding receiverReferenceBinding = binding.declaringClass;
@@ -2624,43 +3097,92 @@ public class Testability {
                 receiverReferenceBinding = ((LocalTypeBinding) receiverReferenceBinding).superclass;
             }
 
-            String invokedClassName = new String(readableName(receiverReferenceBinding, shortClassName));
+            return new RedirectorDescriptor(
+                    true,
+                    receiverReferenceBinding,
+                    binding.selector,
+                    ((AllocationExpression) originalCall).argumentTypes);
+        }
+        else
+            throw new RuntimeException("domain error on argument");
+    }
+
+    static List<String> testabilityFieldName(
+            boolean newOperator,
+            ReferenceBinding receiverReferenceBinding,
+            char[] selector,
+            TypeBinding[] argumentTypes,
+            boolean shortClassName) {
 
-            ret.addAll(testabilityFieldNameForNewOperator(invokedClassName));
+        List<String> ret = new ArrayList<>();
 
-            List<String> argTypes = Arrays.stream(((AllocationExpression) originalCall).argumentTypes).
-                    map(argType -> escapeArgType(argType, shortClassName)).
-                    collect(toList());
+        String invokedClassName = new String(readableName(receiverReferenceBinding, shortClassName));
 
-            if (!argTypes.isEmpty()) ret.add(TESTABILITY_ARG_LIST_SEPARATOR);
+        if (!newOperator) {
+            ret.addAll(testabilityFieldNameForExternalAccess(invokedClassName, new String(selector)));
 
-            ret.addAll(argTypes);
+            if (argumentTypes.length > 0) ret.add(TESTABILITY_ARG_LIST_SEPARATOR);
 
-            return ret;
+            StringBuilder argTypes = new StringBuilder();
+            for (int i = 0; i < argumentTypes.length; i++) {
+                if (i > 0) argTypes.append('$');
+                argTypes.append(escapeArgType(argumentTypes[i], shortClassName));
+            }
+            ret.add(argTypes.toString());
+        } else {
+            ret.addAll(testabilityFieldNameForNewOperator(invokedClassName));
+
+            if (argumentTypes.length > 0) ret.add(TESTABILITY_ARG_LIST_SEPARATOR);
+
+            for (TypeBinding argumentType : argumentTypes)
+                ret.add(escapeArgType(argumentType, shortClassName));
         }
-        else
-            throw new RuntimeException("domain error on argument");
+        return ret;
     }
 
+    /**
+     * escape constant pool name of the type in one pass: '/' and '.' become '$', '[' becomes Ⓐ,
+     * '&lt;' and '&gt;' become '_', trailing ';' is dropped. Short form keeps only the last path segment
+     * (and one '[' if array)
+     */
     static String escapeArgType(TypeBinding argType, boolean shortForm) {
-        String constPoolName = new String(argType.constantPoolName());
+        char[] constPoolName = argType.constantPoolName();
+        int from = 0;
+        boolean array = false;
         if (shortForm) {
-            String shortName = Util.lastChunk(constPoolName, "/");
-            if (constPoolName.startsWith("[") && !shortName.startsWith("["))
-                shortName = "[" + shortName; //preserve, since it is not in last chunk
-            String shortEscapedName = escapePathSeparatorsAndArrayInTypeName(shortName) ;
-            return escapeTypeArgsInTypeName(shortEscapedName);
-        } else {
-            String longEscapedName = escapePathSeparatorsAndArrayInTypeName(constPoolName);
-            return escapeTypeArgsInTypeName(longEscapedName);
+            from = CharOperation.lastIndexOf('/', constPoolName) + 1;
+            array = from > 0 && from < constPoolName.length && constPoolName[0] == '[' && constPoolName[from] != '[';
+        }
+        char[] escaped = new char[constPoolName.length - from + (array ? 1 : 0)];
+        int length = 0;
+        if (array)
+            escaped[length++] = '\u24b6';
+        for (int i = from; i < constPoolName.length; i++) {
+            char c = constPoolName[i];
+            switch (c) {
+                case '/':
+                case '.':
+                    c = '$';
+                    break;
+                case '[':
+                    c = '\u24b6'; //array symbol Ⓐ
+                    break;
+                case '<':
+                case '>':
+                    c = '_';
+                    break;
+                case ';':
+                    c = ' ';
+                    break;
+            }
+            escaped[length++] = c;
         }
-    }
-
-    static String escapePathSeparatorsAndArrayInTypeName(String name) {
-        return name.
-                replace('/','$').
-                replace('[', '\u24b6').//array symbol Ⓐ
-                replace(';',' ').trim();
+        int start = 0;
+        while (start < length && escaped[start] <= ' ')
+            start++;
+        while (length > start && escaped[length - 1] <= ' ')
+            length--;
+        return new String(escaped, start, length - start);
     }
 
     static String escapeTypeArgsInTypeName(String className) {
@@ -2676,11 +3198,7 @@ public class Testability {
      * @return
      */
     static public String testabilityFieldDescriptorUniqueInOverload(Expression originalCall) {
-        if (!(originalCall instanceof Invocation))
-            throw new RuntimeException("domain error on argument, must be instance of Invocation");
-
-        MethodBinding binding = ((Invocation) originalCall).binding();
-        return testabilityFieldName(originalCall, false).stream().collect(joining(""));// + new String(binding.signature());
+        return String.join("", testabilityFieldName(originalCall, false));
     }
 
     static char [] readableName(ReferenceBinding binding, boolean shortClassName) { //see ReferenceBinding::readableName
@@ -2863,9 +3381,15 @@ public class Testability {
                 )
         };
 
+        MessageSend killSwitchCondition = makeKillSwitchCondition(constructorDeclaration.scope);
+
+        Statement listenerCall = killSwitchCondition == null ?
+                messageToFieldApply :
+                new IfStatement(killSwitchCondition, messageToFieldApply, 0, 0);
+
         LabeledStatement labeledStatement = new LabeledStatement(
                 (DONTREDIRECT + "top" + System.nanoTime()).toCharArray(),
-                messageToFieldApply, 0, 0);
+                listenerCall, 0, 0);
 
         labeledStatement.targetLabel = new BranchLabel(); //normally done in analyseCode
 
@@ -0,0 +1,130 @@
+/*******************************************************************************
+ * Copyright (c) 2017-2018 Julian Rozentur
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+package org.testability;
+
+import org.eclipse.jdt.internal.compiler.CompilationResult;
+import org.eclipse.jdt.internal.compiler.lookup.LookupEnvironment;
+import org.eclipse.jdt.internal.compiler.lookup.ParameterizedTypeBinding;
+import org.eclipse.jdt.internal.compiler.lookup.ReferenceBinding;
+import org.eclipse.jdt.internal.compiler.lookup.TypeBinding;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * bindings instrumentation asks for at every redirector field and call site, resolved once per LookupEnvironment
+ * (replaced on LookupEnvironment.reset, together with the type system they come from)
+ */
+public class TestabilityBindings {
+
+    public enum WellKnownType {
+        JAVA_LANG_OBJECT("java", "lang", "Object"),
+        JAVA_LANG_STRING("java", "lang", "String"),
+        JAVA_UTIL_FUNCTION_CONSUMER("java", "util", "function", "Consumer"),
+        CALL_CONTEXT("testablejava", "CallContext"),
+        CALL_SITE("testablejava", "CallSite"),
+        INSTRUMENTATION_SWITCH("testablejava", "InstrumentationSwitch"),
+        REDIRECTOR_REGISTRY("testablejava", "RedirectorRegistry");
+
+        final char[][] compoundName;
+
+        WellKnownType(String... compoundName) {
+            this.compoundName = new char[compoundName.length][];
+            for (int i = 0; i < compoundName.length; i++)
+                this.compoundName[i] = compoundName[i].toCharArray();
+        }
+
+        public char[][] compoundName() {
+            return compoundName;
+        }
+    }
+
+    final LookupEnvironment lookupEnvironment;
+
+    final ReferenceBinding[] wellKnownTypes = new ReferenceBinding[WellKnownType.values().length];
+    final Map<Integer, ReferenceBinding> helperTypes = new HashMap<>();
+    final Map<TypeBinding, ReferenceBinding> callContextTypes = new IdentityHashMap<>(); //by called type
+    final Map<RedirectorDescriptor, RedirectorDescriptor> redirectorDescriptors = new HashMap<>();
+
+    public TestabilityBindings(LookupEnvironment lookupEnvironment) {
+        this.lookupEnvironment = lookupEnvironment;
+    }
+
+    /**
+     * @return null if not on the classpath (not cached, so it is looked up again)
+     */
+    public synchronized ReferenceBinding wellKnownType(WellKnownType type) {
+        ReferenceBinding binding = wellKnownTypes[type.ordinal()];
+        if (binding == null)
+            binding = wellKnownTypes[type.ordinal()] = lookupEnvironment.getType(type.compoundName);
+        return binding;
+    }
+
+    /**
+     * @return see HelperTypes.helperType
+     */
+    public synchronized ReferenceBinding helperType(
+            CompilationResult compilationResult,
+            boolean returnsVoid,
+            int functionArgCount,
+            int additionalTypeVarCountForMethod) {
+
+        //arg count and extra type var count are at most 255
+        Integer key = (returnsVoid ? 1 : 0) | functionArgCount << 1 | additionalTypeVarCountForMethod << 16;
+        ReferenceBinding binding = helperTypes.get(key);
+        if (binding == null) {
+            binding = HelperTypes.helperType(lookupEnvironment, compilationResult, returnsVoid, functionArgCount, additionalTypeVarCountForMethod);
+            if (binding != null)
+                helperTypes.put(key, binding);
+        }
+        return binding;
+    }
+
+    /**
+     * @return CallContext&lt;calledType&gt;, null if CallContext is not on the classpath
+     */
+    public synchronized ReferenceBinding callContextType(TypeBinding calledType) {
+        ReferenceBinding binding = callContextTypes.get(calledType);
+        if (binding == null) {
+            ReferenceBinding genericType = wellKnownType(WellKnownType.CALL_CONTEXT);
+            if (genericType == null)
+                return null;
+            ParameterizedTypeBinding parameterized = lookupEnvironment.createParameterizedType(
+                    genericType,
+                    new TypeBinding[]{calledType},
+                    null);
+            callContextTypes.put(calledType, parameterized);
+            binding = parameterized;
+        }
+        return binding;
+    }
+
+    /**
+     * @return field name parts for a call, computed once for each distinct receiver type, selector and argument types
+     */
+    public synchronized RedirectorDescriptor redirectorDescriptor(
+            boolean newOperator,
+            ReferenceBinding receiverType,
+            char[] selector,
+            TypeBinding[] argumentTypes) {
+
+        RedirectorDescriptor descriptor = redirectorDescriptors.get(
+                new RedirectorDescriptor(newOperator, receiverType, selector, argumentTypes));
+        if (descriptor == null) {
+            descriptor = new RedirectorDescriptor(newOperator, receiverType, selector, argumentTypes.clone()).canonical();
+            redirectorDescriptors.put(descriptor, descriptor);
+        }
+        return descriptor;
+    }
+
+    public synchronized int redirectorDescriptorCount() {
+        return redirectorDescriptors.size();
+    }
+}
@@ -46,6 +46,10 @@ public class BaseTest {
 
     File classStoreDir = new File("target", "ecj-compiled");
     File destinationDir = new File("target", "ecj-decompiled");
+    boolean useSingleThread = true; //false enables compiler worker threads (ProcessTaskManager, ReadManager)
+    InstrumentationStats instrumentationStats; //of the last compile
+    boolean collectInstrumentationStats = true;
+    InstrumentationScope instrumentationScope = InstrumentationScope.ALL;
 
     @Test
     public void testNothing() {
@@ -220,7 +224,17 @@ public class BaseTest {
             protected Set<InstrumentationOptions> getInstrumentationOptions() {
                 return instrumenationOptions;
             }
+            @Override
+            protected InstrumentationScope getInstrumentationScope() {
+                return instrumentationScope;
+            }
+            @Override
+            protected boolean collectsInstrumentationStats() {
+                return collectInstrumentationStats;
+            }
         };
+        compiler.useSingleThread = useSingleThread;
+        instrumentationStats = compiler.stats.instrumentation;
 
         List<CategorizedProblem> individualProblems = new ArrayList<>();
         Exception compilerException = null;
@@ -10,21 +10,35 @@ package org.testability;
 
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
+import org.eclipse.jdt.internal.compiler.CompilationResult;
 import org.eclipse.jdt.internal.compiler.InstrumentationOptions;
 import org.eclipse.jdt.internal.compiler.ast.CompilationUnitDeclaration;
+import org.eclipse.jdt.internal.compiler.ast.FieldDeclaration;
+import org.eclipse.jdt.internal.compiler.ast.TypeDeclaration;
 import org.junit.Test;
 import testablejava.CallContext;
 
+import java.io.File;
 import java.io.IOException;
+import java.lang.ref.WeakReference;
 import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.math.BigDecimal;
 import java.net.URL;
 import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
 import static java.util.stream.Collectors.joining;
+import static java.util.stream.Collectors.toList;
 import static junit.framework.TestCase.fail;
 import static org.junit.Assert.*;
 import static org.unitils.reflectionassert.ReflectionAssert.assertReflectionEquals;
@@ -37,6 +51,10 @@ public class TestabilityTest extends BaseTest {
     public static final ImmutableSet<InstrumentationOptions> INSERT_LISTENERS_ONLY = ImmutableSet.of(InstrumentationOptions.INSERT_LISTENERS);
     public static final ImmutableSet<InstrumentationOptions> INSERT_ALL = ImmutableSet.of(InstrumentationOptions.INSERT_REDIRECTORS, InstrumentationOptions.INSERT_LISTENERS);
     public static final ImmutableSet<InstrumentationOptions> INSERT_NONE = ImmutableSet.of();
+    public static final ImmutableSet<InstrumentationOptions> INSERT_REDIRECTORS_AND_CALL_SITES = ImmutableSet.of(InstrumentationOptions.INSERT_REDIRECTORS, InstrumentationOptions.INSERT_CALL_SITES);
+    public static final ImmutableSet<InstrumentationOptions> INSERT_ALL_WITH_KILL_SWITCH = ImmutableSet.of(InstrumentationOptions.INSERT_REDIRECTORS, InstrumentationOptions.INSERT_LISTENERS, InstrumentationOptions.INSERT_KILL_SWITCH);
+    public static final ImmutableSet<InstrumentationOptions> INSERT_ALL_WITH_REGISTRY = ImmutableSet.of(InstrumentationOptions.INSERT_REDIRECTORS, InstrumentationOptions.INSERT_LISTENERS, InstrumentationOptions.INSERT_REGISTRY);
+    public static final ImmutableSet<InstrumentationOptions> INSERT_REDIRECTORS_CALL_SITES_AND_REGISTRY = ImmutableSet.of(InstrumentationOptions.INSERT_REDIRECTORS, InstrumentationOptions.INSERT_CALL_SITES, InstrumentationOptions.INSERT_REGISTRY);
 
     @Test
     public void testPackageCollideWithType() throws Exception {
@@ -127,11 +145,19 @@ public class TestabilityTest extends BaseTest {
                 "import a.X;\n" +
                         "import helpers.Function2;\n" +
                         "import testablejava.CallContext;\n" +
+                        "import testablejava.Helpers;\n" +
                         "import testablejava.ReflectiveCaller;\n" +
                         "\n" +
                         "class Y$2 implements Function2<CallContext<X>, String, Integer> {\n" +
+                        "   private ReflectiveCaller caller = new ReflectiveCaller(\"fn\", new Class[]{String.class});\n" +
+                        "\n" +
                         "   public Integer apply(CallContext<X> var1, String var2) {\n" +
-                        "      return (Integer)(new ReflectiveCaller(((X)var1.calledClassInstance).getClass(), \"fn\", new Class[]{String.class})).apply(var1.calledClassInstance, new Object[]{var2});\n" +
+                        "      try {\n" +
+                        "         return (Integer)this.caller.methodHandle(((X)var1.calledClassInstance).getClass()).invokeExact(var1.calledClassInstance, var2);\n" +
+                        "      } catch (Throwable var4) {\n" +
+                        "         Helpers.uncheckedThrow(var4);\n" +
+                        "         return null;\n" +
+                        "      }\n" +
                         "   }\n" +
                         "}";
 
@@ -160,11 +186,19 @@ public class TestabilityTest extends BaseTest {
                 "import X.Y;\n" +
                         "import helpers.Function1;\n" +
                         "import testablejava.CallContext;\n" +
+                        "import testablejava.Helpers;\n" +
                         "import testablejava.ReflectiveCaller;\n" +
                         "\n" +
                         "class X$2 implements Function1<CallContext<Y>, Integer> {\n" +
+                        "   private ReflectiveCaller caller = new ReflectiveCaller(\"f\", new Class[0]);\n" +
+                        "\n" +
                         "   public Integer apply(CallContext<Y> var1) {\n" +
-                        "      return (Integer)(new ReflectiveCaller(((Y)var1.calledClassInstance).getClass(), \"f\", new Class[0])).apply(var1.calledClassInstance, new Object[0]);\n" +
+                        "      try {\n" +
+                        "         return (Integer)this.caller.methodHandle(((Y)var1.calledClassInstance).getClass()).invokeExact(var1.calledClassInstance);\n" +
+                        "      } catch (Throwable var3) {\n" +
+                        "         Helpers.uncheckedThrow(var3);\n" +
+                        "         return null;\n" +
+                        "      }\n" +
                         "   }\n" +
                         "}";
 
@@ -240,11 +274,73 @@ public class TestabilityTest extends BaseTest {
                 "import a.X;\n" +
                         "import helpers.Function2;\n" +
                         "import testablejava.CallContext;\n" +
+                        "import testablejava.Helpers;\n" +
                         "import testablejava.ReflectiveCaller;\n" +
                         "\n" +
                         "class Y$2 implements Function2<CallContext<X>, String, Integer> {\n" +
+                        "   private ReflectiveCaller caller = new ReflectiveCaller(X.class, \"fn\", new Class[]{String.class});\n" +
+                        "\n" +
                         "   public Integer apply(CallContext<X> var1, String var2) {\n" +
-                        "      return (Integer)(new ReflectiveCaller(X.class, \"fn\", new Class[]{String.class})).apply((Object)null, new Object[]{var2});\n" +
+                        "      try {\n" +
+                        "         return (Integer)this.caller.methodHandle().invokeExact((Object)null, var2);\n" +
+                        "      } catch (Throwable var4) {\n" +
+                        "         Helpers.uncheckedThrow(var4);\n" +
+                        "         return null;\n" +
+                        "      }\n" +
+                        "   }\n" +
+                        "}";
+
+        Map<String, List<String>> moduleMap = compileAndDisassemble(task, INSERT_REDIRECTORS_ONLY);
+        assertEquals(3, invokeCompiledMethod("Y", "caller"));
+        assertEquals(expectedOutput, moduleMap.get("Y$2").stream().collect(joining("\n")));
+    }
+
+    @Test
+    public void testTestabilityInjectFunctionField_ReflectiveStaticProtectedVoidCall() throws Exception {
+
+        String[] task = {
+                "X.java",
+                "package a;" +
+                        "public class X {\n" +
+                        "	protected static int count;" +
+                        "	protected static void add(int n) {dontredirect: count += n;}" +
+                        "   public int innerCaller(){return -1;}" +
+                        "}",
+                "Y.java",
+                "public class Y  {\n" +
+                        "	int caller() {" +
+                        "      a.X x = new a.X(){" +
+                        "          @Override public int innerCaller(){" +
+                        "              a.X.add(3);" +
+                        "              return a.X.count;" +
+                        "          }" +
+                        "      };" +
+                        "      dontredirect: return x.innerCaller();" +
+                        "   }" +
+                        "}"
+        };
+
+        String expectedOutput =
+                "import a.X;\n" +
+                        "import helpers.Consumer2;\n" +
+                        "import testablejava.CallContext;\n" +
+                        "import testablejava.Helpers;\n" +
+                        "import testablejava.ReflectiveCaller;\n" +
+                        "\n" +
+                        "class Y$2 implements Consumer2<CallContext<X>, Integer> {\n" +
+                        "   private ReflectiveCaller caller;\n" +
+                        "\n" +
+                        "   Y$2() {\n" +
+                        "      this.caller = new ReflectiveCaller(X.class, \"add\", new Class[]{Integer.TYPE});\n" +
+                        "   }\n" +
+                        "\n" +
+                        "   public void accept(CallContext<X> var1, Integer var2) {\n" +
+                        "      try {\n" +
+                        "         this.caller.methodHandle().invokeExact((Object)null, var2);\n" +
+                        "      } catch (Throwable var4) {\n" +
+                        "         Helpers.uncheckedThrow(var4);\n" +
+                        "      }\n" +
+                        "\n" +
                         "   }\n" +
                         "}";
 
@@ -6321,4 +6417,806 @@ public class TestabilityTest extends BaseTest {
         compileAndDisassemble(task, INSERT_REDIRECTORS_ONLY);
     }
 
-}
\ No newline at end of file
+    @Test
+    public void testTestabilityInjectFunctionField_MultithreadedCompileSameAsSingleThreaded() throws Exception {
+
+        List<String> task = new ArrayList<>();
+        for (int i = 0; i < 12; i++) { //enough units for ReadManager to kick in
+            task.add("X" + i + ".java");
+            task.add("public class X" + i + " {\n" +
+                    "   int fn() {" +
+                    "      return Integer.parseInt(\"" + i + "\") + new X" + ((i + 1) % 12) + "().hashCode();" +
+                    "   }" +
+                    "}");
+        }
+
+        Map<String, byte[]> singleThreaded = compile(task.toArray(new String[0]), INSERT_ALL);
+
+        useSingleThread = false;
+        Map<String, byte[]> multithreaded = compile(task.toArray(new String[0]), INSERT_ALL);
+
+        assertEquals(singleThreaded.keySet(), multithreaded.keySet());
+        singleThreaded.forEach((className, bytes) ->
+                assertArrayEquals(className, bytes, multithreaded.get(className)));
+    }
+
+    @Test
+    public void testTestabilityInjectFunctionField_InstrumentationStats() throws Exception {
+
+        String[] task = {
+                "X.java",
+                "public class X {\n" +
+                        "   int fn() {" +
+                        "      dontredirect: System.out.println();" +
+                        "      return Integer.parseInt(\"1\");" +
+                        "   }" +
+                        "}",
+                "Y.java",
+                "public class Y {\n" +
+                        "   void fn() {" +
+                        "      X.$$Integer$parseInt$$String = (ctx, s) -> 2;" +
+                        "   }" +
+                        "}"
+        };
+
+        compile(task, INSERT_ALL);
+
+        assertEquals(1, instrumentationStats.count(InstrumentationStats.Counter.UNITS_INSTRUMENTED));
+        assertEquals(1, instrumentationStats.count(InstrumentationStats.Counter.UNITS_NOT_INSTRUMENTED));
+        assertEquals(1, instrumentationStats.count(InstrumentationStats.Counter.REDIRECTORS_CREATED));
+        assertEquals(2, instrumentationStats.count(InstrumentationStats.Counter.LISTENERS_CREATED));
+        assertEquals(3, instrumentationStats.count(InstrumentationStats.Counter.FIELDS_VALIDATED));
+        assertEquals(0, instrumentationStats.count(InstrumentationStats.Counter.FIELDS_REJECTED));
+        assertEquals(1, instrumentationStats.count(InstrumentationStats.Counter.CALL_SITES_REWRITTEN));
+        assertTrue(instrumentationStats.time(InstrumentationStats.Phase.MAKE_FIELDS) > 0);
+
+        String json = instrumentationStats.toJson();
+        assertTrue(json, json.contains("\"X.java\": {\"timesMs\": {\"PREVIEW_CLASSIFICATION\": "));
+        assertTrue(json, json.contains("\"CALL_SITES_REWRITTEN\": 1"));
+    }
+
+    @Test
+    public void testTestabilityInjectFunctionField_InstrumentationStatsDoNotKeepTypeDeclarations() throws Exception {
+        InstrumentationStats stats = new InstrumentationStats();
+        WeakReference<TypeDeclaration> typeDeclaration = countForNewTypeDeclaration(stats);
+
+        for (int i = 0; i < 100 && typeDeclaration.get() != null; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+
+        assertNull(typeDeclaration.get());
+        assertEquals(1, stats.count(InstrumentationStats.Counter.REDIRECTORS_CREATED));
+        String json = stats.toJson();
+        assertTrue(json, json.contains("\"X.java\": {\"timesMs\": "));
+        assertTrue(json, json.contains("\"X\": {\"timesMs\": "));
+    }
+
+    static WeakReference<TypeDeclaration> countForNewTypeDeclaration(InstrumentationStats stats) {
+        TypeDeclaration typeDeclaration = new TypeDeclaration(new CompilationResult("X.java".toCharArray(), 0, 1, 0));
+        typeDeclaration.name = "X".toCharArray();
+        stats.count(InstrumentationStats.Counter.REDIRECTORS_CREATED, typeDeclaration, 1);
+        return new WeakReference<>(typeDeclaration);
+    }
+
+    @Test
+    public void testTestabilityInjectFunctionField_InstrumentationStatsNotCollectedWithoutReport() throws Exception {
+
+        String[] task = {
+                "X.java",
+                "public class X {\n" +
+                        "   int fn() {" +
+                        "      return Integer.parseInt(\"1\");" +
+                        "   }" +
+                        "}"
+        };
+
+        collectInstrumentationStats = false;
+        try {
+            compile(task, INSERT_ALL);
+        } finally {
+            collectInstrumentationStats = true;
+        }
+
+        assertEquals(0, instrumentationStats.count(InstrumentationStats.Counter.REDIRECTORS_CREATED));
+        assertEquals(0, instrumentationStats.count(InstrumentationStats.Counter.CALL_SITES_REWRITTEN));
+        assertEquals(0, instrumentationStats.time(InstrumentationStats.Phase.CALL_SITE_REWRITE));
+    }
+
+    @Test
+    public void testTestabilityInjectFunctionField_RedirectorNamesMadeOncePerDistinctCall() throws Exception {
+
+        String[] task = {
+                "X.java",
+                "public class X {\n" +
+                        "   int fn() {" +
+                        "      return Integer.parseInt(\"1\") + Integer.parseInt(\"2\") + String.valueOf(3).length();" +
+                        "   }" +
+                        "}",
+                "Z.java",
+                "public class Z {\n" +
+                        "   int fn() {" +
+                        "      return Integer.parseInt(\"3\") + Integer.parseInt(\"4\");" +
+                        "   }" +
+                        "}"
+        };
+
+        Map<String, List<String>> moduleMap = compileAndDisassemble(task, INSERT_REDIRECTORS_ONLY);
+
+        assertEquals(4, instrumentationStats.count(InstrumentationStats.Counter.REDIRECTORS_CREATED));
+        assertEquals(3, instrumentationStats.count(InstrumentationStats.Counter.REDIRECTOR_NAMES_MADE));
+        assertTrue(moduleMap.get("X").stream().anyMatch(line -> line.contains("$$Integer$parseInt$$String =")));
+        assertTrue(moduleMap.get("Z").stream().anyMatch(line -> line.contains("$$Integer$parseInt$$String =")));
+        assertEquals(4, invokeCompiledMethod("X", "fn"));
+        assertEquals(7, invokeCompiledMethod("Z", "fn"));
+    }
+
+    @Test
+    public void testTestabilityInjectFunctionField_CallSitePerRedirectedCall() throws Exception {
+
+        String[] task = {
+                "X.java",
+                "public class X {\n" +
+                        "   int fn() {\n" +
+                        "      return Integer.parseInt(\"1\");\n" +
+                        "   }\n" +
+                        "   int gn() {\n" +
+                        "      return Integer.parseInt(\"2\") +\n" +
+                        "             Integer.parseInt(\"3\");\n" +
+                        "   }\n" +
+                        "}",
+                "Y.java",
+                "import java.util.*;\n" +
+                        "import testablejava.CallSite;\n" +
+                        "public class Y {\n" +
+                        "   static List<CallSite> sites = new ArrayList<>();\n" +
+                        "   String fn() {\n" +
+                        "      X.$$Integer$parseInt$$String = (ctx, s) -> {sites.add(ctx.callSite); return 0;};\n" +
+                        "      X x = new X();\n" +
+                        "      x.fn();\n" +
+                        "      x.fn();\n" +
+                        "      x.gn();\n" +
+                        "      return (sites.get(0) == sites.get(1)) + \"|\" + sites.get(1) + \"|\" + sites.get(2) + \"|\" + sites.get(3);\n" +
+                        "   }\n" +
+                        "}"
+        };
+
+        String expectedOutput =
+                "import helpers.Function2;\n" +
+                        "import testablejava.CallContext;\n" +
+                        "import testablejava.CallSite;\n" +
+                        "import testablejava.Helpers;\n" +
+                        "\n" +
+                        "public class X {\n" +
+                        "   public static Function2<CallContext<Integer>, String, Integer> $$Integer$parseInt$$String = (var0, var1) -> {\n" +
+                        "      try {\n" +
+                        "         return Integer.valueOf(Integer.parseInt(var1));\n" +
+                        "      } catch (Throwable var3) {\n" +
+                        "         Helpers.uncheckedThrow(var3);\n" +
+                        "         return null;\n" +
+                        "      }\n" +
+                        "   };\n" +
+                        "   public static final CallSite $$callSite$0 = new CallSite(\"X\", \"fn\", \"X.java\", 3, \"java.lang.Integer\", \"parseInt\", \"(Ljava/lang/String;)I\");\n" +
+                        "   public static final CallSite $$callSite$1 = new CallSite(\"X\", \"gn\", \"X.java\", 6, \"java.lang.Integer\", \"parseInt\", \"(Ljava/lang/String;)I\");\n" +
+                        "   public static final CallSite $$callSite$2 = new CallSite(\"X\", \"gn\", \"X.java\", 7, \"java.lang.Integer\", \"parseInt\", \"(Ljava/lang/String;)I\");\n" +
+                        "\n" +
+                        "   int fn() {\n" +
+                        "      return ((Integer)$$Integer$parseInt$$String.apply(new CallContext($$callSite$0, this, (Object)null), \"1\")).intValue();\n" +
+                        "   }\n" +
+                        "\n" +
+                        "   int gn() {\n" +
+                        "      return ((Integer)$$Integer$parseInt$$String.apply(new CallContext($$callSite$1, this, (Object)null), \"2\")).intValue() + ((Integer)$$Integer$parseInt$$String.apply(new CallContext($$callSite$2, this, (Object)null), \"3\")).intValue();\n" +
+                        "   }\n" +
+                        "}";
+
+        Map<String, List<String>> moduleMap = compileAndDisassemble(task, INSERT_REDIRECTORS_AND_CALL_SITES);
+
+        assertEquals(expectedOutput, moduleMap.get("X").stream().collect(joining("\n")));
+        assertEquals(3, instrumentationStats.count(InstrumentationStats.Counter.CALL_SITES_CREATED));
+
+        //the same CallSite instance at every call from a site
+        assertEquals(
+                "true|" +
+                "X.fn(X.java:3) -> java.lang.Integer.parseInt(Ljava/lang/String;)I|" +
+                "X.gn(X.java:6) -> java.lang.Integer.parseInt(Ljava/lang/String;)I|" +
+                "X.gn(X.java:7) -> java.lang.Integer.parseInt(Ljava/lang/String;)I",
+                invokeCompiledMethod("Y", "fn"));
+    }
+
+    @Test
+    public void testTestabilityInjectFunctionField_CallSitesDroppedWithRejectedRedirector() throws Exception {
+        FieldDeclaration parseInt = new FieldDeclaration("$$Integer$parseInt$$String".toCharArray(), 0, 0);
+        FieldDeclaration valueOf = new FieldDeclaration("$$Integer$valueOf$$String".toCharArray(), 0, 0);
+        List<FieldDeclaration> callSiteFields = IntStream.range(0, 3).
+                mapToObj(i -> new FieldDeclaration(("$$callSite$" + i).toCharArray(), 0, 0)).
+                collect(toList());
+
+        CallSiteTable callSites = new CallSiteTable();
+        callSites.assignRedirectorFields(
+                new FieldDeclaration[]{parseInt, valueOf},
+                new String[]{"java$lang$Integer$parseInt$$java$lang$String", "java$lang$Integer$valueOf$$java$lang$String"},
+                new int[]{0, 1, 0},
+                callSiteFields.toArray(new FieldDeclaration[0]));
+
+        callSites.rejectRedirectorField(parseInt);
+
+        assertTrue(callSites.isRejected(parseInt));
+        assertTrue(callSites.isRejected(callSiteFields.get(0)));
+        assertTrue(callSites.isRejected(callSiteFields.get(2)));
+        assertFalse(callSites.isRejected(valueOf));
+        assertEquals(Collections.singletonList(callSiteFields.get(1)), callSites.callSiteFields());
+        assertNull(callSites.stableName(parseInt));
+        assertEquals("java$lang$Integer$valueOf$$java$lang$String", callSites.stableName(valueOf));
+
+        callSites.release();
+        assertNull(callSites.stableName(valueOf));
+        assertFalse(callSites.isRejected(parseInt));
+    }
+
+    @Test
+    public void testTestabilityInjectFunctionField_KillSwitchRunsOriginalCode() throws Exception {
+
+        String[] task = {
+                "X.java",
+                "public class X {\n" +
+                        "   static int created;\n" +
+                        "   X() {}\n" +
+                        "   int fn() {\n" +
+                        "      return Integer.parseInt(String.valueOf(1)) + 1;\n" +
+                        "   }\n" +
+                        "}",
+                "Y.java",
+                "import testablejava.InstrumentationSwitch;\n" +
+                        "public class Y {\n" +
+                        "   String fn() {\n" +
+                        "      X.$$Integer$parseInt$$String = (ctx, s) -> 10;\n" +
+                        "      X.$$postCreate = x -> X.created++;\n" +
+                        "      int on = new X().fn();\n" +
+                        "      InstrumentationSwitch.turnOff();\n" +
+                        "      int off = new X().fn();\n" +
+                        "      InstrumentationSwitch.turnOn();\n" +
+                        "      return on + \",\" + off + \",\" + X.created;\n" +
+                        "   }\n" +
+                        "}"
+        };
+
+        Map<String, List<String>> moduleMap = compileAndDisassemble(task, INSERT_ALL_WITH_KILL_SWITCH);
+
+        String expectedOutput =
+                "import helpers.Function2;\n" +
+                        "import java.util.function.Consumer;\n" +
+                        "import testablejava.CallContext;\n" +
+                        "import testablejava.Helpers;\n" +
+                        "import testablejava.InstrumentationSwitch;\n" +
+                        "\n" +
+                        "public class X {\n" +
+                        "   public static Consumer<X> $$preCreate = (var0) -> {\n" +
+                        "   };\n" +
+                        "   public static Consumer<X> $$postCreate = (var0) -> {\n" +
+                        "   };\n" +
+                        "   public static Function2<CallContext<String>, Integer, String> $$String$valueOf$$I = (var0, var1) -> {\n" +
+                        "      return String.valueOf(var1);\n" +
+                        "   };\n" +
+                        "   public static Function2<CallContext<Integer>, String, Integer> $$Integer$parseInt$$String = (var0, var1) -> {\n" +
+                        "      try {\n" +
+                        "         return Integer.valueOf(Integer.parseInt(var1));\n" +
+                        "      } catch (Throwable var3) {\n" +
+                        "         Helpers.uncheckedThrow(var3);\n" +
+                        "         return null;\n" +
+                        "      }\n" +
+                        "   };\n" +
+                        "   static int created;\n" +
+                        "\n" +
+                        "   X() {\n" +
+                        "      if(InstrumentationSwitch.isOn()) {\n" +
+                        "         $$preCreate.accept(this);\n" +
+                        "      }\n" +
+                        "\n" +
+                        "      if(InstrumentationSwitch.isOn()) {\n" +
+                        "         $$postCreate.accept(this);\n" +
+                        "      }\n" +
+                        "\n" +
+                        "   }\n" +
+                        "\n" +
+                        "   int fn() {\n" +
+                        "      return (InstrumentationSwitch.isOn()?((Integer)$$Integer$parseInt$$String.apply(new CallContext(\"X\", \"java.lang.Integer\", this, (Object)null), (String)$$String$valueOf$$I.apply(new CallContext(\"X\", \"java.lang.String\", this, (Object)null), Integer.valueOf(1)))).intValue():Integer.parseInt(String.valueOf(1))) + 1;\n" +
+                        "   }\n" +
+                        "}";
+
+        assertEquals(expectedOutput, moduleMap.get("X").stream().collect(joining("\n")));
+        assertEquals("11,2,1", invokeCompiledMethod("Y", "fn"));
+    }
+
+    @Test
+    public void testTestabilityInjectFunctionField_RegistryRestoresRedirectors() throws Exception {
+
+        String[] task = {
+                "X.java",
+                "public class X {\n" +
+                        "   int fn() {\n" +
+                        "      return Integer.parseInt(\"1\");\n" +
+                        "   }\n" +
+                        "}",
+                "Y.java",
+                "import testablejava.RedirectorRegistry;\n" +
+                        "public class Y {\n" +
+                        "   String fn() {\n" +
+                        "      long generation = RedirectorRegistry.generation();\n" +
+                        "      int original = new X().fn();\n" +
+                        "      RedirectorRegistry.Snapshot snapshot = RedirectorRegistry.snapshot();\n" +
+                        "      X.$$Integer$parseInt$$String = (ctx, s) -> 10;\n" +
+                        "      int redirected = new X().fn();\n" +
+                        "      int changed = X.$$registry.changedCount();\n" +
+                        "      RedirectorRegistry.restore(snapshot);\n" +
+                        "      int restored = new X().fn();\n" +
+                        "      X.$$Integer$parseInt$$String = (ctx, s) -> 20;\n" +
+                        "      RedirectorRegistry.resetAll();\n" +
+                        "      int reset = new X().fn();\n" +
+                        "      return original + \",\" + redirected + \",\" + changed + \",\" + restored + \",\" + reset + \",\" +\n" +
+                        "         X.$$registry.size() + \",\" + (RedirectorRegistry.generation() - generation);\n" +
+                        "   }\n" +
+                        "}"
+        };
+
+        Map<String, List<String>> moduleMap = compileAndDisassemble(task, INSERT_ALL_WITH_REGISTRY);
+
+        assertTrue(moduleMap.get("X").contains(
+                "   public static final RedirectorRegistry $$registry = new RedirectorRegistry(X.class, new String[]{\"$$preCreate\", \"$$postCreate\", \"$$Integer$parseInt$$String\"});"));
+        assertEquals("1,10,1,1,1,3,2", invokeCompiledMethod("Y", "fn"));
+    }
+
+    @Test
+    public void testTestabilityInjectFunctionField_MemoCachesRedirectorResults() throws Exception {
+
+        String[] task = {
+                "X.java",
+                "public class X {\n" +
+                        "   int fn(String s) {\n" +
+                        "      return Integer.parseInt(s);\n" +
+                        "   }\n" +
+                        "}",
+                "Y.java",
+                "import testablejava.Memo;\n" +
+                        "public class Y {\n" +
+                        "   static int parsed;\n" +
+                        "   String fn() {\n" +
+                        "      X.$$Integer$parseInt$$String = (ctx, s) -> {parsed++; return s.length();};\n" +
+                        "      Memo memo = Memo.install(X.class, \"$$Integer$parseInt$$String\");\n" +
+                        "      int sum = new X().fn(\"a\") + new X().fn(\"bb\") + new X().fn(\"a\");\n" +
+                        "      memo.uninstall();\n" +
+                        "      sum += new X().fn(\"a\");\n" +
+                        "      return sum + \",\" + parsed + \",\" + memo.hits() + \",\" + memo.misses();\n" +
+                        "   }\n" +
+                        "}"
+        };
+
+        compileAndDisassemble(task, INSERT_REDIRECTORS_ONLY);
+
+        assertEquals("5,3,1,2", invokeCompiledMethod("Y", "fn"));
+    }
+
+    @Test
+    public void testTestabilityInjectFunctionField_LatencyForCalledClass() throws Exception {
+
+        String[] task = {
+                "X.java",
+                "public class X {\n" +
+                        "   int fn(String s) {\n" +
+                        "      return Integer.parseInt(s) + String.valueOf(s).length();\n" +
+                        "   }\n" +
+                        "}",
+                "Y.java",
+                "import java.util.concurrent.TimeUnit;\n" +
+                        "import testablejava.Latency;\n" +
+                        "public class Y {\n" +
+                        "   String fn() {\n" +
+                        "      new X();\n" +
+                        "      Latency latency = Latency.injectForCalledClass(\"java.lang.Integer\", Latency.fixed(1, TimeUnit.MICROSECONDS));\n" +
+                        "      int result = new X().fn(\"12\");\n" +
+                        "      latency.remove();\n" +
+                        "      return result + \",\" + latency.delays() + \",\" + latency.redirectors().contains(\"X.$$Integer$parseInt$$String\");\n" +
+                        "   }\n" +
+                        "}"
+        };
+
+        compileAndDisassemble(task, INSERT_ALL_WITH_REGISTRY);
+
+        assertEquals("14,1,true", invokeCompiledMethod("Y", "fn"));
+    }
+
+    @Test
+    public void testTestabilityInjectFunctionField_CallGraphCapture() throws Exception {
+
+        String[] task = {
+                "X.java",
+                "public class X {\n" +
+                        "   int fn(String s) {\n" +
+                        "      return Integer.parseInt(s) + gn(s);\n" +
+                        "   }\n" +
+                        "   static int gn(String s) {\n" +
+                        "      return Integer.parseInt(s + s);\n" +
+                        "   }\n" +
+                        "}",
+                "Y.java",
+                "import testablejava.CallGraph;\n" +
+                        "public class Y {\n" +
+                        "   String fn() {\n" +
+                        "      new X();\n" +
+                        "      CallGraph callGraph = CallGraph.capture();\n" +
+                        "      new X().fn(\"1\");\n" +
+                        "      new X().fn(\"2\");\n" +
+                        "      callGraph.stop();\n" +
+                        "      return callGraph.edges().stream().\n" +
+                        "         filter(e -> e.caller.startsWith(\"X.\")).\n" +
+                        "         map(e -> e.caller + \"->\" + e.callee + \":\" + e.count).\n" +
+                        "         sorted().\n" +
+                        "         collect(java.util.stream.Collectors.joining(\"|\"));\n" +
+                        "   }\n" +
+                        "}"
+        };
+
+        compileAndDisassemble(task, INSERT_REDIRECTORS_CALL_SITES_AND_REGISTRY);
+
+        assertEquals(
+                "X.fn->X.gn:2|X.fn->java.lang.Integer.parseInt:2|X.gn->java.lang.Integer.parseInt:2",
+                invokeCompiledMethod("Y", "fn"));
+    }
+
+    @Test
+    public void testTestabilityInjectFunctionField_TraceEvents() throws Exception {
+
+        String[] task = {
+                "X.java",
+                "public class X {\n" +
+                        "   int fn(String s) {\n" +
+                        "      return Integer.parseInt(s);\n" +
+                        "   }\n" +
+                        "}",
+                "Y.java",
+                "import java.io.File;\n" +
+                        "import java.nio.file.Files;\n" +
+                        "import testablejava.Trace;\n" +
+                        "public class Y {\n" +
+                        "   String fn() throws Exception {\n" +
+                        "      new X();\n" +
+                        "      File file = File.createTempFile(\"trace\", \".json\");\n" +
+                        "      Trace trace = Trace.start(file);\n" +
+                        "      new X().fn(\"1\");\n" +
+                        "      trace.stop();\n" +
+                        "      String json = new String(Files.readAllBytes(file.toPath()), \"UTF-8\");\n" +
+                        "      file.delete();\n" +
+                        "      int start = json.indexOf(\"\\\"name\\\": \\\"java.lang.Integer.parseInt\\\"\");\n" +
+                        "      return json.substring(start, json.indexOf(\"}}\", start) + 2);\n" +
+                        "   }\n" +
+                        "}"
+        };
+
+        compileAndDisassemble(task, INSERT_REDIRECTORS_CALL_SITES_AND_REGISTRY);
+
+        assertEquals(
+                "\"name\": \"java.lang.Integer.parseInt\", \"cat\": \"X.fn\", \"args\": {\"at\": \"X.java:3\"}}",
+                invokeCompiledMethod("Y", "fn"));
+    }
+
+    @Test
+    public void testTestabilityInjectFunctionField_IoAccounting() throws Exception {
+
+        String[] task = {
+                "X.java",
+                "import java.io.InputStream;\n" +
+                        "public class X {\n" +
+                        "   int fn(InputStream in) throws Exception {\n" +
+                        "      byte[] buffer = new byte[4];\n" +
+                        "      int total = 0, read;\n" +
+                        "      while ((read = in.read(buffer)) > 0)\n" +
+                        "         total += read;\n" +
+                        "      return total;\n" +
+                        "   }\n" +
+                        "}",
+                "Y.java",
+                "import java.io.ByteArrayInputStream;\n" +
+                        "import testablejava.IoAccounting;\n" +
+                        "public class Y {\n" +
+                        "   String fn() throws Exception {\n" +
+                        "      IoAccounting io = IoAccounting.enable(X.class);\n" +
+                        "      int total = new X().fn(new ByteArrayInputStream(new byte[10]));\n" +
+                        "      io.disable();\n" +
+                        "      return total + \",\" + io.sites();\n" +
+                        "   }\n" +
+                        "}"
+        };
+
+        compileAndDisassemble(task, INSERT_REDIRECTORS_CALL_SITES_AND_REGISTRY);
+
+        assertEquals(
+                "10,[X.fn -> java.io.InputStream.read (X.java:6): 4 ops, 10 bytes read, 0 bytes written]",
+                invokeCompiledMethod("Y", "fn"));
+    }
+
+    @Test
+    public void testTestabilityInjectFunctionField_WaitProfiler() throws Exception {
+
+        String[] task = {
+                "X.java",
+                "import java.util.concurrent.CountDownLatch;\n" +
+                        "public class X {\n" +
+                        "   void fn(CountDownLatch latch) throws Exception {\n" +
+                        "      latch.await();\n" +
+                        "      latch.countDown();\n" +
+                        "   }\n" +
+                        "}",
+                "Y.java",
+                "import java.util.concurrent.CountDownLatch;\n" +
+                        "import testablejava.WaitProfiler;\n" +
+                        "public class Y {\n" +
+                        "   String fn() throws Exception {\n" +
+                        "      WaitProfiler profiler = WaitProfiler.start(X.class);\n" +
+                        "      new X().fn(new CountDownLatch(0));\n" +
+                        "      profiler.stop();\n" +
+                        "      WaitProfiler.Site site = profiler.sites().get(0);\n" +
+                        "      return profiler.sites().size() + \",\" + site.callee + \",\" + site.location + \",\" + site.count;\n" +
+                        "   }\n" +
+                        "}"
+        };
+
+        compileAndDisassemble(task, INSERT_REDIRECTORS_CALL_SITES_AND_REGISTRY);
+
+        assertEquals(
+                "1,java.util.concurrent.CountDownLatch.await,X.java:4,1", //countDown does not block
+                invokeCompiledMethod("Y", "fn"));
+    }
+
+    @Test
+    public void testTestabilityInjectFunctionField_InterceptorChain() throws Exception {
+
+        String[] task = {
+                "X.java",
+                "public class X {\n" +
+                        "   int fn(String s) {\n" +
+                        "      return Integer.parseInt(s);\n" +
+                        "   }\n" +
+                        "}",
+                "Y.java",
+                "import testablejava.InterceptorChain;\n" +
+                        "public class Y {\n" +
+                        "   String fn() throws Exception {\n" +
+                        "      int[] calls = new int[1];\n" +
+                        "      InterceptorChain chain = InterceptorChain.on(X.class, \"$$Integer$parseInt$$String\")\n" +
+                        "            .before(args -> calls[0]++)\n" +
+                        "            .around((next, args) -> (Integer) next.proceed(args) * 10)\n" +
+                        "            .install();\n" +
+                        "      int intercepted = new X().fn(\"1\") + new X().fn(\"2\");\n" +
+                        "      chain.uninstall();\n" +
+                        "      return intercepted + \",\" + calls[0] + \",\" + new X().fn(\"3\");\n" +
+                        "   }\n" +
+                        "}"
+        };
+
+        compileAndDisassemble(task, INSERT_REDIRECTORS_ONLY);
+
+        assertEquals("30,2,3", invokeCompiledMethod("Y", "fn"));
+    }
+
+    @Test
+    public void testTestabilityInjectFunctionField_AccessorClass() throws Exception {
+
+        String[] task = {
+                "X.java",
+                "public class X {\n" +
+                        "   long fn(String s) {\n" +
+                        "      return Integer.parseInt(s) + Long.parseLong(s);\n" +
+                        "   }\n" +
+                        "}"
+        };
+
+        Map<String, List<String>> moduleMap = compileAndDisassemble(task, ImmutableSet.of(
+                InstrumentationOptions.INSERT_REDIRECTORS,
+                InstrumentationOptions.INSERT_LISTENERS,
+                InstrumentationOptions.INSERT_REGISTRY,
+                InstrumentationOptions.INSERT_ACCESSORS));
+
+        assertTrue(moduleMap.containsKey("X$$Redirectors"));
+
+        URLClassLoader cl = new URLClassLoader(new URL[]{classStoreDir.toURL()}, this.getClass().getClassLoader());
+        Class<?> x = cl.loadClass("X");
+        Class<?> accessors = cl.loadClass("X$$Redirectors");
+
+        assertEquals(
+                "[apply, get$java$lang$Integer$parseInt$$java$lang$String, get$java$lang$Long$parseLong$$java$lang$String, " +
+                        "get$postCreate, get$preCreate, " +
+                        "reset$java$lang$Integer$parseInt$$java$lang$String, reset$java$lang$Long$parseLong$$java$lang$String, " +
+                        "reset$postCreate, reset$preCreate, " +
+                        "return$java$lang$Integer$parseInt$$java$lang$String, return$java$lang$Long$parseLong$$java$lang$String, " +
+                        "set$java$lang$Integer$parseInt$$java$lang$String, set$java$lang$Long$parseLong$$java$lang$String, " +
+                        "set$postCreate, set$preCreate]",
+                Arrays.stream(accessors.getDeclaredMethods()).map(Method::getName).sorted().collect(toList()).toString());
+        assertEquals(14, instrumentationStats.count(InstrumentationStats.Counter.ACCESSORS_CREATED)); //not apply
+
+        Method fn = x.getDeclaredMethod("fn", String.class);
+        fn.setAccessible(true);
+        Object instance = x.newInstance();
+
+        accessors.getMethod("return$java$lang$Integer$parseInt$$java$lang$String", int.class).invoke(null, 40);
+        accessors.getMethod("return$java$lang$Long$parseLong$$java$lang$String", long.class).invoke(null, 2L);
+        assertEquals(42L, fn.invoke(instance, "1"));
+        assertSame(accessors, x.getDeclaredField("$$Long$parseLong$$String").get(null).getClass()); //implements the field type itself
+
+        Object redirector = accessors.getMethod("get$java$lang$Long$parseLong$$java$lang$String").invoke(null);
+        assertSame(x.getDeclaredField("$$Long$parseLong$$String").get(null), redirector);
+
+        accessors.getMethod("reset$java$lang$Integer$parseInt$$java$lang$String").invoke(null);
+        assertEquals(3L, fn.invoke(instance, "1"));
+
+        Method getter = accessors.getMethod("get$java$lang$Integer$parseInt$$java$lang$String");
+        Method setter = accessors.getMethod("set$java$lang$Integer$parseInt$$java$lang$String", getter.getReturnType());
+        accessors.getMethod("return$java$lang$Integer$parseInt$$java$lang$String", int.class).invoke(null, 0);
+        Object returningZero = getter.invoke(null);
+        accessors.getMethod("reset$java$lang$Integer$parseInt$$java$lang$String").invoke(null);
+        setter.invoke(null, returningZero);
+        assertEquals(2L, fn.invoke(instance, "1"));
+
+        assertEquals("helpers.Function2<testablejava.CallContext<java.lang.Integer>, java.lang.String, java.lang.Integer>",
+                setter.getGenericParameterTypes()[0].getTypeName());
+    }
+
+    @Test
+    public void testTestabilityInjectFunctionField_InstrumentationScopePatterns() throws Exception {
+        Properties properties = new Properties();
+        properties.setProperty(InstrumentationScope.CALLER_EXCLUDE, "a.b.Hot#loop, **$Inner");
+        properties.setProperty(InstrumentationScope.CALLED_EXCLUDE, "java.util.**, **#log*");
+        properties.setProperty(InstrumentationScope.CALLED_INCLUDE, "a.*, java.**");
+        InstrumentationScope scope = InstrumentationScope.fromProperties(properties);
+
+        assertTrue(scope.redirects("a.b.Hot#other", "a.Y#fn"));
+        assertFalse(scope.redirects("a.b.Hot#loop", "a.Y#fn"));
+        assertFalse(scope.redirects("a.b.Outer$Inner#<init>", "a.Y#fn"));
+        assertFalse(scope.redirects("a.b.Hot#other", "java.util.List#get"));
+        assertFalse(scope.redirects("a.b.Hot#other", "a.Logger#logDebug"));
+        assertFalse(scope.redirects("a.b.Hot#other", "a.b.Y#fn")); //a.* does not cross '.'
+        assertTrue(scope.redirects("a.b.Hot#other", "java.lang.Integer#parseInt"));
+
+        assertTrue(InstrumentationScope.ALL.isAll());
+        assertFalse(scope.isAll());
+    }
+
+    @Test
+    public void testTestabilityInjectFunctionField_InstrumentationScopeLoadedAsUtf8WithOverrides() throws Exception {
+        File file = File.createTempFile("scope", ".properties");
+        file.deleteOnExit();
+        Files.write(file.toPath(), Arrays.asList( //read as ISO-8859-1, the UTF-8 bytes would not match
+                InstrumentationScope.CALLER_INCLUDE + "=a.Caf\u00e9#*",
+                InstrumentationScope.CALLED_EXCLUDE + "=a.Na\u00efve#*"), StandardCharsets.UTF_8);
+
+        Properties overrides = new Properties();
+        overrides.setProperty(InstrumentationScope.CALLED_EXCLUDE, "a.Logger#*");
+        InstrumentationScope scope = InstrumentationScope.load(file, overrides);
+
+        assertTrue(scope.redirects("a.Caf\u00e9#run", "a.Na\u00efve#fn"));
+        assertFalse(scope.redirects("a.Cafe#run", "a.Y#fn"));
+        assertFalse(scope.redirects("a.Caf\u00e9#run", "a.Logger#log"));
+    }
+
+    @Test
+    public void testTestabilityInjectFunctionField_InstrumentationScopeExcludesCalls() throws Exception {
+
+        String[] task = {
+                "X.java",
+                "public class X {\n" +
+                        "   static int fn() {" +
+                        "      return Integer.parseInt(\"1\") + Integer.valueOf(2) + hot();" +
+                        "   }" +
+                        "   static int hot() {" +
+                        "      return Integer.parseInt(\"3\");" +
+                        "   }" +
+                        "}"
+        };
+
+        instrumentationScope = new InstrumentationScope(
+                Collections.emptyList(),
+                Collections.singletonList("X#hot"),
+                Collections.emptyList(),
+                Collections.singletonList("java.lang.Integer#valueOf"));
+
+        Map<String, List<String>> moduleMap = compileAndDisassemble(task, INSERT_REDIRECTORS_ONLY);
+
+        String expectedOutput =
+                "import helpers.Function1;\n" +
+                        "import helpers.Function2;\n" +
+                        "import testablejava.CallContext;\n" +
+                        "import testablejava.Helpers;\n" +
+                        "\n" +
+                        "public class X {\n" +
+                        "   public static Function2<CallContext<Integer>, String, Integer> $$Integer$parseInt$$String = (var0, var1) -> {\n" +
+                        "      try {\n" +
+                        "         return Integer.valueOf(Integer.parseInt(var1));\n" +
+                        "      } catch (Throwable var3) {\n" +
+                        "         Helpers.uncheckedThrow(var3);\n" +
+                        "         return null;\n" +
+                        "      }\n" +
+                        "   };\n" +
+                        "   public static Function1<CallContext<X>, Integer> $$X$hot = (var0) -> {\n" +
+                        "      return Integer.valueOf(hot());\n" +
+                        "   };\n" +
+                        "\n" +
+                        "   static int fn() {\n" +
+                        "      return ((Integer)$$Integer$parseInt$$String.apply(new CallContext(\"X\", \"java.lang.Integer\", (Object)null, (Object)null), \"1\")).intValue() + Integer.valueOf(2).intValue() + ((Integer)$$X$hot.apply(new CallContext(\"X\", \"X\", (Object)null, (Object)null))).intValue();\n" +
+                        "   }\n" +
+                        "\n" +
+                        "   static int hot() {\n" +
+                        "      return Integer.parseInt(\"3\");\n" +
+                        "   }\n" +
+                        "}";
+
+        assertEquals(expectedOutput, moduleMap.get("X").stream().collect(joining("\n")));
+        assertEquals(2, instrumentationStats.count(InstrumentationStats.Counter.CALLS_OUT_OF_SCOPE));
+        assertEquals(6, invokeCompiledMethod("X", "fn"));
+    }
+
+    @Test
+    public void testTestabilityInjectFunctionField_HelperTypeNotOnClasspathIsSynthesized() throws Exception {
+
+        //22 arguments + CallContext, the helpers built for tests only go up to 20
+        String parameters = IntStream.rangeClosed(1, 22).mapToObj(i -> "int a" + i).collect(joining(", "));
+        String arguments = IntStream.rangeClosed(1, 22).mapToObj(Integer::toString).collect(joining(", "));
+        String sum = IntStream.rangeClosed(1, 22).mapToObj(i -> "a" + i).collect(joining(" + "));
+
+        String[] task = {
+                "X.java",
+                "public class X {\n" +
+                        "   static int sum(" + parameters + ") {" +
+                        "      return " + sum + ";" +
+                        "   }" +
+                        "   int fn() {" +
+                        "      return sum(" + arguments + ");" +
+                        "   }" +
+                        "}"
+        };
+
+        Map<String, List<String>> moduleMap = compileAndDisassemble(task, INSERT_REDIRECTORS_ONLY);
+
+        assertTrue(moduleMap.containsKey("helpers/Function23"));
+        assertEquals(1, instrumentationStats.count(InstrumentationStats.Counter.HELPERS_SYNTHESIZED));
+        assertEquals(253, invokeCompiledMethod("X", "fn"));
+    }
+
+    @Test
+    public void testTestabilityInjectFunctionField_SynthesizedHelperTypesSameAsHelpersInstrumenter() throws Exception {
+        Path helpersDir = Paths.get("../helpers/target/classes/helpers");
+        Pattern namePattern = Pattern.compile("(Function|Consumer)(\\d+)(?:_(\\d+))?\\.class");
+
+        List<Path> helperFiles;
+        try (Stream<Path> files = Files.list(helpersDir)) {
+            helperFiles = files.collect(toList());
+        }
+        assertFalse(helperFiles.isEmpty());
+
+        for (Path file : helperFiles) {
+            Matcher matcher = namePattern.matcher(file.getFileName().toString());
+            assertTrue(file.toString(), matcher.matches());
+
+            byte[] synthesized = HelperTypes.classFileBytes(
+                    matcher.group(1).equals("Consumer"),
+                    Integer.parseInt(matcher.group(2)),
+                    matcher.group(3) == null ? 0 : Integer.parseInt(matcher.group(3)));
+
+            assertArrayEquals(file.toString(), Files.readAllBytes(file), synthesized);
+        }
+
+        //shapes at the limit, beyond the helpers built by default
+        int max = testablejava.HelperClassFiles.MAX_ARGS_AND_EXTRA_TYPE_VARS;
+        for (int functionArgCount = max / 2 - 1; functionArgCount <= max + 1; functionArgCount++) {
+            for (int nExtraTypeVars : new int[]{0, 1, max - functionArgCount, max - functionArgCount + 1, functionArgCount, functionArgCount + 1}) {
+                if (nExtraTypeVars < 0)
+                    continue;
+                String shape = functionArgCount + "_" + nExtraTypeVars;
+                boolean exists = HelperTypes.exists(functionArgCount, nExtraTypeVars);
+                assertEquals(shape, testablejava.HelperClassFiles.exists(functionArgCount, nExtraTypeVars), exists);
+                assertEquals(shape, functionArgCount + nExtraTypeVars <= max && nExtraTypeVars <= functionArgCount, exists);
+                if (exists)
+                    assertArrayEquals(shape,
+                            testablejava.HelperClassFiles.classFileBytes(false, functionArgCount, nExtraTypeVars),
+                            HelperTypes.classFileBytes(false, functionArgCount, nExtraTypeVars));
+            }
+        }
+    }
+}
@@ -6,6 +6,7 @@ public class CallContext<CALLED> {
     public final Object callingClassInstance;
     public final CALLED calledClassInstance;
     public final Object[] enclosingInstances;
+    public final CallSite callSite; //null if not made by the compiler for this call
 
     /**
      * class Calling {
@@ -29,6 +30,7 @@ public class CallContext<CALLED> {
         this.callingClassInstance = callingClassInstance;
         this.calledClassInstance = calledClassInstance;
         this.enclosingInstances = enclosingInstances;
+        this.callSite = null;
     }
     /**
      * class Calling {
@@ -47,4 +49,35 @@ public class CallContext<CALLED> {
      ){
         this(callingClass, calledClass, callingClassInstance, calledClassInstance, new Object[0]);
     }
+    /**
+     * @param callSite the call, with calling and called class names
+     * @param callingClassInstance instance of the calling class, or null if called from static context
+     * @param calledClassInstance instance of the called class, or null if called method is static
+     * @param enclosingInstances for nested classes: hidden call arguments
+     */
+    public CallContext(
+            CallSite callSite,
+            Object callingClassInstance,
+            CALLED calledClassInstance,
+            Object... enclosingInstances){
+
+        this.callingClass = callSite.callingClass;
+        this.calledClass = callSite.calledClass;
+        this.callingClassInstance = callingClassInstance;
+        this.calledClassInstance = calledClassInstance;
+        this.enclosingInstances = enclosingInstances;
+        this.callSite = callSite;
+    }
+    /**
+     * @param callSite the call, with calling and called class names
+     * @param callingClassInstance instance of the calling class, or null if called from static context
+     * @param calledClassInstance instance of the called class, or null if called method is static
+     */
+    public CallContext(
+            CallSite callSite,
+            Object callingClassInstance,
+            CALLED calledClassInstance
+     ){
+        this(callSite, callingClassInstance, calledClassInstance, new Object[0]);
+    }
 }
@@ -0,0 +1,271 @@
+/*******************************************************************************
+ * Copyright (c) 2017-2018 Julian Rozentur
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+package testablejava;
+
+import java.io.*;
+import java.lang.reflect.Field;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import static java.util.stream.Collectors.joining;
+
+/**
+ * records redirected calls as they are made, to see which classes call which, how often, and for how long:
+ *
+ *   CallGraph callGraph = CallGraph.capture(); //calls through redirectors of classes in RedirectorRegistry.registries()
+ *   ... //load
+ *   callGraph.stop();
+ *   callGraph.writeDot(new File("calls.dot")); //or writeJson, edges()
+ *
+ * Each call is a record (call site, caller and callee identity hashes, start, duration) in a ring buffer of the
+ * calling thread, written without locks; when a ring is full the oldest records are dropped (see dropped()).
+ * Records are aggregated only on export, into edges from calling class and method to called class and method;
+ * export also aggregates and releases the rings of threads that terminated, so short-lived threads do not keep theirs.
+ * Calls are timed including nested calls
+ */
+public final class CallGraph {
+
+    public static final int DEFAULT_RECORDS_PER_THREAD = 1 << 13; //256 KiB
+
+    static final int RECORD_LONGS = 4;
+    static final int SITE_AND_CALLER = 0; //site index << 32 | caller identity hash
+    static final int CALLEE = 1;          //callee identity hash
+    static final int START = 2;           //System.nanoTime()
+    static final int DURATION = 3;        //nanos
+
+    /**
+     * calls from one calling method (or class, when the call has no CallSite) to one called method (or class)
+     */
+    public static final class Edge {
+        public final String caller;
+        public final String callee;
+        public long count;
+        public long totalNanos;
+        public int callerInstances; //distinct by identity hash, 0 stands for static calls
+        public int calleeInstances;
+
+        Edge(String caller, String callee) {
+            this.caller = caller;
+            this.callee = callee;
+        }
+
+        @Override
+        public String toString() {
+            return caller + " -> " + callee + ": " + count + " calls, " + totalNanos + " ns";
+        }
+    }
+
+    final List<RedirectorWrapper> redirectors = new ArrayList<>();
+    final int recordsPerThread;
+    final ThreadLocal<RecordRing> ring;
+    final Queue<RecordRing> rings = new ConcurrentLinkedQueue<>();
+
+    final SiteTable sites = new SiteTable();
+
+    final Map<String, EdgeRecords> retired = new LinkedHashMap<>(); //of released rings, guarded by itself
+    long retiredCalls;   //guarded by retired
+    long retiredDropped; //guarded by retired
+
+    CallGraph(int recordsPerThread) {
+        this.recordsPerThread = recordsPerThread;
+        this.ring = ThreadLocal.withInitial(() -> {
+            RecordRing ret = new RecordRing(Thread.currentThread(), this.recordsPerThread, RECORD_LONGS);
+            rings.add(ret);
+            return ret;
+        });
+    }
+
+    public static CallGraph capture() {
+        return capture(DEFAULT_RECORDS_PER_THREAD);
+    }
+
+    /**
+     * start recording calls through the redirector fields of the classes in RedirectorRegistry.registries();
+     * classes initialized later are not recorded
+     * @param recordsPerThread ring size of each calling thread, 32 bytes per record
+     */
+    public static CallGraph capture(int recordsPerThread) {
+        CallGraph callGraph = new CallGraph(recordsPerThread);
+        try {
+            for (Field field : RedirectorWrapper.registeredRedirectorFields()) {
+                SiteTable.FieldSites fieldSites = callGraph.sites.fieldSites();
+                RedirectorWrapper redirector = new RedirectorWrapper(field,
+                        (wrapper, args) -> callGraph.call(wrapper, fieldSites, args));
+                redirector.install();
+                callGraph.redirectors.add(redirector);
+            }
+        } catch (ReflectiveOperationException ex) {
+            callGraph.stop();
+            throw new IllegalArgumentException("cannot capture calls", ex);
+        }
+        return callGraph;
+    }
+
+    Object call(RedirectorWrapper redirector, SiteTable.FieldSites fieldSites, Object[] args) throws Throwable {
+        CallContext<?> ctx = (CallContext<?>) args[0];
+        long start = System.nanoTime();
+        try {
+            return redirector.callWrapped(args);
+        } finally {
+            long duration = System.nanoTime() - start;
+            RecordRing ring = this.ring.get();
+            int offset = ring.claim();
+            long[] records = ring.records;
+            records[offset + SITE_AND_CALLER] = (long) fieldSites.index(ctx) << 32 | (identityHash(ctx.callingClassInstance) & 0xFFFF_FFFFL);
+            records[offset + CALLEE] = identityHash(ctx.calledClassInstance);
+            records[offset + START] = start;
+            records[offset + DURATION] = duration;
+            ring.publish();
+        }
+    }
+
+    static int identityHash(Object instance) {
+        return instance == null ? 0 : System.identityHashCode(instance);
+    }
+
+    /**
+     * stop recording; what was recorded can still be exported
+     */
+    public void stop() {
+        redirectors.forEach(RedirectorWrapper::uninstall);
+    }
+
+    /**
+     * @return calls recorded and still in the rings, or aggregated from released ones
+     */
+    public long calls() {
+        synchronized (retired) {
+            return retiredCalls + rings.stream().mapToLong(ring -> ring.written - ring.dropped()).sum();
+        }
+    }
+
+    /**
+     * @return calls not in the rings, overwritten by later calls of the same thread
+     */
+    public long dropped() {
+        synchronized (retired) {
+            return retiredDropped + rings.stream().mapToLong(RecordRing::dropped).sum();
+        }
+    }
+
+    /**
+     * @return edges by number of calls, most first
+     */
+    public List<Edge> edges() {
+        Map<String, EdgeRecords> edges = new LinkedHashMap<>();
+        synchronized (retired) {
+            for (RecordRing ring : rings) {
+                if (!ring.thread.isAlive()) { //its last record is visible, nothing more will be written
+                    aggregate(ring, retired);
+                    retiredCalls += ring.written - ring.dropped();
+                    retiredDropped += ring.dropped();
+                    rings.remove(ring);
+                }
+            }
+            retired.forEach((key, records) -> edges.put(key, records.copy()));
+            for (RecordRing ring : rings)
+                aggregate(ring, edges);
+        }
+
+        List<Edge> ret = new ArrayList<>();
+        edges.values().forEach(records -> ret.add(records.edge()));
+        ret.sort(Comparator.comparingLong((Edge edge) -> edge.count).reversed());
+        return ret;
+    }
+
+    void aggregate(RecordRing ring, Map<String, EdgeRecords> edges) {
+        ring.forEach((records, offset) -> {
+            long siteAndCaller = records[offset + SITE_AND_CALLER];
+            int site = (int) (siteAndCaller >>> 32);
+            String caller = sites.caller(site);
+            String callee = sites.callee(site);
+            EdgeRecords edge = edges.computeIfAbsent(caller + " -> " + callee, key -> new EdgeRecords(caller, callee));
+            edge.count++;
+            edge.totalNanos += records[offset + DURATION];
+            edge.callers.add((int) siteAndCaller);
+            edge.callees.add((int) records[offset + CALLEE]);
+        });
+    }
+
+    /**
+     * an Edge being aggregated, with the identity hashes seen
+     */
+    static final class EdgeRecords {
+        final String caller;
+        final String callee;
+        long count;
+        long totalNanos;
+        final Set<Integer> callers = new HashSet<>();
+        final Set<Integer> callees = new HashSet<>();
+
+        EdgeRecords(String caller, String callee) {
+            this.caller = caller;
+            this.callee = callee;
+        }
+
+        EdgeRecords copy() {
+            EdgeRecords ret = new EdgeRecords(caller, callee);
+            ret.count = count;
+            ret.totalNanos = totalNanos;
+            ret.callers.addAll(callers);
+            ret.callees.addAll(callees);
+            return ret;
+        }
+
+        Edge edge() {
+            Edge ret = new Edge(caller, callee);
+            ret.count = count;
+            ret.totalNanos = totalNanos;
+            ret.callerInstances = callers.size();
+            ret.calleeInstances = callees.size();
+            return ret;
+        }
+    }
+
+    /**
+     * Graphviz digraph, edges labelled with calls and total time, heavier for more calls
+     */
+    public String toDot() {
+        return edges().stream().
+                map(edge -> "  " + SiteTable.quote(edge.caller) + " -> " + SiteTable.quote(edge.callee) +
+                        " [label=" + SiteTable.quote(edge.count + " calls, " + edge.totalNanos / 1_000_000.0 + " ms") +
+                        ", weight=" + edge.count + "];").
+                collect(joining("\n", "digraph calls {\n", "\n}\n"));
+    }
+
+    public String toJson() {
+        return "{\n" +
+                "\"dropped\": " + dropped() + ",\n" +
+                "\"edges\": " +
+                edges().stream().
+                        map(edge -> "  {\"caller\": " + SiteTable.quote(edge.caller) +
+                                ", \"callee\": " + SiteTable.quote(edge.callee) +
+                                ", \"count\": " + edge.count +
+                                ", \"totalNanos\": " + edge.totalNanos +
+                                ", \"callerInstances\": " + edge.callerInstances +
+                                ", \"calleeInstances\": " + edge.calleeInstances + "}").
+                        collect(joining(",\n", "[\n", "\n]")) + "\n" +
+                "}\n";
+    }
+
+    public void writeDot(File file) throws IOException {
+        write(file, toDot());
+    }
+
+    public void writeJson(File file) throws IOException {
+        write(file, toJson());
+    }
+
+    static void write(File file, String content) throws IOException {
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)) {
+            writer.write(content);
+        }
+    }
+}
@@ -0,0 +1,84 @@
+/*******************************************************************************
+ * Copyright (c) 2017-2018 Julian Rozentur
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+package testablejava;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * a redirected call in the source, made once by the compiler as a static field of the top-level calling class
+ * and passed in every CallContext of the call, so redirectors can key on the call site by identity or id
+ * instead of hashing strings:
+ *
+ * class Calling {
+ *     void method() {
+ *         ... Called.call()   //line 3 of Calling.java
+ *     }
+ * }
+ *
+ * is CallSite(id, "Calling", "method", "Calling.java", 3, "Called", "call", "()V")
+ */
+public final class CallSite {
+
+    static final AtomicInteger nextId = new AtomicInteger();
+
+    /**
+     * dense, in the order call sites are initialized (with their classes), from 0 to count() - 1;
+     * the same call site may get a different id on the next run
+     */
+    public final int id;
+    public final String callingClass;
+    public final String callingMethod;
+    public final String sourceFile;
+    public final int line;
+    public final String calledClass;
+    public final String calledMethod;
+    public final String calledDescriptor;
+
+    /**
+     * @param callingClass name of the class where the calling code resides, as in CallContext
+     * @param callingMethod name of the method making the call, &lt;init&gt; for constructors and instance initializers,
+     *                      &lt;clinit&gt; for static initializers
+     * @param sourceFile name of the source file, without directories
+     * @param line source line of the call
+     * @param calledClass name of the class where called code resides, as in CallContext
+     * @param calledMethod name of the called method, &lt;init&gt; for constructors
+     * @param calledDescriptor JVM descriptor of the called method, e.g. (Ljava/lang/String;)I
+     */
+    public CallSite(
+            String callingClass,
+            String callingMethod,
+            String sourceFile,
+            int line,
+            String calledClass,
+            String calledMethod,
+            String calledDescriptor) {
+
+        this.id = nextId.getAndIncrement();
+        this.callingClass = callingClass;
+        this.callingMethod = callingMethod;
+        this.sourceFile = sourceFile;
+        this.line = line;
+        this.calledClass = calledClass;
+        this.calledMethod = calledMethod;
+        this.calledDescriptor = calledDescriptor;
+    }
+
+    /**
+     * @return number of call sites initialized so far, e.g. to size arrays indexed by id
+     */
+    public static int count() {
+        return nextId.get();
+    }
+
+    @Override
+    public String toString() {
+        return callingClass + "." + callingMethod + "(" + sourceFile + ":" + line + ") -> " +
+                calledClass + "." + calledMethod + calledDescriptor;
+    }
+}
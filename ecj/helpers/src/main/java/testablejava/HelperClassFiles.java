@@ -0,0 +1,192 @@
+/*******************************************************************************
+ * Copyright (c) 2017-2018 Julian Rozentur
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+package testablejava;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.IntStream;
+
+import static java.util.stream.Collectors.joining;
+
+/**
+ * class files of helpers.FunctionN[_M]/ConsumerN[_M] interfaces, written directly: the same bytes as
+ * HelpersInstrumenter makes with ByteBuddy, and as the compiler synthesizes (org.testability.HelperTypes)
+ */
+public class HelperClassFiles {
+
+    static final Pattern HELPER_NAME = Pattern.compile("helpers\\.(Function|Consumer)(\\d{1,3})(?:_(\\d{1,3}))?");
+
+    /**
+     * @param binaryName e.g. helpers.Function2_1
+     * @return class file, null if the name is not one of a helper interface
+     */
+    public static byte[] classFileBytes(String binaryName) {
+        Matcher matcher = HELPER_NAME.matcher(binaryName);
+        if (!matcher.matches())
+            return null;
+        boolean returnsVoid = matcher.group(1).equals("Consumer");
+        int functionArgCount = Integer.parseInt(matcher.group(2));
+        int nExtraTypeVars = matcher.group(3) == null ? 0 : Integer.parseInt(matcher.group(3));
+
+        if (!exists(functionArgCount, nExtraTypeVars) ||
+                !binaryName.equals(name(returnsVoid, functionArgCount, nExtraTypeVars))) //e.g. Function2_0, Function02
+            return null;
+
+        return classFileBytes(returnsVoid, functionArgCount, nExtraTypeVars);
+    }
+
+    /**
+     * most arguments and extra type variables of a helper together
+     */
+    public static final int MAX_ARGS_AND_EXTRA_TYPE_VARS = 255;
+
+    /**
+     * shapes HelpersInstrumenter emits; org.testability.HelperTypes.exists is the same check in the compiler
+     */
+    public static boolean exists(int functionArgCount, int nExtraTypeVars) {
+        return nExtraTypeVars <= functionArgCount && functionArgCount + nExtraTypeVars <= MAX_ARGS_AND_EXTRA_TYPE_VARS;
+    }
+
+    static String name(boolean returnsVoid, int functionArgCount, int nExtraTypeVars) {
+        return "helpers." + (returnsVoid ? "Consumer" : "Function") + functionArgCount + (nExtraTypeVars > 0 ? "_" + nExtraTypeVars : "");
+    }
+
+    /**
+     * public abstract interface with type variables T1..TN (and R for Function), single abstract method
+     * apply/accept(T1..TN) with method type variables E1..EM, annotated with @FunctionalInterface
+     */
+    public static byte[] classFileBytes(boolean returnsVoid, int functionArgCount, int nExtraTypeVars) {
+        String name = name(returnsVoid, functionArgCount, nExtraTypeVars).replace('.', '/');
+
+        String classTypeVariables =
+                IntStream.rangeClosed(1, functionArgCount).
+                        mapToObj(i -> "T" + i + ":Ljava/lang/Object;").
+                        collect(joining()) +
+                (returnsVoid ? "" : "R:Ljava/lang/Object;");
+        String classSignature = classTypeVariables.isEmpty() ? null : "<" + classTypeVariables + ">Ljava/lang/Object;";
+
+        String methodTypeVariables =
+                IntStream.rangeClosed(1, nExtraTypeVars).
+                        mapToObj(i -> "E" + i + ":Ljava/lang/Object;").
+                        collect(joining());
+        String methodParameters =
+                IntStream.rangeClosed(1, functionArgCount).
+                        mapToObj(i -> "TT" + i + ";").
+                        collect(joining());
+        String methodSignature = classSignature == null ?
+                null :
+                (methodTypeVariables.isEmpty() ? "" : "<" + methodTypeVariables + ">") +
+                        "(" + methodParameters + ")" + (returnsVoid ? "V" : "TR;");
+        String methodDescriptor =
+                "(" +
+                        IntStream.range(0, functionArgCount).mapToObj(i -> "Ljava/lang/Object;").collect(joining()) +
+                        ")" +
+                        (returnsVoid ? "V" : "Ljava/lang/Object;");
+
+        //constant pool entries are added in the order they are first referenced, as ASM does
+        ConstantPool pool = new ConstantPool();
+        int thisClass = pool.classRef(name);
+        int classSignatureIndex = classSignature == null ? 0 : pool.utf8(classSignature);
+        int superClass = pool.classRef("java/lang/Object");
+        int annotationType = pool.utf8("Ljava/lang/FunctionalInterface;");
+        int methodName = pool.utf8(returnsVoid ? "accept" : "apply");
+        int methodDescriptorIndex = pool.utf8(methodDescriptor);
+        int signatureAttribute = classSignature == null ? 0 : pool.utf8("Signature"); //method signature is null with the class one
+        int methodSignatureIndex = methodSignature == null ? 0 : pool.utf8(methodSignature);
+        int annotationsAttribute = pool.utf8("RuntimeVisibleAnnotations");
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);  //minor
+            out.writeShort(52); //major, Java 8
+            pool.writeTo(out);
+            out.writeShort(0x0601); //ACC_PUBLIC | ACC_INTERFACE | ACC_ABSTRACT
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(0); //interfaces
+            out.writeShort(0); //fields
+
+            out.writeShort(1); //methods
+            out.writeShort(0x0401); //ACC_PUBLIC | ACC_ABSTRACT
+            out.writeShort(methodName);
+            out.writeShort(methodDescriptorIndex);
+            if (methodSignature == null) {
+                out.writeShort(0);
+            } else {
+                out.writeShort(1);
+                writeSignature(out, signatureAttribute, methodSignatureIndex);
+            }
+
+            out.writeShort(classSignature == null ? 1 : 2); //class attributes
+            if (classSignature != null)
+                writeSignature(out, signatureAttribute, classSignatureIndex);
+            out.writeShort(annotationsAttribute);
+            out.writeInt(6);
+            out.writeShort(1); //annotations
+            out.writeShort(annotationType);
+            out.writeShort(0); //element-value pairs
+        } catch (IOException e) {
+            throw new RuntimeException(e); //in-memory
+        }
+        return bytes.toByteArray();
+    }
+
+    static void writeSignature(DataOutputStream out, int signatureAttribute, int signatureIndex) throws IOException {
+        out.writeShort(signatureAttribute);
+        out.writeInt(2);
+        out.writeShort(signatureIndex);
+    }
+
+    /**
+     * just the UTF8 and Class entries a helper interface needs
+     */
+    static class ConstantPool {
+        final Map<String, Integer> utf8 = new HashMap<>();
+        final Map<String, Integer> classes = new HashMap<>();
+        final ByteArrayOutputStream entries = new ByteArrayOutputStream(256);
+        final DataOutputStream out = new DataOutputStream(entries);
+        int count = 1;
+
+        int utf8(String value) {
+            return utf8.computeIfAbsent(value, v -> add(1, () -> out.writeUTF(v)));
+        }
+
+        int classRef(String internalName) {
+            return classes.computeIfAbsent(internalName, n -> {
+                int nameIndex = utf8(n);
+                return add(7, () -> out.writeShort(nameIndex));
+            });
+        }
+
+        int add(int tag, IOAction body) {
+            try {
+                out.writeByte(tag);
+                body.run();
+            } catch (IOException e) {
+                throw new RuntimeException(e); //in-memory
+            }
+            return count++;
+        }
+
+        void writeTo(DataOutputStream target) throws IOException {
+            target.writeShort(count);
+            entries.writeTo(target);
+        }
+    }
+
+    interface IOAction {
+        void run() throws IOException;
+    }
+}
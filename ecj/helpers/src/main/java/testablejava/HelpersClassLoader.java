@@ -0,0 +1,72 @@
+/*******************************************************************************
+ * Copyright (c) 2017-2018 Julian Rozentur
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+package testablejava;
+
+import java.io.File;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * defines helpers.FunctionN[_M]/ConsumerN[_M] interfaces when they are first resolved and not found on the classpath,
+ * so they need not be shipped (see HelpersInstrumenter.maxArgs) or indexed at startup.
+ *
+ * To have the JVM use it for the application classpath:
+ * java -Djava.system.class.loader=testablejava.HelpersClassLoader ...
+ * The application classes are then defined by this loader (not by its parent), so their references to helper
+ * interfaces are resolved here
+ */
+public class HelpersClassLoader extends URLClassLoader {
+
+    static {
+        registerAsParallelCapable();
+    }
+
+    /**
+     * system class loader: loads java.class.path itself, delegating only to the parent of the default system class loader
+     */
+    public HelpersClassLoader(ClassLoader parent) {
+        this(classpathUrls(System.getProperty("java.class.path", "")), parent.getParent());
+    }
+
+    public HelpersClassLoader(URL[] urls, ClassLoader parent) {
+        super(urls, parent);
+    }
+
+    @Override
+    protected Class<?> findClass(String name) throws ClassNotFoundException {
+        try {
+            return super.findClass(name);
+        } catch (ClassNotFoundException e) {
+            byte[] bytes = HelperClassFiles.classFileBytes(name);
+            if (bytes == null)
+                throw e;
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+    }
+
+    /**
+     * note: no lambdas or streams, java.lang.invoke cannot be used before the system class loader is set
+     */
+    static URL[] classpathUrls(String classpath) {
+        List<URL> urls = new ArrayList<>();
+        for (String entry : classpath.split(File.pathSeparator)) {
+            if (entry.isEmpty())
+                continue;
+            try {
+                urls.add(new File(entry).toURI().toURL());
+            } catch (MalformedURLException e) {
+                throw new IllegalArgumentException("bad classpath entry: " + entry, e);
+            }
+        }
+        return urls.toArray(new URL[0]);
+    }
+}
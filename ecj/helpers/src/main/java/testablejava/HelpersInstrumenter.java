@@ -16,14 +16,21 @@ import net.bytebuddy.dynamic.DynamicType;
 import net.bytebuddy.implementation.MethodDelegation;
 import net.bytebuddy.jar.asm.Opcodes;
 
-import java.io.File;
-import java.io.IOException;
+import java.io.*;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
-import java.util.Optional;
-import java.util.concurrent.ForkJoinPool;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.jar.*;
 import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
+import static java.util.stream.Collectors.joining;
 import static java.util.stream.Collectors.toList;
 import static net.bytebuddy.matcher.ElementMatchers.named;
 
@@ -62,110 +69,172 @@ public class HelpersInstrumenter {
         }
     }
 
-    static public int maxArgs = 20;//255; //change this to 20 or so for practical reasons when running in dev environment
+    /**
+     * helpers with more arguments are synthesized by the compiler on demand (see org.testability.HelperTypes),
+     * so this can be as low as 0: mvn install -Dtestablejava.helpers.maxArgs=0
+     */
+    static public int maxArgs = Integer.getInteger("testablejava.helpers.maxArgs", 20);//255 for a full build, takes seconds
 
+    static final int nExtraTypeVariablesRange = 255;
+
+    /**
+     * @param args classes directory (Helpers.uncheckedThrow is rewritten in place), then optionally a jar to write
+     *             the helper interfaces to, instead of the classes directory
+     */
     public static void main(String[] args) throws Exception {
         String targetDir = args[0];
+        Path helpersJar = args.length > 1 ? Paths.get(args[1]) : null;
 
         System.out.println("instrumenting Helpers.uncheckedThrow into " + targetDir);
         rewriteUncheckedThrow(targetDir);
 
-        new File(targetDir, "helpers").mkdir();
+        long t0 = System.currentTimeMillis();
+        String hash = inputHash(maxArgs);
 
-        if (maxArgs == 255)
-            System.out.println("\nWarning: will emit functions up to 255 arguments which will take awhile, modify the HelpersInstrumenter.maxArgs value to ~20 in dev environment" + targetDir);
+        if (helpersJar == null ? isUpToDate(Paths.get(targetDir), hash) : isUpToDate(helpersJar, hash)) {
+            System.out.println("helper interfaces are up to date in " + (helpersJar == null ? targetDir : helpersJar));
+            return;
+        }
 
-        ForkJoinPool forkJoinPool = new ForkJoinPool();
-        try {
-            forkJoinPool.submit(() -> {
-                        try {
-                            long t0 = System.currentTimeMillis();
-                            System.out.println("emitting Consumers into " + targetDir);
+        System.out.println("emitting Functions and Consumers up to " + maxArgs + " arguments into " + (helpersJar == null ? targetDir : helpersJar));
+        long count = helpersJar == null ?
+                emitToDirectory(Paths.get(targetDir), maxArgs, hash) :
+                emitToJar(helpersJar, maxArgs, hash);
+        System.out.printf("->%d interfaces, %2.2f sec\n", count, (System.currentTimeMillis() - t0) / 1000.0);
+    }
 
-                            emitConsumers(targetDir, maxArgs);
-                            long t1 = System.currentTimeMillis();
-                            System.out.printf("->%2.2f sec\n", (t1 - t0) / 1000.0);
+    /**
+     * every helper shape: Consumers and Functions with up to maxArgs arguments and any number of extra type variables,
+     * as {returnsVoid ? 1 : 0, functionArgCount, nExtraTypeVars}, in a stable order
+     */
+    static List<int[]> shapes(int maxArgs) {
+        List<int[]> shapes = new ArrayList<>();
+        for (int returnsVoid = 1; returnsVoid >= 0; returnsVoid--)
+            for (int nExtraTypeVars = 0; nExtraTypeVars < nExtraTypeVariablesRange; nExtraTypeVars++)
+                for (int iFunction = 0; iFunction < maxArgs; iFunction++)
+                    if (HelperClassFiles.exists(iFunction, nExtraTypeVars)) //pragmatically since extra type vars needed to cast existing vars, never need more than args
+                        shapes.add(new int[]{returnsVoid, iFunction, nExtraTypeVars});
+        return shapes;
+    }
 
-                            System.out.println("emitting Functions into " + targetDir);
+    static String entryName(int[] shape) {
+        return HelperClassFiles.name(shape[0] == 1, shape[1], shape[2]).replace('.', '/') + ".class";
+    }
 
-                            emitFunctions(targetDir, maxArgs);
-                            long t2 = System.currentTimeMillis();
-                            System.out.printf("->%2.2f sec\n", (t2 - t1) / 1000.0);
+    static byte[] classFileBytes(int[] shape) {
+        return HelperClassFiles.classFileBytes(shape[0] == 1, shape[1], shape[2]);
+    }
 
-                        } catch (Exception ex) {
-                            ex.printStackTrace(); //should not happen
-                        }
-                    }
-            ).get();
-        } finally {
-            forkJoinPool.shutdown();
+    /**
+     * all shapes in one parallel pass, each written to its own file
+     */
+    static long emitToDirectory(Path targetDir, int maxArgs, String hash) throws IOException {
+        Path helpersDir = targetDir.resolve("helpers");
+        if (Files.isDirectory(helpersDir)) { //shapes beyond a lower maxArgs would remain otherwise
+            try (Stream<Path> stale = Files.list(helpersDir)) {
+                for (Path file : stale.collect(toList()))
+                    Files.delete(file);
+            }
         }
+        Files.createDirectories(helpersDir);
+
+        List<int[]> shapes = shapes(maxArgs);
+        shapes.parallelStream().forEach(shape -> {
+            try {
+                Files.write(targetDir.resolve(entryName(shape)), classFileBytes(shape));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
 
+        Path hashFile = targetDir.resolve(HASH_FILE);
+        Files.createDirectories(hashFile.getParent());
+        Files.write(hashFile, hash.getBytes(StandardCharsets.UTF_8));
+        return shapes.size();
     }
 
-    static void emitFunctions(String targetDir, int maxArgs) throws Exception {
-
-        int nExtraTypeVariablesRange = 255;
-
-        for (int i = 0; i < nExtraTypeVariablesRange; i++) {
-
-            int nExtraTypeVariables = i;
-
-            Optional<Exception> oneFailure = IntStream.range(0, maxArgs).parallel().
-                    mapToObj(iFunction -> {
+    /**
+     * all shapes generated in one parallel pass and streamed, in a stable order, into a single jar by the calling thread
+     */
+    static long emitToJar(Path jar, int maxArgs, String hash) throws IOException {
+        Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        manifest.getMainAttributes().put(HASH_ATTRIBUTE, hash);
+
+        if (jar.getParent() != null)
+            Files.createDirectories(jar.getParent());
+        Path partial = jar.resolveSibling(jar.getFileName() + ".partial");
+
+        List<int[]> shapes = shapes(maxArgs);
+        try (JarOutputStream out = new JarOutputStream(new BufferedOutputStream(Files.newOutputStream(partial), 1 << 16), manifest)) {
+            JarEntry directory = new JarEntry("helpers/");
+            directory.setTime(ENTRY_TIME);
+            out.putNextEntry(directory);
+            out.closeEntry();
+
+            shapes.parallelStream().
+                    map(shape -> new SimpleImmutableEntry<>(entryName(shape), classFileBytes(shape))).
+                    forEachOrdered(entry -> {
                         try {
-                            emitFunction(iFunction, nExtraTypeVariables, targetDir);
-                        } catch (Exception e) {
-                            return Optional.of(e);
-                        } catch (Throwable throwable) {
-                            throwable.printStackTrace();
+                            JarEntry jarEntry = new JarEntry(entry.getKey());
+                            jarEntry.setTime(ENTRY_TIME); //reproducible
+                            out.putNextEntry(jarEntry);
+                            out.write(entry.getValue());
+                            out.closeEntry();
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
                         }
-                        return Optional.<Exception>empty();
-                    }).
-                    filter(Optional::isPresent).
-                    map(Optional::get).
-                    findFirst();
-            if (oneFailure.isPresent())
-                throw oneFailure.get();
+                    });
         }
+        Files.move(partial, jar, StandardCopyOption.REPLACE_EXISTING); //a failed run leaves no jar that looks complete
+        return shapes.size();
     }
 
-    static void emitConsumers(String targetDir, int maxArgs) throws Exception {
-        int nExtraTypeVariablesRange = 255;
-
-        for (int i = 0; i < nExtraTypeVariablesRange; i++) {
+    static final String HASH_FILE = "META-INF/testablejava-helpers.sha1";
+    static final Attributes.Name HASH_ATTRIBUTE = new Attributes.Name("Testablejava-Helpers-SHA1");
+    static final long ENTRY_TIME = 1514764800000L; //2018-01-01
 
-            int nExtraTypeVariables = i;
-
-            Optional<Exception> oneFailure = IntStream.range(0, maxArgs).parallel().
-                    mapToObj(iFunction -> {
-                        try {
-                            emitConsumer(iFunction, nExtraTypeVariables, targetDir);
-                        } catch (Exception e) {
-                            return Optional.of(e);
-                        } catch (Throwable throwable) {
-                            throwable.printStackTrace();
-                        }
-                        return Optional.<Exception>empty();
-                    }).
-                    filter(Optional::isPresent).
-                    map(Optional::get).
-                    findFirst();
-            if (oneFailure.isPresent())
-                throw oneFailure.get();
+    /**
+     * @return hash of what determines the output: the generator and the shape range
+     */
+    static String inputHash(int maxArgs) throws IOException {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            try (InputStream generator = HelperClassFiles.class.getResourceAsStream("HelperClassFiles.class")) {
+                byte[] buffer = new byte[8192];
+                for (int n; (n = generator.read(buffer)) > 0; )
+                    digest.update(buffer, 0, n);
+            }
+            digest.update((maxArgs + "," + nExtraTypeVariablesRange).getBytes(StandardCharsets.UTF_8));
+            byte[] sha1 = digest.digest();
+            return IntStream.range(0, sha1.length).
+                    mapToObj(i -> String.format("%02x", sha1[i])).
+                    collect(joining());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e); //SHA-1 is required on every JVM
         }
     }
 
-    static void emitFunction(int iFunction, int nExtraTypeVars, String targetDir) throws IOException {
+    static boolean isUpToDate(Path target, String hash) throws IOException {
+        if (Files.isDirectory(target)) {
+            Path hashFile = target.resolve(HASH_FILE);
+            return Files.exists(hashFile) && hash.equals(new String(Files.readAllBytes(hashFile), StandardCharsets.UTF_8));
+        }
+        if (!Files.exists(target))
+            return false;
+        try (JarFile jar = new JarFile(target.toFile())) {
+            Manifest manifest = jar.getManifest();
+            return manifest != null && hash.equals(manifest.getMainAttributes().getValue(HASH_ATTRIBUTE));
+        }
+    }
 
-        if (nExtraTypeVars > iFunction || iFunction + nExtraTypeVars>255)
-            return; //pragmatically since extra type vars needed to cast existing vars, never need more than args
+    /**
+     * reference definition of a Function with ByteBuddy, HelperClassFiles writes the same bytes much faster
+     */
+    static byte[] functionWithByteBuddy(int iFunction, int nExtraTypeVars) {
 
         String name = "helpers.Function" + iFunction + (nExtraTypeVars>0? "_" + nExtraTypeVars : "");
 
-        if (new File(targetDir +"/" + name.replace(".","/") + ".class").exists())
-            return;
-
         DynamicType.Builder<?> builder = new ByteBuddy()
                 .makeInterface()
                 .name(name)
@@ -213,18 +282,16 @@ public class HelpersInstrumenter {
             readyToMake = methodDefinition
                     .withoutCode();
         }
-        readyToMake
+        return readyToMake
                 .make()
-                .saveIn(new File(targetDir));
+                .getBytes();
     }
-    static void emitConsumer(int iFunction, int nExtraTypeVars, String targetDir) throws IOException {
-
-        if (nExtraTypeVars > iFunction || iFunction + nExtraTypeVars>255)
-            return; //pragmatically since extra type vars needed to cast existing vars, never need more than args
+    /**
+     * reference definition of a Consumer with ByteBuddy, HelperClassFiles writes the same bytes much faster
+     */
+    static byte[] consumerWithByteBuddy(int iFunction, int nExtraTypeVars) {
 
         String name = "helpers.Consumer" + iFunction + (nExtraTypeVars>0? "_" + nExtraTypeVars : "");
-        if (new File(targetDir +"/" + name.replace(".","/") + ".class").exists())
-            return;
 
         DynamicType.Builder<?> builder = new ByteBuddy()
                 .makeInterface()
@@ -232,13 +299,13 @@ public class HelpersInstrumenter {
                 .annotateType(AnnotationDescription.Builder.ofType(FunctionalInterface.class).build());
 
         if (iFunction == 0) {
-            builder
+            return builder
                     .defineMethod("accept",
                             TypeDescription.VOID,
                             Visibility.PUBLIC) //irrelevant for interfaces
                     .withoutCode()
                     .make()
-                    .saveIn(new File(targetDir));
+                    .getBytes();
         } else {
 
             DynamicType.Builder.TypeVariableDefinition<?> soFar = builder.typeVariable("T1");
@@ -275,9 +342,9 @@ public class HelpersInstrumenter {
                         .withoutCode();
             }
 
-            readyToMake
+            return readyToMake
                     .make()
-                    .saveIn(new File(targetDir));
+                    .getBytes();
         }
     }
 }
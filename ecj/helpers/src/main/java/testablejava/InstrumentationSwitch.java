@@ -0,0 +1,67 @@
+/*******************************************************************************
+ * Copyright (c) 2017-2018 Julian Rozentur
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+package testablejava;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MutableCallSite;
+
+/**
+ * JVM-wide switch for code compiled with InstrumentationOptions.INSERT_KILL_SWITCH: each redirected call becomes
+ *
+ *   InstrumentationSwitch.isOn() ? $$redirector.apply(...) : originalCall(...)
+ *
+ * and each constructor listener call is made only if on. When off, instrumented code runs the original calls.
+ *
+ * The state is the target of a MutableCallSite invoked through a static final MethodHandle, the way SwitchPoint
+ * is built: the JIT folds isOn() to a constant and drops the other branch, and a change invalidates the compiled
+ * code that depends on it. Unlike a SwitchPoint it can be turned back on. Changing it is expensive (deoptimization),
+ * so it is meant to be set once per run, e.g. turnOff() at the start of a baseline measurement
+ */
+public final class InstrumentationSwitch {
+
+    static final MutableCallSite state = new MutableCallSite(MethodHandles.constant(boolean.class, true));
+    static final MethodHandle stateInvoker = state.dynamicInvoker();
+
+    static volatile boolean on = true; //mirrors the call site target, for set()
+
+    InstrumentationSwitch() {
+    }
+
+    /**
+     * @return true (the default) if redirectors and listeners are called
+     */
+    public static boolean isOn() {
+        try {
+            return (boolean) stateInvoker.invokeExact();
+        } catch (Throwable th) {
+            Helpers.uncheckedThrow(th);
+            return true;
+        }
+    }
+
+    public static void turnOn() {
+        set(true);
+    }
+
+    /**
+     * instrumented code behaves as the original, whatever the redirector and listener fields are set to
+     */
+    public static void turnOff() {
+        set(false);
+    }
+
+    public static synchronized void set(boolean on) {
+        if (InstrumentationSwitch.on == on)
+            return;
+        state.setTarget(MethodHandles.constant(boolean.class, on));
+        MutableCallSite.syncAll(new MutableCallSite[]{state});
+        InstrumentationSwitch.on = on;
+    }
+}
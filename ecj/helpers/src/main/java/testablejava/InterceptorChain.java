@@ -0,0 +1,199 @@
+/*******************************************************************************
+ * Copyright (c) 2017-2018 Julian Rozentur
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+package testablejava;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * interceptors stacked on a redirector, instead of nested lambdas each capturing the previous field value:
+ *
+ *   InterceptorChain chain = InterceptorChain.on(X.class, "$$Foo$bar")
+ *           .before(args -> calls.increment())
+ *           .around((next, args) -> { Thread.sleep(10); return next.proceed(args); })
+ *           .onException((args, th) -> failures.increment())
+ *           .install();
+ *   ...
+ *   chain.uninstall();
+ *
+ * Interceptors added first are outermost. args are the arguments of the redirector, CallContext first; an interceptor
+ * may replace them in place before proceeding. The chain is composed once, at install, into one Invocation per
+ * interceptor, each calling its interceptor's code and the next Invocation directly; the innermost calls the value
+ * the field had at install through a MethodHandle bound to it, resolved at install as ReflectiveCaller does, rather
+ * than Method.invoke. Arguments still come boxed, in the array the installed wrapper makes for each call
+ */
+public final class InterceptorChain {
+
+    /**
+     * rest of the chain, down to the redirector the chain was installed on
+     */
+    @FunctionalInterface
+    public interface Invocation {
+        Object proceed(Object[] args) throws Throwable;
+    }
+
+    @FunctionalInterface
+    public interface Before {
+        void before(Object[] args) throws Throwable;
+    }
+
+    @FunctionalInterface
+    public interface After {
+        /**
+         * @param result null for a void call
+         */
+        void after(Object[] args, Object result) throws Throwable;
+    }
+
+    @FunctionalInterface
+    public interface OnException {
+        /**
+         * called before the exception propagates, which it does unless this throws another
+         */
+        void onException(Object[] args, Throwable exception) throws Throwable;
+    }
+
+    @FunctionalInterface
+    public interface Around {
+        /**
+         * @param next rest of the chain; not calling it skips the call
+         * @return result of the call
+         */
+        Object around(Invocation next, Object[] args) throws Throwable;
+    }
+
+    /**
+     * makes the Invocation of an interceptor, calling the user's code and then next, once at install
+     */
+    @FunctionalInterface
+    interface Link {
+        Invocation link(Invocation next);
+    }
+
+    final Class<?> type;
+    final String fieldName;
+    final List<Link> links = new ArrayList<>(); //by interceptor, outermost first
+    RedirectorWrapper redirector; //once installed
+
+    InterceptorChain(Class<?> type, String fieldName) {
+        this.type = type;
+        this.fieldName = fieldName;
+    }
+
+    /**
+     * @param type class with the redirector field, e.g. the top-level class making the call
+     * @param fieldName redirector field
+     */
+    public static InterceptorChain on(Class<?> type, String fieldName) {
+        return new InterceptorChain(type, fieldName);
+    }
+
+    public InterceptorChain before(Before before) {
+        return add(next -> args -> {
+            before.before(args);
+            return next.proceed(args);
+        });
+    }
+
+    /**
+     * runs after calls that return, not after exceptions (see onException)
+     */
+    public InterceptorChain after(After after) {
+        return add(next -> args -> {
+            Object result = next.proceed(args);
+            after.after(args, result);
+            return result;
+        });
+    }
+
+    public InterceptorChain onException(OnException onException) {
+        return add(next -> args -> {
+            try {
+                return next.proceed(args);
+            } catch (Throwable th) {
+                onException.onException(args, th);
+                throw th;
+            }
+        });
+    }
+
+    public InterceptorChain around(Around around) {
+        return add(next -> args -> around.around(next, args));
+    }
+
+    InterceptorChain add(Link link) {
+        if (redirector != null)
+            throw new IllegalStateException("already installed: " + this);
+        links.add(link);
+        return this;
+    }
+
+    /**
+     * compose the interceptors and set the field to the result
+     */
+    public InterceptorChain install() {
+        if (redirector != null)
+            throw new IllegalStateException("already installed: " + this);
+        try {
+            Field field = RedirectorWrapper.redirectorField(type, fieldName);
+            MethodHandle wrapped = wrappedInvoker(RedirectorWrapper.functionalMethod(field.getType()), field.get(null));
+            Invocation chain = compose(args -> (Object) wrapped.invokeExact(args)); //captured by the handler, complete before it
+            RedirectorWrapper redirector = new RedirectorWrapper(field, (wrapper, args) -> chain.proceed(args));
+            redirector.install();
+            this.redirector = redirector;
+        } catch (ReflectiveOperationException ex) {
+            throw new IllegalArgumentException("cannot intercept " + type.getName() + "." + fieldName, ex);
+        }
+        return this;
+    }
+
+    /**
+     * @param method functional method of the field's interface
+     * @param wrapped value of the field at install
+     * @return (Object[] args)Object calling the functional method of the value wrapped
+     */
+    static MethodHandle wrappedInvoker(Method method, Object wrapped) throws IllegalAccessException {
+        method.setAccessible(true); //e.g. interface nested in a non-public class
+        MethodHandle handle = MethodHandles.lookup().unreflect(method).asFixedArity().bindTo(wrapped);
+        int parameterCount = handle.type().parameterCount();
+        return handle.
+                asType(MethodType.genericMethodType(parameterCount)).
+                asSpreader(Object[].class, parameterCount);
+    }
+
+    /**
+     * @param innermost calls the wrapped value
+     * @return the interceptors, each calling the next
+     */
+    Invocation compose(Invocation innermost) {
+        Invocation ret = innermost;
+        for (int i = links.size() - 1; i >= 0; i--)
+            ret = links.get(i).link(ret);
+        return ret;
+    }
+
+    /**
+     * sets the field back to the value it had at install, unless it was reassigned since
+     */
+    public void uninstall() {
+        if (redirector != null)
+            redirector.uninstall();
+    }
+
+    @Override
+    public String toString() {
+        return type.getName() + "." + fieldName + ", " + links.size() + " interceptors" +
+                (redirector == null ? "" : ", installed");
+    }
+}
@@ -0,0 +1,246 @@
+/*******************************************************************************
+ * Copyright (c) 2017-2018 Julian Rozentur
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+package testablejava;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Field;
+import java.nio.channels.Channel;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * counts I/O operations and bytes of redirected stream, channel and file calls, by calling site:
+ *
+ *   IoAccounting io = IoAccounting.enable(Parser.class); //or enable() for classes in RedirectorRegistry.registries()
+ *   ...
+ *   io.disable();
+ *   System.out.print(io.report());
+ *
+ * Redirectors are wrapped if the class in their CallContext type is an InputStream, OutputStream, nio Channel
+ * or Files. Bytes are taken from the call's arguments and result; the called method and its descriptor are taken
+ * from the name and generic type of the redirector field once, when it is wrapped, so no CallSite is needed.
+ * Counters are LongAdders, so threads doing I/O at the same site do not contend on one variable
+ */
+public final class IoAccounting {
+
+    static final Class<?>[] IO_TYPES = {InputStream.class, OutputStream.class, Channel.class, Files.class};
+
+    final List<RedirectorWrapper> redirectors = new ArrayList<>();
+    final SiteTable siteTable = new SiteTable();
+    final ConcurrentMap<Integer, Counters> counters = new ConcurrentHashMap<>(); //by site index
+
+    IoAccounting() {
+    }
+
+    /**
+     * account I/O calls through redirector fields of the classes in RedirectorRegistry.registries();
+     * classes initialized later are not accounted
+     */
+    public static IoAccounting enable() {
+        IoAccounting io = new IoAccounting();
+        io.wrap(RedirectorWrapper.registeredRedirectorFields());
+        return io;
+    }
+
+    /**
+     * account I/O calls made from the instrumented class
+     * @param type top-level class compiled with INSERT_REGISTRY
+     */
+    public static IoAccounting enable(Class<?> type) {
+        RedirectorRegistry registry = RedirectorRegistry.of(type);
+        if (registry == null)
+            throw new IllegalArgumentException(type.getName() + " has no redirector registry");
+        IoAccounting io = new IoAccounting();
+        io.wrap(RedirectorWrapper.redirectorFields(registry));
+        return io;
+    }
+
+    static boolean isIo(Class<?> calledType) {
+        if (calledType == null)
+            return false;
+        for (Class<?> ioType : IO_TYPES) {
+            if (ioType.isAssignableFrom(calledType))
+                return true;
+        }
+        return false;
+    }
+
+    void wrap(List<Field> fields) {
+        try {
+            for (Field field : fields) {
+                if (!isIo(RedirectorWrapper.calledType(field)))
+                    continue;
+                String method = RedirectorWrapper.calledMethod(field);
+                String descriptor = RedirectorWrapper.calledDescriptor(field);
+                SiteTable.FieldSites fieldSites = siteTable.fieldSites();
+                RedirectorWrapper redirector = new RedirectorWrapper(field,
+                        (wrapper, args) -> call(wrapper, fieldSites, method, descriptor, args));
+                redirector.install();
+                redirectors.add(redirector);
+            }
+        } catch (ReflectiveOperationException ex) {
+            disable();
+            throw new IllegalArgumentException("cannot account I/O", ex);
+        }
+    }
+
+    Object call(RedirectorWrapper redirector, SiteTable.FieldSites fieldSites, String method, String descriptor, Object[] args)
+            throws Throwable {
+        Counters site = counters.computeIfAbsent(fieldSites.index((CallContext<?>) args[0]), index -> new Counters());
+        site.ops.increment(); //failed operations too
+        Object result = redirector.callWrapped(args);
+        count(site, method, descriptor, args, result);
+        return result;
+    }
+
+    /**
+     * @param descriptor of the called method, with boxed types standing for primitives
+     */
+    static void count(Counters site, String method, String descriptor, Object[] args, Object result) {
+        boolean reads = method.startsWith("read") || method.equals("transferFrom");
+        boolean writes = method.startsWith("write") || method.equals("transferTo") || method.equals("copy");
+
+        long bytes;
+        if (result instanceof byte[]) //readAllBytes, readNBytes(int)
+            bytes = ((byte[]) result).length;
+        else if (descriptor.equals("()I")) //InputStream.read()
+            bytes = (Integer) result >= 0 ? 1 : 0;
+        else if (result instanceof Integer || result instanceof Long) //stream and channel read/write, transfer, copy
+            bytes = Math.max(0, ((Number) result).longValue());
+        else if (descriptor.startsWith("(I)") && writes) //OutputStream.write(int)
+            bytes = 1;
+        else if (descriptor.startsWith("([BII)") && writes) //OutputStream.write(byte[], int, int)
+            bytes = (Integer) args[3];
+        else if (descriptor.startsWith("([B)") && writes) //OutputStream.write(byte[])
+            bytes = ((byte[]) args[1]).length;
+        else if (descriptor.startsWith("(Ljava/nio/file/Path;[B") && writes) //Files.write(Path, byte[], OpenOption...)
+            bytes = ((byte[]) args[2]).length;
+        else
+            bytes = 0; //e.g. open, close, flush, or writes whose size is not in the arguments
+
+        if (reads)
+            site.bytesRead.add(bytes);
+        else if (writes)
+            site.bytesWritten.add(bytes);
+    }
+
+    /**
+     * puts back the redirectors that were there before, unless reassigned since; counts are kept
+     */
+    public void disable() {
+        redirectors.forEach(RedirectorWrapper::uninstall);
+    }
+
+    /**
+     * @return redirector fields accounted
+     */
+    public List<String> redirectors() {
+        List<String> ret = new ArrayList<>();
+        redirectors.forEach(redirector -> ret.add(redirector.toString()));
+        return Collections.unmodifiableList(ret);
+    }
+
+    /**
+     * @return counts of the sites that made I/O calls, most operations first
+     */
+    public List<Site> sites() {
+        List<Site> ret = new ArrayList<>();
+        counters.forEach((index, site) -> ret.add(new Site(
+                siteTable.caller(index),
+                siteTable.callee(index),
+                siteTable.location(index),
+                site.ops.sum(),
+                site.bytesRead.sum(),
+                site.bytesWritten.sum())));
+        ret.sort(Comparator.comparingLong((Site site) -> site.ops).reversed()
+                .thenComparing(site -> site.caller + site.callee));
+        return ret;
+    }
+
+    public long ops() {
+        return counters.values().stream().mapToLong(site -> site.ops.sum()).sum();
+    }
+
+    public long bytesRead() {
+        return counters.values().stream().mapToLong(site -> site.bytesRead.sum()).sum();
+    }
+
+    public long bytesWritten() {
+        return counters.values().stream().mapToLong(site -> site.bytesWritten.sum()).sum();
+    }
+
+    /**
+     * sets all counts to 0
+     */
+    public void clear() {
+        counters.clear();
+    }
+
+    /**
+     * @return one line per site, most operations first
+     */
+    public String report() {
+        StringBuilder b = new StringBuilder();
+        sites().forEach(site -> b.append(site).append('\n'));
+        return b.toString();
+    }
+
+    static final class Counters {
+        final LongAdder ops = new LongAdder();
+        final LongAdder bytesRead = new LongAdder();
+        final LongAdder bytesWritten = new LongAdder();
+    }
+
+    /**
+     * I/O made by a call in the source, or by a calling class if the call has no CallSite
+     */
+    public static final class Site {
+        public final String caller;   //calling method, or class
+        public final String callee;   //called method, or class
+        public final String location; //file:line, null if not known
+        public final long ops;
+        public final long bytesRead;
+        public final long bytesWritten;
+
+        Site(String caller, String callee, String location, long ops, long bytesRead, long bytesWritten) {
+            this.caller = caller;
+            this.callee = callee;
+            this.location = location;
+            this.ops = ops;
+            this.bytesRead = bytesRead;
+            this.bytesWritten = bytesWritten;
+        }
+
+        /**
+         * @return bytes moved per operation, small values point at unbuffered I/O
+         */
+        public double bytesPerOp() {
+            return ops == 0 ? 0 : (double) (bytesRead + bytesWritten) / ops;
+        }
+
+        @Override
+        public String toString() {
+            return caller + " -> " + callee + (location == null ? "" : " (" + location + ")") + ": " +
+                    ops + " ops, " + bytesRead + " bytes read, " + bytesWritten + " bytes written";
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "I/O in " + redirectors.size() + " redirectors: " +
+                ops() + " ops, " + bytesRead() + " bytes read, " + bytesWritten() + " bytes written";
+    }
+}
@@ -0,0 +1,201 @@
+/*******************************************************************************
+ * Copyright (c) 2017-2018 Julian Rozentur
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+package testablejava;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * delays redirected calls, to reproduce slow dependencies (timeouts, pool exhaustion, backpressure) in tests:
+ *
+ *   Latency latency = Latency.inject(Client.class, "$$Socket$connect$$SocketAddress", Latency.logNormal(20, 0.5, TimeUnit.MILLISECONDS));
+ *   ... //each connect is delayed, then made as before
+ *   latency.remove();
+ *
+ * or, for all calls to a class made from instrumented classes initialized so far (see RedirectorRegistry):
+ *
+ *   Latency.injectForCalledClass("java.net.Socket", Latency.uniform(1, 50, TimeUnit.MILLISECONDS));
+ *
+ * The delay is made before the call, by parking the calling thread (LockSupport.parkNanos, which does not
+ * pin a virtual thread the way a monitor does); an interrupt ends the delay and is left set for the call to see
+ */
+public final class Latency {
+
+    /**
+     * delay of one call
+     */
+    @FunctionalInterface
+    public interface Distribution {
+        long nextNanos(Random random);
+    }
+
+    public static Distribution fixed(long delay, TimeUnit unit) {
+        long nanos = unit.toNanos(delay);
+        return random -> nanos;
+    }
+
+    public static Distribution uniform(long min, long max, TimeUnit unit) {
+        if (max < min)
+            throw new IllegalArgumentException("max < min: " + max + " < " + min);
+        long minNanos = unit.toNanos(min);
+        long rangeNanos = unit.toNanos(max) - minNanos;
+        return random -> minNanos + (long) (random.nextDouble() * rangeNanos);
+    }
+
+    /**
+     * long right tail, typical of service response times
+     * @param median half of the delays are shorter
+     * @param sigma standard deviation of the logarithm of the delay, e.g. 0.5; larger makes the tail longer
+     */
+    public static Distribution logNormal(double median, double sigma, TimeUnit unit) {
+        double medianNanos = unit.toNanos(1) * median;
+        return random -> (long) (medianNanos * Math.exp(sigma * random.nextGaussian()));
+    }
+
+    /**
+     * delays recorded elsewhere, e.g. production latency histogram buckets
+     * @param delays delay of each bucket
+     * @param counts number of calls recorded in each bucket, drawn in proportion
+     */
+    public static Distribution histogram(long[] delays, long[] counts, TimeUnit unit) {
+        if (delays.length != counts.length || delays.length == 0)
+            throw new IllegalArgumentException("need the same non-zero number of delays and counts");
+        long[] nanos = Arrays.stream(delays).map(unit::toNanos).toArray();
+        long[] cumulativeCounts = counts.clone();
+        Arrays.parallelPrefix(cumulativeCounts, Long::sum);
+        long total = cumulativeCounts[cumulativeCounts.length - 1];
+        if (total <= 0)
+            throw new IllegalArgumentException("no calls recorded");
+        return random -> {
+            long drawn = (long) (random.nextDouble() * total);
+            int bucket = Arrays.binarySearch(cumulativeCounts, drawn + 1);
+            if (bucket < 0)
+                bucket = -bucket - 1;
+            while (bucket > 0 && cumulativeCounts[bucket - 1] > drawn) //first of equal cumulative counts, skipping empty buckets
+                bucket--;
+            return nanos[bucket];
+        };
+    }
+
+    final List<RedirectorWrapper> redirectors = new ArrayList<>();
+    final Distribution distribution;
+    final Random random;
+    final String calledClass; //null if injected into one field
+
+    final LongAdder delays = new LongAdder();
+    final LongAdder delayedNanos = new LongAdder();
+
+    Latency(Distribution distribution, Random random, String calledClass) {
+        this.distribution = distribution;
+        this.random = random;
+        this.calledClass = calledClass;
+    }
+
+    public static Latency inject(Class<?> type, String fieldName, Distribution distribution) {
+        return inject(type, fieldName, distribution, new Random());
+    }
+
+    /**
+     * delay every call through the redirector field
+     * @param random source of delays, seeded to repeat them
+     * @return the injection, to read its metrics or remove
+     */
+    public static Latency inject(Class<?> type, String fieldName, Distribution distribution, Random random) {
+        Latency latency = new Latency(distribution, random, null);
+        try {
+            latency.wrap(RedirectorWrapper.redirectorField(type, fieldName));
+        } catch (ReflectiveOperationException ex) {
+            throw new IllegalArgumentException("cannot inject latency into " + type.getName() + "." + fieldName, ex);
+        }
+        return latency;
+    }
+
+    public static Latency injectForCalledClass(String calledClass, Distribution distribution) {
+        return injectForCalledClass(calledClass, distribution, new Random());
+    }
+
+    /**
+     * delay calls to the class through redirector fields of the classes in RedirectorRegistry.registries();
+     * classes initialized later are not affected. Only the fields calling the class are wrapped, chosen by their
+     * CallContext type (see RedirectorWrapper.calledType), so other calls are not slowed by the wrapper
+     * @param calledClass name of the called class, as in CallContext.calledClass, e.g. java.net.Socket
+     */
+    public static Latency injectForCalledClass(String calledClass, Distribution distribution, Random random) {
+        Latency latency = new Latency(distribution, random, calledClass);
+        try {
+            for (Field field : RedirectorWrapper.registeredRedirectorFields()) {
+                Class<?> calledType = RedirectorWrapper.calledType(field);
+                if (calledType != null && calledType.getName().equals(calledClass))
+                    latency.wrap(field);
+            }
+        } catch (ReflectiveOperationException ex) {
+            latency.remove();
+            throw new IllegalArgumentException("cannot inject latency", ex);
+        }
+        return latency;
+    }
+
+    void wrap(Field field) throws ReflectiveOperationException {
+        RedirectorWrapper redirector = new RedirectorWrapper(field, (wrapper, args) -> {
+            delay();
+            return wrapper.callWrapped(args);
+        });
+        redirector.install();
+        redirectors.add(redirector);
+    }
+
+    void delay() {
+        long nanos = Math.max(0, distribution.nextNanos(random));
+        long deadline = System.nanoTime() + nanos;
+        for (long remaining = nanos; remaining > 0 && !Thread.currentThread().isInterrupted(); remaining = deadline - System.nanoTime())
+            LockSupport.parkNanos(this, remaining); //may return early, spuriously
+        delays.increment();
+        delayedNanos.add(nanos);
+    }
+
+    /**
+     * puts back the redirectors that were there before injection, unless reassigned since
+     */
+    public void remove() {
+        redirectors.forEach(RedirectorWrapper::uninstall);
+    }
+
+    /**
+     * @return redirector fields delayed
+     */
+    public List<String> redirectors() {
+        List<String> ret = new ArrayList<>();
+        redirectors.forEach(redirector -> ret.add(redirector.toString()));
+        return Collections.unmodifiableList(ret);
+    }
+
+    public long delays() {
+        return delays.sum();
+    }
+
+    /**
+     * @return total of the delays drawn; parking may take longer
+     */
+    public long delayedNanos() {
+        return delayedNanos.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "latency " + (calledClass == null ? "" : "for " + calledClass + " ") + "in " + redirectors.size() +
+                " redirectors: " + delays() + " delays, " + TimeUnit.NANOSECONDS.toMillis(delayedNanos()) + " ms";
+    }
+}
@@ -0,0 +1,272 @@
+/*******************************************************************************
+ * Copyright (c) 2017-2018 Julian Rozentur
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+package testablejava;
+
+import java.lang.reflect.Field;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * caches results of a redirector, for expensive calls that return the same for the same arguments, e.g.
+ *
+ *   Memo memo = Memo.install(Parser.class, "$$Files$readAllBytes$$Path");
+ *   ... //code under test reads each file once
+ *   memo.uninstall();
+ *
+ * The field's current value (original call or another redirector) is replaced with one that looks up
+ * the call arguments, and the called instance if any, in a bounded cache. Arguments are compared with equals
+ * (arrays by content), the called instance by identity. Exceptions are not cached.
+ * Hits do not lock; a miss calls the wrapped value outside of the cache lock, so concurrent misses on the same
+ * arguments may each call it
+ */
+public final class Memo {
+
+    public enum Eviction {
+        LRU, //least recently used, among a sample of entries
+        LFU  //least frequently used, least recently inserted or promoted among equally frequent
+    }
+
+    public static final int DEFAULT_MAX_SIZE = 1024;
+    static final int LRU_SAMPLE_SIZE = 16; //entries compared to pick an LRU victim
+
+    final RedirectorWrapper redirector;
+    final int maxSize;
+    final Eviction eviction;
+
+    final ConcurrentHashMap<Key, Entry> entries = new ConcurrentHashMap<>();
+    final ReentrantLock lock = new ReentrantLock(); //guards inserts, evictions and frequencies
+    final AtomicLong clock = new AtomicLong(); //LRU: ticks on each use of an entry not used last
+    final Map<Long, LinkedHashSet<Key>> keysByUses = new HashMap<>(); //LFU: frequency buckets, guarded by lock
+    long minUses; //LFU: lowest non-empty bucket, guarded by lock
+
+    final LongAdder hits = new LongAdder();
+    final LongAdder misses = new LongAdder();
+    final LongAdder evictions = new LongAdder();
+
+    Memo(Field field, int maxSize, Eviction eviction) throws ReflectiveOperationException {
+        this.maxSize = maxSize;
+        this.eviction = eviction;
+        this.redirector = new RedirectorWrapper(field, (redirector, args) -> call(args));
+        if (redirector.method.getReturnType() == void.class)
+            throw new IllegalArgumentException(field.getType().getName() + " does not return a value");
+    }
+
+    /**
+     * cache up to DEFAULT_MAX_SIZE results of the redirector, evicting least recently used
+     */
+    public static Memo install(Class<?> type, String fieldName) {
+        return install(type, fieldName, DEFAULT_MAX_SIZE, Eviction.LRU);
+    }
+
+    /**
+     * @param type class with the redirector field, e.g. the top-level class making the call
+     * @param fieldName redirector field, for a call that returns a value
+     * @param maxSize number of results kept
+     * @return the installed cache, to read its metrics or uninstall
+     */
+    public static Memo install(Class<?> type, String fieldName, int maxSize, Eviction eviction) {
+        if (maxSize < 1)
+            throw new IllegalArgumentException("maxSize must be positive: " + maxSize);
+        try {
+            Memo memo = new Memo(RedirectorWrapper.redirectorField(type, fieldName), maxSize, eviction);
+            memo.redirector.install();
+            return memo;
+        } catch (ReflectiveOperationException ex) {
+            throw new IllegalArgumentException("cannot memoize " + type.getName() + "." + fieldName, ex);
+        }
+    }
+
+    /**
+     * sets the field back to the value it had at install, unless it was reassigned since
+     */
+    public void uninstall() {
+        redirector.uninstall();
+        clear();
+    }
+
+    public void clear() {
+        lock.lock();
+        try {
+            entries.clear();
+            keysByUses.clear();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public long hits() {
+        return hits.sum();
+    }
+
+    public long misses() {
+        return misses.sum();
+    }
+
+    public long evictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * @return share of calls answered from the cache, 0 if none were made
+     */
+    public double hitRate() {
+        long hits = hits();
+        long calls = hits + misses();
+        return calls == 0 ? 0 : (double) hits / calls;
+    }
+
+    Object call(Object[] args) throws Throwable {
+        Key key = new Key(args);
+
+        Entry entry = entries.get(key);
+        if (entry != null) {
+            used(key, entry);
+            hits.increment();
+            return entry.value;
+        }
+        misses.increment();
+
+        Object value = redirector.callWrapped(args);
+
+        lock.lock();
+        try {
+            if (!entries.containsKey(key)) {
+                if (entries.size() >= maxSize)
+                    evict();
+                Entry added = new Entry(value);
+                entries.put(key, added);
+                if (eviction == Eviction.LRU)
+                    added.lastUsed = clock.incrementAndGet();
+                else {
+                    keysByUses.computeIfAbsent(added.uses, uses -> new LinkedHashSet<>()).add(key);
+                    minUses = added.uses;
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        return value;
+    }
+
+    /**
+     * record a hit: LRU stamps the entry, unless it is already the last one used, without locking;
+     * LFU moves it to the next frequency bucket, skipped if the lock is taken, so frequencies are approximate
+     * under contention
+     */
+    void used(Key key, Entry entry) {
+        if (eviction == Eviction.LRU) {
+            if (entry.lastUsed != clock.get())
+                entry.lastUsed = clock.incrementAndGet();
+        } else if (lock.tryLock()) {
+            try {
+                if (entries.get(key) != entry)
+                    return; //evicted meanwhile
+                LinkedHashSet<Key> bucket = keysByUses.get(entry.uses);
+                bucket.remove(key);
+                if (bucket.isEmpty()) {
+                    keysByUses.remove(entry.uses);
+                    if (minUses == entry.uses)
+                        minUses++;
+                }
+                entry.uses++;
+                keysByUses.computeIfAbsent(entry.uses, uses -> new LinkedHashSet<>()).add(key);
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * remove one entry, called with lock held on a non-empty cache
+     */
+    void evict() {
+        Key victim;
+        if (eviction == Eviction.LFU) {
+            LinkedHashSet<Key> bucket = keysByUses.get(minUses);
+            Iterator<Key> iterator = bucket.iterator(); //least recently inserted or promoted first
+            victim = iterator.next();
+            iterator.remove();
+            if (bucket.isEmpty())
+                keysByUses.remove(minUses); //minUses is reset by the insert that follows
+        } else {
+            victim = null;
+            long victimLastUsed = Long.MAX_VALUE;
+            Iterator<Map.Entry<Key, Entry>> iterator = entries.entrySet().iterator();
+            for (int i = 0; i < LRU_SAMPLE_SIZE && iterator.hasNext(); i++) {
+                Map.Entry<Key, Entry> next = iterator.next();
+                if (next.getValue().lastUsed < victimLastUsed) {
+                    victim = next.getKey();
+                    victimLastUsed = next.getValue().lastUsed;
+                }
+            }
+        }
+        entries.remove(victim);
+        evictions.increment();
+    }
+
+    /**
+     * call arguments; a CallContext is represented by its called instance
+     */
+    static final class Key {
+        final Object calledInstance;
+        final Object[] args;
+        final int hash;
+
+        Key(Object[] args) {
+            if (args.length > 0 && args[0] instanceof CallContext) {
+                this.calledInstance = ((CallContext<?>) args[0]).calledClassInstance;
+                this.args = Arrays.copyOfRange(args, 1, args.length);
+            } else {
+                this.calledInstance = null;
+                this.args = args.clone();
+            }
+            this.hash = 31 * System.identityHashCode(calledInstance) + Arrays.deepHashCode(this.args);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key))
+                return false;
+            Key other = (Key) o;
+            return calledInstance == other.calledInstance && Arrays.deepEquals(args, other.args);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    static final class Entry {
+        final Object value;
+        volatile long lastUsed; //LRU
+        long uses = 1; //LFU, guarded by lock
+
+        Entry(Object value) {
+            this.value = value;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return redirector + " " + eviction + "(" + maxSize + "): " +
+                size() + " entries, " + hits() + " hits, " + misses() + " misses, " + evictions() + " evictions";
+    }
+}
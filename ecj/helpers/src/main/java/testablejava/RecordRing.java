@@ -0,0 +1,89 @@
+/*******************************************************************************
+ * Copyright (c) 2017-2018 Julian Rozentur
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+package testablejava;
+
+/**
+ * fixed-size records of longs written by one thread, the oldest overwritten when full.
+ * The writer takes no lock: it fills the record at claim() and makes it visible with publish() (a volatile write);
+ * readers see published records, but a record overwritten while being read may be torn, so read when writing stopped.
+ * Used as a queue with one reader (drain()), the writer checks free() first and does not overwrite
+ */
+final class RecordRing {
+
+    @FunctionalInterface
+    interface RecordVisitor {
+        /**
+         * @param records the ring; the record is at records[offset .. offset + recordLongs - 1]
+         */
+        void visit(long[] records, int offset);
+    }
+
+    final Thread thread;
+    final int recordLongs;
+    final int capacity; //records
+    final long[] records;
+
+    volatile long written; //records, including overwritten
+    volatile long drained; //records, by drain()
+
+    int open; //by the writer, records that still need a closing record written, e.g. begun calls of Trace
+
+    RecordRing(Thread thread, int capacity, int recordLongs) {
+        if (capacity < 1)
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        this.thread = thread;
+        this.recordLongs = recordLongs;
+        this.capacity = capacity;
+        this.records = new long[Math.multiplyExact(capacity, recordLongs)];
+    }
+
+    /**
+     * @return offset of the next record in records, to fill before publish()
+     */
+    int claim() {
+        return (int) (written % capacity) * recordLongs;
+    }
+
+    void publish() {
+        written = written + 1; //single writer
+    }
+
+    /**
+     * @return records lost to overwriting
+     */
+    long dropped() {
+        return Math.max(0, written - capacity);
+    }
+
+    /**
+     * @return records that can be written without overwriting records not drained yet
+     */
+    int free() {
+        return (int) (capacity - (written - drained));
+    }
+
+    /**
+     * visit records published and not drained yet, oldest first, and mark them drained; by one reader thread
+     */
+    void drain(RecordVisitor visitor) {
+        long end = written;
+        for (long record = drained; record < end; record++)
+            visitor.visit(records, (int) (record % capacity) * recordLongs);
+        drained = end;
+    }
+
+    /**
+     * visit published records, oldest first
+     */
+    void forEach(RecordVisitor visitor) {
+        long end = written;
+        for (long record = Math.max(0, end - capacity); record < end; record++)
+            visitor.visit(records, (int) (record % capacity) * recordLongs);
+    }
+}
@@ -0,0 +1,245 @@
+/*******************************************************************************
+ * Copyright (c) 2017-2018 Julian Rozentur
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+package testablejava;
+
+import net.bytebuddy.ByteBuddy;
+import net.bytebuddy.description.method.MethodDescription;
+import net.bytebuddy.description.modifier.Visibility;
+import net.bytebuddy.dynamic.loading.ClassLoadingStrategy;
+import net.bytebuddy.implementation.Implementation;
+import net.bytebuddy.implementation.bytecode.ByteCodeAppender;
+import net.bytebuddy.implementation.bytecode.StackManipulation;
+import net.bytebuddy.implementation.bytecode.assign.TypeCasting;
+import net.bytebuddy.implementation.bytecode.member.FieldAccess;
+import net.bytebuddy.implementation.bytecode.member.MethodReturn;
+import net.bytebuddy.implementation.bytecode.member.MethodVariableAccess;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static net.bytebuddy.matcher.ElementMatchers.isAbstract;
+import static net.bytebuddy.matcher.ElementMatchers.named;
+
+/**
+ * replaces redirectors with stubs answering what the real calls answered once, so code can be run (e.g. benchmarked)
+ * without its dependencies - database, clock, I/O:
+ *
+ *   RecordedStubs stubs = RecordedStubs.record(Pricing.class, "$$Db$query$$String", "$$System$currentTimeMillis");
+ *   new Pricing().quote(order); //real calls, results recorded
+ *   stubs.replay(RecordedStubs.Replay.CYCLE);
+ *   new Pricing().quote(order); //no real calls
+ *   stubs.restore();
+ *
+ * Exceptions thrown by recorded calls are thrown again on replay. Calling a stub of a redirector that was not called
+ * while recording throws IllegalStateException, rather than quietly making the real call.
+ * A CONSTANT stub returning a value is a plain implementation of the field's interface returning it; a CYCLE stub
+ * reads a snapshot of the results taken at replay(), each thread cycling through them from the first
+ */
+public final class RecordedStubs {
+
+    public enum Replay {
+        CONSTANT, //first recorded result of each redirector, every time
+        CYCLE     //recorded results of each redirector in order, starting over after the last, by calling thread
+    }
+
+    static final String VALUE_FIELD_NAME = "value";
+
+    /**
+     * by functional interface of the redirector field, with a non-primitive result: implementation returning
+     * its VALUE_FIELD_NAME field, or doing nothing for a void method
+     */
+    static final ClassValue<Class<?>> constantTypes = new ClassValue<Class<?>>() {
+        @Override
+        protected Class<?> computeValue(Class<?> functionalInterface) {
+            return new ByteBuddy()
+                    .subclass(Object.class)
+                    .implement(functionalInterface)
+                    .defineField(VALUE_FIELD_NAME, Object.class, Visibility.PUBLIC)
+                    .method(isAbstract())
+                    .intercept(new Implementation.Simple((methodVisitor, context, method) -> {
+                        StackManipulation.Size size = returnValueField(context, method).apply(methodVisitor, context);
+                        return new ByteCodeAppender.Size(size.getMaximalSize(), method.getStackSize());
+                    }))
+                    .make()
+                    .load(functionalInterface.getClassLoader(), ClassLoadingStrategy.Default.WRAPPER)
+                    .getLoaded();
+        }
+    };
+
+    static StackManipulation returnValueField(Implementation.Context context, MethodDescription method) {
+        if (method.getReturnType().represents(void.class))
+            return MethodReturn.VOID;
+        return new StackManipulation.Compound(
+                MethodVariableAccess.loadThis(),
+                FieldAccess.forField(context.getInstrumentedType().getDeclaredFields().filter(named(VALUE_FIELD_NAME)).getOnly()).read(),
+                TypeCasting.to(method.getReturnType().asErasure()),
+                MethodReturn.REFERENCE);
+    }
+
+    final List<Stub> stubs = new ArrayList<>();
+
+    RecordedStubs() {
+    }
+
+    /**
+     * start recording results of calls through the redirector fields; calls are made as before
+     * @param type class with the redirector fields, the top-level class making the calls
+     */
+    public static RecordedStubs record(Class<?> type, String... fieldNames) {
+        RecordedStubs recordedStubs = new RecordedStubs();
+        try {
+            for (String fieldName : fieldNames) {
+                Stub stub = new Stub(type.getName() + "." + fieldName);
+                stub.recorder = new RedirectorWrapper(RedirectorWrapper.redirectorField(type, fieldName), stub::record);
+                stub.recorder.install();
+                recordedStubs.stubs.add(stub);
+            }
+        } catch (ReflectiveOperationException ex) {
+            recordedStubs.restore();
+            throw new IllegalArgumentException("cannot record " + type.getName() + " redirectors", ex);
+        }
+        return recordedStubs;
+    }
+
+    /**
+     * stop recording and answer calls with the recorded results; may be called again to change the mode
+     */
+    public void replay(Replay replay) {
+        try {
+            for (Stub stub : stubs) {
+                if (stub.replayer != null) //replaying already, e.g. in another mode
+                    stub.replayer.uninstall();
+                stub.recorder.uninstall();
+                stub.replayed = new Snapshot(stub, replay);
+                stub.replayer = replay == Replay.CONSTANT && stub.returnsConstant() ?
+                        new RedirectorWrapper(stub.recorder.field, stub.constant()) :
+                        new RedirectorWrapper(stub.recorder.field, stub::replay);
+                stub.replayer.install();
+            }
+        } catch (ReflectiveOperationException ex) {
+            restore();
+            throw new IllegalStateException("cannot replay", ex);
+        }
+    }
+
+    /**
+     * puts back the redirectors that were there before recording, unless reassigned since
+     */
+    public void restore() {
+        for (Stub stub : stubs) {
+            if (stub.replayer != null)
+                stub.replayer.uninstall();
+            if (stub.recorder != null)
+                stub.recorder.uninstall();
+        }
+    }
+
+    /**
+     * @return number of results recorded for each redirector, as "Type.field=n"
+     */
+    public List<String> recorded() {
+        List<String> ret = new ArrayList<>();
+        stubs.forEach(stub -> ret.add(stub.name + "=" + stub.results.size()));
+        return Collections.unmodifiableList(ret);
+    }
+
+    static final class Stub {
+        final String name;
+        final List<Object> results = Collections.synchronizedList(new ArrayList<>());
+        final List<Throwable> exceptions = Collections.synchronizedList(new ArrayList<>()); //by result, null if returned
+        RedirectorWrapper recorder;
+        RedirectorWrapper replayer;
+
+        volatile Snapshot replayed;
+
+        Stub(String name) {
+            this.name = name;
+        }
+
+        Object record(RedirectorWrapper redirector, Object[] args) throws Throwable {
+            Object result;
+            try {
+                result = redirector.callWrapped(args);
+            } catch (Throwable th) {
+                synchronized (results) {
+                    results.add(null);
+                    exceptions.add(th);
+                }
+                throw th;
+            }
+            synchronized (results) {
+                results.add(result);
+                exceptions.add(null);
+            }
+            return result;
+        }
+
+        /**
+         * @return the first recorded call returned, and a plain implementation can return its result
+         */
+        boolean returnsConstant() {
+            Class<?> returnType = recorder.method.getReturnType();
+            return replayed.results.length > 0 &&
+                    replayed.exceptions[0] == null &&
+                    (!returnType.isPrimitive() || returnType == void.class);
+        }
+
+        /**
+         * @return implementation of the field's interface returning the first recorded result
+         */
+        Object constant() throws ReflectiveOperationException {
+            Object ret = constantTypes.get(recorder.field.getType()).newInstance();
+            ret.getClass().getField(VALUE_FIELD_NAME).set(ret, replayed.results[0]);
+            return ret;
+        }
+
+        /**
+         * cycles through the snapshot, or answers CONSTANT calls that have no plain implementation
+         */
+        Object replay(RedirectorWrapper redirector, Object[] args) throws Throwable {
+            Snapshot replayed = this.replayed;
+            if (replayed.results.length == 0)
+                throw new IllegalStateException(name + " was not called while recording");
+            int index = 0;
+            if (replayed.replay == Replay.CYCLE) {
+                int[] next = replayed.next.get();
+                index = next[0];
+                next[0] = index + 1 == replayed.results.length ? 0 : index + 1;
+            }
+            Throwable exception = replayed.exceptions[index];
+            if (exception != null)
+                throw exception;
+            return replayed.results[index];
+        }
+    }
+
+    /**
+     * recorded results as of replay(), read without locking
+     */
+    static final class Snapshot {
+        final Replay replay;
+        final Object[] results;
+        final Throwable[] exceptions; //by result, null if returned
+        final ThreadLocal<int[]> next = ThreadLocal.withInitial(() -> new int[1]); //CYCLE: index of the next result, by thread
+
+        Snapshot(Stub stub, Replay replay) {
+            this.replay = replay;
+            synchronized (stub.results) {
+                this.results = stub.results.toArray();
+                this.exceptions = stub.exceptions.toArray(new Throwable[0]);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "recorded stubs " + recorded();
+    }
+}
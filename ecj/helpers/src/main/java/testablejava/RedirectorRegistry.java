@@ -0,0 +1,248 @@
+/*******************************************************************************
+ * Copyright (c) 2017-2018 Julian Rozentur
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+package testablejava;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * redirector and listener fields of an instrumented top-level class, with their original values.
+ * The compiler adds to the class, after its other fields
+ *
+ *   public static final RedirectorRegistry $$registry = new RedirectorRegistry(X.class, new String[]{"$$preCreate", ...});
+ *
+ * so the registry of a class exists once the class is initialized, and tests can undo their redirects in bulk:
+ *
+ *   RedirectorRegistry.Snapshot snapshot = RedirectorRegistry.snapshot();
+ *   X.$$Integer$parseInt$$String = (ctx, s) -> 10;
+ *   ...
+ *   RedirectorRegistry.restore(snapshot); //or RedirectorRegistry.resetAll() for original values
+ *
+ * Fields are read and written through MethodHandles made once per class; restoring compares values
+ * by identity and writes only the fields that changed.
+ * Registries are held weakly, so that a class (and its ClassLoader) can still be unloaded; the class holds its own
+ */
+public final class RedirectorRegistry {
+
+    static final List<WeakReference<RedirectorRegistry>> registries = new ArrayList<>(); //guarded by itself, in class init order
+    static final Map<Class<?>, WeakReference<RedirectorRegistry>> registriesByType = new WeakHashMap<>(); //guarded by registries
+    static final AtomicLong generation = new AtomicLong();
+
+    static final MethodType GETTER_TYPE = MethodType.methodType(Object.class);
+    static final MethodType SETTER_TYPE = MethodType.methodType(void.class, Object.class);
+
+    public final Class<?> type;
+    final String[] fieldNames;
+    final MethodHandle[] getters; //()Object
+    final MethodHandle[] setters; //(Object)void
+    final Object[] originals;
+
+    /**
+     * captures current values of the fields as originals, and registers
+     * @param type class declaring the fields
+     * @param fieldNames static, non-final fields of the class
+     */
+    public RedirectorRegistry(Class<?> type, String[] fieldNames) {
+        this.type = type;
+        this.fieldNames = fieldNames.clone();
+        this.getters = new MethodHandle[fieldNames.length];
+        this.setters = new MethodHandle[fieldNames.length];
+
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        for (int i = 0; i < fieldNames.length; i++) {
+            try {
+                Field field = type.getDeclaredField(fieldNames[i]);
+                field.setAccessible(true);
+                getters[i] = lookup.unreflectGetter(field).asType(GETTER_TYPE);
+                setters[i] = lookup.unreflectSetter(field).asType(SETTER_TYPE);
+            } catch (ReflectiveOperationException ex) {
+                throw new RuntimeException("cannot access field " + fieldNames[i] + " of " + type.getName(), ex);
+            }
+        }
+
+        this.originals = values();
+
+        synchronized (registries) {
+            WeakReference<RedirectorRegistry> reference = new WeakReference<>(this);
+            registries.add(reference);
+            registriesByType.put(type, reference);
+        }
+    }
+
+    /**
+     * @return registries of instrumented classes initialized so far
+     */
+    public static List<RedirectorRegistry> registries() {
+        List<RedirectorRegistry> ret = new ArrayList<>();
+        synchronized (registries) {
+            for (Iterator<WeakReference<RedirectorRegistry>> it = registries.iterator(); it.hasNext(); ) {
+                RedirectorRegistry registry = it.next().get();
+                if (registry == null)
+                    it.remove(); //class unloaded
+                else
+                    ret.add(registry);
+            }
+        }
+        return Collections.unmodifiableList(ret);
+    }
+
+    /**
+     * @return registry of the instrumented class, initializing the class if needed; null if it has none
+     */
+    public static RedirectorRegistry of(Class<?> type) {
+        try {
+            Class.forName(type.getName(), true, type.getClassLoader());
+        } catch (ClassNotFoundException ex) {
+            throw new IllegalArgumentException(ex);
+        }
+        synchronized (registries) {
+            WeakReference<RedirectorRegistry> reference = registriesByType.get(type);
+            return reference == null ? null : reference.get();
+        }
+    }
+
+    /**
+     * incremented by every reset or restore, so that anything derived from redirector values
+     * (e.g. cached results) can tell it is stale by comparing one number
+     */
+    public static long generation() {
+        return generation.get();
+    }
+
+    /**
+     * sets all fields of all registered classes to their original values
+     */
+    public static void resetAll() {
+        registries().forEach(registry -> registry.restoreValues(registry.originals));
+        generation.incrementAndGet();
+    }
+
+    /**
+     * @return current values of all fields of all registered classes
+     */
+    public static Snapshot snapshot() {
+        Map<RedirectorRegistry, Object[]> values = new IdentityHashMap<>();
+        for (RedirectorRegistry registry : registries())
+            values.put(registry, registry.values());
+        return new Snapshot(values);
+    }
+
+    /**
+     * sets all fields to their values in the snapshot; fields of classes initialized after the snapshot was made
+     * are set to their original values
+     */
+    public static void restore(Snapshot snapshot) {
+        for (RedirectorRegistry registry : registries()) {
+            Object[] values = snapshot.values.get(registry);
+            registry.restoreValues(values != null ? values : registry.originals);
+        }
+        generation.incrementAndGet();
+    }
+
+    /**
+     * sets fields of this class to their original values
+     */
+    public void reset() {
+        restoreValues(originals);
+        generation.incrementAndGet();
+    }
+
+    /**
+     * sets one field to its original value
+     * @param index of the field, see fieldName(index)
+     */
+    public void reset(int index) {
+        if (get(index) != originals[index])
+            set(index, originals[index]);
+        generation.incrementAndGet();
+    }
+
+    public int size() {
+        return fieldNames.length;
+    }
+
+    public String fieldName(int index) {
+        return fieldNames[index];
+    }
+
+    public Object original(int index) {
+        return originals[index];
+    }
+
+    /**
+     * @return number of fields whose value is not the original
+     */
+    public int changedCount() {
+        int ret = 0;
+        for (int i = 0; i < fieldNames.length; i++) {
+            if (get(i) != originals[i])
+                ret++;
+        }
+        return ret;
+    }
+
+    Object[] values() {
+        Object[] ret = new Object[fieldNames.length];
+        for (int i = 0; i < ret.length; i++)
+            ret[i] = get(i);
+        return ret;
+    }
+
+    void restoreValues(Object[] values) {
+        for (int i = 0; i < values.length; i++) {
+            if (get(i) != values[i])
+                set(i, values[i]);
+        }
+    }
+
+    Object get(int index) {
+        try {
+            return (Object) getters[index].invokeExact();
+        } catch (Throwable th) {
+            Helpers.uncheckedThrow(th);
+            return null;
+        }
+    }
+
+    void set(int index, Object value) {
+        try {
+            setters[index].invokeExact(value);
+        } catch (Throwable th) {
+            Helpers.uncheckedThrow(th);
+        }
+    }
+
+    /**
+     * values of all registered fields at some point, see snapshot(). Keeps the classes it has values of from
+     * being unloaded while it is reachable
+     */
+    public static final class Snapshot {
+        final Map<RedirectorRegistry, Object[]> values;
+
+        Snapshot(Map<RedirectorRegistry, Object[]> values) {
+            this.values = values;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return type.getName() + " " + fieldNames.length + " fields, " + changedCount() + " changed";
+    }
+}
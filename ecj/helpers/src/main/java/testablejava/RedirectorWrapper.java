@@ -0,0 +1,280 @@
+/*******************************************************************************
+ * Copyright (c) 2017-2018 Julian Rozentur
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+package testablejava;
+
+import net.bytebuddy.ByteBuddy;
+import net.bytebuddy.description.modifier.Visibility;
+import net.bytebuddy.dynamic.loading.ClassLoadingStrategy;
+import net.bytebuddy.implementation.InvocationHandlerAdapter;
+
+import java.lang.reflect.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static net.bytebuddy.matcher.ElementMatchers.isAbstract;
+
+/**
+ * replaces the value of a redirector field with one of the same functional interface that runs an InvocationHandler,
+ * which typically calls the value it replaced
+ */
+final class RedirectorWrapper {
+
+    static final String HANDLER_FIELD_NAME = "handler";
+
+    static final List<Class<?>> PRIMITIVE_TYPES = Arrays.asList(
+            boolean.class, byte.class, char.class, short.class, int.class, long.class, float.class, double.class, void.class);
+    static final String PRIMITIVE_DESCRIPTORS = "ZBCSIJFDV"; //of PRIMITIVE_TYPES, in order
+    static final Map<Class<?>, Class<?>> PRIMITIVES_BY_BOXED = new HashMap<>();
+    static {
+        PRIMITIVES_BY_BOXED.put(Boolean.class, boolean.class);
+        PRIMITIVES_BY_BOXED.put(Byte.class, byte.class);
+        PRIMITIVES_BY_BOXED.put(Character.class, char.class);
+        PRIMITIVES_BY_BOXED.put(Short.class, short.class);
+        PRIMITIVES_BY_BOXED.put(Integer.class, int.class);
+        PRIMITIVES_BY_BOXED.put(Long.class, long.class);
+        PRIMITIVES_BY_BOXED.put(Float.class, float.class);
+        PRIMITIVES_BY_BOXED.put(Double.class, double.class);
+    }
+
+    /**
+     * by functional interface of the redirector field: implementation calling an InvocationHandler, unlike
+     * java.lang.reflect.Proxy it passes checked exceptions unwrapped, as the original call throws them
+     */
+    static final ClassValue<Class<?>> wrapperTypes = new ClassValue<Class<?>>() {
+        @Override
+        protected Class<?> computeValue(Class<?> functionalInterface) {
+            return new ByteBuddy()
+                    .subclass(Object.class)
+                    .implement(functionalInterface)
+                    .defineField(HANDLER_FIELD_NAME, InvocationHandler.class, Visibility.PUBLIC)
+                    .method(isAbstract())
+                    .intercept(InvocationHandlerAdapter.toField(HANDLER_FIELD_NAME))
+                    .make()
+                    .load(functionalInterface.getClassLoader(), ClassLoadingStrategy.Default.WRAPPER)
+                    .getLoaded();
+        }
+    };
+
+    /**
+     * runs instead of the wrapped value
+     */
+    @FunctionalInterface
+    interface Handler {
+        /**
+         * @param args call arguments, in the order of the functional interface method
+         */
+        Object call(RedirectorWrapper redirector, Object[] args) throws Throwable;
+    }
+
+    final Field field;
+    final Method method;
+    final Object wrapped;
+    final Object wrapper;
+
+    RedirectorWrapper(Field field, Handler handler) throws ReflectiveOperationException {
+        this.field = field;
+        this.method = functionalMethod(field.getType());
+        this.wrapped = field.get(null);
+        this.wrapper = wrapperTypes.get(field.getType()).newInstance();
+        InvocationHandler invocationHandler = (proxy, method, args) -> handler.call(this, args == null ? new Object[0] : args);
+        wrapper.getClass().getField(HANDLER_FIELD_NAME).set(wrapper, invocationHandler);
+    }
+
+    /**
+     * @param wrapper value of the field's functional interface to install, which does not call the wrapped value
+     */
+    RedirectorWrapper(Field field, Object wrapper) throws IllegalAccessException {
+        this.field = field;
+        this.method = functionalMethod(field.getType());
+        this.wrapped = field.get(null);
+        this.wrapper = wrapper;
+    }
+
+    /**
+     * @return static field of the type, accessible
+     */
+    static Field redirectorField(Class<?> type, String fieldName) throws NoSuchFieldException {
+        Field field = type.getDeclaredField(fieldName);
+        if (!Modifier.isStatic(field.getModifiers()))
+            throw new IllegalArgumentException(type.getName() + "." + fieldName + " is not static");
+        field.setAccessible(true);
+        return field;
+    }
+
+    static Method functionalMethod(Class<?> type) {
+        if (!type.isInterface())
+            throw new IllegalArgumentException(type.getName() + " is not an interface");
+        Method[] abstractMethods = Arrays.stream(type.getMethods()).
+                filter(m -> Modifier.isAbstract(m.getModifiers())).
+                toArray(Method[]::new);
+        if (abstractMethods.length != 1)
+            throw new IllegalArgumentException(type.getName() + " is not a functional interface");
+        abstractMethods[0].setAccessible(true); //the interface may not be public
+        return abstractMethods[0];
+    }
+
+    /**
+     * @return redirector fields (not listeners) of the classes in RedirectorRegistry.registries()
+     */
+    static List<Field> registeredRedirectorFields() {
+        List<Field> ret = new ArrayList<>();
+        for (RedirectorRegistry registry : RedirectorRegistry.registries())
+            ret.addAll(redirectorFields(registry));
+        return ret;
+    }
+
+    /**
+     * @return redirector fields (not listeners) of the registry's class
+     */
+    static List<Field> redirectorFields(RedirectorRegistry registry) {
+        List<Field> ret = new ArrayList<>();
+        for (int i = 0; i < registry.size(); i++) {
+            try {
+                Field field = redirectorField(registry.type, registry.fieldName(i));
+                if (takesCallContext(field))
+                    ret.add(field);
+            } catch (NoSuchFieldException ex) {
+                throw new IllegalArgumentException("cannot access redirectors of " + registry.type.getName(), ex);
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * @return the field is a redirector taking a CallContext first, e.g. Function2&lt;CallContext&lt;String&gt;, String, Integer&gt;,
+     * not a listener
+     */
+    static boolean takesCallContext(Field field) {
+        return rawType(firstTypeArgument(field.getGenericType())) == CallContext.class;
+    }
+
+    /**
+     * @return class of the called method, from the CallContext type argument of a redirector field, e.g. String for
+     * Function2&lt;CallContext&lt;String&gt;, String, Integer&gt;; null if not known
+     */
+    static Class<?> calledType(Field field) {
+        if (!takesCallContext(field))
+            return null;
+        return rawType(firstTypeArgument(firstTypeArgument(field.getGenericType())));
+    }
+
+    /**
+     * @return name of the called method from the name of a redirector field, e.g. parseInt for
+     * $$Integer$parseInt$$String, new for a constructor; null if not a redirector field name
+     */
+    static String calledMethod(Field field) {
+        String name = field.getName();
+        if (!name.startsWith("$$"))
+            return null;
+        int argumentsStart = name.indexOf("$$", 2);
+        String call = argumentsStart < 0 ? name.substring(2) : name.substring(2, argumentsStart);
+        return call.substring(call.lastIndexOf('$') + 1);
+    }
+
+    /**
+     * @return descriptor of the called method from the generic type of a redirector field taking a CallContext, e.g.
+     * (Ljava/lang/String;)I for Function2&lt;CallContext&lt;String&gt;, String, Integer&gt;; boxed types stand for
+     * primitives, as redirectors box primitive arguments and results, and types not known for Object
+     */
+    static String calledDescriptor(Field field) {
+        Method method = functionalMethod(field.getType());
+        Type[] parameterTypes = method.getGenericParameterTypes();
+        StringBuilder ret = new StringBuilder("(");
+        for (int i = 1; i < parameterTypes.length; i++) //after the CallContext
+            ret.append(descriptor(resolve(parameterTypes[i], field)));
+        ret.append(')');
+        if (method.getReturnType() == void.class)
+            ret.append('V');
+        else
+            ret.append(descriptor(resolve(method.getGenericReturnType(), field)));
+        return ret.toString();
+    }
+
+    /**
+     * @return the type with a type variable of the field's interface replaced by the field's type argument
+     */
+    static Type resolve(Type type, Field field) {
+        if (!(type instanceof TypeVariable) || !(field.getGenericType() instanceof ParameterizedType))
+            return type;
+        TypeVariable<?>[] typeParameters = field.getType().getTypeParameters();
+        for (int i = 0; i < typeParameters.length; i++) {
+            if (typeParameters[i].equals(type))
+                return ((ParameterizedType) field.getGenericType()).getActualTypeArguments()[i];
+        }
+        return type;
+    }
+
+    static String descriptor(Type type) {
+        if (type instanceof GenericArrayType)
+            return "[" + descriptor(((GenericArrayType) type).getGenericComponentType());
+        Class<?> rawType = rawType(type);
+        if (rawType == null)
+            return "Ljava/lang/Object;";
+        if (rawType.isArray())
+            return "[" + descriptor(rawType.getComponentType());
+        Class<?> primitive = PRIMITIVES_BY_BOXED.getOrDefault(rawType, rawType);
+        if (primitive.isPrimitive())
+            return String.valueOf(PRIMITIVE_DESCRIPTORS.charAt(PRIMITIVE_TYPES.indexOf(primitive)));
+        return "L" + rawType.getName().replace('.', '/') + ";";
+    }
+
+    /**
+     * @return null if the type is not parameterized
+     */
+    static Type firstTypeArgument(Type type) {
+        if (!(type instanceof ParameterizedType))
+            return null;
+        Type[] typeArguments = ((ParameterizedType) type).getActualTypeArguments();
+        return typeArguments.length == 0 ? null : typeArguments[0];
+    }
+
+    /**
+     * @return null if neither class nor parameterized type, e.g. a wildcard or null
+     */
+    static Class<?> rawType(Type type) {
+        if (type instanceof ParameterizedType)
+            type = ((ParameterizedType) type).getRawType();
+        return type instanceof Class ? (Class<?>) type : null;
+    }
+
+    void install() throws IllegalAccessException {
+        field.set(null, wrapper);
+    }
+
+    /**
+     * sets the field back to the wrapped value, unless it was reassigned since
+     */
+    void uninstall() {
+        try {
+            if (field.get(null) == wrapper)
+                field.set(null, wrapped);
+        } catch (IllegalAccessException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    /**
+     * @return result of the wrapped value
+     */
+    Object callWrapped(Object[] args) throws Throwable {
+        try {
+            return method.invoke(wrapped, args);
+        } catch (InvocationTargetException ex) {
+            throw ex.getCause();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return field.getDeclaringClass().getName() + "." + field.getName();
+    }
+}
@@ -1,33 +1,153 @@
 package testablejava;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static java.util.stream.Collectors.joining;
 
+/**
+ * calls a method regardless of access, e.g. one not visible from the redirector field.
+ * Methods are resolved once per (class, name, argTypes), including misses, and called through a MethodHandle.
+ * A redirector keeps one caller per call site and invokes its methodHandle() exactly, so a call neither makes a
+ * caller, looks up a method, nor collects arguments into an array:
+ *
+ *   (Integer) (Object) caller.methodHandle().invokeExact((Object) null, (Object) s)
+ */
 public class ReflectiveCaller {
 
-    Method m;
+    static final ClassValue<Map<Signature, Target>> targets = new ClassValue<Map<Signature, Target>>() {
+        @Override
+        protected Map<Signature, Target> computeValue(Class<?> clazz) {
+            return new ConcurrentHashMap<>();
+        }
+    };
+
+    final Signature signature;
+    final Target target; //null if resolved in the class of each receiver
+    final ClassValue<Target> targetsByReceiverClass; //null if resolved in a given class
 
     public ReflectiveCaller(Class<?> clazz, String methodName, Class<?>... argTypes) {
+        signature = new Signature(methodName, argTypes);
+        target = target(clazz, signature);
+        targetsByReceiverClass = null;
+    }
+
+    /**
+     * caller resolving the method in the class of the receiver of each call, e.g. a method defined on an anonymous
+     * type, which cannot be named; resolved once per class (see methodHandle(Class))
+     */
+    public ReflectiveCaller(String methodName, Class<?>... argTypes) {
+        signature = new Signature(methodName, argTypes);
+        target = null;
+        targetsByReceiverClass = new ClassValue<Target>() {
+            @Override
+            protected Target computeValue(Class<?> receiverClass) {
+                return target(receiverClass, signature);
+            }
+        };
+    }
+
+    static Target target(Class<?> clazz, Signature signature) {
+        Target target = targets.get(clazz).computeIfAbsent(
+                signature,
+                s -> Target.resolve(clazz, s.methodName, s.argTypes));
+
+        if (target.failure != null)
+            throw new RuntimeException(target.failure);
+        return target;
+    }
+
+    /**
+     * key of a resolved method in the class
+     */
+    static final class Signature {
+        final String methodName;
+        final Class<?>[] argTypes;
 
-        m = findMethodDeepOrThrow(clazz, methodName, argTypes);
+        Signature(String methodName, Class<?>[] argTypes) {
+            this.methodName = methodName;
+            this.argTypes = argTypes.clone();
+        }
 
-        m.setAccessible(true);
-        //TODO confirm under JDK9, may need MethodHandles.privateLookupIn​,
-        // see http://in.relation.to/2017/04/11/accessing-private-state-of-java-9-modules/
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Signature))
+                return false;
+            Signature other = (Signature) o;
+            return methodName.equals(other.methodName) && Arrays.equals(argTypes, other.argTypes);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * methodName.hashCode() + Arrays.hashCode(argTypes);
+        }
+    }
+
+    /**
+     * resolved method, or why it could not be resolved
+     */
+    static final class Target {
+        final MethodHandle handle;        //(instance, arg1..argN), instance ignored for a static method
+        final MethodHandle invoker;       //(Object instance, Object arg1..argN)Object, or void for a void method
+        final MethodHandle spreadInvoker; //(Object instance, Object[] args)Object
+        final String failure;
+
+        Target(MethodHandle handle, String failure) {
+            this.handle = handle;
+            this.failure = failure;
+            if (handle == null) {
+                invoker = null;
+                spreadInvoker = null;
+            } else {
+                int parameterCount = handle.type().parameterCount();
+                MethodType genericType = MethodType.genericMethodType(parameterCount);
+                invoker = handle.asType(handle.type().returnType() == void.class ?
+                        genericType.changeReturnType(void.class) :
+                        genericType);
+                spreadInvoker = handle.
+                        asType(genericType).
+                        asSpreader(Object[].class, parameterCount - 1);
+            }
+        }
+
+        static Target resolve(Class<?> clazz, String methodName, Class<?>[] argTypes) {
+            Optional<Method> method = findMethodDeep(clazz, methodName, argTypes);
+            if (!method.isPresent())
+                return new Target(null, cannotFindMessage(clazz, methodName, argTypes));
+
+            Method m = method.get();
+            m.setAccessible(true);
+            //TODO confirm under JDK9, may need MethodHandles.privateLookupIn,
+            // see http://in.relation.to/2017/04/11/accessing-private-state-of-java-9-modules/
+            try {
+                MethodHandle handle = MethodHandles.lookup().unreflect(m).asFixedArity(); //varargs come as an array, as with Method.invoke
+                if (Modifier.isStatic(m.getModifiers()))
+                    handle = MethodHandles.dropArguments(handle, 0, Object.class);
+                return new Target(handle, null);
+            } catch (IllegalAccessException e) {
+                return new Target(null, "cannot access method " + m + ": " + e.getMessage());
+            }
+        }
+    }
+
+    static String cannotFindMessage(Class<?> clazz, String methodName, Class<?>[] argTypes) {
+        return String.format(
+                "cannot find method %s(%s) in class %s",
+                methodName,
+                Arrays.stream(argTypes).
+                        map(Object::toString).
+                        collect(joining(",")),
+                clazz);
     }
 
     static Method findMethodDeepOrThrow(Class<?> clazz, String methodName, Class<?>[] argTypes) {
         return findMethodDeep(clazz, methodName, argTypes).
-                orElseThrow(()->new RuntimeException(
-                        String.format(
-                                "cannot find method %s(%s) in class %s",
-                                methodName,
-                                Arrays.stream(argTypes).
-                                        map(Object::toString).
-                                        collect(joining(",")),
-                                clazz)));
+                orElseThrow(()->new RuntimeException(cannotFindMessage(clazz, methodName, argTypes)));
     }
 
     static void classHierarchy(Class<?> clazz, List<Class<?>> acc){
@@ -62,15 +182,43 @@ public class ReflectiveCaller {
         return null;
     }
 
+    /**
+     * @param instance ignored for a static method
+     * @return result, boxed if primitive, null for void
+     * exceptions thrown by the method propagate unchanged, as with a direct call
+     */
     public Object apply(Object instance, Object... args) {
+        Target target = this.target != null ? this.target : targetsByReceiverClass.get(instance.getClass());
         try {
-            return m.invoke(instance, args);
-        } catch (IllegalAccessException e) {
-            e.printStackTrace();
+            return target.spreadInvoker.invokeExact(instance, args);
         } catch (Throwable throwable) {
-            throwable.printStackTrace();
-            throw new RuntimeException(throwable);
+            throw ReflectiveCaller.<RuntimeException>sneakyThrow(throwable);
         }
-        return null;
     }
-}
\ No newline at end of file
+
+    /**
+     * rethrow any throwable, checked or not, without wrapping (the return type only makes callers' flow analysis happy)
+     */
+    @SuppressWarnings("unchecked")
+    static <T extends Throwable> RuntimeException sneakyThrow(Throwable throwable) throws T {
+        throw (T) throwable;
+    }
+
+    /**
+     * the resolved method as (Object instance, Object arg1..argN)Object, or void for a void method, to invoke exactly;
+     * arguments are unboxed and the result boxed as needed
+     * @throws IllegalStateException if the caller resolves in the class of each receiver, see methodHandle(Class)
+     */
+    public MethodHandle methodHandle() {
+        if (target == null)
+            throw new IllegalStateException("method " + signature.methodName + " is resolved in the receiver class");
+        return target.invoker;
+    }
+
+    /**
+     * the method resolved in the receiver class, as with methodHandle()
+     */
+    public MethodHandle methodHandle(Class<?> receiverClass) {
+        return target != null ? target.invoker : targetsByReceiverClass.get(receiverClass).invoker;
+    }
+}
@@ -0,0 +1,114 @@
+/*******************************************************************************
+ * Copyright (c) 2017-2018 Julian Rozentur
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+package testablejava;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * dense int index of the calls seen in CallContexts, so that recorded calls are ints rather than strings.
+ * A call with a CallSite is calling method -> called method, without one calling class -> called class.
+ * Wrapped redirectors look up their calls through a FieldSites each, which usually answers without hashing
+ */
+final class SiteTable {
+
+    final Map<Object, Integer> index = new ConcurrentHashMap<>(); //CallSite, or "calling -> called"
+    final List<String[]> sites = new CopyOnWriteArrayList<>(); //{caller, callee, location} by index
+
+    int index(CallContext<?> ctx) {
+        Object key = ctx.callSite != null ? ctx.callSite : ctx.callingClass + " -> " + ctx.calledClass;
+        Integer ret = index.get(key);
+        if (ret != null)
+            return ret;
+        synchronized (sites) {
+            return index.computeIfAbsent(key, k -> {
+                CallSite callSite = ctx.callSite;
+                sites.add(callSite != null ?
+                        new String[]{
+                                callSite.callingClass + "." + callSite.callingMethod,
+                                callSite.calledClass + "." + callSite.calledMethod,
+                                callSite.sourceFile + ":" + callSite.line} :
+                        new String[]{ctx.callingClass, ctx.calledClass, null});
+                return sites.size() - 1;
+            });
+        }
+    }
+
+    /**
+     * @return cache for the calls through one redirector field
+     */
+    FieldSites fieldSites() {
+        return new FieldSites();
+    }
+
+    /**
+     * index of the last call through one redirector field. The CallSite and class names of a CallContext are
+     * constants of the calling class, so they are compared by identity, and a field called from one class or
+     * call site finds its index without building or hashing a key
+     */
+    final class FieldSites {
+        volatile LastSite last;
+
+        int index(CallContext<?> ctx) {
+            LastSite last = this.last;
+            if (last != null &&
+                    last.callSite == ctx.callSite &&
+                    last.callingClass == ctx.callingClass &&
+                    last.calledClass == ctx.calledClass)
+                return last.index;
+            int ret = SiteTable.this.index(ctx);
+            this.last = new LastSite(ctx, ret);
+            return ret;
+        }
+    }
+
+    static final class LastSite {
+        final CallSite callSite;
+        final String callingClass;
+        final String calledClass;
+        final int index;
+
+        LastSite(CallContext<?> ctx, int index) {
+            this.callSite = ctx.callSite;
+            this.callingClass = ctx.callingClass;
+            this.calledClass = ctx.calledClass;
+            this.index = index;
+        }
+    }
+
+    String caller(int site) {
+        return sites.get(site)[0];
+    }
+
+    String callee(int site) {
+        return sites.get(site)[1];
+    }
+
+    /**
+     * @return file:line, null if not known
+     */
+    String location(int site) {
+        return sites.get(site)[2];
+    }
+
+    static String quote(String s) {
+        StringBuilder b = new StringBuilder("\"");
+        for (char c : s.toCharArray()) {
+            if (c == '"' || c == '\\')
+                b.append('\\').append(c);
+            else if (c < ' ')
+                b.append(String.format("\\u%04x", (int) c));
+            else
+                b.append(c);
+        }
+        return b.append('"').toString();
+    }
+}
@@ -0,0 +1,223 @@
+/*******************************************************************************
+ * Copyright (c) 2017-2018 Julian Rozentur
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+package testablejava;
+
+import java.io.*;
+import java.lang.reflect.Field;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * writes redirected calls as a timeline, in Chrome trace event format (open in chrome://tracing or ui.perfetto.dev):
+ *
+ *   Trace trace = Trace.start(new File("trace.json")); //calls through redirectors of classes in RedirectorRegistry.registries()
+ *   ...
+ *   trace.stop();
+ *
+ * Each call is a begin and an end event on the calling thread's timeline, named after the called method (or class),
+ * with the calling method as category, so nested redirected calls show as a flame chart.
+ * Events go into a bounded buffer of the calling thread, without locks, and a background thread moves them to the file.
+ * A call made while the buffer is full is not traced (see dropped()), so memory stays bounded however long the run;
+ * the buffer of a thread that terminated is released once moved to the file
+ */
+public final class Trace {
+
+    public static final int DEFAULT_EVENTS_PER_THREAD = 1 << 13; //128 KiB
+    public static final long DEFAULT_FLUSH_INTERVAL_MILLIS = 100;
+
+    static final int RECORD_LONGS = 2;
+    static final int PHASE_AND_SITE = 0; //'B' or 'E' << 32 | site index
+    static final int TIME = 1;           //System.nanoTime()
+
+    final List<RedirectorWrapper> redirectors = new ArrayList<>();
+    final int eventsPerThread;
+    final ThreadLocal<RecordRing> ring;
+    final Queue<RecordRing> rings = new ConcurrentLinkedQueue<>();
+    final SiteTable sites = new SiteTable();
+
+    final long startNanos = System.nanoTime();
+    final Writer writer;
+    final ScheduledExecutorService flusher;
+    final LongAdder dropped = new LongAdder();
+    long eventsWritten; //by flush(), guarded by writer
+    IOException failure; //of the last flush, guarded by writer
+
+    Trace(Writer writer, int eventsPerThread, long flushIntervalMillis) throws IOException {
+        this.writer = writer;
+        this.eventsPerThread = eventsPerThread;
+        this.ring = ThreadLocal.withInitial(() -> {
+            RecordRing ret = new RecordRing(Thread.currentThread(), this.eventsPerThread, RECORD_LONGS);
+            rings.add(ret);
+            return ret;
+        });
+
+        writer.write("{\"displayTimeUnit\": \"ns\", \"traceEvents\": [\n" +
+                "{\"name\": \"process_name\", \"ph\": \"M\", \"pid\": 1, \"args\": {\"name\": \"testablejava\"}}");
+
+        this.flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "testablejava trace flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher.scheduleWithFixedDelay(this::flush, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public static Trace start(File file) throws IOException {
+        return start(file, DEFAULT_EVENTS_PER_THREAD, DEFAULT_FLUSH_INTERVAL_MILLIS);
+    }
+
+    /**
+     * start tracing calls through the redirector fields of the classes in RedirectorRegistry.registries();
+     * classes initialized later are not traced
+     * @param eventsPerThread buffer size of each calling thread, 16 bytes per event, two events per call
+     * @param flushIntervalMillis how often buffers are moved to the file
+     */
+    public static Trace start(File file, int eventsPerThread, long flushIntervalMillis) throws IOException {
+        if (eventsPerThread < 2)
+            throw new IllegalArgumentException("need room for a call, 2 events: " + eventsPerThread);
+        Trace trace = new Trace(
+                new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)),
+                eventsPerThread,
+                flushIntervalMillis);
+        try {
+            for (Field field : RedirectorWrapper.registeredRedirectorFields()) {
+                SiteTable.FieldSites fieldSites = trace.sites.fieldSites();
+                RedirectorWrapper redirector = new RedirectorWrapper(field,
+                        (wrapper, args) -> trace.call(wrapper, fieldSites, args));
+                redirector.install();
+                trace.redirectors.add(redirector);
+            }
+        } catch (ReflectiveOperationException ex) {
+            trace.stop();
+            throw new IllegalArgumentException("cannot trace calls", ex);
+        }
+        return trace;
+    }
+
+    Object call(RedirectorWrapper redirector, SiteTable.FieldSites fieldSites, Object[] args) throws Throwable {
+        RecordRing ring = this.ring.get();
+        if (ring.free() < ring.open + 2) { //room for this end event and those of enclosing calls, so events stay paired
+            dropped.increment();
+            return redirector.callWrapped(args);
+        }
+        int site = fieldSites.index((CallContext<?>) args[0]);
+        event(ring, 'B', site);
+        ring.open++;
+        try {
+            return redirector.callWrapped(args);
+        } finally {
+            ring.open--;
+            event(ring, 'E', site);
+        }
+    }
+
+    static void event(RecordRing ring, char phase, int site) {
+        int offset = ring.claim();
+        ring.records[offset + PHASE_AND_SITE] = (long) phase << 32 | site;
+        ring.records[offset + TIME] = System.nanoTime();
+        ring.publish();
+    }
+
+    /**
+     * move events from thread buffers to the file; done periodically in the background
+     */
+    void flush() {
+        synchronized (writer) {
+            try {
+                for (RecordRing ring : rings) {
+                    boolean terminated = !ring.thread.isAlive(); //before draining, so its last events are drained
+                    if (ring.drained == 0 && ring.written > 0)
+                        writer.write(",\n{\"name\": \"thread_name\", \"ph\": \"M\", \"pid\": 1, \"tid\": " + ring.thread.getId() +
+                                ", \"args\": {\"name\": " + SiteTable.quote(ring.thread.getName()) + "}}");
+                    long tid = ring.thread.getId();
+                    IOException[] failure = new IOException[1];
+                    ring.drain((records, offset) -> {
+                        if (failure[0] != null)
+                            return;
+                        try {
+                            writeEvent(tid, records[offset + PHASE_AND_SITE], records[offset + TIME]);
+                        } catch (IOException ex) {
+                            failure[0] = ex;
+                        }
+                    });
+                    if (failure[0] != null)
+                        throw failure[0];
+                    if (terminated)
+                        rings.remove(ring);
+                }
+                writer.flush();
+            } catch (IOException ex) {
+                this.failure = ex;
+            }
+        }
+    }
+
+    void writeEvent(long tid, long phaseAndSite, long nanos) throws IOException {
+        char phase = (char) (phaseAndSite >>> 32);
+        int site = (int) phaseAndSite;
+        long sinceStart = nanos - startNanos;
+        writer.write(",\n{\"ph\": \"" + phase + "\", \"pid\": 1, \"tid\": " + tid +
+                ", \"ts\": " + sinceStart / 1000 + "." + String.format("%03d", sinceStart % 1000));
+        if (phase == 'B') {
+            String location = sites.location(site);
+            writer.write(", \"name\": " + SiteTable.quote(sites.callee(site)) +
+                    ", \"cat\": " + SiteTable.quote(sites.caller(site)) +
+                    (location == null ? "" : ", \"args\": {\"at\": " + SiteTable.quote(location) + "}"));
+        }
+        writer.write("}");
+        eventsWritten++;
+    }
+
+    /**
+     * stop tracing, write remaining events and close the file
+     * @throws IOException if writing the file failed at any point
+     */
+    public void stop() throws IOException {
+        redirectors.forEach(RedirectorWrapper::uninstall);
+        flusher.shutdown();
+        try {
+            flusher.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+        synchronized (writer) {
+            try {
+                writer.write("\n]}\n");
+            } finally {
+                writer.close();
+            }
+            if (failure != null)
+                throw failure;
+        }
+    }
+
+    /**
+     * @return calls not traced because the calling thread's buffer was full
+     */
+    public long dropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * @return events written to the file so far
+     */
+    public long eventsWritten() {
+        synchronized (writer) {
+            return eventsWritten;
+        }
+    }
+}
@@ -0,0 +1,281 @@
+/*******************************************************************************
+ * Copyright (c) 2017-2018 Julian Rozentur
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+package testablejava;
+
+import java.lang.reflect.Field;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * measures how long threads wait in redirected blocking calls - lock acquisition, Condition and latch awaits,
+ * blocking queue put/take, Future.get, Object.wait, Thread.join - with a wait time histogram per calling site:
+ *
+ *   WaitProfiler profiler = WaitProfiler.start(Dispatcher.class); //or start() for classes in RedirectorRegistry.registries()
+ *   ... //under load
+ *   profiler.stop();
+ *   System.out.print(profiler.report());
+ *
+ * Only redirectors of blocking methods are wrapped, chosen once by the called class (from the CallContext type)
+ * and method (from the field name), so other calls run as before. Each call is timed with System.nanoTime
+ * on the calling thread, so waits are attributed to the exact call that blocked rather than to where
+ * a sampling profiler found the thread at a safepoint. Calls ending with an exception (timeout, interrupt) count too
+ */
+public final class WaitProfiler {
+
+    static final Map<Class<?>, Set<String>> BLOCKING_METHODS = new LinkedHashMap<>(); //by type declaring them
+    static {
+        blocking(Lock.class, "lock", "lockInterruptibly", "tryLock");
+        blocking(Condition.class, "await", "awaitNanos", "awaitUninterruptibly", "awaitUntil");
+        blocking(BlockingQueue.class, "put", "take", "offer", "poll");
+        blocking(BlockingDeque.class, "putFirst", "putLast", "takeFirst", "takeLast", "offerFirst", "offerLast", "pollFirst", "pollLast");
+        blocking(TransferQueue.class, "transfer", "tryTransfer");
+        blocking(Future.class, "get");
+        blocking(CountDownLatch.class, "await");
+        blocking(CyclicBarrier.class, "await");
+        blocking(Semaphore.class, "acquire", "acquireUninterruptibly", "tryAcquire");
+        blocking(Phaser.class, "arriveAndAwaitAdvance", "awaitAdvance", "awaitAdvanceInterruptibly");
+        blocking(Exchanger.class, "exchange");
+        blocking(ExecutorService.class, "awaitTermination", "invokeAll", "invokeAny");
+        blocking(Thread.class, "join");
+        blocking(Object.class, "wait");
+    }
+
+    static void blocking(Class<?> type, String... methods) {
+        BLOCKING_METHODS.put(type, new HashSet<>(Arrays.asList(methods)));
+    }
+
+    final List<RedirectorWrapper> redirectors = new ArrayList<>();
+    final SiteTable siteTable = new SiteTable();
+    final ConcurrentMap<Integer, Histogram> histograms = new ConcurrentHashMap<>(); //by site index
+
+    WaitProfiler() {
+    }
+
+    /**
+     * profile blocking calls through redirector fields of the classes in RedirectorRegistry.registries();
+     * classes initialized later are not profiled
+     */
+    public static WaitProfiler start() {
+        WaitProfiler profiler = new WaitProfiler();
+        profiler.wrap(RedirectorWrapper.registeredRedirectorFields());
+        return profiler;
+    }
+
+    /**
+     * profile blocking calls made from the instrumented class
+     * @param type top-level class compiled with INSERT_REGISTRY
+     */
+    public static WaitProfiler start(Class<?> type) {
+        RedirectorRegistry registry = RedirectorRegistry.of(type);
+        if (registry == null)
+            throw new IllegalArgumentException(type.getName() + " has no redirector registry");
+        WaitProfiler profiler = new WaitProfiler();
+        profiler.wrap(RedirectorWrapper.redirectorFields(registry));
+        return profiler;
+    }
+
+    /**
+     * @param calledType class in the CallContext type of the redirector
+     * @param method called method
+     */
+    static boolean isBlocking(Class<?> calledType, String method) {
+        if (calledType == null || method == null)
+            return false;
+        for (Map.Entry<Class<?>, Set<String>> entry : BLOCKING_METHODS.entrySet()) {
+            if (entry.getKey().isAssignableFrom(calledType) && entry.getValue().contains(method))
+                return true;
+        }
+        return false;
+    }
+
+    void wrap(List<Field> fields) {
+        try {
+            for (Field field : fields) {
+                if (!isBlocking(RedirectorWrapper.calledType(field), RedirectorWrapper.calledMethod(field)))
+                    continue;
+                SiteTable.FieldSites fieldSites = siteTable.fieldSites();
+                RedirectorWrapper redirector = new RedirectorWrapper(field, (wrapper, args) -> call(wrapper, fieldSites, args));
+                redirector.install();
+                redirectors.add(redirector);
+            }
+        } catch (ReflectiveOperationException ex) {
+            stop();
+            throw new IllegalArgumentException("cannot profile waits", ex);
+        }
+    }
+
+    Object call(RedirectorWrapper redirector, SiteTable.FieldSites fieldSites, Object[] args) throws Throwable {
+        Histogram histogram = histograms.computeIfAbsent(fieldSites.index((CallContext<?>) args[0]), index -> new Histogram());
+        long start = System.nanoTime();
+        try {
+            return redirector.callWrapped(args);
+        } finally {
+            histogram.record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * puts back the redirectors that were there before, unless reassigned since; histograms are kept
+     */
+    public void stop() {
+        redirectors.forEach(RedirectorWrapper::uninstall);
+    }
+
+    /**
+     * @return redirector fields profiled
+     */
+    public List<String> redirectors() {
+        List<String> ret = new ArrayList<>();
+        redirectors.forEach(redirector -> ret.add(redirector.toString()));
+        return Collections.unmodifiableList(ret);
+    }
+
+    /**
+     * @return sites that made blocking calls, longest total wait first
+     */
+    public List<Site> sites() {
+        List<Site> ret = new ArrayList<>();
+        histograms.forEach((index, histogram) -> ret.add(new Site(
+                siteTable.caller(index),
+                siteTable.callee(index),
+                siteTable.location(index),
+                histogram.snapshot())));
+        ret.sort(Comparator.comparingLong((Site site) -> site.totalNanos).reversed()
+                .thenComparing(site -> site.caller + site.callee));
+        return ret;
+    }
+
+    /**
+     * discards waits recorded so far
+     */
+    public void clear() {
+        histograms.clear();
+    }
+
+    /**
+     * @return one line per site, longest total wait first
+     */
+    public String report() {
+        StringBuilder b = new StringBuilder();
+        sites().forEach(site -> b.append(site).append('\n'));
+        return b.toString();
+    }
+
+    /**
+     * wait times of a site in power of 2 buckets: bucket i counts waits of 2^(i-1) to 2^i - 1 ns, bucket 0 waits of 0.
+     * Threads record into LongAdders, without contending on one variable
+     */
+    static final class Histogram {
+        static final int BUCKETS = 64;
+
+        final LongAdder[] buckets = new LongAdder[BUCKETS];
+        final LongAdder totalNanos = new LongAdder();
+        final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+        Histogram() {
+            for (int i = 0; i < BUCKETS; i++)
+                buckets[i] = new LongAdder();
+        }
+
+        void record(long nanos) {
+            nanos = Math.max(0, nanos);
+            buckets[bucket(nanos)].increment();
+            totalNanos.add(nanos);
+            maxNanos.accumulate(nanos);
+        }
+
+        static int bucket(long nanos) {
+            return Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(nanos));
+        }
+
+        long[] snapshot() {
+            long[] ret = new long[BUCKETS + 2];
+            for (int i = 0; i < BUCKETS; i++)
+                ret[i] = buckets[i].sum();
+            ret[BUCKETS] = totalNanos.sum();
+            ret[BUCKETS + 1] = maxNanos.get();
+            return ret;
+        }
+    }
+
+    /**
+     * waits of a call in the source, or of a calling class if the call has no CallSite
+     */
+    public static final class Site {
+        public final String caller;   //calling method, or class
+        public final String callee;   //called method, or class
+        public final String location; //file:line, null if not known
+        public final long count;
+        public final long totalNanos;
+        public final long maxNanos;
+        final long[] buckets;
+
+        Site(String caller, String callee, String location, long[] histogram) {
+            this.caller = caller;
+            this.callee = callee;
+            this.location = location;
+            this.buckets = Arrays.copyOf(histogram, Histogram.BUCKETS);
+            this.count = Arrays.stream(buckets).sum();
+            this.totalNanos = histogram[Histogram.BUCKETS];
+            this.maxNanos = histogram[Histogram.BUCKETS + 1];
+        }
+
+        /**
+         * @return number of waits in each power of 2 bucket, see upperBoundNanos(bucket)
+         */
+        public long[] buckets() {
+            return buckets.clone();
+        }
+
+        /**
+         * @return waits in the bucket are shorter
+         */
+        public static long upperBoundNanos(int bucket) {
+            return bucket >= Histogram.BUCKETS - 1 ? Long.MAX_VALUE : 1L << bucket;
+        }
+
+        /**
+         * @param fraction e.g. 0.99
+         * @return wait time the fraction of waits did not exceed, within a factor of 2 (bucket upper bound,
+         * no more than the longest wait); 0 if there were none
+         */
+        public long percentileNanos(double fraction) {
+            long rank = (long) Math.ceil(fraction * count);
+            long seen = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                seen += buckets[i];
+                if (seen >= rank && seen > 0)
+                    return Math.min(maxNanos, upperBoundNanos(i) - 1);
+            }
+            return 0;
+        }
+
+        public long meanNanos() {
+            return count == 0 ? 0 : totalNanos / count;
+        }
+
+        @Override
+        public String toString() {
+            return caller + " -> " + callee + (location == null ? "" : " (" + location + ")") + ": " + count + " waits, " +
+                    "total " + TimeUnit.NANOSECONDS.toMicros(totalNanos) + " us, " +
+                    "p50 " + TimeUnit.NANOSECONDS.toMicros(percentileNanos(0.5)) + " us, " +
+                    "p99 " + TimeUnit.NANOSECONDS.toMicros(percentileNanos(0.99)) + " us, " +
+                    "max " + TimeUnit.NANOSECONDS.toMicros(maxNanos) + " us";
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "waits in " + redirectors.size() + " redirectors at " + histograms.size() + " sites";
+    }
+}
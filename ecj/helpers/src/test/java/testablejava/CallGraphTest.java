@@ -0,0 +1,100 @@
+package testablejava;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.function.BiFunction;
+
+import static org.junit.Assert.*;
+
+public class CallGraphTest {
+
+    public static class Redirected {
+        public static BiFunction<CallContext<String>, String, String> $$String$concat$$String = (ctx, s) -> ctx.calledClassInstance + s;
+        public static final RedirectorRegistry $$registry = new RedirectorRegistry(Redirected.class, new String[]{"$$String$concat$$String"});
+    }
+
+    static final CallSite site = new CallSite("A", "fn", "A.java", 3, "java.lang.String", "concat", "(Ljava/lang/String;)Ljava/lang/String;");
+
+    static String concat(Object caller, String s1, String s2) {
+        return Redirected.$$String$concat$$String.apply(new CallContext<>(site, caller, s1), s2);
+    }
+
+    @Test
+    public void aggregatesCallsByEdge() throws Exception {
+        Redirected.$$registry.getClass(); //initialized, registered
+        Object caller = new Object();
+
+        CallGraph callGraph = CallGraph.capture();
+        try {
+            assertEquals("ab", concat(caller, "a", "b"));
+            concat(caller, "c", "d");
+            concat(null, "c", "d");
+            Redirected.$$String$concat$$String.apply(new CallContext<>("B", "java.lang.String", null, "e"), "f");
+        } finally {
+            callGraph.stop();
+        }
+        concat(caller, "not", "recorded");
+
+        List<CallGraph.Edge> edges = callGraph.edges();
+        assertEquals(2, edges.size());
+        CallGraph.Edge edge = edges.get(0);
+        assertEquals("A.fn", edge.caller);
+        assertEquals("java.lang.String.concat", edge.callee);
+        assertEquals(3, edge.count);
+        assertEquals(2, edge.callerInstances); //caller and static
+        assertEquals(2, edge.calleeInstances); //"a" and "c"
+        assertEquals("B -> java.lang.String: 1 calls", edges.get(1).toString().replaceAll(", \\d+ ns", ""));
+        assertEquals(4, callGraph.calls());
+
+        assertTrue(callGraph.toDot(), callGraph.toDot().startsWith("digraph calls {\n  \"A.fn\" -> \"java.lang.String.concat\" [label=\"3 calls, "));
+        assertTrue(callGraph.toJson(), callGraph.toJson().contains("{\"caller\": \"A.fn\", \"callee\": \"java.lang.String.concat\", \"count\": 3, "));
+    }
+
+    @Test
+    public void dropsOldestWhenRingIsFull() throws Exception {
+        Redirected.$$registry.getClass();
+        CallGraph callGraph = CallGraph.capture(2);
+        try {
+            for (int i = 0; i < 5; i++)
+                concat(null, "a", "b");
+        } finally {
+            callGraph.stop();
+        }
+        assertEquals(2, callGraph.calls());
+        assertEquals(3, callGraph.dropped());
+        assertEquals(2, callGraph.edges().get(0).count);
+    }
+
+    @Test
+    public void releasesRingsOfTerminatedThreads() throws Exception {
+        Redirected.$$registry.getClass();
+        CallGraph callGraph = CallGraph.capture();
+        try {
+            Thread thread = new Thread(() -> concat(null, "a", "b"));
+            thread.start();
+            thread.join();
+            assertEquals(1, callGraph.rings.size());
+
+            assertEquals(1, callGraph.edges().get(0).count);
+            assertTrue(callGraph.rings.isEmpty()); //aggregated
+            concat(null, "c", "d");
+        } finally {
+            callGraph.stop();
+        }
+        assertEquals(2, callGraph.edges().get(0).count);
+        assertEquals(2, callGraph.calls());
+        assertEquals(1, callGraph.rings.size());
+    }
+
+    @Test
+    public void looksUpSiteOncePerFieldAndCaller() throws Exception {
+        SiteTable.FieldSites fieldSites = new SiteTable().fieldSites();
+        int index = fieldSites.index(new CallContext<>("B", "java.lang.String", null, "e"));
+        SiteTable.LastSite last = fieldSites.last;
+        assertEquals(index, fieldSites.index(new CallContext<>("B", "java.lang.String", null, "f")));
+        assertSame(last, fieldSites.last);
+        assertNotEquals(index, fieldSites.index(new CallContext<>(site, null, "g")));
+        assertEquals(index, fieldSites.index(new CallContext<>("B", "java.lang.String", null, "h")));
+    }
+}
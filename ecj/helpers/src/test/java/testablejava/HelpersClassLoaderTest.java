@@ -0,0 +1,60 @@
+package testablejava;
+
+import org.junit.Test;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Objects;
+
+import static org.junit.Assert.*;
+
+public class HelpersClassLoaderTest {
+
+    @Test
+    public void classFileBytesForNonHelperNames() throws Exception {
+        Arrays.asList(
+                "helpers.Function2_0",
+                "helpers.Function02",
+                "helpers.Function3_4",
+                "helpers.Function256",
+                "helpers.Runnable",
+                "testablejava.Function2").
+                forEach(name -> assertNull(name, HelperClassFiles.classFileBytes(name)));
+    }
+
+    @Test
+    public void definesHelperMissingFromClasspath() throws Exception {
+        HelpersClassLoader cl = new HelpersClassLoader(new URL[0], getClass().getClassLoader());
+
+        Class<?> function = cl.loadClass("helpers.Function25_3"); //beyond HelpersInstrumenter.maxArgs
+        assertSame(cl, function.getClassLoader());
+        assertTrue(function.isInterface());
+        assertNotNull(function.getAnnotation(FunctionalInterface.class));
+        assertEquals(26, function.getTypeParameters().length);
+
+        Method apply = function.getMethod("apply", Arrays.stream(new Class<?>[25]).map(c -> Object.class).toArray(Class<?>[]::new));
+        assertEquals(3, apply.getTypeParameters().length);
+
+        Object proxy = Proxy.newProxyInstance(cl, new Class<?>[]{function}, (p, m, args) -> args.length);
+        assertEquals(25, apply.invoke(proxy, new Object[25]));
+
+        assertSame(function, cl.loadClass("helpers.Function25_3"));
+    }
+
+    @Test(expected = ClassNotFoundException.class)
+    public void doesNotDefineNonHelpers() throws Exception {
+        new HelpersClassLoader(new URL[0], getClass().getClassLoader()).loadClass("helpers.Function3_4");
+    }
+
+    @Test
+    public void asSystemClassLoaderDefinesClasspathClasses() throws Exception {
+        HelpersClassLoader cl = new HelpersClassLoader(ClassLoader.getSystemClassLoader());
+
+        Class<?> callContext = cl.loadClass(CallContext.class.getName());
+        assertSame(cl, callContext.getClassLoader()); //so its references to helpers resolve through cl
+        assertSame(cl, cl.loadClass("helpers.Consumer40_2").getClassLoader());
+        assertTrue(Arrays.stream(cl.getURLs()).anyMatch(Objects::nonNull));
+    }
+}
@@ -0,0 +1,79 @@
+package testablejava;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.DataInputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+import static java.util.stream.Collectors.toList;
+import static org.junit.Assert.*;
+
+public class HelpersInstrumenterTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void classFileBytesSameAsByteBuddyDefinition() throws Exception {
+        for (int[] shape : HelpersInstrumenter.shapes(12)) {
+            byte[] reference = shape[0] == 1 ?
+                    HelpersInstrumenter.consumerWithByteBuddy(shape[1], shape[2]) :
+                    HelpersInstrumenter.functionWithByteBuddy(shape[1], shape[2]);
+            assertArrayEquals(HelpersInstrumenter.entryName(shape), reference, HelpersInstrumenter.classFileBytes(shape));
+        }
+    }
+
+    @Test
+    public void shapes() throws Exception {
+        List<String> names = HelpersInstrumenter.shapes(3).stream().map(HelpersInstrumenter::entryName).collect(toList());
+        assertEquals(
+                "[helpers/Consumer0.class, helpers/Consumer1.class, helpers/Consumer2.class, helpers/Consumer1_1.class, " +
+                        "helpers/Consumer2_1.class, helpers/Consumer2_2.class, " +
+                        "helpers/Function0.class, helpers/Function1.class, helpers/Function2.class, helpers/Function1_1.class, " +
+                        "helpers/Function2_1.class, helpers/Function2_2.class]",
+                names.toString());
+    }
+
+    @Test
+    public void emitToJar() throws Exception {
+        Path jar = temporaryFolder.getRoot().toPath().resolve("helpers-interfaces.jar");
+        String hash = HelpersInstrumenter.inputHash(30);
+
+        assertFalse(HelpersInstrumenter.isUpToDate(jar, hash));
+        assertEquals(HelpersInstrumenter.shapes(30).size(), HelpersInstrumenter.emitToJar(jar, 30, hash));
+        assertTrue(HelpersInstrumenter.isUpToDate(jar, hash));
+        assertFalse(HelpersInstrumenter.isUpToDate(jar, HelpersInstrumenter.inputHash(31)));
+
+        try (JarFile jarFile = new JarFile(jar.toFile())) {
+            List<String> entries = Collections.list(jarFile.entries()).stream().map(JarEntry::getName).collect(toList());
+            assertEquals(HelpersInstrumenter.shapes(30).size() + 1, entries.stream().filter(name -> name.startsWith("helpers/")).count());
+
+            JarEntry entry = jarFile.getJarEntry("helpers/Function29_1.class");
+            byte[] bytes = new byte[(int) entry.getSize()];
+            new DataInputStream(jarFile.getInputStream(entry)).readFully(bytes);
+            assertArrayEquals(HelperClassFiles.classFileBytes("helpers.Function29_1"), bytes);
+        }
+    }
+
+    @Test
+    public void emitToDirectory() throws Exception {
+        Path dir = temporaryFolder.getRoot().toPath();
+        String hash = HelpersInstrumenter.inputHash(5);
+
+        assertEquals(HelpersInstrumenter.shapes(5).size(), HelpersInstrumenter.emitToDirectory(dir, 5, hash));
+        assertTrue(HelpersInstrumenter.isUpToDate(dir, hash));
+        assertArrayEquals(HelperClassFiles.classFileBytes("helpers.Consumer4_2"), Files.readAllBytes(dir.resolve("helpers/Consumer4_2.class")));
+
+        //a smaller range does not leave the larger one behind
+        HelpersInstrumenter.emitToDirectory(dir, 2, HelpersInstrumenter.inputHash(2));
+        assertFalse(Files.exists(dir.resolve("helpers/Consumer4_2.class")));
+        assertEquals(HelpersInstrumenter.shapes(2).size(), Files.list(dir.resolve("helpers")).count());
+    }
+}
@@ -0,0 +1,97 @@
+package testablejava;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BiFunction;
+
+import static org.junit.Assert.*;
+
+public class InterceptorChainTest {
+
+    public static class Redirected {
+        public static BiFunction<CallContext<Integer>, String, Integer> $$Integer$parseInt$$String = (ctx, s) -> Integer.parseInt(s);
+    }
+
+    static int parseInt(String s) {
+        return Redirected.$$Integer$parseInt$$String.apply(new CallContext<>("A", "java.lang.Integer", null, null), s);
+    }
+
+    @Test
+    public void interceptorsRunOutermostFirst() throws Exception {
+        List<String> events = new ArrayList<>();
+
+        InterceptorChain chain = InterceptorChain.on(Redirected.class, "$$Integer$parseInt$$String")
+                .before(args -> events.add("before " + args[1]))
+                .around((next, args) -> {
+                    events.add("around");
+                    args[1] = ((String) args[1]).trim();
+                    return (Integer) next.proceed(args) + 1;
+                })
+                .after((args, result) -> events.add("after " + result))
+                .onException((args, th) -> events.add("failed " + th.getClass().getSimpleName()))
+                .install();
+        try {
+            assertEquals(43, parseInt(" 42 "));
+            assertEquals("[before  42 , around, after 42]", events.toString());
+
+            events.clear();
+            try {
+                parseInt("x");
+                fail();
+            } catch (NumberFormatException expected) {
+            }
+            assertEquals("[before x, around, failed NumberFormatException]", events.toString());
+        } finally {
+            chain.uninstall();
+        }
+        assertEquals(42, parseInt("42"));
+    }
+
+    @Test
+    public void aroundCanSkipTheCall() throws Exception {
+        InterceptorChain chain = InterceptorChain.on(Redirected.class, "$$Integer$parseInt$$String")
+                .around((next, args) -> -1)
+                .install();
+        try {
+            assertEquals(-1, parseInt("x"));
+        } finally {
+            chain.uninstall();
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void cannotAddAfterInstall() throws Exception {
+        InterceptorChain chain = InterceptorChain.on(Redirected.class, "$$Integer$parseInt$$String").install();
+        try {
+            chain.before(args -> {});
+        } finally {
+            chain.uninstall();
+        }
+    }
+
+    @Test
+    public void innermostCallIsNotReflective() throws Exception {
+        StackTraceElement[][] stack = new StackTraceElement[1][];
+        BiFunction<CallContext<Integer>, String, Integer> original = Redirected.$$Integer$parseInt$$String;
+        Redirected.$$Integer$parseInt$$String = (ctx, s) -> {
+            stack[0] = new Throwable().getStackTrace();
+            return Integer.parseInt(s);
+        };
+        InterceptorChain chain = InterceptorChain.on(Redirected.class, "$$Integer$parseInt$$String")
+                .before(args -> {})
+                .install();
+        try {
+            assertEquals(42, parseInt("42"));
+        } finally {
+            chain.uninstall();
+            Redirected.$$Integer$parseInt$$String = original;
+        }
+        for (StackTraceElement element : stack[0]) {
+            if (element.getMethodName().equals("innermostCallIsNotReflective"))
+                break; //below is how JUnit calls the test
+            assertNotEquals(element.toString(), "java.lang.reflect.Method", element.getClassName());
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package testablejava;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+
+import static org.junit.Assert.*;
+
+public class IoAccountingTest {
+
+    public static class Redirected {
+        public static BiFunction<CallContext<InputStream>, byte[], Integer> $$InputStream$read$$byte$ = (ctx, b) -> {
+            try {
+                return ctx.calledClassInstance.read(b);
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        };
+        public static BiConsumer<CallContext<ByteArrayOutputStream>, Integer> $$ByteArrayOutputStream$write$$I = (ctx, b) ->
+                ctx.calledClassInstance.write(b);
+        public static BiFunction<CallContext<String>, String, String> $$String$concat$$String = (ctx, s) -> ctx.calledClassInstance + s;
+        public static final RedirectorRegistry $$registry = new RedirectorRegistry(Redirected.class, new String[]{
+                "$$InputStream$read$$byte$", "$$ByteArrayOutputStream$write$$I", "$$String$concat$$String"});
+    }
+
+    static final CallSite readSite = new CallSite("A", "load", "A.java", 3, "java.io.InputStream", "read", "([B)I");
+    static final CallSite writeSite = new CallSite("A", "save", "A.java", 7, "java.io.ByteArrayOutputStream", "write", "(I)V");
+
+    @Test
+    public void countsBytesAndOpsBySite() throws Exception {
+        IoAccounting io = IoAccounting.enable(Redirected.class);
+        try {
+            assertEquals(2, io.redirectors().size()); //not String.concat
+
+            InputStream in = new ByteArrayInputStream(new byte[10]);
+            byte[] buffer = new byte[4];
+            int read;
+            do {
+                read = Redirected.$$InputStream$read$$byte$.apply(new CallContext<>(readSite, null, in), buffer);
+            } while (read >= 0);
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            for (int i = 0; i < 3; i++)
+                Redirected.$$ByteArrayOutputStream$write$$I.accept(new CallContext<>(writeSite, null, out), i);
+            Redirected.$$ByteArrayOutputStream$write$$I.accept(new CallContext<>("B", "java.io.ByteArrayOutputStream", null, out), 0);
+            assertEquals(4, out.size());
+        } finally {
+            io.disable();
+        }
+        Redirected.$$InputStream$read$$byte$.apply(new CallContext<>(readSite, null, new ByteArrayInputStream(new byte[1])), new byte[1]);
+
+        List<IoAccounting.Site> sites = io.sites();
+        assertEquals(3, sites.size());
+        assertEquals("A.load -> java.io.InputStream.read (A.java:3): 4 ops, 10 bytes read, 0 bytes written", sites.get(0).toString());
+        assertEquals("A.save -> java.io.ByteArrayOutputStream.write (A.java:7): 3 ops, 0 bytes read, 3 bytes written", sites.get(1).toString());
+        assertEquals(1.0, sites.get(1).bytesPerOp(), 0);
+        assertEquals("B -> java.io.ByteArrayOutputStream: 1 ops, 0 bytes read, 1 bytes written", sites.get(2).toString()); //no CallSite
+        assertEquals(8, io.ops());
+        assertEquals(10, io.bytesRead());
+        assertEquals(4, io.bytesWritten());
+    }
+
+    @Test
+    public void countsBytesOfOtherCalls() throws Exception {
+        IoAccounting.Counters site = new IoAccounting.Counters();
+
+        IoAccounting.count(site, "read", "()I", new Object[]{null}, 7);
+        IoAccounting.count(site, "read", "()I", new Object[]{null}, -1);
+        IoAccounting.count(site, "readAllBytes", "(Ljava/nio/file/Path;)[B", new Object[]{null, null}, new byte[5]);
+        IoAccounting.count(site, "write", "([BII)V", new Object[]{null, new byte[9], 2, 6}, null);
+        IoAccounting.count(site, "write", "(Ljava/nio/file/Path;[B[Ljava/nio/file/OpenOption;)Ljava/nio/file/Path;", new Object[]{null, null, new byte[8], null}, null);
+        IoAccounting.count(site, "transferTo", "(JJLjava/nio/channels/WritableByteChannel;)J", new Object[]{null, 0L, 100L, null}, 100L);
+        IoAccounting.count(site, "flush", "()V", new Object[]{null}, null);
+
+        assertEquals(6, site.bytesRead.sum());
+        assertEquals(114, site.bytesWritten.sum());
+    }
+
+    @Test
+    public void takesMethodAndDescriptorFromField() throws Exception {
+        assertEquals("read", RedirectorWrapper.calledMethod(Redirected.class.getField("$$InputStream$read$$byte$")));
+        assertEquals("([B)I", RedirectorWrapper.calledDescriptor(Redirected.class.getField("$$InputStream$read$$byte$")));
+        assertEquals("(I)V", RedirectorWrapper.calledDescriptor(Redirected.class.getField("$$ByteArrayOutputStream$write$$I")));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void needsRegistry() throws Exception {
+        IoAccounting.enable(IoAccountingTest.class);
+    }
+}
@@ -0,0 +1,89 @@
+package testablejava;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import static java.util.stream.Collectors.toList;
+import static org.junit.Assert.*;
+
+public class LatencyTest {
+
+    public static class Redirected {
+        public static Function<String, Integer> $$length = String::length;
+        public static BiFunction<CallContext<String>, String, String> $$String$concat$$String = (ctx, s) -> ctx.calledClassInstance + s;
+        public static BiFunction<CallContext<Integer>, String, Integer> $$Integer$parseInt$$String = (ctx, s) -> Integer.parseInt(s);
+        public static Consumer<Redirected> $$preCreate = r -> {};
+        public static final RedirectorRegistry $$registry = new RedirectorRegistry(
+                Redirected.class, new String[]{"$$length", "$$String$concat$$String", "$$Integer$parseInt$$String", "$$preCreate"});
+    }
+
+    @Test
+    public void delaysRedirector() throws Exception {
+        Latency latency = Latency.inject(Redirected.class, "$$length", Latency.fixed(2, TimeUnit.MILLISECONDS));
+        long start = System.nanoTime();
+        try {
+            assertEquals(3, Redirected.$$length.apply("abc").intValue());
+            assertEquals(2, Redirected.$$length.apply("ab").intValue());
+        } finally {
+            latency.remove();
+        }
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(4));
+        assertEquals(2, latency.delays());
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(4), latency.delayedNanos());
+
+        Redirected.$$length.apply("a");
+        assertEquals(2, latency.delays());
+    }
+
+    @Test
+    public void delaysCallsToCalledClass() throws Exception {
+        Redirected.$$registry.getClass(); //initialized, registered
+        Latency latency = Latency.injectForCalledClass("java.lang.Integer", Latency.fixed(1, TimeUnit.MILLISECONDS));
+        try {
+            assertEquals(Collections.singletonList(Redirected.class.getName() + ".$$Integer$parseInt$$String"),
+                    latency.redirectors().stream().filter(r -> r.startsWith(Redirected.class.getName() + ".")).collect(toList())); //not other called classes, the listener, nor fields without CallContext
+            assertEquals("ab", Redirected.$$String$concat$$String.apply(new CallContext<>("X", "java.lang.String", null, "a"), "b"));
+            assertEquals(1, Redirected.$$Integer$parseInt$$String.apply(new CallContext<>("X", "java.lang.Integer", null, null), "1").intValue());
+        } finally {
+            latency.remove();
+        }
+        assertEquals(1, latency.delays());
+    }
+
+    @Test
+    public void histogramDrawsRecordedDelaysInProportion() throws Exception {
+        Latency.Distribution distribution = Latency.histogram(
+                new long[]{1, 10, 100},
+                new long[]{3, 0, 1},
+                TimeUnit.MILLISECONDS);
+        Random random = new Random(1);
+        int[] drawn = new int[3];
+        for (int i = 0; i < 4000; i++) {
+            long millis = TimeUnit.NANOSECONDS.toMillis(distribution.nextNanos(random));
+            drawn[millis == 1 ? 0 : millis == 10 ? 1 : 2]++;
+        }
+        assertEquals(0, drawn[1]);
+        assertEquals(3.0, (double) drawn[0] / drawn[2], 0.3);
+    }
+
+    @Test
+    public void uniformAndLogNormalStayInShape() throws Exception {
+        Random random = new Random(1);
+        Latency.Distribution uniform = Latency.uniform(5, 10, TimeUnit.MICROSECONDS);
+        Latency.Distribution logNormal = Latency.logNormal(1, 0.5, TimeUnit.MILLISECONDS);
+        int belowMedian = 0;
+        for (int i = 0; i < 1000; i++) {
+            long nanos = uniform.nextNanos(random);
+            assertTrue(nanos >= 5000 && nanos <= 10000);
+            if (logNormal.nextNanos(random) < 1_000_000)
+                belowMedian++;
+        }
+        assertEquals(500, belowMedian, 60);
+    }
+}
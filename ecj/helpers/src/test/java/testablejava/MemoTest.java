@@ -0,0 +1,157 @@
+package testablejava;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+import static org.junit.Assert.*;
+
+public class MemoTest {
+
+    public interface Reader {
+        String read(CallContext<Object> ctx, String path) throws IOException;
+    }
+
+    public static class Redirected {
+        static int calls;
+        public static Function<String, Integer> $$length = s -> {
+            calls++;
+            return s.length();
+        };
+        public static BiFunction<String, Integer, String> $$repeat = (s, n) -> {
+            calls++;
+            return new String(new char[n]).replace("\0", s);
+        };
+        public static Function<Integer, Integer> $$square = i -> i * i;
+        public static Reader $$read = (ctx, path) -> {
+            calls++;
+            if (path.isEmpty())
+                throw new IOException("no path");
+            return path + "@" + ctx.calledClassInstance;
+        };
+    }
+
+    @Test
+    public void cachesByArguments() throws Exception {
+        Redirected.calls = 0;
+        Memo memo = Memo.install(Redirected.class, "$$length");
+        try {
+            assertEquals(1, Redirected.$$length.apply("a").intValue());
+            assertEquals(2, Redirected.$$length.apply("ab").intValue());
+            assertEquals(1, Redirected.$$length.apply("a").intValue());
+        } finally {
+            memo.uninstall();
+        }
+        assertEquals(2, Redirected.calls);
+        assertEquals(1, memo.hits());
+        assertEquals(2, memo.misses());
+        assertEquals(0, memo.size()); //cleared by uninstall
+
+        Redirected.$$length.apply("a");
+        assertEquals(3, Redirected.calls);
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() throws Exception {
+        Memo memo = Memo.install(Redirected.class, "$$repeat", 2, Memo.Eviction.LRU);
+        try {
+            Redirected.$$repeat.apply("a", 1);
+            Redirected.$$repeat.apply("b", 1);
+            Redirected.$$repeat.apply("a", 1);
+            Redirected.$$repeat.apply("c", 1); //evicts b
+            Redirected.calls = 0;
+            Redirected.$$repeat.apply("a", 1);
+            Redirected.$$repeat.apply("b", 1);
+        } finally {
+            memo.uninstall();
+        }
+        assertEquals(1, Redirected.calls);
+        assertEquals(2, memo.evictions());
+    }
+
+    @Test
+    public void evictsLeastFrequentlyUsed() throws Exception {
+        Memo memo = Memo.install(Redirected.class, "$$repeat", 2, Memo.Eviction.LFU);
+        try {
+            Redirected.$$repeat.apply("a", 1);
+            Redirected.$$repeat.apply("a", 1);
+            Redirected.$$repeat.apply("b", 1);
+            Redirected.$$repeat.apply("c", 1); //evicts b, used once
+            Redirected.calls = 0;
+            Redirected.$$repeat.apply("a", 1);
+            Redirected.$$repeat.apply("c", 1);
+        } finally {
+            memo.uninstall();
+        }
+        assertEquals(0, Redirected.calls);
+    }
+
+    @Test
+    public void keysOnCalledInstanceAndPassesCheckedExceptions() throws Exception {
+        Redirected.calls = 0;
+        Object first = new Object();
+        Object second = new Object();
+        Memo memo = Memo.install(Redirected.class, "$$read");
+        try {
+            Redirected.$$read.read(new CallContext<>("A", "B", null, first), "p");
+            Redirected.$$read.read(new CallContext<>("C", "B", null, first), "p");
+            Redirected.$$read.read(new CallContext<>("A", "B", null, second), "p");
+            try {
+                Redirected.$$read.read(new CallContext<>("A", "B", null, first), "");
+                fail();
+            } catch (IOException ex) {
+                assertEquals("no path", ex.getMessage());
+            }
+        } finally {
+            memo.uninstall();
+        }
+        assertEquals(3, Redirected.calls);
+        assertEquals(1, memo.hits());
+    }
+
+    @Test
+    public void concurrentCallsStayWithinMaxSize() throws Exception {
+        for (Memo.Eviction eviction : Memo.Eviction.values()) {
+            Memo memo = Memo.install(Redirected.class, "$$square", 8, eviction);
+            int threads = 4;
+            int callsPerThread = 20000;
+            ExecutorService executor = Executors.newFixedThreadPool(threads);
+            try {
+                CountDownLatch start = new CountDownLatch(1);
+                List<Future<?>> futures = new ArrayList<>();
+                for (int t = 0; t < threads; t++) {
+                    int seed = t;
+                    futures.add(executor.submit(() -> {
+                        start.await();
+                        ThreadLocalRandom random = ThreadLocalRandom.current();
+                        for (int i = 0; i < callsPerThread; i++) {
+                            int arg = random.nextInt(i % 2 == 0 ? 4 : 16) + seed; //some hot arguments, more cold ones
+                            assertEquals(arg * arg, Redirected.$$square.apply(arg).intValue());
+                            assertTrue(memo.size() <= 8);
+                        }
+                        return null;
+                    }));
+                }
+                start.countDown();
+                for (Future<?> future : futures)
+                    future.get(1, TimeUnit.MINUTES);
+            } finally {
+                executor.shutdown();
+                memo.uninstall();
+            }
+            assertEquals(eviction.toString(), threads * callsPerThread, memo.hits() + memo.misses());
+            assertTrue(eviction.toString(), memo.hits() > 0);
+            assertTrue(eviction.toString(), memo.evictions() > 0);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsMissingField() throws Exception {
+        Memo.install(Redirected.class, "$$missing");
+    }
+}
@@ -0,0 +1,87 @@
+package testablejava;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static org.junit.Assert.*;
+
+public class RecordedStubsTest {
+
+    static final AtomicInteger realCalls = new AtomicInteger();
+
+    public static class Redirected {
+        public static Function<CallContext<Integer>, Integer> $$Clock$tick = ctx -> realCalls.incrementAndGet();
+        public static Function<CallContext<Integer>, Integer> $$Db$fail = ctx -> {
+            throw new IllegalArgumentException("db");
+        };
+        public static Function<CallContext<Integer>, Integer> $$Db$unused = ctx -> 0;
+    }
+
+    static int tick() {
+        return Redirected.$$Clock$tick.apply(new CallContext<>("A", "Clock", null, null));
+    }
+
+    @Test
+    public void replaysRecordedResults() throws Exception {
+        realCalls.set(0);
+        RecordedStubs stubs = RecordedStubs.record(Redirected.class, "$$Clock$tick", "$$Db$fail", "$$Db$unused");
+        try {
+            assertEquals(1, tick());
+            assertEquals(2, tick());
+            try {
+                Redirected.$$Db$fail.apply(null);
+                fail();
+            } catch (IllegalArgumentException expected) {
+            }
+            assertEquals("[testablejava.RecordedStubsTest$Redirected.$$Clock$tick=2, " +
+                            "testablejava.RecordedStubsTest$Redirected.$$Db$fail=1, " +
+                            "testablejava.RecordedStubsTest$Redirected.$$Db$unused=0]",
+                    stubs.recorded().toString());
+
+            stubs.replay(RecordedStubs.Replay.CYCLE);
+            assertEquals(1, tick());
+            assertEquals(2, tick());
+            assertEquals(1, tick());
+            assertEquals(2, realCalls.get());
+            try {
+                Redirected.$$Db$fail.apply(null);
+                fail();
+            } catch (IllegalArgumentException ex) {
+                assertEquals("db", ex.getMessage());
+            }
+            try {
+                Redirected.$$Db$unused.apply(null);
+                fail();
+            } catch (IllegalStateException expected) {
+            }
+
+            int[] inOtherThread = new int[1];
+            Thread thread = new Thread(() -> inOtherThread[0] = tick());
+            thread.start();
+            thread.join();
+            assertEquals(1, inOtherThread[0]); //each thread cycles from the first result
+            assertEquals(2, tick());
+
+            stubs.replay(RecordedStubs.Replay.CONSTANT);
+            assertEquals(1, tick());
+            assertEquals(1, tick());
+            assertSame(RecordedStubs.constantTypes.get(Function.class), Redirected.$$Clock$tick.getClass()); //no handler
+            try {
+                Redirected.$$Db$fail.apply(null);
+                fail();
+            } catch (IllegalArgumentException ex) {
+                assertEquals("db", ex.getMessage());
+            }
+            try {
+                Redirected.$$Db$unused.apply(null);
+                fail();
+            } catch (IllegalStateException expected) {
+            }
+        } finally {
+            stubs.restore();
+        }
+        assertEquals(3, tick());
+    }
+}
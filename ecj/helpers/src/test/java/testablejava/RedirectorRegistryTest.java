@@ -0,0 +1,141 @@
+package testablejava;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.ref.WeakReference;
+import java.util.function.Supplier;
+
+import static org.junit.Assert.*;
+
+public class RedirectorRegistryTest {
+
+    public static class Redirected {
+        public static Supplier<String> $$first = () -> "first";
+        public static Supplier<String> $$second = () -> "second";
+        public static final RedirectorRegistry $$registry = new RedirectorRegistry(Redirected.class, new String[]{"$$first", "$$second"});
+    }
+
+    public static class Unloadable {
+        public static Supplier<String> $$first = () -> "first";
+        public static final RedirectorRegistry $$registry = new RedirectorRegistry(Unloadable.class, new String[]{"$$first"});
+    }
+
+    /**
+     * defines Unloadable itself, so that it can be unloaded with the loader
+     */
+    static class UnloadableLoader extends ClassLoader {
+        UnloadableLoader() {
+            super(RedirectorRegistryTest.class.getClassLoader());
+        }
+
+        @Override
+        protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+            if (!name.equals(Unloadable.class.getName()))
+                return super.loadClass(name, resolve);
+            synchronized (getClassLoadingLock(name)) {
+                Class<?> loaded = findLoadedClass(name);
+                if (loaded != null)
+                    return loaded;
+                try (InputStream in = getParent().getResourceAsStream(name.replace('.', '/') + ".class")) {
+                    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                    byte[] buffer = new byte[4096];
+                    for (int n; (n = in.read(buffer)) > 0; )
+                        bytes.write(buffer, 0, n);
+                    return defineClass(name, bytes.toByteArray(), 0, bytes.size());
+                } catch (IOException ex) {
+                    throw new ClassNotFoundException(name, ex);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void registersOnClassInit() throws Exception {
+        RedirectorRegistry registry = Redirected.$$registry;
+
+        assertTrue(RedirectorRegistry.registries().contains(registry));
+        assertEquals(2, registry.size());
+        assertEquals("$$second", registry.fieldName(1));
+        assertEquals("first", ((Supplier<?>) registry.original(0)).get());
+    }
+
+    @Test
+    public void snapshotAndRestore() throws Exception {
+        RedirectorRegistry registry = Redirected.$$registry;
+        Supplier<String> first = () -> "redirected first";
+
+        Redirected.$$first = first;
+        RedirectorRegistry.Snapshot snapshot = RedirectorRegistry.snapshot();
+        Redirected.$$second = () -> "redirected second";
+        assertEquals(2, registry.changedCount());
+
+        long generation = RedirectorRegistry.generation();
+        RedirectorRegistry.restore(snapshot);
+
+        assertSame(first, Redirected.$$first);
+        assertEquals("second", Redirected.$$second.get());
+        assertEquals(generation + 1, RedirectorRegistry.generation());
+
+        RedirectorRegistry.resetAll();
+
+        assertEquals("first", Redirected.$$first.get());
+        assertEquals(0, registry.changedCount());
+    }
+
+    @Test
+    public void reset() throws Exception {
+        Redirected.$$second = () -> "redirected second";
+
+        Redirected.$$registry.reset();
+
+        assertSame(Redirected.$$registry.original(1), Redirected.$$second);
+    }
+
+    @Test
+    public void resetOneField() throws Exception {
+        Supplier<String> first = () -> "redirected first";
+        Redirected.$$first = first;
+        Redirected.$$second = () -> "redirected second";
+
+        Redirected.$$registry.reset(1);
+
+        assertSame(first, Redirected.$$first);
+        assertSame(Redirected.$$registry.original(1), Redirected.$$second);
+        Redirected.$$registry.reset();
+    }
+
+    @Test
+    public void ofIsMapLookup() throws Exception {
+        assertSame(Redirected.$$registry, RedirectorRegistry.of(Redirected.class));
+        assertNull(RedirectorRegistry.of(RedirectorRegistryTest.class));
+    }
+
+    @Test
+    public void doesNotKeepClassLoaderReachable() throws Exception {
+        WeakReference<ClassLoader> loader = registerInNewLoader();
+
+        for (int i = 0; i < 100 && loader.get() != null; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+
+        assertNull(loader.get());
+        for (RedirectorRegistry registry : RedirectorRegistry.registries())
+            assertNotEquals(Unloadable.class.getName(), registry.type.getName());
+    }
+
+    static WeakReference<ClassLoader> registerInNewLoader() throws Exception {
+        ClassLoader loader = new UnloadableLoader();
+        Class<?> type = Class.forName(Unloadable.class.getName(), true, loader);
+        assertNotSame(Unloadable.class, type);
+
+        RedirectorRegistry registry = RedirectorRegistry.of(type);
+        assertSame(type, registry.type);
+        assertTrue(RedirectorRegistry.registries().contains(registry));
+        RedirectorRegistry.snapshot(); //not kept
+        return new WeakReference<>(loader);
+    }
+}
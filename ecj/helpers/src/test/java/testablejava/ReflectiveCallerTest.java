@@ -2,6 +2,8 @@ package testablejava;
 
 import org.junit.Test;
 
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -96,4 +98,93 @@ public class ReflectiveCallerTest {
                 String.format("%s%d","a",1),
                 caller.apply(null, "%s%d", new Object[]{"a", 1}));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void applyWithWideningArg() throws Exception {
+        ReflectiveCaller caller = new ReflectiveCaller(Long.class, "valueOf", long.class);
+        assertEquals(1L, caller.apply(null, 1));
+    }
+    @Test
+    public void applyPrivate() throws Exception {
+        ReflectiveCaller caller = new ReflectiveCaller(Target.class, "twice", int.class);
+        assertEquals(4, caller.apply(new Target(), 2));
+    }
+    @Test
+    public void methodHandleInvokedExactly() throws Throwable {
+        MethodHandle twice = new ReflectiveCaller(Target.class, "twice", int.class).methodHandle();
+        assertEquals(6, (int) (Integer) (Object) twice.invokeExact((Object) new Target(), (Object) 3));
+
+        MethodHandle valueOf = new ReflectiveCaller(String.class, "valueOf", int.class).methodHandle();
+        assertEquals("1", (String) (Object) valueOf.invokeExact((Object) null, (Object) 1));
+
+        Target target = new Target();
+        MethodHandle count = new ReflectiveCaller(Target.class, "count").methodHandle();
+        count.invokeExact((Object) target);
+        assertEquals(1, target.count);
+    }
+    @Test
+    public void resolvedInReceiverClass() throws Throwable {
+        ReflectiveCaller caller = new ReflectiveCaller("twice", int.class);
+        assertNull(caller.target);
+        assertEquals(4, (int) (Integer) (Object) caller.methodHandle(Target.class).invokeExact((Object) new Target(), (Object) 2));
+        assertEquals(6, (int) (Integer) (Object) caller.methodHandle(OtherTarget.class).invokeExact((Object) new OtherTarget(), (Object) 2));
+        assertEquals(6, caller.apply(new OtherTarget(), 2));
+        assertSame(caller.methodHandle(Target.class), new ReflectiveCaller(Target.class, "twice", int.class).methodHandle());
+        try {
+            caller.methodHandle();
+            fail();
+        } catch (IllegalStateException ex) {
+        }
+    }
+    @Test
+    public void applyThrowsUnwrapped() throws Exception {
+        ReflectiveCaller caller = new ReflectiveCaller(Target.class, "fail");
+        try {
+            caller.apply(new Target());
+            fail();
+        } catch (Throwable th) {
+            assertEquals(IOException.class, th.getClass());
+        }
+    }
+    @Test
+    public void resolvedOncePerSignature() throws Exception {
+        ReflectiveCaller caller = new ReflectiveCaller(String.class, "substring", int.class);
+        assertSame(caller.target, new ReflectiveCaller(String.class, "substring", int.class).target);
+        assertNotSame(caller.target, new ReflectiveCaller(String.class, "substring", int.class, int.class).target);
+        assertSame(caller.methodHandle(), new ReflectiveCaller(String.class, "substring", int.class).methodHandle());
+    }
+    @Test
+    public void missResolvedOnce() throws Exception {
+        for (int i = 0; i < 2; i++) {
+            try {
+                new ReflectiveCaller(String.class, "missingMethod");
+                fail();
+            } catch (RuntimeException ex) {
+                assertEquals("cannot find method missingMethod() in class class java.lang.String", ex.getMessage());
+            }
+        }
+        assertNotNull(ReflectiveCaller.targets.get(String.class).get(new ReflectiveCaller.Signature("missingMethod", new Class<?>[0])).failure);
+    }
+
+    static class Target {
+        int count;
+
+        private int twice(int i) {
+            return 2 * i;
+        }
+
+        private void count() {
+            count++;
+        }
+
+        private void fail() throws IOException {
+            throw new IOException();
+        }
+    }
+
+    static class OtherTarget {
+        private int twice(int i) {
+            return 3 * i;
+        }
+    }
+}
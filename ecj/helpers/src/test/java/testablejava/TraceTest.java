@@ -0,0 +1,95 @@
+package testablejava;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.function.BiFunction;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.*;
+
+public class TraceTest {
+
+    public static class Redirected {
+        public static BiFunction<CallContext<String>, String, String> $$String$concat$$String = (ctx, s) -> ctx.calledClassInstance + s;
+        public static BiFunction<CallContext<Integer>, String, Integer> $$Integer$parseInt$$String = (ctx, s) ->
+                Redirected.$$String$concat$$String.apply(new CallContext<>(concatSite, null, s), "0").length();
+        public static final RedirectorRegistry $$registry = new RedirectorRegistry(
+                Redirected.class, new String[]{"$$String$concat$$String", "$$Integer$parseInt$$String"});
+    }
+
+    static final CallSite concatSite = new CallSite("A", "gn", "A.java", 7, "java.lang.String", "concat", "(Ljava/lang/String;)Ljava/lang/String;");
+
+    static int count(String s, String regex) {
+        Matcher matcher = Pattern.compile(regex).matcher(s);
+        int ret = 0;
+        while (matcher.find())
+            ret++;
+        return ret;
+    }
+
+    @Test
+    public void writesNestedBeginAndEndEvents() throws Exception {
+        Redirected.$$registry.getClass(); //initialized, registered
+        File file = File.createTempFile("trace", ".json");
+        file.deleteOnExit();
+
+        Trace trace = Trace.start(file);
+        Redirected.$$Integer$parseInt$$String.apply(new CallContext<>("A", "java.lang.Integer", null, null), "12");
+        trace.stop();
+
+        String json = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+        assertTrue(json, json.startsWith("{\"displayTimeUnit\": \"ns\", \"traceEvents\": [\n"));
+        assertTrue(json, json.endsWith("\n]}\n"));
+        assertEquals(json, 2, count(json, "\"ph\": \"B\""));
+        assertEquals(json, 2, count(json, "\"ph\": \"E\""));
+        assertEquals(json, 1, count(json, "\"name\": \"java.lang.Integer\", \"cat\": \"A\"}"));
+        assertEquals(json, 1, count(json, "\"name\": \"java.lang.String.concat\", \"cat\": \"A.gn\", \"args\": \\{\"at\": \"A.java:7\"}}"));
+        assertEquals(json, 1, count(json, "\"thread_name\""));
+        int outerBegin = json.indexOf("\"name\": \"java.lang.Integer\"");
+        int innerBegin = json.indexOf("\"name\": \"java.lang.String.concat\"");
+        int lastEnd = json.lastIndexOf("\"ph\": \"E\"");
+        assertTrue(json, outerBegin < innerBegin && innerBegin < lastEnd);
+        assertEquals(4, trace.eventsWritten());
+        assertEquals(0, trace.dropped());
+    }
+
+    @Test
+    public void dropsCallsWhenBufferIsFull() throws Exception {
+        Redirected.$$registry.getClass();
+        File file = File.createTempFile("trace", ".json");
+        file.deleteOnExit();
+
+        Trace trace = Trace.start(file, 2, 60_000);
+        for (int i = 0; i < 3; i++)
+            Redirected.$$String$concat$$String.apply(new CallContext<>(concatSite, null, "a"), "b");
+        trace.stop();
+
+        String json = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+        assertEquals(json, 1, count(json, "\"ph\": \"B\""));
+        assertEquals(json, 1, count(json, "\"ph\": \"E\""));
+        assertEquals(2, trace.dropped());
+    }
+
+    @Test
+    public void dropsNestedCallWhenBufferHasNoRoomForEnclosingEnd() throws Exception {
+        Redirected.$$registry.getClass();
+        File file = File.createTempFile("trace", ".json");
+        file.deleteOnExit();
+
+        Trace trace = Trace.start(file, 3, 60_000); //outer begin leaves 2, the inner call would leave none for outer end
+        Redirected.$$Integer$parseInt$$String.apply(new CallContext<>("A", "java.lang.Integer", null, null), "12");
+        trace.stop();
+
+        String json = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+        assertEquals(json, 1, count(json, "\"ph\": \"B\""));
+        assertEquals(json, 1, count(json, "\"ph\": \"E\""));
+        assertEquals(json, 1, count(json, "\"name\": \"java.lang.Integer\", \"cat\": \"A\"}"));
+        assertEquals(json, 0, count(json, "java.lang.String.concat"));
+        assertEquals(2, trace.eventsWritten());
+        assertEquals(1, trace.dropped());
+    }
+}
@@ -0,0 +1,101 @@
+package testablejava;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+
+import static org.junit.Assert.*;
+
+public class WaitProfilerTest {
+
+    public static class Redirected {
+        public static Consumer<CallContext<CountDownLatch>> $$CountDownLatch$await = ctx -> {
+            try {
+                ctx.calledClassInstance.await();
+            } catch (InterruptedException ex) {
+                throw new IllegalStateException(ex);
+            }
+        };
+        public static Consumer<CallContext<ReentrantLock>> $$ReentrantLock$lock = ctx -> ctx.calledClassInstance.lock();
+        public static Consumer<CallContext<ReentrantLock>> $$ReentrantLock$unlock = ctx -> ctx.calledClassInstance.unlock();
+        public static BiFunction<CallContext<String>, String, String> $$String$concat$$String = (ctx, s) -> ctx.calledClassInstance + s;
+        public static final RedirectorRegistry $$registry = new RedirectorRegistry(Redirected.class, new String[]{
+                "$$CountDownLatch$await", "$$ReentrantLock$lock", "$$ReentrantLock$unlock", "$$String$concat$$String"});
+    }
+
+    static final CallSite awaitSite = new CallSite("A", "run", "A.java", 5, "java.util.concurrent.CountDownLatch", "await", "()V");
+    static final CallSite lockSite = new CallSite("A", "run", "A.java", 9, "java.util.concurrent.locks.ReentrantLock", "lock", "()V");
+
+    @Test
+    public void recordsWaitsOfBlockingCallsBySite() throws Exception {
+        WaitProfiler profiler = WaitProfiler.start(Redirected.class);
+        try {
+            assertEquals(2, profiler.redirectors().size()); //not unlock, concat
+
+            CountDownLatch latch = new CountDownLatch(1);
+            Thread releaser = new Thread(() -> {
+                try {
+                    Thread.sleep(20);
+                } catch (InterruptedException ignored) {
+                }
+                latch.countDown();
+            });
+            releaser.start();
+            Redirected.$$CountDownLatch$await.accept(new CallContext<>(awaitSite, null, latch));
+            releaser.join();
+
+            ReentrantLock lock = new ReentrantLock();
+            for (int i = 0; i < 3; i++) {
+                Redirected.$$ReentrantLock$lock.accept(new CallContext<>(lockSite, null, lock));
+                Redirected.$$ReentrantLock$unlock.accept(new CallContext<>(lockSite, null, lock));
+            }
+        } finally {
+            profiler.stop();
+        }
+
+        List<WaitProfiler.Site> sites = profiler.sites();
+        assertEquals(2, sites.size());
+        WaitProfiler.Site await = sites.get(0);
+        assertEquals("A.run", await.caller);
+        assertEquals("java.util.concurrent.CountDownLatch.await", await.callee);
+        assertEquals("A.java:5", await.location);
+        assertEquals(1, await.count);
+        assertTrue(await.toString(), await.maxNanos >= TimeUnit.MILLISECONDS.toNanos(15));
+        assertEquals(await.maxNanos, await.percentileNanos(0.99));
+        assertEquals(3, sites.get(1).count);
+        assertTrue(profiler.report(), profiler.report().startsWith("A.run -> java.util.concurrent.CountDownLatch.await (A.java:5): 1 waits, total "));
+    }
+
+    @Test
+    public void percentilesFromPowerOf2Buckets() throws Exception {
+        WaitProfiler.Histogram histogram = new WaitProfiler.Histogram();
+        for (int i = 0; i < 98; i++)
+            histogram.record(100); //bucket 7, up to 127
+        histogram.record(5000);
+        histogram.record(70000);
+
+        WaitProfiler.Site site = new WaitProfiler.Site("A", "B", null, histogram.snapshot());
+
+        assertEquals(100, site.count);
+        assertEquals(127, site.percentileNanos(0.5));
+        assertEquals(8191, site.percentileNanos(0.99));
+        assertEquals(70000, site.percentileNanos(1));
+        assertEquals(98, site.buckets()[7]);
+        assertEquals((98 * 100 + 5000 + 70000) / 100, site.meanNanos());
+    }
+
+    @Test
+    public void blockingMethodsByCalledType() throws Exception {
+        assertTrue(WaitProfiler.isBlocking(ArrayBlockingQueue.class, "take"));
+        assertFalse(WaitProfiler.isBlocking(ArrayBlockingQueue.class, "size"));
+        assertTrue(WaitProfiler.isBlocking(String.class, "wait"));
+        assertEquals("await", RedirectorWrapper.calledMethod(Redirected.class.getField("$$CountDownLatch$await")));
+        assertEquals("concat", RedirectorWrapper.calledMethod(Redirected.class.getField("$$String$concat$$String")));
+    }
+}
@@ -38,6 +38,7 @@ import org.eclipse.jdt.internal.compiler.env.INameEnvironment;
 import org.eclipse.jdt.internal.compiler.env.NameEnvironmentAnswer;
 import org.eclipse.jdt.internal.compiler.impl.CompilerOptions;
 import org.eclipse.jdt.internal.compiler.problem.DefaultProblemFactory;
+import org.testability.InstrumentationScope;
 
 import java.io.*;
 import java.net.MalformedURLException;
@@ -54,6 +55,57 @@ public class TestableJavaCompiler
 
     public final Set<InstrumentationOptions> instrumenationOptions = Compiler.getDefaultInstrumentationOptions();
 
+    /**
+     * custom compiler argument, e.g.
+     * &lt;compilerArguments&gt;&lt;testablejava.multithreaded&gt;true&lt;/testablejava.multithreaded&gt;&lt;/compilerArguments&gt;,
+     * enabling the compiler's worker threads to read, process and write compilation units concurrently
+     */
+    public static final String MULTITHREADED_OPTION = "testablejava.multithreaded";
+
+    public boolean multithreaded = false;
+
+    /**
+     * custom compiler argument naming a file where instrumentation timers and counters are written as JSON
+     * after compile, e.g. &lt;testablejava.statsReport&gt;target/testablejava-stats.json&lt;/testablejava.statsReport&gt;
+     */
+    public static final String STATS_REPORT_OPTION = "testablejava.statsReport";
+
+    /**
+     * custom compiler argument naming a properties file that limits which calls get redirected, see InstrumentationScope,
+     * e.g. &lt;testablejava.scope&gt;testablejava-scope.properties&lt;/testablejava.scope&gt;
+     */
+    public static final String SCOPE_OPTION = "testablejava.scope";
+
+    /**
+     * prefix of custom compiler arguments setting InstrumentationScope keys directly, overriding the file,
+     * e.g. &lt;testablejava.scope.called.exclude&gt;java.util.**&lt;/testablejava.scope.called.exclude&gt;
+     */
+    public static final String SCOPE_OPTION_PREFIX = SCOPE_OPTION + ".";
+
+    /**
+     * custom compiler argument, e.g. &lt;testablejava.killSwitch&gt;true&lt;/testablejava.killSwitch&gt;,
+     * guarding every redirected call and listener call with testablejava.InstrumentationSwitch.isOn()
+     */
+    public static final String KILL_SWITCH_OPTION = "testablejava.killSwitch";
+
+    /**
+     * custom compiler argument, e.g. &lt;testablejava.callSites&gt;true&lt;/testablejava.callSites&gt;,
+     * giving each redirected call its own testablejava.CallSite field
+     */
+    public static final String CALL_SITES_OPTION = "testablejava.callSites";
+
+    /**
+     * custom compiler argument, e.g. &lt;testablejava.registry&gt;true&lt;/testablejava.registry&gt;,
+     * giving each instrumented top-level class a testablejava.RedirectorRegistry field
+     */
+    public static final String REGISTRY_OPTION = "testablejava.registry";
+
+    /**
+     * custom compiler argument, e.g. &lt;testablejava.accessors&gt;true&lt;/testablejava.accessors&gt;,
+     * writing a X$$Redirectors accessor class next to each instrumented top-level class X
+     */
+    public static final String ACCESSORS_OPTION = "testablejava.accessors";
+
     public TestableJavaCompiler()
     {
         super( CompilerOutputStyle.ONE_OUTPUT_FILE_PER_INPUT_FILE, ".java", ".class", null );
@@ -160,6 +212,40 @@ public class TestableJavaCompiler
 
         settings.putAll( extras );
 
+        boolean useMultipleThreads = multithreaded;
+
+        if ( settings.containsKey( MULTITHREADED_OPTION ) )
+        {
+            useMultipleThreads = Boolean.parseBoolean( settings.remove( MULTITHREADED_OPTION ) );
+        }
+
+        final Set<InstrumentationOptions> compileInstrumentationOptions =
+            new HashSet<InstrumentationOptions>( instrumenationOptions );
+
+        if ( Boolean.parseBoolean( settings.remove( KILL_SWITCH_OPTION ) ) )
+        {
+            compileInstrumentationOptions.add( InstrumentationOptions.INSERT_KILL_SWITCH );
+        }
+
+        if ( Boolean.parseBoolean( settings.remove( CALL_SITES_OPTION ) ) )
+        {
+            compileInstrumentationOptions.add( InstrumentationOptions.INSERT_CALL_SITES );
+        }
+
+        if ( Boolean.parseBoolean( settings.remove( REGISTRY_OPTION ) ) )
+        {
+            compileInstrumentationOptions.add( InstrumentationOptions.INSERT_REGISTRY );
+        }
+
+        if ( Boolean.parseBoolean( settings.remove( ACCESSORS_OPTION ) ) )
+        {
+            compileInstrumentationOptions.add( InstrumentationOptions.INSERT_ACCESSORS );
+        }
+
+        String statsReport = settings.remove( STATS_REPORT_OPTION );
+
+        final InstrumentationScope instrumentationScope = instrumentationScope( settings );
+
         if ( settings.containsKey( "properties" ) )
         {
             initializeWarnings( settings.get( "properties" ), settings );
@@ -199,10 +285,21 @@ public class TestableJavaCompiler
         Compiler compiler = new Compiler( env, policy, options, requestor, problemFactory ){
             @Override
             protected Set<InstrumentationOptions> getInstrumentationOptions() {
-                return instrumenationOptions;
+                return compileInstrumentationOptions;
+            }
+            @Override
+            protected InstrumentationScope getInstrumentationScope() {
+                return instrumentationScope;
             }
         };
 
+        compiler.useSingleThread = !useMultipleThreads;
+
+        if ( StringUtils.isNotEmpty( statsReport ) )
+        {
+            compiler.instrumentationStatsReport = new File( statsReport );
+        }
+
         ICompilationUnit[] units = compilationUnits.toArray( new ICompilationUnit[compilationUnits.size()] );
 
         compiler.compile( units );
@@ -221,6 +318,41 @@ public class TestableJavaCompiler
         return compilerResult;
     }
 
+    /**
+     * removes the scope arguments from settings
+     */
+    InstrumentationScope instrumentationScope( Map<String, String> settings )
+        throws CompilerException
+    {
+        Properties overrides = new Properties();
+
+        for ( String key : new String[]{ InstrumentationScope.CALLER_INCLUDE, InstrumentationScope.CALLER_EXCLUDE,
+            InstrumentationScope.CALLED_INCLUDE, InstrumentationScope.CALLED_EXCLUDE } )
+        {
+            String value = settings.remove( SCOPE_OPTION_PREFIX + key );
+            if ( value != null )
+            {
+                overrides.setProperty( key, value );
+            }
+        }
+
+        String scopeFile = settings.remove( SCOPE_OPTION );
+
+        if ( StringUtils.isEmpty( scopeFile ) )
+        {
+            return InstrumentationScope.fromProperties( overrides );
+        }
+
+        try
+        {
+            return InstrumentationScope.load( new File( scopeFile ), overrides );
+        }
+        catch ( IOException e )
+        {
+            throw new CompilerException( "Error while reading instrumentation scope " + scopeFile, e );
+        }
+    }
+
     // The compiler mojo adds a dash to all keys which does not make sense for the eclipse compiler
     Map<String, String> cleanKeyNames( Map<String, String> customCompilerArgumentsAsMap )
     {